@@ -23,6 +23,8 @@ import javax.annotation.Nullable;
 
 import com.google.common.collect.Range;
 
+import net.sf.mzmine.datamodel.impl.PrecursorIndex;
+
 public interface RawDataFile {
 
 
@@ -86,6 +88,15 @@ public interface RawDataFile {
    */
   public @Nullable Scan getScan(int scan);
 
+  /**
+   * Returns the index of all MS2 and higher level scans by precursor m/z and retention time. It is
+   * built when writing of the file is finished.
+   * 
+   * @return Precursor index, never returns null
+   */
+  @Nonnull
+  public PrecursorIndex getPrecursorIndex();
+
   @Nonnull
   public Range<Double> getDataMZRange();
 
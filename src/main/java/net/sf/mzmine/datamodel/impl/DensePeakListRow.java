@@ -0,0 +1,225 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Implementation of PeakListRow for peak lists with many raw data files, such as aligned peak
+ * lists. The peaks are kept in an array indexed by the position of their raw data file in the peak
+ * list, and the average values are updated with each added or removed peak instead of being
+ * recalculated from all peaks.
+ * 
+ * The row can only hold peaks of the raw data files of the peak list it was created for.
+ */
+public class DensePeakListRow extends AbstractPeakListRow {
+
+  private final SimplePeakList peakList;
+  private final Feature peaks[];
+  private int numberOfPeaks;
+
+  /**
+   * Sums of the peak values, the average values are calculated from them
+   */
+  private double rtSum, mzSum, heightSum, areaSum;
+
+  // The row charge is calculated again when requested after the peaks changed
+  private int rowCharge;
+  private boolean rowChargeValid = true;
+
+  public DensePeakListRow(int myID, SimplePeakList peakList) {
+    super(myID);
+    this.peakList = peakList;
+    peaks = new Feature[peakList.getNumberOfRawDataFiles()];
+  }
+
+  /**
+   * Return peaks assigned to this row, in the order of the raw data files of the peak list
+   */
+  @Override
+  public Feature[] getPeaks() {
+    Feature result[] = new Feature[numberOfPeaks];
+    int count = 0;
+    for (Feature peak : peaks) {
+      if (peak != null && count < result.length)
+        result[count++] = peak;
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+
+  @Override
+  public synchronized void removePeak(RawDataFile file) {
+    int position = peakList.getRawDataFilePosition(file);
+    if (position < 0 || peaks[position] == null)
+      return;
+    subtract(peaks[position]);
+    peaks[position] = null;
+    numberOfPeaks--;
+    // Drop the rounding errors of the sums, the averages of an empty row are NaN
+    if (numberOfPeaks == 0)
+      rtSum = mzSum = heightSum = areaSum = 0;
+    calculateAverageValues();
+  }
+
+  /**
+   * Returns opened raw data files with a peak on this row
+   */
+  @Override
+  public RawDataFile[] getRawDataFiles() {
+    List<RawDataFile> files = new ArrayList<>(numberOfPeaks);
+    for (int i = 0; i < peaks.length; i++) {
+      if (peaks[i] != null)
+        files.add(peakList.getRawDataFile(i));
+    }
+    return files.toArray(new RawDataFile[0]);
+  }
+
+  /**
+   * Returns peak for given raw data file
+   */
+  @Override
+  public Feature getPeak(RawDataFile rawData) {
+    int position = peakList.getRawDataFilePosition(rawData);
+    if (position < 0)
+      return null;
+    return peaks[position];
+  }
+
+  @Override
+  public synchronized void addPeak(RawDataFile rawData, Feature peak) {
+    if (peak == null)
+      throw new IllegalArgumentException("Cannot add null peak to a peak list row");
+
+    int position = peakList.getRawDataFilePosition(rawData);
+    if (position < 0)
+      throw new IllegalArgumentException(
+          "Raw data file " + rawData + " is not part of peak list " + peakList);
+
+    if (peaks[position] != null) {
+      subtract(peaks[position]);
+    } else {
+      numberOfPeaks++;
+    }
+    peaks[position] = peak;
+    rtSum += peak.getRT();
+    mzSum += peak.getMZ();
+    heightSum += peak.getHeight();
+    areaSum += peak.getArea();
+
+    updateDataPointMaxIntensity(peak);
+    calculateAverageValues();
+
+    // Peaks added after the row, e.g. by gap filling
+    peakList.storeDataPoints(peak);
+  }
+
+  private void subtract(Feature peak) {
+    rtSum -= peak.getRT();
+    mzSum -= peak.getMZ();
+    heightSum -= peak.getHeight();
+    areaSum -= peak.getArea();
+  }
+
+  /**
+   * Returns the charge of the peaks, or 0 if the peaks have different charges
+   */
+  @Override
+  public synchronized int getRowCharge() {
+    if (!rowChargeValid) {
+      int charge = 0;
+      for (Feature p : peaks) {
+        if (p == null || p.getCharge() <= 0)
+          continue;
+        if (charge == 0) {
+          charge = p.getCharge();
+        } else if (charge != p.getCharge()) {
+          charge = 0;
+          break;
+        }
+      }
+      rowCharge = charge;
+      rowChargeValid = true;
+    }
+    return rowCharge;
+  }
+
+  private synchronized void calculateAverageValues() {
+    averageRT = rtSum / numberOfPeaks;
+    averageMZ = mzSum / numberOfPeaks;
+    averageHeight = heightSum / numberOfPeaks;
+    averageArea = areaSum / numberOfPeaks;
+    rowChargeValid = false;
+  }
+
+  /**
+   * Returns number of peaks assigned to this row
+   */
+  @Override
+  public int getNumberOfPeaks() {
+    return numberOfPeaks;
+  }
+
+  @Override
+  public boolean hasPeak(Feature peak) {
+    for (Feature p : peaks) {
+      if (p != null && p.equals(peak))
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean hasPeak(RawDataFile file) {
+    return getPeak(file) != null;
+  }
+
+  /**
+   * Returns the highest peak in this row
+   */
+  @Override
+  public Feature getBestPeak() {
+    Feature bestPeak = null;
+    for (Feature peak : peaks) {
+      if (peak != null && (bestPeak == null || peak.getHeight() > bestPeak.getHeight()))
+        bestPeak = peak;
+    }
+    return bestPeak;
+  }
+
+  /**
+   * Calculates the average values again from all peaks, e.g. after their RT was changed
+   */
+  public synchronized void update() {
+    rtSum = mzSum = heightSum = areaSum = 0;
+    for (Feature p : peaks) {
+      if (p == null)
+        continue;
+      rtSum += p.getRT();
+      mzSum += p.getMZ();
+      heightSum += p.getHeight();
+      areaSum += p.getArea();
+    }
+    calculateAverageValues();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Keeps the data points of many features in shared primitive arrays, instead of one DataPoint
+ * instance per data point. Each trace is appended to the current chunk of the arrays and is
+ * addressed by its position, which encodes the chunk and the offset in it. The scan numbers stay
+ * with the feature, which looks up the index of a data point in its own scan number array. The
+ * chunks start small and grow up to CHUNK_SIZE data points, so small peak lists do not allocate
+ * large arrays.
+ * 
+ * Traces are never removed, the storage is released when no feature refers to it anymore.
+ */
+public class FeatureDataStore {
+
+  private static final int INITIAL_CHUNK_SIZE = 1024;
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  // The chunk arrays are replaced when a chunk grows or a new chunk is added
+  private volatile double mzValues[][] = new double[0][];
+  private volatile double intensityValues[][] = new double[0][];
+
+  // Number of data points used in the last chunk
+  private int lastChunkUsed;
+
+  /**
+   * Appends a trace. A null data point is kept as NaN m/z and intensity.
+   * 
+   * @return position of the trace in this storage
+   */
+  public synchronized long add(DataPoint traceDataPoints[]) {
+
+    final int length = traceDataPoints.length;
+    final int chunk = reserve(length);
+    final int offset = lastChunkUsed;
+
+    final double chunkMZValues[] = mzValues[chunk];
+    final double chunkIntensityValues[] = intensityValues[chunk];
+    for (int i = 0; i < length; i++) {
+      DataPoint dp = traceDataPoints[i];
+      chunkMZValues[offset + i] = dp == null ? Double.NaN : dp.getMZ();
+      chunkIntensityValues[offset + i] = dp == null ? Double.NaN : dp.getIntensity();
+    }
+    lastChunkUsed += length;
+
+    return ((long) chunk << 32) | offset;
+  }
+
+  /**
+   * Makes room for the given number of data points in the last chunk, growing it or adding a new
+   * chunk
+   * 
+   * @return index of the last chunk
+   */
+  private int reserve(int length) {
+
+    int last = mzValues.length - 1;
+    int capacity = last < 0 ? 0 : mzValues[last].length;
+    if (last >= 0 && lastChunkUsed + length <= capacity)
+      return last;
+
+    int newCapacity;
+    if (last >= 0 && lastChunkUsed + length <= CHUNK_SIZE) {
+      // Grow the last chunk
+      newCapacity = Math.min(CHUNK_SIZE, Math.max(capacity * 2, lastChunkUsed + length));
+    } else {
+      // Start a new chunk, a trace longer than CHUNK_SIZE gets a chunk of its own size
+      last++;
+      lastChunkUsed = 0;
+      newCapacity = Math.max(INITIAL_CHUNK_SIZE, length);
+    }
+
+    double newMZValues[][] = Arrays.copyOf(mzValues, last + 1);
+    double newIntensityValues[][] = Arrays.copyOf(intensityValues, last + 1);
+    newMZValues[last] = newMZValues[last] == null ? new double[newCapacity]
+        : Arrays.copyOf(newMZValues[last], newCapacity);
+    newIntensityValues[last] = newIntensityValues[last] == null ? new double[newCapacity]
+        : Arrays.copyOf(newIntensityValues[last], newCapacity);
+    mzValues = newMZValues;
+    intensityValues = newIntensityValues;
+
+    return last;
+  }
+
+  /**
+   * @param index index of the data point in the trace
+   * @return a new instance of the data point, or null if it was null when the trace was added
+   */
+  public DataPoint getDataPoint(long position, int index) {
+    final int chunk = (int) (position >>> 32);
+    final int offset = (int) position + index;
+    final double mz = mzValues[chunk][offset];
+    if (Double.isNaN(mz))
+      return null;
+    return new SimpleDataPoint(mz, intensityValues[chunk][offset]);
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Immutable index of the MS2 and higher level scans of a raw data file, sorted by precursor m/z.
+ * Finding the fragment scans of a feature is a binary search on the precursor m/z followed by a
+ * check of the retention time, instead of a pass over all scans of the file.
+ */
+public final class PrecursorIndex {
+
+  private final double precursorMZs[];
+  private final double retentionTimes[];
+  private final int msLevels[];
+  private final int scanNumbers[];
+
+  public PrecursorIndex(@Nonnull Collection<? extends Scan> scans) {
+
+    final int count = (int) scans.stream().filter(scan -> scan.getMSLevel() >= 2).count();
+    precursorMZs = new double[count];
+    retentionTimes = new double[count];
+    msLevels = new int[count];
+    scanNumbers = new int[count];
+
+    int i = 0;
+    for (Scan scan : scans) {
+      if (scan.getMSLevel() < 2)
+        continue;
+      precursorMZs[i] = scan.getPrecursorMZ();
+      retentionTimes[i] = scan.getRetentionTime();
+      msLevels[i] = scan.getMSLevel();
+      scanNumbers[i] = scan.getScanNumber();
+      i++;
+    }
+
+    // Sort by precursor m/z, moving the other values along
+    it.unimi.dsi.fastutil.Arrays.quickSort(0, count,
+        (a, b) -> Double.compare(precursorMZs[a], precursorMZs[b]), (a, b) -> {
+          swap(precursorMZs, a, b);
+          swap(retentionTimes, a, b);
+          swap(msLevels, a, b);
+          swap(scanNumbers, a, b);
+        });
+  }
+
+  /**
+   * @return number of MS2 and higher level scans in this index
+   */
+  public int getNumberOfScans() {
+    return scanNumbers.length;
+  }
+
+  /**
+   * Returns sorted array of the numbers of all MS2 and higher level scans within given retention
+   * time range and with precursor m/z within given m/z range
+   * 
+   * @return Sorted array of scan numbers, never returns null
+   */
+  public @Nonnull int[] getScanNumbers(@Nonnull Range<Double> rtRange,
+      @Nonnull Range<Double> precursorMZRange) {
+    return getScanNumbers(0, rtRange, precursorMZRange);
+  }
+
+  /**
+   * Returns sorted array of the numbers of all scans in given MS level, within given retention time
+   * range and with precursor m/z within given m/z range
+   * 
+   * @param msLevel MS level, or 0 for all MS2 and higher level scans
+   * @return Sorted array of scan numbers, never returns null
+   */
+  public @Nonnull int[] getScanNumbers(int msLevel, @Nonnull Range<Double> rtRange,
+      @Nonnull Range<Double> precursorMZRange) {
+
+    IntArrayList result = new IntArrayList();
+    for (int i = findFirst(precursorMZRange); i < precursorMZs.length; i++) {
+      if (!precursorMZRange.contains(precursorMZs[i])) {
+        // Past the upper end of the range
+        if (precursorMZRange.hasUpperBound()
+            && precursorMZs[i] >= precursorMZRange.upperEndpoint())
+          break;
+        continue;
+      }
+      if ((msLevel == 0 || msLevels[i] == msLevel) && rtRange.contains(retentionTimes[i]))
+        result.add(scanNumbers[i]);
+    }
+
+    int numbersArray[] = result.toIntArray();
+    Arrays.sort(numbersArray);
+    return numbersArray;
+  }
+
+  /**
+   * Returns the index of the first precursor m/z which is not below the given range
+   */
+  private int findFirst(Range<Double> precursorMZRange) {
+    if (!precursorMZRange.hasLowerBound())
+      return 0;
+    final double lowerEndpoint = precursorMZRange.lowerEndpoint();
+    int low = 0, high = precursorMZs.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (precursorMZs[mid] < lowerEndpoint)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static void swap(double array[], int a, int b) {
+    double value = array[a];
+    array[a] = array[b];
+    array[b] = value;
+  }
+
+  private static void swap(int array[], int a, int b) {
+    int value = array[a];
+    array[a] = array[b];
+    array[b] = value;
+  }
+
+}
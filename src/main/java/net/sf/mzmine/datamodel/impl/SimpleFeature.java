@@ -44,7 +44,12 @@ public class SimpleFeature implements Feature {
   // Scan numbers
   private int scanNumbers[];
 
-  private DataPoint dataPointsPerScan[];
+  // Set to null once the data points were moved to the data store
+  private volatile DataPoint dataPointsPerScan[];
+
+  // Storage of the data points once they were moved out of the array above
+  private FeatureDataStore dataStore;
+  private long dataStorePosition;
 
   // M/Z, RT, Height and Area, FWHM, Tailing factor, Asymmetry factor
   private double mz, rt, height, area;
@@ -270,9 +275,26 @@ public class SimpleFeature implements Feature {
     int index = Arrays.binarySearch(scanNumbers, scanNumber);
     if (index < 0)
       return null;
+    // The array is only set to null after the data store was set
+    DataPoint dataPointsPerScan[] = this.dataPointsPerScan;
+    if (dataPointsPerScan == null)
+      return dataStore.getDataPoint(dataStorePosition, index);
     return dataPointsPerScan[index];
   }
 
+  /**
+   * Moves the scan numbers and data points of this peak into the given storage, shared with other
+   * peaks. The scan numbers are kept, getDataPoint() then returns a new data point on each call.
+   * Does nothing if the data points were already moved.
+   */
+  public synchronized void moveDataPointsTo(@Nonnull FeatureDataStore store) {
+    if (dataStore != null)
+      return;
+    dataStorePosition = store.add(dataPointsPerScan);
+    dataStore = store;
+    dataPointsPerScan = null;
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.Feature#getDataFile()
    */
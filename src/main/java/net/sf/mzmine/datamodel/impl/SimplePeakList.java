@@ -21,17 +21,18 @@ package net.sf.mzmine.datamodel.impl;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.Vector;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 
@@ -42,6 +43,11 @@ public class SimplePeakList implements PeakList {
 
   private String name;
   private RawDataFile[] dataFiles;
+  private Object2IntOpenHashMap<RawDataFile> dataFilePositions;
+
+  // Shared storage of the peak data points, if compact feature storage is enabled
+  private final boolean compactFeatureStorage;
+  private FeatureDataStore featureDataStore;
   private ArrayList<PeakListRow> peakListRows;
   private double maxDataPointIntensity = 0;
   private Vector<PeakListAppliedMethod> descriptionOfAppliedTasks;
@@ -66,11 +72,19 @@ public class SimplePeakList implements PeakList {
       dataFile = dataFiles[i];
       this.dataFiles[i] = dataFile;
     }
+    dataFilePositions = new Object2IntOpenHashMap<>(dataFiles.length);
+    dataFilePositions.defaultReturnValue(-1);
+    for (int i = this.dataFiles.length - 1; i >= 0; i--) {
+      dataFilePositions.put(this.dataFiles[i], i);
+    }
     peakListRows = new ArrayList<PeakListRow>();
     descriptionOfAppliedTasks = new Vector<PeakListAppliedMethod>();
 
     dateCreated = dateFormat.format(new Date());
 
+    MZmineConfiguration configuration = MZmineCore.getConfiguration();
+    compactFeatureStorage = configuration != null && configuration.getPreferences()
+        .getParameter(MZminePreferences.compactFeatureStorage).getValue();
   }
 
   @Override
@@ -106,6 +120,30 @@ public class SimplePeakList implements PeakList {
     return dataFiles[position];
   }
 
+  /**
+   * Moves the data points of the peak into the shared storage of this peak list, if compact feature
+   * storage is enabled in the preferences. Only SimpleFeature peaks are moved.
+   */
+  public void storeDataPoints(Feature peak) {
+    if (!compactFeatureStorage || !(peak instanceof SimpleFeature))
+      return;
+    FeatureDataStore store;
+    synchronized (this) {
+      if (featureDataStore == null)
+        featureDataStore = new FeatureDataStore();
+      store = featureDataStore;
+    }
+    ((SimpleFeature) peak).moveDataPointsTo(store);
+  }
+
+  /**
+   * Returns the position of the given raw data file in getRawDataFiles(), or -1 if the file is not
+   * part of this peak list
+   */
+  public int getRawDataFilePosition(RawDataFile dataFile) {
+    return dataFilePositions.getInt(dataFile);
+  }
+
   /**
    * Returns number of rows in the alignment result
    */
@@ -178,11 +216,13 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public void addRow(PeakListRow row) {
-    List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
     for (RawDataFile testFile : row.getRawDataFiles()) {
-      if (!myFiles.contains(testFile))
+      if (!hasRawDataFile(testFile))
         throw (new IllegalArgumentException("Data file " + testFile + " is not in this peak list"));
     }
+    for (Feature peak : row.getPeaks()) {
+      storeDataPoints(peak);
+    }
 
     peakListRows.add(row);
     if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
@@ -316,7 +356,7 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public boolean hasRawDataFile(RawDataFile hasFile) {
-    return Arrays.asList(dataFiles).contains(hasFile);
+    return dataFilePositions.containsKey(hasFile);
   }
 
   @Override
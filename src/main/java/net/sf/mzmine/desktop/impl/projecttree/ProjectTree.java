@@ -67,6 +67,11 @@ public class ProjectTree extends JTree {
     ProjectTreeMouseHandler popupHandler = new ProjectTreeMouseHandler(this);
     addMouseListener(popupHandler);
 
+    // Create the scan nodes of raw data files only when they are expanded
+    ProjectTreeExpansionHandler expansionHandler = new ProjectTreeExpansionHandler(this);
+    addTreeWillExpandListener(expansionHandler);
+    addTreeExpansionListener(expansionHandler);
+
   }
 
   @SuppressWarnings("unchecked")
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.desktop.impl.projecttree;
+
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.TreeModel;
+
+/**
+ * This class lets the raw data tree model create the scan nodes of a data file when its node is
+ * about to be expanded, and release them when the node is collapsed
+ */
+public class ProjectTreeExpansionHandler implements TreeWillExpandListener, TreeExpansionListener {
+
+  private ProjectTree tree;
+
+  public ProjectTreeExpansionHandler(ProjectTree tree) {
+    this.tree = tree;
+  }
+
+  @Override
+  public void treeWillExpand(TreeExpansionEvent event) {
+    TreeModel model = tree.getModel();
+    Object node = event.getPath().getLastPathComponent();
+    if ((model instanceof RawDataTreeModel) && (node instanceof RawDataFileTreeNode))
+      ((RawDataTreeModel) model).loadChildren((RawDataFileTreeNode) node);
+  }
+
+  @Override
+  public void treeWillCollapse(TreeExpansionEvent event) {
+    // Nothing to do
+  }
+
+  @Override
+  public void treeExpanded(TreeExpansionEvent event) {
+    // Nothing to do
+  }
+
+  @Override
+  public void treeCollapsed(TreeExpansionEvent event) {
+    TreeModel model = tree.getModel();
+    Object node = event.getPath().getLastPathComponent();
+    if ((model instanceof RawDataTreeModel) && (node instanceof RawDataFileTreeNode))
+      ((RawDataTreeModel) model).releaseChildren((RawDataFileTreeNode) node);
+  }
+
+}
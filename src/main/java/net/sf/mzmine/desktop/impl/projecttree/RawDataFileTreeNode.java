@@ -0,0 +1,63 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.desktop.impl.projecttree;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Tree node of a raw data file. The scan and mass list nodes are only created by the
+ * RawDataTreeModel when the node is expanded, so until then the node is a lightweight placeholder
+ * which reports itself as expandable whenever the file contains scans.
+ */
+public class RawDataFileTreeNode extends DefaultMutableTreeNode {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  private boolean childrenLoaded = false;
+
+  public RawDataFileTreeNode(RawDataFile dataFile) {
+    super(dataFile);
+  }
+
+  public RawDataFile getDataFile() {
+    return (RawDataFile) getUserObject();
+  }
+
+  public boolean isChildrenLoaded() {
+    return childrenLoaded;
+  }
+
+  void setChildrenLoaded(boolean childrenLoaded) {
+    this.childrenLoaded = childrenLoaded;
+  }
+
+  @Override
+  public boolean isLeaf() {
+    if (!childrenLoaded)
+      return getDataFile().getNumOfScans() == 0;
+    return super.isLeaf();
+  }
+
+}
@@ -21,13 +21,16 @@ package net.sf.mzmine.desktop.impl.projecttree;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.SwingUtilities;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.PeakList;
@@ -35,7 +38,9 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 
 /**
- * Project tree model implementation
+ * Project tree model implementation. The scan and mass list nodes of a raw data file are only
+ * created while its node is expanded (see RawDataFileTreeNode), so a project with many large files
+ * does not hold a tree node for each of their scans.
  */
 public class RawDataTreeModel extends DefaultTreeModel {
 
@@ -62,6 +67,11 @@ public class RawDataTreeModel extends DefaultTreeModel {
   }
 
   public void addObjectWithoutGUIUpdate(final Object object) {
+
+    // Mass lists of data files which are not expanded will be read when the scan nodes are created
+    if ((object instanceof MassList) && !treeObjects.containsKey(((MassList) object).getScan()))
+      return;
+
     synchronized (newObjects) {
       newObjects.add(object);
     }
@@ -69,12 +79,27 @@ public class RawDataTreeModel extends DefaultTreeModel {
 
   public void updateGUIWithNewObjects() {
     SwingUtilities.invokeLater(() -> {
+      final List<Object> objects;
       synchronized (newObjects) {
-        while (! newObjects.isEmpty()) {
-          Object o = newObjects.remove(0);
+        objects = new ArrayList<>(newObjects);
+        newObjects.clear();
+      }
+
+      // Insert the new mass lists without events and notify each scan node only once. A structure
+      // change of the data file node would collapse its expanded scan nodes.
+      final Map<DefaultMutableTreeNode, IntArrayList> insertedIndices = new LinkedHashMap<>();
+      for (Object o : objects) {
+        if (o instanceof MassList) {
+          DefaultMutableTreeNode scanNode = insertMassListNode((MassList) o);
+          if (scanNode != null)
+            insertedIndices.computeIfAbsent(scanNode, node -> new IntArrayList())
+                .add(scanNode.getChildCount() - 1);
+        } else {
           addObject(o);
         }
       }
+      for (Map.Entry<DefaultMutableTreeNode, IntArrayList> entry : insertedIndices.entrySet())
+        nodesWereInserted(entry.getKey(), entry.getValue().toIntArray());
     });
   }
 
@@ -89,43 +114,82 @@ public class RawDataTreeModel extends DefaultTreeModel {
       throw new IllegalStateException("This method must be called from Swing thread");
     }
 
-    // Create new node
-    final DefaultMutableTreeNode newNode = new DefaultMutableTreeNode(object);
-
-    treeObjects.put(object, newNode);
-
     if (object instanceof RawDataFile) {
-
+      // Scan nodes are created when the data file node is expanded
+      final RawDataFileTreeNode newNode = new RawDataFileTreeNode((RawDataFile) object);
+      treeObjects.put(object, newNode);
       int childCount = getChildCount(rootNode);
       insertNodeInto(newNode, rootNode, childCount);
-      RawDataFile dataFile = (RawDataFile) object;
-      int scanNumbers[] = dataFile.getScanNumbers();
-      for (int i = 0; i < scanNumbers.length; i++) {
-        Scan scan = dataFile.getScan(scanNumbers[i]);
-        DefaultMutableTreeNode scanNode = new DefaultMutableTreeNode(scan);
-        treeObjects.put(scan, scanNode);
-        insertNodeInto(scanNode, newNode, i);
-
-        MassList massLists[] = scan.getMassLists();
-        for (int j = 0; j < massLists.length; j++) {
-          DefaultMutableTreeNode mlNode = new DefaultMutableTreeNode(massLists[j]);
-          treeObjects.put(massLists[j], mlNode);
-          insertNodeInto(mlNode, scanNode, j);
-
-        }
-      }
-
     }
 
     if (object instanceof MassList) {
-      Scan scan = ((MassList) object).getScan();
+      final DefaultMutableTreeNode scNode = insertMassListNode((MassList) object);
+      if (scNode != null)
+        nodesWereInserted(scNode, new int[] {scNode.getChildCount() - 1});
+    }
 
-      final DefaultMutableTreeNode scNode = treeObjects.get(scan);
-      assert scNode != null;
+  }
 
-      int index = scNode.getChildCount();
-      insertNodeInto(newNode, scNode, index);
+  /**
+   * Adds a node for the mass list to its scan node without firing an event. Returns the scan node,
+   * or null if the scan node was not created yet or the mass list already has a node.
+   */
+  private DefaultMutableTreeNode insertMassListNode(MassList massList) {
+    final DefaultMutableTreeNode scNode = treeObjects.get(massList.getScan());
+    if ((scNode == null) || treeObjects.containsKey(massList))
+      return null;
+    final DefaultMutableTreeNode newNode = new DefaultMutableTreeNode(massList);
+    treeObjects.put(massList, newNode);
+    scNode.add(newNode);
+    return scNode;
+  }
+
+  /**
+   * Creates the scan and mass list nodes of a data file node, if they were not created yet. This
+   * method must be called from Swing thread
+   */
+  public void loadChildren(final RawDataFileTreeNode fileNode) {
+
+    if (fileNode.isChildrenLoaded())
+      return;
+
+    RawDataFile dataFile = fileNode.getDataFile();
+    int scanNumbers[] = dataFile.getScanNumbers();
+    for (int i = 0; i < scanNumbers.length; i++) {
+      Scan scan = dataFile.getScan(scanNumbers[i]);
+      DefaultMutableTreeNode scanNode = new DefaultMutableTreeNode(scan);
+      // Register the scan node before reading its mass lists, so that mass lists added meanwhile
+      // are queued by addObjectWithoutGUIUpdate()
+      treeObjects.put(scan, scanNode);
+      fileNode.add(scanNode);
+
+      MassList massLists[] = scan.getMassLists();
+      for (int j = 0; j < massLists.length; j++) {
+        DefaultMutableTreeNode mlNode = new DefaultMutableTreeNode(massLists[j]);
+        treeObjects.put(massLists[j], mlNode);
+        scanNode.add(mlNode);
+      }
     }
+    fileNode.setChildrenLoaded(true);
+
+    nodeStructureChanged(fileNode);
+
+  }
+
+  /**
+   * Removes the scan and mass list nodes of a collapsed data file node, leaving a placeholder. This
+   * method must be called from Swing thread
+   */
+  public void releaseChildren(final RawDataFileTreeNode fileNode) {
+
+    if (!fileNode.isChildrenLoaded())
+      return;
+
+    removeChildObjects(fileNode);
+    fileNode.removeAllChildren();
+    fileNode.setChildrenLoaded(false);
+
+    nodeStructureChanged(fileNode);
 
   }
 
@@ -140,15 +204,12 @@ public class RawDataTreeModel extends DefaultTreeModel {
 
     final DefaultMutableTreeNode node = treeObjects.get(object);
 
-    assert node != null;
+    // Mass lists of data files which are not expanded have no node
+    if (node == null)
+      return;
 
     // Remove all children from treeObjects
-    Enumeration<?> e = node.depthFirstEnumeration();
-    while (e.hasMoreElements()) {
-      DefaultMutableTreeNode childNode = (DefaultMutableTreeNode) e.nextElement();
-      Object nodeObject = childNode.getUserObject();
-      treeObjects.remove(nodeObject);
-    }
+    removeChildObjects(node);
 
     // Remove the node from the tree, that also remove child
     // nodes
@@ -159,6 +220,17 @@ public class RawDataTreeModel extends DefaultTreeModel {
 
   }
 
+  private void removeChildObjects(DefaultMutableTreeNode node) {
+    Enumeration<?> e = node.depthFirstEnumeration();
+    while (e.hasMoreElements()) {
+      DefaultMutableTreeNode childNode = (DefaultMutableTreeNode) e.nextElement();
+      if (childNode == node)
+        continue;
+      Object nodeObject = childNode.getUserObject();
+      treeObjects.remove(nodeObject);
+    }
+  }
+
   public synchronized RawDataFile[] getDataFiles() {
     int childrenCount = getChildCount(rootNode);
     RawDataFile result[] = new RawDataFile[childrenCount];
@@ -191,17 +263,13 @@ public class RawDataTreeModel extends DefaultTreeModel {
         nodeChanged(rootNode);
       return;
     }
-    Enumeration<?> nodes = rootNode.breadthFirstEnumeration();
-    while (nodes.hasMoreElements()) {
-      DefaultMutableTreeNode node = (DefaultMutableTreeNode) nodes.nextElement();
-      if (node.getUserObject() == object) {
-        if (structureChanged)
-          nodeStructureChanged(node);
-        else
-          nodeChanged(node);
-        return;
-      }
-    }
+    final DefaultMutableTreeNode node = treeObjects.get(object);
+    if (node == null)
+      return;
+    if (structureChanged)
+      nodeStructureChanged(node);
+    else
+      nodeChanged(node);
 
   }
 
@@ -61,9 +61,17 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public static final WindowSettingsParameter windowSetttings = new WindowSettingsParameter();
 
+  public static final BooleanParameter compactFeatureStorage = new BooleanParameter(
+      "Compact feature data storage",
+      "Keep the data points of all peaks of a peak list in shared arrays, "
+          + "instead of one object per data point. Saves memory with large projects, "
+          + "but reading the data points of a peak is slightly slower. "
+          + "Applies to peak lists created after the change.",
+      false);
+
   public MZminePreferences() {
     super(new Parameter[] {mzFormat, rtFormat, intensityFormat, numOfThreads, proxySettings,
-        rExecPath, sendStatistics, windowSetttings, sendErrorEMail});
+        rExecPath, sendStatistics, windowSetttings, sendErrorEMail, compactFeatureStorage});
   }
 
   @Override
@@ -21,6 +21,7 @@ package net.sf.mzmine.main;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Locale;
@@ -41,6 +42,7 @@ import net.sf.mzmine.main.impl.MZmineConfigurationImpl;
 import net.sf.mzmine.modules.MZmineModule;
 import net.sf.mzmine.modules.MZmineRunnableModule;
 import net.sf.mzmine.modules.batchmode.BatchModeModule;
+import net.sf.mzmine.modules.batchmode.BatchServer;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.project.ProjectManager;
@@ -49,6 +51,7 @@ import net.sf.mzmine.project.impl.ProjectManagerImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.impl.TaskControllerImpl;
+import net.sf.mzmine.taskcontrol.impl.TaskProfiler;
 import net.sf.mzmine.util.ExitCode;
 
 /**
@@ -69,7 +72,6 @@ public final class MZmineCore {
   /**
    * Main method
    */
-  @SuppressWarnings("unchecked")
   public static void main(String args[]) {
 
     // In the beginning, set the default locale to English, to avoid
@@ -91,7 +93,7 @@ public final class MZmineCore {
     logger.info("Starting MZmine " + getMZmineVersion());
 
     // Remove old temporary files, if we find any
-    TmpFileCleanup.removeOldTemporaryFiles();
+    TmpFileCleanup.removeOldTemporaryFilesInBackground();
 
     logger.fine("Loading core classes..");
 
@@ -107,38 +109,16 @@ public final class MZmineCore {
     projectManager.initModule();
     taskController.initModule();
 
-    logger.fine("Loading modules");
-
-    for (Class<?> moduleClass : MZmineModulesList.MODULES) {
-
-      try {
-
-        logger.finest("Loading module " + moduleClass.getName());
-
-        // Create instance and init module
-        MZmineModule moduleInstance = (MZmineModule) moduleClass.newInstance();
-
-        // Add to the module list
-        initializedModules.put(moduleClass, moduleInstance);
-
-        // Create an instance of parameter set
-        Class<? extends ParameterSet> parameterSetClass = moduleInstance.getParameterSetClass();
-        ParameterSet parameterSetInstance = parameterSetClass.newInstance();
-
-        // Add the parameter set to the configuration
-        configuration.setModuleParameters((Class<MZmineModule>) moduleClass, parameterSetInstance);
-
-      } catch (Throwable e) {
-        logger.log(Level.SEVERE, "Could not load module " + moduleClass, e);
-        e.printStackTrace();
-        continue;
-      }
-
-    }
-
     // If we have no arguments, run in GUI mode, otherwise run in batch mode
     if (args.length == 0) {
 
+      // The GUI needs all modules for its menus. In batch mode, modules are loaded on first use by
+      // getModuleInstance(), so a short batch only pays for the modules it runs.
+      logger.fine("Loading modules");
+      for (Class<?> moduleClass : MZmineModulesList.MODULES) {
+        loadModule(moduleClass);
+      }
+
       // Create the Swing GUI in the event-dispatching thread, as is
       // generally recommended
       Runnable desktopInit = new Runnable() {
@@ -233,6 +213,20 @@ public final class MZmineCore {
       Runtime.getRuntime().addShutdownHook(shutDownHook);
     }
 
+    // "-server [port]" keeps MZmine running and accepts batch jobs over HTTP on localhost
+    if (args.length > 0 && args[0].equals("-server") && desktop instanceof HeadLessDesktop) {
+      int port = BatchServer.DEFAULT_PORT;
+      try {
+        if (args.length > 1)
+          port = Integer.parseInt(args[1]);
+        BatchServer.start(port);
+      } catch (NumberFormatException | IOException e) {
+        logger.log(Level.SEVERE, "Could not start the batch server on port " + port, e);
+        System.exit(1);
+      }
+      return;
+    }
+
     // if arguments were specified (= running without GUI), run the batch
     // mode
     if (args.length > 0 && desktop instanceof HeadLessDesktop) {
@@ -249,7 +243,20 @@ public final class MZmineCore {
         logger.severe("Cannot read batch file " + batchFile);
         System.exit(1);
       }
+      // Profile all tasks of the batch, results are written next to the batch file
+      TaskProfiler.setEnabled(true);
+
       ExitCode exitCode = BatchModeModule.runBatch(projectManager.getCurrentProject(), batchFile);
+
+      String metricsName = batchFile.getName().replaceFirst("\\.[^.]*$", "") + "_metrics";
+      File metricsDir = batchFile.getAbsoluteFile().getParentFile();
+      try {
+        TaskProfiler.exportMetrics(new File(metricsDir, metricsName + ".json"),
+            new File(metricsDir, metricsName + ".csv"));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not export task metrics", e);
+      }
+
       if (exitCode == ExitCode.OK)
         System.exit(0);
       else
@@ -282,17 +289,63 @@ public final class MZmineCore {
   }
 
   /**
-   * Returns the instance of a module of given class
+   * Returns the instance of a module of given class. Modules listed in MZmineModulesList which were
+   * not used yet are loaded now.
    */
   @SuppressWarnings("unchecked")
   public static <ModuleType> ModuleType getModuleInstance(Class<ModuleType> moduleClass) {
-    return (ModuleType) initializedModules.get(moduleClass);
+    MZmineModule module = initializedModules.get(moduleClass);
+    if (module == null) {
+      synchronized (MZmineCore.class) {
+        module = initializedModules.get(moduleClass);
+        if (module == null && Arrays.asList(MZmineModulesList.MODULES).contains(moduleClass))
+          module = loadModule(moduleClass);
+      }
+    }
+    return (ModuleType) module;
   }
 
+  /**
+   * Returns the modules loaded so far. In batch mode, these are only the modules used by the batch.
+   */
   public static Collection<MZmineModule> getAllModules() {
     return initializedModules.values();
   }
 
+  /**
+   * Creates the instance of a module and registers its parameter set in the configuration. Returns
+   * null if the module cannot be loaded.
+   */
+  @SuppressWarnings("unchecked")
+  private static synchronized MZmineModule loadModule(Class<?> moduleClass) {
+
+    try {
+
+      logger.finest("Loading module " + moduleClass.getName());
+
+      // Create instance and init module
+      MZmineModule moduleInstance = (MZmineModule) moduleClass.newInstance();
+
+      // Add to the module list
+      initializedModules.put(moduleClass, moduleInstance);
+
+      // Create an instance of parameter set
+      Class<? extends ParameterSet> parameterSetClass = moduleInstance.getParameterSetClass();
+      ParameterSet parameterSetInstance = parameterSetClass.newInstance();
+
+      // Add the parameter set to the configuration
+      configuration.setModuleParameters((Class<MZmineModule>) moduleClass, parameterSetInstance);
+
+      return moduleInstance;
+
+    } catch (Throwable e) {
+      logger.log(Level.SEVERE, "Could not load module " + moduleClass, e);
+      e.printStackTrace();
+      initializedModules.remove(moduleClass);
+      return null;
+    }
+  }
+
   public static RawDataFileWriter createNewFile(String name) throws IOException {
     return new RawDataFileImpl(name);
   }
@@ -30,7 +30,23 @@ class TmpFileCleanup {
 
   private static Logger logger = Logger.getLogger(TmpFileCleanup.class.getName());
 
-  static void removeOldTemporaryFiles() {
+  /**
+   * Starts the removal of old temporary files in a low-priority background thread, so it does not
+   * delay the startup. Files modified after this method was called may belong to this MZmine
+   * instance and are never touched: closing our own channel on such a file would release the lock
+   * held by RawDataFileImpl.
+   */
+  static void removeOldTemporaryFilesInBackground() {
+    // Allow for the coarse modification time resolution of some file systems
+    final long startTime = System.currentTimeMillis() - 2000;
+    Thread cleanupThread = new Thread(() -> removeOldTemporaryFiles(startTime),
+        "Temporary file cleanup");
+    cleanupThread.setPriority(Thread.MIN_PRIORITY);
+    cleanupThread.setDaemon(true);
+    cleanupThread.start();
+  }
+
+  static void removeOldTemporaryFiles(long modifiedBefore) {
 
     logger.fine("Checking for old temporary files...");
     try {
@@ -50,6 +66,10 @@ class TmpFileCleanup {
           if (!remainingTmpFile.canWrite())
             continue;
 
+          // Skip files created since this MZmine instance started
+          if (remainingTmpFile.lastModified() >= modifiedBefore)
+            continue;
+
           // Try to obtain a lock on the file
           RandomAccessFile rac = new RandomAccessFile(remainingTmpFile, "rw");
 
@@ -62,8 +62,12 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
 
   private final Map<Class<? extends MZmineModule>, ParameterSet> moduleParameters;
 
+  // Saved parameters of the modules which were not loaded yet, by module class name
+  private final Map<String, Element> pendingModuleParameters;
+
   public MZmineConfigurationImpl() {
     moduleParameters = new Hashtable<Class<? extends MZmineModule>, ParameterSet>();
+    pendingModuleParameters = new Hashtable<String, Element>();
     preferences = new MZminePreferences();
     lastProjects = new FileNameListSilentParameter("Last projets");
   }
@@ -71,6 +75,11 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
   @Override
   public ParameterSet getModuleParameters(Class<? extends MZmineModule> moduleClass) {
     ParameterSet parameters = moduleParameters.get(moduleClass);
+    if (parameters == null) {
+      // Modules are loaded on demand in batch mode, loading registers the parameters
+      MZmineCore.getModuleInstance(moduleClass);
+      parameters = moduleParameters.get(moduleClass);
+    }
     if (parameters == null) {
       throw new IllegalArgumentException(
           "Module " + moduleClass + " does not have any parameter set instance");
@@ -89,6 +98,12 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
       throw new IllegalArgumentException("Given parameter set is an instance of "
           + parameters.getClass() + " instead of " + parametersClass);
     }
+
+    // Apply the saved configuration when the module is loaded after the configuration
+    Element savedParameters = pendingModuleParameters.remove(moduleClass.getName());
+    if (savedParameters != null)
+      parameters.loadValuesFromXML(savedParameters);
+
     moduleParameters.put(moduleClass, parameters);
 
   }
@@ -154,19 +169,26 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
 
       logger.finest("Loading modules configuration");
 
-      for (MZmineModule module : MZmineCore.getAllModules()) {
-
-        String className = module.getClass().getName();
-        expr =
-            xpath.compile("//configuration/modules/module[@class='" + className + "']/parameters");
-        nodes = (NodeList) expr.evaluate(configuration, XPathConstants.NODESET);
-        if (nodes.getLength() != 1)
+      // Parameters of the modules which are not loaded yet are kept until they are loaded
+      expr = xpath.compile("//configuration/modules/module");
+      XPathExpression paramExpr = xpath.compile("parameters");
+      nodes = (NodeList) expr.evaluate(configuration, XPathConstants.NODESET);
+      for (int i = 0; i < nodes.getLength(); i++) {
+        Element moduleElement = (Element) nodes.item(i);
+        NodeList paramNodes =
+            (NodeList) paramExpr.evaluate(moduleElement, XPathConstants.NODESET);
+        if (paramNodes.getLength() != 1)
           continue;
+        pendingModuleParameters.put(moduleElement.getAttribute("class"),
+            (Element) paramNodes.item(0));
+      }
 
-        Element moduleElement = (Element) nodes.item(0);
-
+      for (MZmineModule module : MZmineCore.getAllModules()) {
+        Element paramElement = pendingModuleParameters.remove(module.getClass().getName());
+        if (paramElement == null)
+          continue;
         ParameterSet moduleParameters = getModuleParameters(module.getClass());
-        moduleParameters.loadValuesFromXML(moduleElement);
+        moduleParameters.loadValuesFromXML(paramElement);
       }
 
       logger.info("Loaded configuration from file " + file);
@@ -213,6 +235,14 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
 
       }
 
+      // Keep the saved parameters of the modules which were not loaded
+      for (Map.Entry<String, Element> pending : pendingModuleParameters.entrySet()) {
+        Element moduleElement = configuration.createElement("module");
+        moduleElement.setAttribute("class", pending.getKey());
+        modulesElement.appendChild(moduleElement);
+        moduleElement.appendChild(configuration.importNode(pending.getValue(), true));
+      }
+
       TransformerFactory transfac = TransformerFactory.newInstance();
       Transformer transformer = transfac.newTransformer();
       transformer.setOutputProperty(OutputKeys.METHOD, "xml");
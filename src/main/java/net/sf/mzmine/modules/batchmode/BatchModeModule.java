@@ -26,7 +26,9 @@ import javax.annotation.Nonnull;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -84,10 +86,7 @@ public class BatchModeModule implements MZmineProcessingModule {
     try {
       DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
       Document parsedBatchXML = docBuilder.parse(batchFile);
-      BatchQueue newQueue = BatchQueue.loadFromXml(parsedBatchXML.getDocumentElement());
-      ParameterSet parameters = new BatchModeParameters();
-      parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
-      Task batchTask = new BatchTask(project, parameters);
+      Task batchTask = createBatchTask(project, parsedBatchXML.getDocumentElement());
       batchTask.run();
       if (batchTask.getStatus() == TaskStatus.FINISHED)
         return ExitCode.OK;
@@ -101,6 +100,18 @@ public class BatchModeModule implements MZmineProcessingModule {
 
   }
 
+  /**
+   * Creates the task running the batch steps saved in the given XML element, using the configured
+   * batch options, e.g., pipelined execution.
+   */
+  static BatchTask createBatchTask(@Nonnull MZmineProject project, Element batchElement) {
+    BatchQueue newQueue = BatchQueue.loadFromXml(batchElement);
+    ParameterSet parameters = MZmineCore.getConfiguration()
+        .getModuleParameters(BatchModeModule.class).cloneParameterSet();
+    parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
+    return new BatchTask(project, parameters);
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return BatchModeParameters.class;
@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import net.sf.mzmine.util.ExitCode;
 
@@ -33,8 +34,14 @@ public class BatchModeParameters extends SimpleParameterSet {
   public static final FileNameListSilentParameter lastFiles = new FileNameListSilentParameter("Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+  public static final BooleanParameter pipelined = new BooleanParameter("Pipeline per-file steps",
+      "Stream each file through consecutive per-file steps (import, filtering, mass detection, "
+          + "chromatogram building, deconvolution, deisotoping) independently, "
+          + "instead of waiting for all files to finish each step",
+      false);
+
   public BatchModeParameters() {
-    super(new Parameter[] {batchQueue, lastFiles});
+    super(new Parameter[] {batchQueue, pipelined, lastFiles});
   }
 
   @Override
@@ -18,10 +18,10 @@
 
 package net.sf.mzmine.modules.batchmode;
 
-import java.util.Collection;
 import java.util.Vector;
 
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.main.MZmineModulesList;
 import net.sf.mzmine.modules.MZmineModule;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
@@ -80,9 +80,6 @@ public class BatchQueue extends Vector<MZmineProcessingStep<MZmineProcessingModu
     // Create an empty queue.
     final BatchQueue queue = new BatchQueue();
 
-    // Get the loaded modules.
-    final Collection<MZmineModule> allModules = MZmineCore.getAllModules();
-
     // Process the batch step elements.
     final NodeList nodes = xmlElement.getElementsByTagName(BATCH_STEP_ELEMENT);
     final int nodesLength = nodes.getLength();
@@ -91,11 +88,14 @@ public class BatchQueue extends Vector<MZmineProcessingStep<MZmineProcessingModu
       final Element stepElement = (Element) nodes.item(i);
       final String methodName = stepElement.getAttribute(METHOD_ELEMENT);
 
-      // Find a matching module.
-      for (final MZmineModule module : allModules) {
+      // Find a matching module, it is loaded now if the batch is the first to use it.
+      for (final Class<?> moduleClass : MZmineModulesList.MODULES) {
+
+        if (!moduleClass.getName().equals(methodName))
+          continue;
 
-        if (module instanceof MZmineProcessingModule
-            && module.getClass().getName().equals(methodName)) {
+        final MZmineModule module = (MZmineModule) MZmineCore.getModuleInstance(moduleClass);
+        if (module instanceof MZmineProcessingModule) {
 
           // Get parameters and add step to queue.
           final ParameterSet parameterSet =
@@ -104,8 +104,8 @@ public class BatchQueue extends Vector<MZmineProcessingStep<MZmineProcessingModu
           methodParams.loadValuesFromXML(stepElement);
           queue.add(new MZmineProcessingStepImpl<MZmineProcessingModule>(
               (MZmineProcessingModule) module, methodParams));
-          break;
         }
+        break;
       }
     }
 
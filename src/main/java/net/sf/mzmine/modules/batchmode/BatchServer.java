@@ -0,0 +1,477 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonStructure;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.taskcontrol.TaskPriority;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Headless batch server, which keeps MZmine running and accepts batch files (as saved by the batch
+ * mode dialog) over HTTP on localhost:
+ *
+ * <pre>
+ * POST   /jobs       submit the batch XML in the request body, returns the job
+ * GET    /jobs       status of all jobs
+ * GET    /jobs/{id}  status and progress of one job
+ * DELETE /jobs/{id}  cancel a job
+ * POST   /shutdown   exit MZmine
+ * </pre>
+ *
+ * The jobs are run one at a time, each in a new project, so a job does not see the data of the
+ * previous one. The steps of a job are processed by the task controller as usual.
+ *
+ * A batch can read and write any file the user can, so every request must carry the random token
+ * of this server start in an "Authorization: Bearer" header. The token is written to a file which
+ * only the user can read. Requests from web pages (with an Origin header) are rejected, and batch
+ * XML must be sent as application/xml or text/xml, which a web page cannot send without a CORS
+ * preflight.
+ */
+public class BatchServer {
+
+  public static final int DEFAULT_PORT = 8765;
+
+  // Number of finished jobs which are kept for status requests
+  private static final int MAX_FINISHED_JOBS = 1000;
+
+  private static final String JOBS_PATH = "/jobs";
+  private static final String SHUTDOWN_PATH = "/shutdown";
+
+  private static final String TOKEN_DIR =
+      System.getProperty("user.home") + File.separator + ".mzmine";
+  private static final int TOKEN_BYTES = 32;
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final HttpServer server;
+  private final Thread worker;
+  private final byte token[];
+  private final Path tokenFile;
+
+  private final BlockingQueue<BatchJob> queue = new LinkedBlockingQueue<>();
+  private final Map<Integer, BatchJob> jobs = new LinkedHashMap<>();
+  private final Deque<Integer> finishedJobs = new ArrayDeque<>();
+  private final AtomicInteger lastJobId = new AtomicInteger();
+
+  private static class BatchJob {
+
+    final int id;
+
+    // Guarded by the job itself
+    Document batchXML;
+    BatchTask task;
+    boolean canceled;
+    String errorMessage;
+
+    // State of a finished job, whose task is dropped so that it does not keep the project
+    TaskStatus finishedStatus;
+    double finishedProgress;
+
+    BatchJob(int id, Document batchXML) {
+      this.id = id;
+      this.batchXML = batchXML;
+    }
+
+    synchronized TaskStatus getStatus() {
+      if (finishedStatus != null)
+        return finishedStatus;
+      if (errorMessage != null)
+        return TaskStatus.ERROR;
+      if (task != null)
+        return task.getStatus();
+      return canceled ? TaskStatus.CANCELED : TaskStatus.WAITING;
+    }
+
+    synchronized double getProgress() {
+      if (finishedStatus != null)
+        return finishedProgress;
+      return task == null ? 0 : task.getFinishedPercentage();
+    }
+
+    synchronized String getErrorMessage() {
+      if (errorMessage == null && task != null)
+        return task.getErrorMessage();
+      return errorMessage;
+    }
+
+    synchronized void cancel() {
+      canceled = true;
+      if (task != null)
+        task.cancel();
+    }
+
+    synchronized void finish() {
+      finishedProgress = getProgress();
+      TaskStatus status = getStatus();
+      errorMessage = getErrorMessage();
+      finishedStatus = status;
+      task = null;
+      batchXML = null;
+    }
+
+    synchronized JsonObject toJson() {
+      JsonObjectBuilder json = Json.createObjectBuilder();
+      json.add("id", id);
+      json.add("status", getStatus().name());
+      json.add("progress", getProgress());
+      String error = getErrorMessage();
+      if (error != null)
+        json.add("error", error);
+      return json.build();
+    }
+  }
+
+  private BatchServer(int port, File tokenDir) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext(JOBS_PATH, this::handleJobs);
+    server.createContext(SHUTDOWN_PATH, this::handleShutdown);
+    worker = new Thread(this::processJobs, "Batch server");
+
+    token = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(token);
+    tokenFile = writeTokenFile(tokenDir.toPath(), getPort(),
+        Base64.getUrlEncoder().withoutPadding().encode(token));
+  }
+
+  /**
+   * Starts the server on the given port of the loopback interface. The server keeps running until
+   * it receives a shutdown request.
+   */
+  public static BatchServer start(int port) throws IOException {
+    return start(port, new File(TOKEN_DIR));
+  }
+
+  /**
+   * Starts the server with the token file in the given directory. Port 0 picks a free port.
+   */
+  static BatchServer start(int port, File tokenDir) throws IOException {
+    BatchServer batchServer = new BatchServer(port, tokenDir);
+    batchServer.worker.start();
+    batchServer.server.start();
+    batchServer.logger.info("Batch server listening on localhost:" + batchServer.getPort()
+        + ", access token in " + batchServer.tokenFile);
+    return batchServer;
+  }
+
+  /**
+   * Stops accepting requests and processing jobs, without exiting MZmine. A running job is not
+   * canceled.
+   */
+  void stop() {
+    server.stop(0);
+    worker.interrupt();
+    try {
+      Files.deleteIfExists(tokenFile);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not delete " + tokenFile, e);
+    }
+  }
+
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  Path getTokenFile() {
+    return tokenFile;
+  }
+
+  /**
+   * Writes the token to a new file which only the user can read, deleted on exit. The access is
+   * restricted before the token is written, with POSIX permissions or, e.g. on Windows, with an ACL
+   * that only grants access to the owner of the file.
+   */
+  private static Path writeTokenFile(Path dir, int port, byte encodedToken[]) throws IOException {
+    Files.createDirectories(dir);
+    Path file = dir.resolve("batchserver-" + port + ".token");
+    Files.deleteIfExists(file);
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.createFile(file,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } else {
+      Files.createFile(file);
+      AclFileAttributeView aclView = Files.getFileAttributeView(file, AclFileAttributeView.class);
+      if (aclView == null) {
+        Files.delete(file);
+        throw new IOException("Cannot restrict the access to the batch server token on "
+            + System.getProperty("os.name") + ": the file system of " + dir
+            + " supports neither POSIX permissions nor ACLs");
+      }
+      // Replaces the inherited entries, so that only the owner can access the file
+      AclEntry ownerEntry = AclEntry.newBuilder().setType(AclEntryType.ALLOW)
+          .setPrincipal(aclView.getOwner())
+          .setPermissions(EnumSet.allOf(AclEntryPermission.class)).build();
+      try {
+        aclView.setAcl(Collections.singletonList(ownerEntry));
+      } catch (IOException | SecurityException e) {
+        Files.delete(file);
+        throw new IOException("Cannot restrict the access to the batch server token on "
+            + System.getProperty("os.name") + ": " + e.getMessage(), e);
+      }
+    }
+    Files.write(file, encodedToken);
+    file.toFile().deleteOnExit();
+    return file;
+  }
+
+  private void processJobs() {
+    while (true) {
+
+      BatchJob job;
+      try {
+        job = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      synchronized (job) {
+        if (job.canceled) {
+          jobFinished(job);
+          continue;
+        }
+
+        // Each job starts with an empty project, this closes the data files of the previous job
+        MZmineProject project = new MZmineProjectImpl();
+        MZmineCore.getProjectManager().setCurrentProject(project);
+
+        try {
+          job.task = BatchModeModule.createBatchTask(project, job.batchXML.getDocumentElement());
+        } catch (Exception e) {
+          logger.log(Level.WARNING, "Could not load batch job " + job.id, e);
+          job.errorMessage = "Could not load batch: " + e;
+          jobFinished(job);
+          continue;
+        }
+        logger.info("Starting batch job " + job.id);
+
+        // High priority, so the batch does not take one of the threads its steps need
+        MZmineCore.getTaskController().addTask(job.task, TaskPriority.HIGH);
+      }
+
+      // Wait until the batch is done
+      TaskStatus status;
+      while ((status = job.getStatus()) == TaskStatus.WAITING || status == TaskStatus.PROCESSING) {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      logger.info("Batch job " + job.id + " " + status.name().toLowerCase());
+      jobFinished(job);
+    }
+  }
+
+  private void jobFinished(BatchJob job) {
+    job.finish();
+    synchronized (jobs) {
+      finishedJobs.add(job.id);
+      if (finishedJobs.size() > MAX_FINISHED_JOBS)
+        jobs.remove(finishedJobs.remove());
+    }
+  }
+
+  private void handleJobs(HttpExchange exchange) throws IOException {
+    try {
+      if (!checkRequest(exchange))
+        return;
+
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+
+      // Whole job list
+      if (path.equals(JOBS_PATH) || path.equals(JOBS_PATH + "/")) {
+        if (method.equals("POST")) {
+          submitJob(exchange);
+        } else if (method.equals("GET")) {
+          List<BatchJob> jobList;
+          synchronized (jobs) {
+            jobList = new ArrayList<>(jobs.values());
+          }
+          JsonArrayBuilder array = Json.createArrayBuilder();
+          for (BatchJob job : jobList)
+            array.add(job.toJson());
+          sendResponse(exchange, 200, array.build());
+        } else {
+          sendError(exchange, 405, "Unsupported method " + method);
+        }
+        return;
+      }
+
+      // Single job
+      BatchJob job = null;
+      try {
+        int id = Integer.parseInt(path.substring(JOBS_PATH.length() + 1));
+        synchronized (jobs) {
+          job = jobs.get(id);
+        }
+      } catch (NumberFormatException e) {
+        // Handled as an unknown job
+      }
+      if (job == null) {
+        sendError(exchange, 404, "Unknown job " + path);
+      } else if (method.equals("GET")) {
+        sendResponse(exchange, 200, job.toJson());
+      } else if (method.equals("DELETE")) {
+        job.cancel();
+        sendResponse(exchange, 200, job.toJson());
+      } else {
+        sendError(exchange, 405, "Unsupported method " + method);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void submitJob(HttpExchange exchange) throws IOException {
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    String mediaType = contentType == null ? "" : contentType.split(";")[0].trim().toLowerCase();
+    if (!mediaType.equals("application/xml") && !mediaType.equals("text/xml")) {
+      sendError(exchange, 415, "The batch XML must be sent as application/xml or text/xml");
+      return;
+    }
+
+    Document batchXML;
+    try {
+      // No DOCTYPE and no external entities, which could read local files
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+      factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setXIncludeAware(false);
+      factory.setExpandEntityReferences(false);
+      DocumentBuilder docBuilder = factory.newDocumentBuilder();
+      batchXML = docBuilder.parse(exchange.getRequestBody());
+    } catch (Exception e) {
+      sendError(exchange, 400, "Could not parse batch XML: " + e.getMessage());
+      return;
+    }
+
+    BatchJob job = new BatchJob(lastJobId.incrementAndGet(), batchXML);
+    synchronized (jobs) {
+      jobs.put(job.id, job);
+    }
+    queue.add(job);
+    logger.info("Queued batch job " + job.id);
+    sendResponse(exchange, 201, job.toJson());
+  }
+
+  private void handleShutdown(HttpExchange exchange) throws IOException {
+    if (!checkRequest(exchange)) {
+      exchange.close();
+      return;
+    }
+    if (!exchange.getRequestMethod().equals("POST")) {
+      sendError(exchange, 405, "Unsupported method " + exchange.getRequestMethod());
+      exchange.close();
+      return;
+    }
+    logger.info("Batch server shutting down");
+    sendResponse(exchange, 200, Json.createObjectBuilder().add("status", "shutdown").build());
+    exchange.close();
+    System.exit(0);
+  }
+
+  /**
+   * Rejects requests from web pages and requests without the token of this server.
+   * 
+   * @return true if the request can be processed, false if an error response was sent
+   */
+  private boolean checkRequest(HttpExchange exchange) throws IOException {
+    if (exchange.getRequestHeaders().containsKey("Origin")) {
+      sendError(exchange, 403, "Requests from web pages are not accepted");
+      return false;
+    }
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    byte received[] = null;
+    if (authorization != null && authorization.startsWith("Bearer ")) {
+      try {
+        received = Base64.getUrlDecoder().decode(authorization.substring(7).trim());
+      } catch (IllegalArgumentException e) {
+        // Handled as a wrong token
+      }
+    }
+    if (received == null || !MessageDigest.isEqual(token, received)) {
+      exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+      sendError(exchange, 401, "Missing or wrong token, see " + tokenFile);
+      return false;
+    }
+    return true;
+  }
+
+  private static void sendError(HttpExchange exchange, int code, String message)
+      throws IOException {
+    sendResponse(exchange, code, Json.createObjectBuilder().add("error", message).build());
+  }
+
+  private static void sendResponse(HttpExchange exchange, int code, JsonStructure json)
+      throws IOException {
+    byte body[] = json.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+}
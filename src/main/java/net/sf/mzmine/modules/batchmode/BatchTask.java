@@ -32,11 +32,16 @@ import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.taskcontrol.impl.TaskProfiler;
 import net.sf.mzmine.util.ExitCode;
 
 /**
@@ -54,9 +59,14 @@ public class BatchTask extends AbstractTask {
   private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
   private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
 
+  // stream each file through consecutive per-file steps, see FilePipeline
+  private final boolean pipelined;
+
   BatchTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
+    Boolean pipelineParam = parameters.getParameter(BatchModeParameters.pipelined).getValue();
+    this.pipelined = pipelineParam != null && pipelineParam;
     totalSteps = queue.size();
     createdDataFiles = new ArrayList<>();
     createdPeakLists = new ArrayList<>();
@@ -74,12 +84,20 @@ public class BatchTask extends AbstractTask {
     MZmineProjectListener listener = new MZmineProjectListener() {
       @Override
       public void peakListAdded(PeakList newPeakList) {
-        createdPeakLists.add(newPeakList);
+        FilePipeline pipeline = FilePipeline.getCurrentPipeline();
+        if (pipeline != null)
+          pipeline.peakListAdded(newPeakList);
+        else
+          createdPeakLists.add(newPeakList);
       }
 
       @Override
       public void dataFileAdded(RawDataFile newFile) {
-        createdDataFiles.add(newFile);
+        FilePipeline pipeline = FilePipeline.getCurrentPipeline();
+        if (pipeline != null)
+          pipeline.dataFileAdded(newFile);
+        else
+          createdDataFiles.add(newFile);
       }
     };
     project.addProjectListener(listener);
@@ -87,8 +105,14 @@ public class BatchTask extends AbstractTask {
     // Process individual batch steps
     for (int i = 0; i < totalSteps; i++) {
 
-      processQueueStep(i);
-      processedSteps++;
+      int lastStep = pipelined ? findLastPerFileStep(i) : i;
+      if (lastStep > i) {
+        processPipelinedSteps(i, lastStep);
+      } else {
+        processQueueStep(i);
+      }
+      processedSteps += lastStep - i + 1;
+      i = lastStep;
 
       // Update the project reference in case new project was loaded
       if (project != MZmineCore.getProjectManager().getCurrentProject()) {
@@ -127,25 +151,7 @@ public class BatchTask extends AbstractTask {
     if (createdPeakLists.isEmpty())
       createdPeakLists.addAll(previousCreatedPeakLists);
 
-    // Update the RawDataFilesParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof RawDataFilesParameter) {
-        RawDataFilesParameter rdp = (RawDataFilesParameter) p;
-        RawDataFile createdFiles[] = createdDataFiles.toArray(new RawDataFile[0]);
-        rdp.getValue().setBatchLastFiles(createdFiles);
-      }
-    }
-
-    // Update the PeakListsParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof PeakListsParameter) {
-        PeakListsParameter rdp = (PeakListsParameter) p;
-        PeakList createdPls[] = createdPeakLists.toArray(new PeakList[0]);
-        rdp.getValue().setBatchLastPeakLists(createdPls);
-      }
-    }
+    setBatchLastInputs(batchStepParameters, createdDataFiles, createdPeakLists);
 
     // Clear the saved data files and peak lists. Save them to the
     // "previous" lists, in case the next step does not produce any new data
@@ -157,13 +163,7 @@ public class BatchTask extends AbstractTask {
     createdPeakLists.clear();
 
     // Check if the parameter settings are valid
-    ArrayList<String> messages = new ArrayList<String>();
-    boolean paramsCheck = batchStepParameters.checkParameterValues(messages);
-    if (!paramsCheck) {
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
-          + Arrays.toString(messages.toArray()));
-    }
+    checkStepParameters(method, batchStepParameters);
 
     ArrayList<Task> currentStepTasks = new ArrayList<Task>();
     ExitCode exitCode = method.runModule(project, batchStepParameters, currentStepTasks);
@@ -181,6 +181,8 @@ public class BatchTask extends AbstractTask {
     boolean allTasksFinished = false;
 
     // Submit the tasks to the task controller for processing
+    for (Task stepTask : currentStepTasks)
+      TaskProfiler.setModuleName(stepTask, method.getName());
     MZmineCore.getTaskController().addTasks(currentStepTasks.toArray(new Task[0]));
 
     while (!allTasksFinished) {
@@ -236,6 +238,285 @@ public class BatchTask extends AbstractTask {
 
   }
 
+  /**
+   * Update the RawDataFilesParameter and PeakListsParameter parameters to reflect the current state
+   * of the batch
+   */
+  private void setBatchLastInputs(ParameterSet batchStepParameters, List<RawDataFile> dataFiles,
+      List<PeakList> peakLists) {
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        RawDataFilesParameter rdp = (RawDataFilesParameter) p;
+        RawDataFile createdFiles[] = dataFiles.toArray(new RawDataFile[0]);
+        rdp.getValue().setBatchLastFiles(createdFiles);
+      }
+      if (p instanceof PeakListsParameter) {
+        PeakListsParameter rdp = (PeakListsParameter) p;
+        PeakList createdPls[] = peakLists.toArray(new PeakList[0]);
+        rdp.getValue().setBatchLastPeakLists(createdPls);
+      }
+    }
+  }
+
+  private boolean checkStepParameters(MZmineProcessingModule method,
+      ParameterSet batchStepParameters) {
+    ArrayList<String> messages = new ArrayList<String>();
+    boolean paramsCheck = batchStepParameters.checkParameterValues(messages);
+    if (!paramsCheck) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+          + Arrays.toString(messages.toArray()));
+    }
+    return paramsCheck;
+  }
+
+  /**
+   * A step can be pipelined if its module processes each file independently and all its data file
+   * and peak list selections refer to the results of the previous batch step. Only the first step
+   * of a pipelined sequence may have no selection at all (e.g., raw data import).
+   */
+  private boolean isPerFileStep(int stepNumber, boolean first) {
+    MZmineProcessingStep<?> step = queue.get(stepNumber);
+    if (!FilePipeline.isPerFileModule(step.getModule()))
+      return false;
+
+    boolean hasSelection = false;
+    for (Parameter<?> p : step.getParameterSet().getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        RawDataFilesSelection selection = ((RawDataFilesParameter) p).getValue();
+        if (selection == null
+            || selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES)
+          return false;
+        hasSelection = true;
+      }
+      if (p instanceof PeakListsParameter) {
+        PeakListsSelection selection = ((PeakListsParameter) p).getValue();
+        if (selection == null
+            || selection.getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS)
+          return false;
+        hasSelection = true;
+      }
+    }
+    return hasSelection || first;
+  }
+
+  /**
+   * @return the last step of the sequence of per-file steps starting at firstStep, or firstStep if
+   *         there is no such sequence
+   */
+  private int findLastPerFileStep(int firstStep) {
+    if (!isPerFileStep(firstStep, true))
+      return firstStep;
+    int lastStep = firstStep;
+    while (lastStep + 1 < totalSteps && isPerFileStep(lastStep + 1, false))
+      lastStep++;
+    return lastStep;
+  }
+
+  /**
+   * Runs the per-file steps firstStep to lastStep. Every file advances to the next step as soon as
+   * its own tasks are finished, and the results are only joined after the last step.
+   */
+  private void processPipelinedSteps(int firstStep, int lastStep) {
+
+    logger.info("Starting steps # " + (firstStep + 1) + " to " + (lastStep + 1)
+        + " pipelined per file");
+
+    // Same as in processQueueStep, fall back to the results of the step
+    // before, if the last step did not produce any
+    if (createdDataFiles.isEmpty())
+      createdDataFiles.addAll(previousCreatedDataFiles);
+    if (createdPeakLists.isEmpty())
+      createdPeakLists.addAll(previousCreatedPeakLists);
+
+    List<RawDataFile> inputFiles = new ArrayList<>(createdDataFiles);
+    List<PeakList> inputPeakLists = new ArrayList<>(createdPeakLists);
+    previousCreatedDataFiles.clear();
+    previousCreatedPeakLists.clear();
+    createdDataFiles.clear();
+    createdPeakLists.clear();
+
+    List<FilePipeline> pipelines = createPipelines(firstStep, inputFiles, inputPeakLists);
+    if (pipelines == null)
+      return;
+
+    boolean allPipelinesFinished = false;
+    while (!allPipelinesFinished) {
+
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        for (FilePipeline pipeline : pipelines)
+          pipeline.cancel();
+        return;
+      }
+
+      allPipelinesFinished = true;
+
+      for (FilePipeline pipeline : pipelines) {
+
+        if (pipeline.getCurrentStep() > lastStep)
+          continue;
+
+        TaskStatus stepStatus = pipeline.getStepStatus();
+
+        // If there was an error, we have to stop the whole batch
+        if (stepStatus == TaskStatus.ERROR) {
+          for (Task stepTask : pipeline.getStepTasks()) {
+            if (stepTask.getStatus() == TaskStatus.ERROR) {
+              setStatus(TaskStatus.ERROR);
+              setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+            }
+          }
+          for (FilePipeline p : pipelines)
+            p.cancel();
+          return;
+        }
+
+        // If user canceled any of the tasks, we have to cancel the
+        // whole batch
+        if (stepStatus == TaskStatus.CANCELED) {
+          setStatus(TaskStatus.CANCELED);
+          for (FilePipeline p : pipelines)
+            p.cancel();
+          return;
+        }
+
+        if (stepStatus == TaskStatus.FINISHED) {
+          pipeline.finishStep();
+          if (pipeline.getCurrentStep() <= lastStep && !startPipelineStep(pipeline)) {
+            for (FilePipeline p : pipelines)
+              p.cancel();
+            return;
+          }
+        }
+
+        if (pipeline.getCurrentStep() <= lastStep)
+          allPipelinesFinished = false;
+      }
+
+      // Wait until one of the tasks finishes, at most 1s
+      if (!allPipelinesFinished) {
+        synchronized (this) {
+          try {
+            this.wait(1000);
+          } catch (InterruptedException e) {
+            // ignore
+          }
+        }
+      }
+    }
+
+    // Join the results of all files
+    for (FilePipeline pipeline : pipelines) {
+      createdDataFiles.addAll(pipeline.getDataFiles());
+      createdPeakLists.addAll(pipeline.getPeakLists());
+    }
+
+  }
+
+  /**
+   * Creates one pipeline per input of the first step. If the first step has no input selection
+   * (raw data import), it is started once and each of its tasks gets its own pipeline.
+   *
+   * @return the started pipelines or null, if the first step could not be started
+   */
+  private List<FilePipeline> createPipelines(int firstStep, List<RawDataFile> inputFiles,
+      List<PeakList> inputPeakLists) {
+
+    MZmineProcessingStep<?> currentStep = queue.get(firstStep);
+    ParameterSet batchStepParameters = currentStep.getParameterSet();
+    boolean hasFileSelection = false, hasPeakListSelection = false;
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter)
+        hasFileSelection = true;
+      if (p instanceof PeakListsParameter)
+        hasPeakListSelection = true;
+    }
+
+    List<FilePipeline> pipelines = new ArrayList<>();
+
+    if (hasPeakListSelection) {
+      for (PeakList peakList : inputPeakLists) {
+        List<RawDataFile> files = new ArrayList<>(inputFiles);
+        files.retainAll(Arrays.asList(peakList.getRawDataFiles()));
+        pipelines.add(new FilePipeline(firstStep, files, Arrays.asList(peakList)));
+      }
+    } else if (hasFileSelection) {
+      for (RawDataFile file : inputFiles) {
+        List<PeakList> peakLists = new ArrayList<>();
+        for (PeakList peakList : inputPeakLists) {
+          if (peakList.getNumberOfRawDataFiles() == 1 && peakList.getRawDataFile(0) == file)
+            peakLists.add(peakList);
+        }
+        pipelines.add(new FilePipeline(firstStep, Arrays.asList(file), peakLists));
+      }
+    } else {
+      MZmineProcessingModule method = (MZmineProcessingModule) currentStep.getModule();
+      if (!checkStepParameters(method, batchStepParameters))
+        return null;
+
+      ArrayList<Task> currentStepTasks = new ArrayList<Task>();
+      ExitCode exitCode = method.runModule(project, batchStepParameters, currentStepTasks);
+      if (exitCode != ExitCode.OK) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not start batch step " + method.getName());
+        return null;
+      }
+
+      for (Task stepTask : currentStepTasks) {
+        FilePipeline pipeline = new FilePipeline(firstStep, inputFiles, inputPeakLists);
+        submitPipelineTasks(pipeline, method, Arrays.asList(stepTask));
+        pipelines.add(pipeline);
+      }
+      return pipelines;
+    }
+
+    for (FilePipeline pipeline : pipelines) {
+      if (!startPipelineStep(pipeline)) {
+        for (FilePipeline p : pipelines)
+          p.cancel();
+        return null;
+      }
+    }
+    return pipelines;
+  }
+
+  /**
+   * Starts the current step of the pipeline on a copy of the step parameters, restricted to the
+   * data files and peak lists of this pipeline
+   *
+   * @return false if the step could not be started
+   */
+  private boolean startPipelineStep(FilePipeline pipeline) {
+
+    MZmineProcessingStep<?> currentStep = queue.get(pipeline.getCurrentStep());
+    MZmineProcessingModule method = (MZmineProcessingModule) currentStep.getModule();
+    ParameterSet batchStepParameters = currentStep.getParameterSet().cloneParameterSet();
+    setBatchLastInputs(batchStepParameters, pipeline.getDataFiles(), pipeline.getPeakLists());
+
+    if (!checkStepParameters(method, batchStepParameters))
+      return false;
+
+    ArrayList<Task> currentStepTasks = new ArrayList<Task>();
+    ExitCode exitCode = method.runModule(project, batchStepParameters, currentStepTasks);
+    if (exitCode != ExitCode.OK) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Could not start batch step " + method.getName());
+      return false;
+    }
+
+    submitPipelineTasks(pipeline, method, currentStepTasks);
+    return true;
+  }
+
+  private void submitPipelineTasks(FilePipeline pipeline, MZmineProcessingModule method,
+      List<Task> stepTasks) {
+    Task pipelineTasks[] = pipeline.startStep(stepTasks, this);
+    for (Task stepTask : pipelineTasks)
+      TaskProfiler.setModuleName(stepTask, method.getName());
+    MZmineCore.getTaskController().addTasks(pipelineTasks);
+  }
+
   @Override
   public TaskPriority getTaskPriority() {
     // to not block mzmine when run with single thread
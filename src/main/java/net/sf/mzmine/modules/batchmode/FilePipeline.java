@@ -0,0 +1,238 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import com.google.common.collect.ImmutableSet;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.MZmineModule;
+import net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder.ADAPChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.chromatogrambuilder.ChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.shoulderpeaksfilter.ShoulderPeaksFilterModule;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.deisotoper.IsotopeGrouperModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.smoothing.SmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.alignscans.AlignScansModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrectionModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.cropper.CropFilterModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.ScanFiltersModule;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scansmoothing.ScanSmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetectionModule;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.RawDataImportModule;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskPriority;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * One raw data file (or peak list) streaming through a chain of per-file batch steps. In pipelined
+ * mode, the {@link BatchTask} advances each pipeline to its next step as soon as the tasks of its
+ * current step are finished, without waiting for the other files.
+ */
+class FilePipeline {
+
+  /**
+   * Modules that process every raw data file or peak list independently from all the others
+   */
+  private static final Set<Class<? extends MZmineModule>> PER_FILE_MODULES = ImmutableSet.of(
+      RawDataImportModule.class, CropFilterModule.class, ScanFiltersModule.class,
+      ScanSmoothingModule.class, BaselineCorrectionModule.class, AlignScansModule.class,
+      MassDetectionModule.class, ShoulderPeaksFilterModule.class, ChromatogramBuilderModule.class,
+      ADAPChromatogramBuilderModule.class, DeconvolutionModule.class, SmoothingModule.class,
+      IsotopeGrouperModule.class);
+
+  /**
+   * Pipeline of the step task which is running in the current thread, used to assign the newly
+   * created data files and peak lists to the right pipeline
+   */
+  private static final ThreadLocal<FilePipeline> currentPipeline = new ThreadLocal<>();
+
+  private final List<RawDataFile> dataFiles = new ArrayList<>();
+  private final List<PeakList> peakLists = new ArrayList<>();
+
+  private final List<RawDataFile> createdDataFiles =
+      Collections.synchronizedList(new ArrayList<>());
+  private final List<PeakList> createdPeakLists = Collections.synchronizedList(new ArrayList<>());
+
+  private final List<Task> stepTasks = new ArrayList<>();
+  private int currentStep;
+
+  FilePipeline(int firstStep, Collection<RawDataFile> dataFiles,
+      Collection<PeakList> peakLists) {
+    this.currentStep = firstStep;
+    this.dataFiles.addAll(dataFiles);
+    this.peakLists.addAll(peakLists);
+  }
+
+  static boolean isPerFileModule(MZmineModule module) {
+    return PER_FILE_MODULES.contains(module.getClass());
+  }
+
+  /**
+   * @return the pipeline of the step task running in the current thread, or null
+   */
+  static FilePipeline getCurrentPipeline() {
+    return currentPipeline.get();
+  }
+
+  int getCurrentStep() {
+    return currentStep;
+  }
+
+  List<RawDataFile> getDataFiles() {
+    return dataFiles;
+  }
+
+  List<PeakList> getPeakLists() {
+    return peakLists;
+  }
+
+  List<Task> getStepTasks() {
+    return stepTasks;
+  }
+
+  void dataFileAdded(RawDataFile newFile) {
+    createdDataFiles.add(newFile);
+  }
+
+  void peakListAdded(PeakList newPeakList) {
+    createdPeakLists.add(newPeakList);
+  }
+
+  /**
+   * Registers the tasks of the current step
+   *
+   * @param tasks tasks created by the module of the current step
+   * @param monitor object notified whenever one of the tasks finishes
+   * @return the wrapped tasks, which have to be submitted to the task controller
+   */
+  Task[] startStep(Collection<Task> tasks, Object monitor) {
+    stepTasks.clear();
+    stepTasks.addAll(tasks);
+    return tasks.stream().map(t -> new PipelineStepTask(t, monitor)).toArray(Task[]::new);
+  }
+
+  /**
+   * @return FINISHED if all tasks of the current step are finished, ERROR or CANCELED if any of them
+   *         failed, PROCESSING otherwise
+   */
+  TaskStatus getStepStatus() {
+    boolean allFinished = true;
+    for (Task task : stepTasks) {
+      TaskStatus status = task.getStatus();
+      if (status == TaskStatus.ERROR || status == TaskStatus.CANCELED)
+        return status;
+      if (status != TaskStatus.FINISHED)
+        allFinished = false;
+    }
+    return allFinished ? TaskStatus.FINISHED : TaskStatus.PROCESSING;
+  }
+
+  /**
+   * Moves on to the next step. The data files and peak lists created by the finished step become
+   * the input of the next one. If the step did not create any, the previous ones are kept.
+   */
+  void finishStep() {
+    synchronized (createdDataFiles) {
+      if (!createdDataFiles.isEmpty()) {
+        dataFiles.clear();
+        dataFiles.addAll(createdDataFiles);
+        createdDataFiles.clear();
+      }
+    }
+    synchronized (createdPeakLists) {
+      if (!createdPeakLists.isEmpty()) {
+        peakLists.clear();
+        peakLists.addAll(createdPeakLists);
+        createdPeakLists.clear();
+      }
+    }
+    stepTasks.clear();
+    currentStep++;
+  }
+
+  void cancel() {
+    for (Task task : stepTasks)
+      task.cancel();
+  }
+
+  /**
+   * Runs a step task on behalf of this pipeline
+   */
+  private class PipelineStepTask implements Task {
+
+    private final Task actualTask;
+    private final Object monitor;
+
+    PipelineStepTask(Task actualTask, Object monitor) {
+      this.actualTask = actualTask;
+      this.monitor = monitor;
+    }
+
+    @Override
+    public void run() {
+      currentPipeline.set(FilePipeline.this);
+      try {
+        actualTask.run();
+      } finally {
+        currentPipeline.remove();
+        // Wake up the batch task, so the pipeline can continue
+        synchronized (monitor) {
+          monitor.notifyAll();
+        }
+      }
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return actualTask.getTaskDescription();
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return actualTask.getFinishedPercentage();
+    }
+
+    @Override
+    public TaskStatus getStatus() {
+      return actualTask.getStatus();
+    }
+
+    @Override
+    public String getErrorMessage() {
+      return actualTask.getErrorMessage();
+    }
+
+    @Override
+    public TaskPriority getTaskPriority() {
+      return actualTask.getTaskPriority();
+    }
+
+    @Override
+    public void cancel() {
+      actualTask.cancel();
+    }
+
+  }
+
+}
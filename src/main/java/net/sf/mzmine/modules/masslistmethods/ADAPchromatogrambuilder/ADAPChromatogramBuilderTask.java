@@ -20,9 +20,6 @@
 
 package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
 
-import com.google.common.collect.TreeRangeSet;
-import com.google.common.collect.RangeSet;
-
 import java.util.Arrays;
 import java.util.logging.Logger;
 
@@ -44,23 +41,15 @@ import net.sf.mzmine.util.PeakSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
-import net.sf.mzmine.util.DataPointSorter;
 import com.google.common.collect.Range;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.lang.*;
 
 
 
 public class ADAPChromatogramBuilderTask extends AbstractTask {
 
-  RangeSet<Double> rangeSet = TreeRangeSet.create();
-  // After each range is created it does not change so we can map the ranges (which will be uniqe)
-  // to the chromatograms
-  HashMap<Range, ADAPChromatogram> rangeToChromMap = new HashMap<Range, ADAPChromatogram>();
-
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private MZmineProject project;
@@ -190,8 +179,8 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     //
 
 
-    // make a list of all the data points
-    List<ExpandedDataPoint> allMzValues = new ArrayList<ExpandedDataPoint>();
+    // make a list of all the data points, stored in primitive arrays
+    DataPointArrays allMzValues = new DataPointArrays();
 
     for (Scan scan : scans) {
       if (isCanceled())
@@ -215,42 +204,22 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
       }
 
       for (DataPoint mzPeak : mzValues) {
-        ExpandedDataPoint curDatP = new ExpandedDataPoint(mzPeak, scan.getScanNumber());
-        allMzValues.add(curDatP);
-        // corespondingScanNum.add(scan.getScanNumber());
+        allMzValues.add(mzPeak.getMZ(), mzPeak.getIntensity(), scan.getScanNumber());
       }
 
     }
 
-    // Integer[] simpleCorespondingScanNums = new Integer[corespondingScanNum.size()];
-    // corespondingScanNum.toArray(simpleCorespondingScanNums );
-
-    ExpandedDataPoint[] simpleAllMzVals = new ExpandedDataPoint[allMzValues.size()];
-    allMzValues.toArray(simpleAllMzVals);
-
-    // sort data points by intensity
-    Arrays.sort(simpleAllMzVals,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
-
-
-    // Set<Chromatogram> buildingChromatograms;
-    // buildingChromatograms = new LinkedHashSet<Chromatogram>();
-
-
-
-    double maxIntensity = simpleAllMzVals[0].getIntensity();
-
-    // count starts at 1 since we already have added one with a single point.
-
-    // Stopwatch stopwatch = Stopwatch.createUnstarted();
-    // stopwatch2 = Stopwatch.createUnstarted();
-    // Stopwatch stopwatch3 = Stopwatch.createUnstarted();
+    // sort data points by intensity, in parallel
+    int sortedPoints[] = allMzValues.getIntensityOrder();
 
+    // The m/z ranges of the chromatograms. Range ids are the indexes in the chromatogram list.
+    MZRangeSet rangeSet = new MZRangeSet();
+    List<ADAPChromatogram> rangeChromatograms = new ArrayList<ADAPChromatogram>();
 
     processedPoints = 0;
-    totalPoints = simpleAllMzVals.length;
+    totalPoints = sortedPoints.length;
 
-    for (ExpandedDataPoint mzPeak : simpleAllMzVals) {
+    for (int point : sortedPoints) {
 
       processedPoints++;
 
@@ -258,111 +227,85 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         return;
       }
 
-      if (mzPeak == null || Double.isNaN(mzPeak.getMZ()) || Double.isNaN(mzPeak.getIntensity())) {
-        // System.out.println("null Peak");
+      final double mz = allMzValues.getMZ(point);
+      final double intensity = allMzValues.getIntensity(point);
+      final int scanNumber = allMzValues.getScanNumber(point);
+
+      if (Double.isNaN(mz) || Double.isNaN(intensity)) {
         continue;
       }
 
       //////////////////////////////////////////////////
 
-      Range<Double> containsPointRange = rangeSet.rangeContaining(mzPeak.getMZ());
+      int containsPointRange = rangeSet.getContaining(mz);
 
-      Range<Double> toleranceRange = mzTolerance.getToleranceRange(mzPeak.getMZ());
-      if (containsPointRange == null) {
+      Range<Double> toleranceRange = mzTolerance.getToleranceRange(mz);
+      if (containsPointRange < 0) {
         // skip it entierly if the intensity is not high enough
-        if (mzPeak.getIntensity() < minIntensityForStartChrom) {
+        if (intensity < minIntensityForStartChrom) {
           continue;
         }
         // look +- mz tolerance to see if ther is a range near by.
         // If there is use the proper boundry of that range for the
         // new range to insure than NON OF THE RANGES OVERLAP.
-        Range<Double> plusRange = rangeSet.rangeContaining(toleranceRange.upperEndpoint());
-        Range<Double> minusRange = rangeSet.rangeContaining(toleranceRange.lowerEndpoint());
-        Double toBeLowerBound;
-        Double toBeUpperBound;
-
-        double cur_max_testing_mz = mzPeak.getMZ();
-
+        int plusRange = rangeSet.getContaining(toleranceRange.upperEndpoint());
+        int minusRange = rangeSet.getContaining(toleranceRange.lowerEndpoint());
+        double toBeLowerBound;
+        double toBeUpperBound;
 
-        // If both of the above ranges are null then we make the new range spaning the full
+        // If both of the above ranges are missing then we make the new range spaning the full
         // mz tolerance range.
-        // If one or both are not null we need to properly modify the range of the new
+        // If one or both exist we need to properly modify the range of the new
         // chromatogram so that none of the points are overlapping.
-        if ((plusRange == null) && (minusRange == null)) {
+        if (minusRange < 0)
           toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
-        } else if ((plusRange == null) && (minusRange != null)) {
+        else
           // the upper end point of the minus range will be the lower
           // range of the new one
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = toleranceRange.upperEndpoint();
+          toBeLowerBound = rangeSet.getUpper(minusRange);
 
-        } else if ((minusRange == null) && (plusRange != null)) {
-          toBeLowerBound = toleranceRange.lowerEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-          // double tmp_this = plusRange.upperEndpoint();
-          // System.out.println("tmp_this");
-        } else if ((minusRange != null) && (plusRange != null)) {
-          toBeLowerBound = minusRange.upperEndpoint();
-          toBeUpperBound = plusRange.lowerEndpoint();
-        } else {
-          toBeLowerBound = 0.0;
-          toBeUpperBound = 0.0;
-        }
+        if (plusRange < 0)
+          toBeUpperBound = toleranceRange.upperEndpoint();
+        else
+          toBeUpperBound = rangeSet.getLower(plusRange);
 
         if (toBeLowerBound < toBeUpperBound) {
-          Range<Double> newRange = Range.open(toBeLowerBound, toBeUpperBound);
           ADAPChromatogram newChrom = new ADAPChromatogram(dataFile, allScanNumbers);
 
-          newChrom.addMzPeak(mzPeak.getScanNumber(), mzPeak);
-
-          newChrom.setHighPointMZ(mzPeak.getMZ());
+          newChrom.addMzPeak(scanNumber, new ExpandedDataPoint(mz, intensity, scanNumber));
 
+          newChrom.setHighPointMZ(mz);
 
-          rangeToChromMap.put(newRange, newChrom);
-          // also need to put it in the set -> this is where the range can be efficiently found.
-
-          rangeSet.add(newRange);
+          rangeSet.add(toBeLowerBound, toBeUpperBound);
+          rangeChromatograms.add(newChrom);
         }
-        else if (toBeLowerBound.equals(toBeUpperBound) && plusRange != null) {
-          ADAPChromatogram curChrom = rangeToChromMap.get(plusRange);
-          curChrom.addMzPeak(mzPeak.getScanNumber(), mzPeak);
+        else if (toBeLowerBound == toBeUpperBound && plusRange >= 0) {
+          ADAPChromatogram curChrom = rangeChromatograms.get(plusRange);
+          curChrom.addMzPeak(scanNumber, new ExpandedDataPoint(mz, intensity, scanNumber));
         }
         else
           throw new IllegalStateException(String.format("Incorrect range [%f, %f] for m/z %f",
-                  toBeLowerBound, toBeUpperBound, mzPeak.getMZ()));
+                  toBeLowerBound, toBeUpperBound, mz));
 
       } else {
         // In this case we do not need to update the rangeSet
 
+        ADAPChromatogram curChrom = rangeChromatograms.get(containsPointRange);
 
-        ADAPChromatogram curChrom = rangeToChromMap.get(containsPointRange);
-
-        curChrom.addMzPeak(mzPeak.getScanNumber(), mzPeak);
-
-        // update the entry in the map
-        rangeToChromMap.put(containsPointRange, curChrom);
-
+        curChrom.addMzPeak(scanNumber, new ExpandedDataPoint(mz, intensity, scanNumber));
 
       }
     }
 
-    // System.out.println("search chroms (ms): " + stopwatch.elapsed(TimeUnit.MILLISECONDS));
-    // System.out.println("making new chrom (ms): " + stopwatch2.elapsed(TimeUnit.MILLISECONDS));
-
     // finish chromatograms
-    Iterator<Range<Double>> RangeIterator = rangeSet.asRanges().iterator();
-
     List<ADAPChromatogram> buildingChromatograms = new ArrayList<ADAPChromatogram>();
 
-    while (RangeIterator.hasNext()) {
+    for (int curRangeKey : rangeSet.getIds()) {
       if (isCanceled()) {
         return;
       }
 
-      Range<Double> curRangeKey = RangeIterator.next();
-
-      ADAPChromatogram chromatogram = rangeToChromMap.get(curRangeKey);
+      ADAPChromatogram chromatogram = rangeChromatograms.get(curRangeKey);
 
       chromatogram.finishChromatogram();
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All mass list data points of a raw data file, stored in parallel primitive arrays of m/z,
+ * intensity and scan number instead of one object per data point
+ */
+class DataPointArrays {
+
+  // ranges of at most this size are sorted in a single thread
+  private static final int SEQUENTIAL_THRESHOLD = 1 << 16;
+  private static final int INSERTION_THRESHOLD = 16;
+
+  private double mz[] = new double[1024];
+  private double intensity[] = new double[1024];
+  private int scanNumber[] = new int[1024];
+  private int size = 0;
+
+  void add(double mzValue, double intensityValue, int scan) {
+    if (size == mz.length) {
+      int newLength = size + (size >> 1);
+      mz = Arrays.copyOf(mz, newLength);
+      intensity = Arrays.copyOf(intensity, newLength);
+      scanNumber = Arrays.copyOf(scanNumber, newLength);
+    }
+    mz[size] = mzValue;
+    intensity[size] = intensityValue;
+    scanNumber[size] = scan;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  double getMZ(int i) {
+    return mz[i];
+  }
+
+  double getIntensity(int i) {
+    return intensity[i];
+  }
+
+  int getScanNumber(int i) {
+    return scanNumber[i];
+  }
+
+  /**
+   * Sorts the data points by descending intensity and, for equal intensities, by descending m/z.
+   * The sort is stable, so the order is the same as sorting the data points with
+   * {@link net.sf.mzmine.util.DataPointSorter}.
+   *
+   * @return indexes of the data points in sorted order
+   */
+  int[] getIntensityOrder() {
+    int order[] = new int[size];
+    for (int i = 0; i < size; i++)
+      order[i] = i;
+    int tmp[] = new int[size];
+    ForkJoinPool.commonPool().invoke(new SortAction(order, tmp, 0, size));
+    return order;
+  }
+
+  private int compare(int a, int b) {
+    int result = Double.compare(intensity[b], intensity[a]);
+    if (result == 0)
+      result = Double.compare(mz[b], mz[a]);
+    return result;
+  }
+
+  /**
+   * Parallel merge sort of an index range
+   */
+  private class SortAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int order[], tmp[];
+    private final int from, to;
+
+    SortAction(int order[], int tmp[], int from, int to) {
+      this.order = order;
+      this.tmp = tmp;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        sort(from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new SortAction(order, tmp, from, mid), new SortAction(order, tmp, mid, to));
+      merge(from, mid, to);
+    }
+
+    private void sort(int start, int end) {
+      if (end - start <= INSERTION_THRESHOLD) {
+        for (int i = start + 1; i < end; i++) {
+          int value = order[i];
+          int j = i - 1;
+          while (j >= start && compare(order[j], value) > 0) {
+            order[j + 1] = order[j];
+            j--;
+          }
+          order[j + 1] = value;
+        }
+        return;
+      }
+      int mid = (start + end) >>> 1;
+      sort(start, mid);
+      sort(mid, end);
+      merge(start, mid, end);
+    }
+
+    private void merge(int start, int mid, int end) {
+      // already in order
+      if (compare(order[mid - 1], order[mid]) <= 0)
+        return;
+      System.arraycopy(order, start, tmp, start, end - start);
+      int left = start, right = mid, out = start;
+      while (left < mid && right < end) {
+        // take the left one on ties to keep the sort stable
+        if (compare(tmp[left], tmp[right]) <= 0)
+          order[out++] = tmp[left++];
+        else
+          order[out++] = tmp[right++];
+      }
+      while (left < mid)
+        order[out++] = tmp[left++];
+      while (right < end)
+        order[out++] = tmp[right++];
+    }
+  }
+
+}
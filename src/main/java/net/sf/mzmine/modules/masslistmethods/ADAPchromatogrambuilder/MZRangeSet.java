@@ -0,0 +1,192 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.Arrays;
+
+/**
+ * Set of open, non-overlapping m/z ranges, stored in primitive arrays. Each range gets an id when
+ * it is added. The ranges are kept sorted in blocks of limited size, so adding a range only shifts
+ * the entries of one block.
+ *
+ * Like a Guava TreeRangeSet of open ranges, adding a range removes all ranges it encloses.
+ */
+class MZRangeSet {
+
+  private static final int BLOCK_SIZE = 512;
+
+  // blocks of range ids sorted by lower endpoint, only the first block can be empty
+  private int blocks[][] = new int[16][];
+  private int blockSizes[] = new int[16];
+  private int numBlocks = 1;
+
+  // endpoints of all ranges by id
+  private double lower[] = new double[1024], upper[] = new double[1024];
+  private int numIds = 0;
+
+  MZRangeSet() {
+    blocks[0] = new int[BLOCK_SIZE];
+  }
+
+  double getLower(int id) {
+    return lower[id];
+  }
+
+  double getUpper(int id) {
+    return upper[id];
+  }
+
+  /**
+   * @return id of the range containing the value, or -1
+   */
+  int getContaining(double value) {
+    int b = findBlock(value);
+    int i = findLastBelow(b, value);
+    if (i >= 0 && value < upper[blocks[b][i]])
+      return blocks[b][i];
+    return -1;
+  }
+
+  /**
+   * Adds the open range (lowerEndpoint, upperEndpoint), which must not partially overlap any range
+   * of this set. Ranges enclosed by the new range are removed.
+   *
+   * @return id of the new range
+   */
+  int add(double lowerEndpoint, double upperEndpoint) {
+
+    if (numIds == lower.length) {
+      lower = Arrays.copyOf(lower, numIds * 2);
+      upper = Arrays.copyOf(upper, numIds * 2);
+    }
+    final int id = numIds++;
+    lower[id] = lowerEndpoint;
+    upper[id] = upperEndpoint;
+
+    int b = findBlock(lowerEndpoint);
+    int i = findLastBelow(b, lowerEndpoint) + 1;
+
+    // Remove enclosed ranges, which follow the insertion position
+    while (true) {
+      if (i == blockSizes[b]) {
+        if (b + 1 >= numBlocks)
+          break;
+        b++;
+        i = 0;
+      }
+      if (upper[blocks[b][i]] > upperEndpoint)
+        break;
+      System.arraycopy(blocks[b], i + 1, blocks[b], i, blockSizes[b] - i - 1);
+      blockSizes[b]--;
+      if (blockSizes[b] == 0 && numBlocks > 1) {
+        removeBlock(b);
+        if (b == numBlocks) {
+          b--;
+          i = blockSizes[b];
+        }
+      }
+    }
+
+    // Split full blocks
+    if (blockSizes[b] == BLOCK_SIZE) {
+      splitBlock(b);
+      if (i > blockSizes[b]) {
+        i -= blockSizes[b];
+        b++;
+      }
+    }
+    System.arraycopy(blocks[b], i, blocks[b], i + 1, blockSizes[b] - i);
+    blocks[b][i] = id;
+    blockSizes[b]++;
+    return id;
+  }
+
+  /**
+   * @return ids of all ranges in ascending order
+   */
+  int[] getIds() {
+    int size = 0;
+    for (int b = 0; b < numBlocks; b++)
+      size += blockSizes[b];
+    int ids[] = new int[size];
+    int pos = 0;
+    for (int b = 0; b < numBlocks; b++) {
+      System.arraycopy(blocks[b], 0, ids, pos, blockSizes[b]);
+      pos += blockSizes[b];
+    }
+    return ids;
+  }
+
+  /**
+   * @return the last block whose first range starts below the value, or the first block
+   */
+  private int findBlock(double value) {
+    int low = 1, high = numBlocks - 1, result = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (lower[blocks[mid][0]] < value) {
+        result = mid;
+        low = mid + 1;
+      } else
+        high = mid - 1;
+    }
+    return result;
+  }
+
+  /**
+   * @return position of the last range in the block which starts below the value, or -1
+   */
+  private int findLastBelow(int b, double value) {
+    int block[] = blocks[b];
+    int low = 0, high = blockSizes[b] - 1, result = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (lower[block[mid]] < value) {
+        result = mid;
+        low = mid + 1;
+      } else
+        high = mid - 1;
+    }
+    return result;
+  }
+
+  private void splitBlock(int b) {
+    if (numBlocks == blocks.length) {
+      blocks = Arrays.copyOf(blocks, numBlocks * 2);
+      blockSizes = Arrays.copyOf(blockSizes, numBlocks * 2);
+    }
+    System.arraycopy(blocks, b + 1, blocks, b + 2, numBlocks - b - 1);
+    System.arraycopy(blockSizes, b + 1, blockSizes, b + 2, numBlocks - b - 1);
+    numBlocks++;
+
+    int half = blockSizes[b] / 2;
+    blocks[b + 1] = new int[BLOCK_SIZE];
+    System.arraycopy(blocks[b], half, blocks[b + 1], 0, blockSizes[b] - half);
+    blockSizes[b + 1] = blockSizes[b] - half;
+    blockSizes[b] = half;
+  }
+
+  private void removeBlock(int b) {
+    System.arraycopy(blocks, b + 1, blocks, b, numBlocks - b - 1);
+    System.arraycopy(blockSizes, b + 1, blockSizes, b, numBlocks - b - 1);
+    numBlocks--;
+    blocks[numBlocks] = null;
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import org.gnf.clustering.DistanceMatrix;
+
+import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
+
+/**
+ * Symmetric distance matrix which only stores the values that differ from a default value. The
+ * aligner gives the same distance to all row pairs outside the m/z and RT tolerances, so only the
+ * pairs inside the tolerances take memory, instead of all pairs of all peak lists. The default
+ * value of two different rows from the same peak list is a separate value, as the aligner gives
+ * them a larger distance.
+ *
+ * The value of a pair is stored in the map of its smaller index. Different rows can therefore be
+ * set from different threads.
+ */
+public class DistanceMatrixSparse implements DistanceMatrix {
+
+  private final int dimension;
+
+  private final float defaultValue;
+
+  // Peak list of each row, and the default value of two different rows from the same peak list
+  private final int listIds[];
+  private final float sameListValue;
+
+  // Maps the larger index of each stored pair to its value, null if no value of the row is stored
+  private final Int2FloatOpenHashMap rows[];
+
+  /**
+   * @param listIds peak list index of each row
+   * @param sameListValue value of the pairs of different rows with the same peak list index which
+   *        are not stored
+   */
+  public DistanceMatrixSparse(int nRowCount, float defaultValue, int listIds[],
+      float sameListValue) {
+
+    this.dimension = nRowCount;
+    this.defaultValue = defaultValue;
+    this.listIds = listIds;
+    this.sameListValue = sameListValue;
+    this.rows = new Int2FloatOpenHashMap[nRowCount];
+  }
+
+  public DistanceMatrixSparse(DistanceMatrixSparse distanceMatrix2) {
+
+    this.dimension = distanceMatrix2.dimension;
+    this.defaultValue = distanceMatrix2.defaultValue;
+    this.listIds = distanceMatrix2.listIds;
+    this.sameListValue = distanceMatrix2.sameListValue;
+    this.rows = new Int2FloatOpenHashMap[dimension];
+
+    for (int i = 0; i < dimension; ++i) {
+      if (distanceMatrix2.rows[i] != null)
+        rows[i] = new Int2FloatOpenHashMap(distanceMatrix2.rows[i]);
+    }
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+
+    Int2FloatOpenHashMap row = rows[Math.min(nRow, nCol)];
+    if (row == null)
+      return getDefaultValue(nRow, nCol);
+    return row.getOrDefault(Math.max(nRow, nCol), getDefaultValue(nRow, nCol));
+  }
+
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+
+    int index = Math.min(nRow, nCol);
+    Int2FloatOpenHashMap row = rows[index];
+
+    if (fVal == getDefaultValue(nRow, nCol)) {
+      if (row != null)
+        row.remove(Math.max(nRow, nCol));
+      return;
+    }
+
+    if (row == null) {
+      row = new Int2FloatOpenHashMap();
+      rows[index] = row;
+    }
+    row.put(Math.max(nRow, nCol), fVal);
+  }
+
+  /**
+   * @return value of the pair if it is not stored
+   */
+  private float getDefaultValue(int nRow, int nCol) {
+    if ((nRow != nCol) && (listIds[nRow] == listIds[nCol]))
+      return sameListValue;
+    return defaultValue;
+  }
+
+  /**
+   * @return number of stored values, the pairs whose value differs from the default value
+   */
+  public long getStoredValueCount() {
+
+    long count = 0;
+    for (Int2FloatOpenHashMap row : rows) {
+      if (row != null)
+        count += row.size();
+    }
+    return count;
+  }
+
+}
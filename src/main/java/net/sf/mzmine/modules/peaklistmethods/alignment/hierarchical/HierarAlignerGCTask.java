@@ -31,6 +31,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
@@ -45,7 +46,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical.ClustererType;
 // import net.sf.mzmine.modules.peaklistmethods.normalization.rtadjuster.JDXCompound;
@@ -67,10 +68,11 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   private final MZmineProject project;
   private PeakList peakLists[];
-  private PeakList alignedPeakList;
+  private SimplePeakList alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private LinkageMode linkageStartegyType;
@@ -231,7 +233,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       return 0f;
     // return (double) processedRows / (double) totalRows;
     double progress =
-        (double) (processedRows + (clustProgress.getProgress() * (double) totalRows / 3.0d))
+        (double) (processedRows.get() + (clustProgress.getProgress() * (double) totalRows / 3.0d))
             / (double) totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
@@ -316,7 +318,7 @@ public class HierarAlignerGCTask extends AbstractTask {
     //
 
     // TriangularMatrix distances = null;
-    DistanceMatrix distancesGNF_Tri = null;
+    DistanceMatrixSparse distancesGNF_Tri = null;
     DistanceMatrix distancesGNF_Tri_Bkp = null;
 
     int nbPeaks = 0;
@@ -325,14 +327,6 @@ public class HierarAlignerGCTask extends AbstractTask {
       nbPeaks += peakList.getNumberOfRows();
     }
 
-    // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
-      // distances = new double[nbPeaks][nbPeaks];
-
-      int nRowCount = nbPeaks;
-      distancesGNF_Tri = new DistanceMatrixTriangular1D2D(nRowCount);
-    }
-
     full_rows_list = new ArrayList<>();
 
     for (int i = 0; i < newIds.length; ++i) {
@@ -360,26 +354,13 @@ public class HierarAlignerGCTask extends AbstractTask {
     // If 'Hybrid' or no distance matrix: no need for a matrix
     if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
 
-      for (int x = 0; x < nbPeaks; ++x) {
-
-        for (int y = x; y < nbPeaks; ++y) {
-
-          float dist = (float) distProvider.getRankedDistance(x, y, mzTolerance.getMzTolerance(),
-              rtTolerance.getTolerance(), minScore);
+      // Only the row pairs inside the tolerances are stored, all other pairs are not candidates
+      distancesGNF_Tri = distProvider.getRankedDistanceMatrix(mzTolerance.getMzTolerance(),
+          rtTolerance.getTolerance(), minScore, processedRows::incrementAndGet);
 
-          // if (CLUSTERER_TYPE == ClustererType.CLASSIC_OLD)
-          // distances.set(x, y , dist);
-          // else
-          distancesGNF_Tri.setValue(x, y, dist);
-
-        }
-
-        processedRows++;
-        if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
-
-      }
+      if (DEBUG)
+        logger.info("Stored distances: " + distancesGNF_Tri.getStoredValueCount() + " of "
+            + DistanceMatrixTriangular1D2D.sumFormula(nbPeaks));
     }
     if (DEBUG)
       printMemoryUsage(logger, run_time, prevTotal, prevFree, "DISTANCES COMPUTED");
@@ -438,7 +419,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       } else { // Otherwise, backing up the distance matrix (matrix being
                // deeply changed during "clusterDM()", then no more
                // exploitable)
-        distancesGNF_Tri_Bkp = new DistanceMatrixTriangular1D2D(distancesGNF_Tri);
+        distancesGNF_Tri_Bkp = new DistanceMatrixSparse(distancesGNF_Tri);
         if (DEBUG)
           printMemoryUsage(logger, run_time, prevTotal, prevFree, "GNF CLUSTERER BACKUP MATRIX");
       }
@@ -555,7 +536,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       }
       clustersList.add(rows_cluster);
       //
-      processedRows += rows_cluster.size();
+      processedRows.addAndGet(rows_cluster.size());
     }
 
     if (DEBUG)
@@ -570,7 +551,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       if (isCanceled())
         return;
 
-      PeakListRow targetRow = new SimplePeakListRow(newRowID);
+      PeakListRow targetRow = new DensePeakListRow(newRowID, alignedPeakList);
       newRowID++;
       alignedPeakList.addRow(targetRow);
       //
@@ -643,7 +624,7 @@ public class HierarAlignerGCTask extends AbstractTask {
         return;
 
       // Refresh averaged RTs...
-      ((SimplePeakListRow) targetRow).update();
+      ((DensePeakListRow) targetRow).update();
 
     }
 
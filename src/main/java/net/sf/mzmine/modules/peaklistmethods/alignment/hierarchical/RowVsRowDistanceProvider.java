@@ -18,14 +18,27 @@
 
 package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
+import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical.RowVsRowScoreGC;
 
 public class RowVsRowDistanceProvider {
 
+  // Distance of two rows which are outside the m/z or RT tolerance of each other
+  public static final double NOT_CANDIDATE_DISTANCE = 100.0d;
+
+  // Distance of two different rows from the same peak list
+  public static final double SAME_LIST_DISTANCE = 1000.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -124,7 +137,7 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id < 102)
     // || (row_id >= 102 && aligned_row_id >= 102)) {
     if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+      return SAME_LIST_DISTANCE;
     }
     // Not candidate
     else {
@@ -141,7 +154,7 @@ public class RowVsRowDistanceProvider {
       if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
           || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
               / 2.0)) {
-        return 100.0d;
+        return NOT_CANDIDATE_DISTANCE;
       }
     }
 
@@ -159,4 +172,71 @@ public class RowVsRowDistanceProvider {
     return this.maximumScore - score;
   }
 
+  /**
+   * Computes the ranked distances of all row pairs inside the m/z and RT tolerances, in parallel.
+   * The other pairs are not stored and get NOT_CANDIDATE_DISTANCE, or SAME_LIST_DISTANCE if both
+   * rows are from the same peak list, as from getRankedDistance().
+   * 
+   * @param rowProcessed called for each row whose distances are computed, from any thread
+   */
+  public DistanceMatrixSparse getRankedDistanceMatrix(double mzMaxDiff, double rtMaxDiff,
+      double minScore, Runnable rowProcessed) {
+
+    final int nRows = full_rows_list.size();
+    final double mzs[] = new double[nRows];
+    final double rts[] = new double[nRows];
+    // Rows are from the same peak list if they have the same first raw data file, as tested by
+    // getRankedDistance()
+    final int listIds[] = new int[nRows];
+    final Map<RawDataFile, Integer> lists = new HashMap<>();
+    for (int i = 0; i < nRows; i++) {
+      PeakListRow row = full_rows_list.get(i);
+      Feature bestPeak = row.getBestPeak();
+      mzs[i] = bestPeak.getMZ();
+      rts[i] = bestPeak.getRT();
+      Integer listId = lists.get(row.getRawDataFiles()[0]);
+      if (listId == null) {
+        listId = lists.size();
+        lists.put(row.getRawDataFiles()[0], listId);
+      }
+      listIds[i] = listId;
+    }
+
+    // Row indexes sorted by RT, to find the candidates of a row by binary search
+    final int order[] = IntStream.range(0, nRows).boxed()
+        .sorted(Comparator.comparingDouble(i -> rts[i])).mapToInt(Integer::intValue).toArray();
+    final double sortedRTs[] = new double[nRows];
+    for (int i = 0; i < nRows; i++)
+      sortedRTs[i] = rts[order[i]];
+
+    final DistanceMatrixSparse matrix = new DistanceMatrixSparse(nRows,
+        (float) NOT_CANDIDATE_DISTANCE, listIds, (float) SAME_LIST_DISTANCE);
+
+    IntStream.range(0, nRows).parallel().forEach(x -> {
+
+      // Itself
+      matrix.setValue(x, x, (float) getRankedDistance(x, x, mzMaxDiff, rtMaxDiff, minScore));
+
+      // Start below the tolerance, the exact RT test is done for each row
+      int start = Arrays.binarySearch(sortedRTs, rts[x] - rtMaxDiff);
+      if (start < 0)
+        start = -start - 1;
+      while (start > 0 && sortedRTs[start - 1] >= rts[x] - rtMaxDiff)
+        start--;
+
+      for (int i = start; i < nRows && sortedRTs[i] - rts[x] < rtMaxDiff / 2.0; i++) {
+        int y = order[i];
+        // Each pair is computed by its smaller index only
+        if (y <= x || Math.abs(rts[x] - rts[y]) >= rtMaxDiff / 2.0
+            || Math.abs(mzs[x] - mzs[y]) >= mzMaxDiff / 2.0)
+          continue;
+        matrix.setValue(x, y, (float) getRankedDistance(x, y, mzMaxDiff, rtMaxDiff, minScore));
+      }
+
+      rowProcessed.run();
+    });
+
+    return matrix;
+  }
+
 }
@@ -31,7 +31,7 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
@@ -48,7 +48,8 @@ class JoinAlignerTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final MZmineProject project;
-  private PeakList peakLists[], alignedPeakList;
+  private PeakList peakLists[];
+  private SimplePeakList alignedPeakList;
 
   // Processed rows counter
   private int processedRows, totalRows;
@@ -237,7 +238,7 @@ class JoinAlignerTask extends AbstractTask {
 
         // If we have no mapping for this row, add a new one
         if (targetRow == null) {
-          targetRow = new SimplePeakListRow(newRowID);
+          targetRow = new DensePeakListRow(newRowID, alignedPeakList);
           newRowID++;
           alignedPeakList.addRow(targetRow);
         }
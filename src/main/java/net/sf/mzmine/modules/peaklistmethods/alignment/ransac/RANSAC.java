@@ -17,11 +17,12 @@
  */
 package net.sf.mzmine.modules.peaklistmethods.alignment.ransac;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -29,8 +30,6 @@ import org.apache.commons.math.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math.optimization.fitting.PolynomialFitter;
 import org.apache.commons.math.optimization.general.GaussNewtonOptimizer;
 
-import com.google.common.collect.Range;
-
 public class RANSAC {
 
   /**
@@ -44,10 +43,16 @@ public class RANSAC {
   private int n;
   private double d = 1;
   private int k = 0;
-  private int AlsoNumber;
   private double numRatePoints, t;
   private boolean Linear;
 
+  // Each iteration draws its initial points from its own generator, seeded with a hash of the
+  // iteration number, so the result does not depend on the number of threads
+  private static final long RANDOM_SEED = 1234567L;
+
+  // Best model of the last alignment, tried first on the next alignment
+  private PolynomialFunction lastModel;
+
   public RANSAC(ParameterSet parameters) {
 
     this.numRatePoints = parameters.getParameter(RansacAlignerParameters.NMinPoints).getValue();
@@ -106,174 +111,191 @@ public class RANSAC {
   }
 
   /**
-   * RANSAC algorithm
+   * RANSAC algorithm. The iterations are evaluated in parallel. The model with the most points
+   * wins, the earliest iteration wins ties. When this instance aligned data before, the best model
+   * of that alignment competes as the first iteration, so a model fitted to one peak list is reused
+   * for the next one as long as no sampled model fits better.
    * 
    * @param data vector with the points which represent all possible alignments.
    */
   public void ransac(List<AlignStructMol> data) {
-    double besterr = 9.9E99;
-
-    for (int iterations = 0; iterations < k; iterations++) {
-      AlsoNumber = n;
-      // Get the initial points
-      boolean initN = getInitN(data);
-      if (!initN) {
-        continue;
-      }
 
+    data.sort(Comparator.comparingDouble(point -> point.RT));
+
+    final double rt[] = new double[data.size()];
+    final double rt2[] = new double[data.size()];
+    for (int i = 0; i < data.size(); i++) {
+      rt[i] = data.get(i).RT;
+      rt2[i] = data.get(i).RT2;
+    }
+
+    Model best = null;
+    if (lastModel != null) {
+      best = evaluate(-1, lastModel, new BitSet(), rt, rt2);
+    }
+
+    Model sampled = IntStream.range(0, k).parallel().mapToObj(iteration -> {
+      SplittableRandom random = new SplittableRandom(getIterationSeed(iteration));
+      BitSet maybeInLiers = getInitN(rt, random);
+      if (maybeInLiers == null) {
+        return null;
+      }
       // Calculate the model
-      fittPolinomialFunction(data, Linear);
-
-      // If the model has the minimun number of points
-      if (AlsoNumber >= d) {
-        // Get the error of the model based on the number of points
-        double error = 9.9E99;
-        try {
-          error = newError(data);
-        } catch (Exception ex) {
-          Logger.getLogger(RANSAC.class.getName()).log(Level.SEVERE, null, ex);
-        }
+      PolynomialFunction function = fittPolinomialFunction(maybeInLiers, rt, rt2);
+      return evaluate(iteration, function, maybeInLiers, rt, rt2);
+    }).filter(Objects::nonNull).reduce(RANSAC::better).orElse(null);
 
-        // If the error is less than the error of the last model
-        if (error < besterr) {
-          besterr = error;
-          for (int i = 0; i < data.size(); i++) {
-            AlignStructMol alignStruct = data.get(i);
-            if (alignStruct.ransacAlsoInLiers || alignStruct.ransacMaybeInLiers) {
-              alignStruct.Aligned = true;
-            } else {
-              alignStruct.Aligned = false;
-            }
-
-            alignStruct.ransacAlsoInLiers = false;
-            alignStruct.ransacMaybeInLiers = false;
-
-          }
+    if (sampled != null) {
+      best = (best == null) ? sampled : better(best, sampled);
+    }
+
+    if (best == null) {
+      return;
+    }
+
+    for (int i = 0; i < data.size(); i++) {
+      data.get(i).Aligned = best.inLiers.get(i);
+    }
+    if (best.function != null) {
+      lastModel = best.function;
+    }
+  }
+
+  /**
+   * Seed of the generator of an iteration. Consecutive seeds would give correlated generators, so
+   * the iteration number is mixed with the SplitMix64 finalizer.
+   */
+  static long getIterationSeed(int iteration) {
+    long z = RANDOM_SEED + (iteration + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * @return the model of the given points, or null if it does not have the minimum number of
+   *         points
+   */
+  private Model evaluate(int iteration, PolynomialFunction function, BitSet maybeInLiers,
+      double rt[], double rt2[]) {
+
+    BitSet inLiers = (BitSet) maybeInLiers.clone();
+    int alsoNumber = n;
+    if (function != null) {
+      for (int i = 0; i < rt.length; i++) {
+        if (Math.abs(rt2[i] - function.value(rt[i])) < t) {
+          inLiers.set(i);
+          alsoNumber++;
         }
       }
-      // remove the model
-      for (int i = 0; i < data.size(); i++) {
-        AlignStructMol alignStruct = data.get(i);
-        alignStruct.ransacAlsoInLiers = false;
-        alignStruct.ransacMaybeInLiers = false;
-      }
+    }
+
+    // If the model has the minimun number of points
+    if (alsoNumber < d) {
+      return null;
+    }
+    return new Model(iteration, function, inLiers);
+  }
 
+  private static Model better(Model model1, Model model2) {
+    // The error of a model is 1 / (number of points + 1)
+    int points1 = model1.inLiers.cardinality(), points2 = model2.inLiers.cardinality();
+    if (points1 != points2) {
+      return points1 > points2 ? model1 : model2;
     }
+    return model1.iteration < model2.iteration ? model1 : model2;
   }
 
   /**
    * Take the initial points ramdoly. The points are divided by the initial number of points. If the
    * fractions contain enough number of points took one point from each part.
    * 
-   * @param data vector with the points which represent all possible alignments.
-   * @return false if there is any problem.
+   * @param rt retention times of the points, sorted
+   * @return the initial points, or null if there are not enough points
    */
-  private boolean getInitN(List<AlignStructMol> data) {
-    if (data.size() > n) {
-      Collections.sort(data, new AlignStructMol());
-      double min = data.get(0).RT;
-      double max = data.get(data.size() - 1).RT;
-
-      Range<Double> rtRange = Range.closed(min, ((max - min) / 2) + min);
-
-      int cont = 0, bucle = 0;
-      while (cont < n / 2 && bucle < 1000) {
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
-          cont++;
+  private BitSet getInitN(double rt[], SplittableRandom random) {
+    if (rt.length <= n) {
+      return null;
+    }
 
-        }
+    BitSet maybeInLiers = new BitSet(rt.length);
+    double min = rt[0];
+    double max = rt[rt.length - 1];
+    double middle = ((max - min) / 2) + min;
 
-        bucle++;
-      }
-      if (bucle >= 1000) {
-        getN(data, (n / 2) - cont);
+    int cont = 0, bucle = 0;
+    while (cont < n / 2 && bucle < 1000) {
+      int index = random.nextInt(rt.length);
+      if (!maybeInLiers.get(index) && rt[index] >= min && rt[index] <= middle) {
+        maybeInLiers.set(index);
+        cont++;
       }
+      bucle++;
+    }
+    if (bucle >= 1000) {
+      getN(maybeInLiers, rt.length, (n / 2) - cont, random);
+    }
 
-      bucle = 0;
-      rtRange = Range.closed(((max - min) / 2) + min, max);
-
-      while (cont < n && bucle < 1000) {
-
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
-          cont++;
-        }
-        bucle++;
-      }
-      if (bucle >= 1000) {
-        getN(data, n - cont);
+    bucle = 0;
+    while (cont < n && bucle < 1000) {
+      int index = random.nextInt(rt.length);
+      if (!maybeInLiers.get(index) && rt[index] >= middle && rt[index] <= max) {
+        maybeInLiers.set(index);
+        cont++;
       }
-      return true;
-    } else {
-      return false;
+      bucle++;
     }
+    if (bucle >= 1000) {
+      getN(maybeInLiers, rt.length, n - cont, random);
+    }
+    return maybeInLiers;
   }
 
-  private void getN(List<AlignStructMol> data, int newN) {
+  private void getN(BitSet maybeInLiers, int size, int newN, SplittableRandom random) {
     if (newN < 1) {
       return;
     }
     int cont = 0;
     while (cont < newN) {
-      int index = (int) (data.size() * Math.random());
-      if (!data.get(index).ransacMaybeInLiers) {
-        data.get(index).ransacMaybeInLiers = true;
+      int index = random.nextInt(size);
+      if (!maybeInLiers.get(index)) {
+        maybeInLiers.set(index);
         cont++;
       }
     }
   }
 
-  private void fittPolinomialFunction(List<AlignStructMol> data, boolean linear) {
-    List<AlignStructMol> points = new ArrayList<AlignStructMol>();
+  /**
+   * @return the polynomial function through the given points, or null if the fit fails
+   */
+  private PolynomialFunction fittPolinomialFunction(BitSet points, double rt[], double rt2[]) {
 
     int degree = 3;
-    if (linear) {
+    if (Linear) {
       degree = 1;
     }
 
     PolynomialFitter fitter = new PolynomialFitter(degree, new GaussNewtonOptimizer(true));
-    for (int i = 0; i < data.size(); i++) {
-      AlignStructMol point = data.get(i);
-      if (point.ransacMaybeInLiers) {
-        points.add(point);
-        fitter.addObservedPoint(1, point.RT, point.RT2);
-      }
+    for (int i = points.nextSetBit(0); i >= 0; i = points.nextSetBit(i + 1)) {
+      fitter.addObservedPoint(1, rt[i], rt2[i]);
     }
     try {
-      PolynomialFunction function = fitter.fit();
-      for (AlignStructMol point : data) {
-        double y = point.RT2;
-        double bestY = function.value(point.RT);
-        if (Math.abs(y - bestY) < t) {
-          point.ransacAlsoInLiers = true;
-          AlsoNumber++;
-        } else {
-          point.ransacAlsoInLiers = false;
-        }
-      }
+      return fitter.fit();
     } catch (Exception ex) {
+      return null;
     }
   }
 
-  /**
-   * calculate the error in the model
-   * 
-   * @param data vector with the points which represent all possible alignments.
-   * @param regression regression of the alignment points
-   * @return the error in the model
-   */
-  private double newError(List<AlignStructMol> data) throws Exception {
+  private static class Model {
 
-    double numT = 1;
-    for (int i = 0; i < data.size(); i++) {
-      if (data.get(i).ransacAlsoInLiers || data.get(i).ransacMaybeInLiers) {
-        numT++;
-      }
-    }
-    return 1 / numT;
+    private final int iteration;
+    private final PolynomialFunction function;
+    private final BitSet inLiers;
 
+    private Model(int iteration, PolynomialFunction function, BitSet inLiers) {
+      this.iteration = iteration;
+      this.function = function;
+      this.inLiers = inLiers;
+    }
   }
 }
@@ -26,18 +26,21 @@ import java.util.List;
 import java.util.TreeSet;
 import java.util.logging.Logger;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowIndex;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.RangeUtils;
 
@@ -57,7 +60,8 @@ class RansacAlignerTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final MZmineProject project;
-  private PeakList peakLists[], alignedPeakList;
+  private PeakList peakLists[];
+  private SimplePeakList alignedPeakList;
   // Processed rows counter
   private int processedRows, totalRows;
   // Parameters
@@ -68,6 +72,8 @@ class RansacAlignerTask extends AbstractTask {
   private boolean sameChargeRequired;
   // ID counter for the new peaklist
   private int newRowID = 1;
+  // Shared by all peak lists, so the RT model of one peak list is tried first on the next one
+  private RANSAC ransac;
 
   public RansacAlignerTask(MZmineProject project, PeakList[] peakLists, ParameterSet parameters) {
 
@@ -88,6 +94,8 @@ class RansacAlignerTask extends AbstractTask {
     sameChargeRequired =
         parameters.getParameter(RansacAlignerParameters.SameChargeRequired).getValue();
 
+    ransac = new RANSAC(parameters);
+
   }
 
   /**
@@ -153,7 +161,7 @@ class RansacAlignerTask extends AbstractTask {
 
         // If we have no mapping for this row, add a new one
         if (targetRow == null) {
-          targetRow = new SimplePeakListRow(newRowID);
+          targetRow = new DensePeakListRow(newRowID, alignedPeakList);
           newRowID++;
           alignedPeakList.addRow(targetRow);
         }
@@ -227,6 +235,8 @@ class RansacAlignerTask extends AbstractTask {
     PolynomialFunction function = this.getPolynomialFunction(list);
 
     PeakListRow allRows[] = peakList.getRows();
+    PeakListRowIndex alignedRows =
+        new PeakListRowIndex(alignedPeakList.getRows(), rtToleranceAfter);
 
     for (PeakListRow row : allRows) {
       // Calculate limits for a row with which the row can be aligned
@@ -245,7 +255,7 @@ class RansacAlignerTask extends AbstractTask {
       Range<Double> rtRange = rtToleranceAfter.getToleranceRange(rt);
 
       // Get all rows of the aligned peaklist within parameter limits
-      PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
+      PeakListRow candidateRows[] = getRowsInside(alignedRows, rtRange, mzRange);
 
       for (PeakListRow candidate : candidateRows) {
         RowVsRowScore score;
@@ -301,7 +311,6 @@ class RansacAlignerTask extends AbstractTask {
    */
   private List<AlignStructMol> ransacPeakLists(PeakList alignedPeakList, PeakList peakList) {
     List<AlignStructMol> list = this.getVectorAlignment(alignedPeakList, peakList);
-    RANSAC ransac = new RANSAC(parameters);
     ransac.alignment(list);
     return list;
   }
@@ -380,6 +389,7 @@ class RansacAlignerTask extends AbstractTask {
   private List<AlignStructMol> getVectorAlignment(PeakList peakListX, PeakList peakListY) {
 
     List<AlignStructMol> alignMol = new ArrayList<AlignStructMol>();
+    PeakListRowIndex rowsY = new PeakListRowIndex(peakListY.getRows(), rtToleranceBefore);
     for (PeakListRow row : peakListX.getRows()) {
 
       if (isCanceled()) {
@@ -390,7 +400,7 @@ class RansacAlignerTask extends AbstractTask {
       Range<Double> rtRange = rtToleranceBefore.getToleranceRange(row.getAverageRT());
 
       // Get all rows of the aligned peaklist within parameter limits
-      PeakListRow candidateRows[] = peakListY.getRowsInsideScanAndMZRange(rtRange, mzRange);
+      PeakListRow candidateRows[] = getRowsInside(rowsY, rtRange, mzRange);
 
       for (PeakListRow candidateRow : candidateRows) {
         alignMol.add(new AlignStructMol(row, candidateRow));
@@ -399,4 +409,19 @@ class RansacAlignerTask extends AbstractTask {
 
     return alignMol;
   }
+
+  /**
+   * Same as PeakList.getRowsInsideScanAndMZRange(), but searches the index instead of all rows. The
+   * rows are returned in the order of the peak list.
+   */
+  private static PeakListRow[] getRowsInside(PeakListRowIndex index, Range<Double> rtRange,
+      Range<Double> mzRange) {
+    IntArrayList positions = new IntArrayList();
+    index.forEachInRange(mzRange, rtRange, positions::add);
+    positions.sort(null);
+    PeakListRow rows[] = new PeakListRow[positions.size()];
+    for (int i = 0; i < rows.length; i++)
+      rows[i] = index.getRow(positions.getInt(i));
+    return rows;
+  }
 }
@@ -19,6 +19,7 @@
 package net.sf.mzmine.modules.peaklistmethods.filtering.duplicatefilter;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.sf.mzmine.datamodel.Feature;
@@ -57,7 +58,7 @@ public class DuplicateFilterTask extends AbstractTask {
   private PeakList filteredPeakList;
 
   // Counters.
-  private int processedRows;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
   private int totalRows;
 
   // Parameters.
@@ -72,7 +73,6 @@ public class DuplicateFilterTask extends AbstractTask {
     peakList = list;
     filteredPeakList = null;
     totalRows = 0;
-    processedRows = 0;
   }
 
   @Override
@@ -84,7 +84,7 @@ public class DuplicateFilterTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -160,50 +160,64 @@ public class DuplicateFilterTask extends AbstractTask {
     // filter by average mz and rt
     boolean filterByAvgRTMZ = !mode.equals(FilterMode.SINGLE_FEATURE);
 
-    // Loop through all peak list rows
-    processedRows = 0;
+    // Hash the rows into m/z x RT cells, so each row is only compared to the rows in the
+    // neighbouring cells
+    processedRows.set(0);
+    totalRows = 2 * rowCount;
+    final PeakListRow[] originalRows = peakListRows.clone();
+    final RowGrid grid =
+        new RowGrid(originalRows, rawFiles, filterByAvgRTMZ, mzTolerance, rtTolerance);
+
+    // Copy all rows and find their duplicates in parallel. These remain valid until a duplicate
+    // is merged into the copy.
+    final PeakListRow[] firstRows = new PeakListRow[rowCount];
+    final int[][] duplicates = new int[rowCount][];
+    Arrays.parallelSetAll(duplicates, i -> {
+      if (isCanceled())
+        return null;
+      firstRows[i] = copyRow(originalRows[i]);
+      int[] found = findDuplicates(grid, originalRows, rawFiles, firstRows[i], i, mzTolerance,
+          rtTolerance, requireSameId, filterByAvgRTMZ);
+      processedRows.incrementAndGet();
+      return found;
+    });
+
+    // Loop through all peak list rows, in the same order as comparing all pairs of rows
     int n = 0;
-    totalRows = rowCount;
     for (int firstRowIndex = 0; !isCanceled() && firstRowIndex < rowCount; firstRowIndex++) {
 
       final PeakListRow mainRow = peakListRows[firstRowIndex];
 
       if (mainRow != null) {
-        // copy first row
-        PeakListRow firstRow = copyRow(mainRow);
+        // copy of the first row
+        PeakListRow firstRow = firstRows[firstRowIndex];
 
-        for (int secondRowIndex = firstRowIndex + 1; !isCanceled()
-            && secondRowIndex < rowCount; secondRowIndex++) {
+        int[] candidates = duplicates[firstRowIndex];
+        for (int c = 0; !isCanceled() && c < candidates.length; c++) {
 
+          final int secondRowIndex = candidates[c];
           final PeakListRow secondRow = peakListRows[secondRowIndex];
           if (secondRow != null) {
-            // Compare identifications
-            final boolean sameID =
-                !requireSameId || PeakUtils.compareIdentities(firstRow, secondRow);
-
-            boolean sameMZRT = filterByAvgRTMZ ? // average or single feature
-                checkSameAverageRTMZ(firstRow, secondRow, mzTolerance, rtTolerance)
-                : checkSameSingleFeatureRTMZ(rawFiles, firstRow, secondRow, mzTolerance,
-                    rtTolerance);
-
-            // Duplicate peaks?
-            if (sameID && sameMZRT) {
-              // create consensus row in new filter
-              if (!mode.equals(FilterMode.OLD_AVERAGE)) {
-                // copy all detected features of row2 into row1
-                // to exchange gap-filled against detected features
-                createConsensusFirstRow(rawFiles, firstRow, secondRow);
-              }
-              // second row deleted
-              n++;
-              peakListRows[secondRowIndex] = null;
+            // create consensus row in new filter
+            if (!mode.equals(FilterMode.OLD_AVERAGE)) {
+              // copy all detected features of row2 into row1
+              // to exchange gap-filled against detected features
+              createConsensusFirstRow(rawFiles, firstRow, secondRow);
+
+              // The consensus row may have changed, search the remaining rows again
+              candidates = findDuplicates(grid, originalRows, rawFiles, firstRow, secondRowIndex,
+                  mzTolerance, rtTolerance, requireSameId, filterByAvgRTMZ);
+              c = -1;
             }
+            // second row deleted
+            n++;
+            peakListRows[secondRowIndex] = null;
           }
         }
         // add to new list
         newPeakList.addRow(firstRow);
       }
-      processedRows++;
+      processedRows.incrementAndGet();
     }
 
     // finalize
@@ -222,6 +236,36 @@ public class DuplicateFilterTask extends AbstractTask {
     return newPeakList;
   }
 
+  /**
+   * Finds the duplicates of a row among the rows after a given index
+   * 
+   * @param grid grid of all rows
+   * @param rows all rows, sorted
+   * @param rawFiles
+   * @param firstRow row to compare
+   * @param afterIndex only rows with a higher index are compared
+   * @return indexes of all duplicate rows in ascending order
+   */
+  private int[] findDuplicates(RowGrid grid, PeakListRow[] rows, RawDataFile[] rawFiles,
+      PeakListRow firstRow, int afterIndex, MZTolerance mzTolerance, RTTolerance rtTolerance,
+      boolean requireSameId, boolean filterByAvgRTMZ) {
+    return Arrays.stream(grid.getCandidates(firstRow, mzTolerance, rtTolerance, afterIndex))
+        .filter(i -> {
+          final PeakListRow secondRow = rows[i];
+          // Compare identifications
+          final boolean sameID =
+              !requireSameId || PeakUtils.compareIdentities(firstRow, secondRow);
+
+          boolean sameMZRT = filterByAvgRTMZ ? // average or single feature
+              checkSameAverageRTMZ(firstRow, secondRow, mzTolerance, rtTolerance)
+              : checkSameSingleFeatureRTMZ(rawFiles, firstRow, secondRow, mzTolerance,
+                  rtTolerance);
+
+          // Duplicate peaks?
+          return sameID && sameMZRT;
+        }).toArray();
+  }
+
   /**
    * Turns firstRow to consensus row. With all features with highest FeatureStatus:
    * DETECTED>ESTIMATED>UNKNOWN Or the highest feature when comparing two ESTIMATED features
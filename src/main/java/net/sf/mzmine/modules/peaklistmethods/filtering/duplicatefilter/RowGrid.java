@@ -0,0 +1,169 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.filtering.duplicatefilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+
+/**
+ * Hashes peak list rows into m/z x RT cells, which are sized by the tolerances, so possible
+ * duplicates of a row are found by visiting the few cells overlapping its tolerance ranges. Rows are
+ * either hashed by their average m/z and RT or, to compare single features, by the m/z and RT of
+ * their features in each raw data file. The grid is read-only after construction and can be
+ * queried from several threads.
+ */
+class RowGrid {
+
+  // maximum number of cells per dimension, for very small tolerances
+  private static final double MAX_CELLS = 1 << 20;
+
+  private final boolean averageMode;
+  private final RawDataFile rawFiles[];
+
+  private final double minMZ, minRT, mzCellWidth, rtCellWidth;
+  private final long mzCells, rtCells;
+
+  // one map from cell to row indexes per raw data file, or a single map in average mode
+  private final List<Map<Long, int[]>> cells;
+
+  RowGrid(PeakListRow rows[], RawDataFile rawFiles[], boolean averageMode,
+      MZTolerance mzTolerance, RTTolerance rtTolerance) {
+
+    this.averageMode = averageMode;
+    this.rawFiles = rawFiles;
+    final int numGrids = averageMode ? 1 : rawFiles.length;
+
+    // Collect all points
+    List<List<double[]>> points = new ArrayList<>();
+    double mzMin = Double.POSITIVE_INFINITY, mzMax = Double.NEGATIVE_INFINITY;
+    double rtMin = Double.POSITIVE_INFINITY, rtMax = Double.NEGATIVE_INFINITY;
+    for (int g = 0; g < numGrids; g++) {
+      List<double[]> gridPoints = new ArrayList<>();
+      for (int i = 0; i < rows.length; i++) {
+        double mz, rt;
+        if (averageMode) {
+          mz = rows[i].getAverageMZ();
+          rt = rows[i].getAverageRT();
+        } else {
+          Feature f = rows[i].getPeak(rawFiles[g]);
+          if (f == null)
+            continue;
+          mz = f.getMZ();
+          rt = f.getRT();
+        }
+        gridPoints.add(new double[] {mz, rt, i});
+        mzMin = Math.min(mzMin, mz);
+        mzMax = Math.max(mzMax, mz);
+        rtMin = Math.min(rtMin, rt);
+        rtMax = Math.max(rtMax, rt);
+      }
+      points.add(gridPoints);
+    }
+    if (mzMin > mzMax) {
+      mzMin = mzMax = rtMin = rtMax = 0;
+    }
+    minMZ = mzMin;
+    minRT = rtMin;
+
+    // The widest tolerances are at the highest values
+    mzCellWidth = getCellWidth(mzTolerance.getMzToleranceForMass(mzMax), mzMax - mzMin);
+    Range<Double> rtRange = rtTolerance.getToleranceRange(rtMax);
+    rtCellWidth = getCellWidth((rtRange.upperEndpoint() - rtRange.lowerEndpoint()) / 2,
+        rtMax - rtMin);
+    mzCells = (long) ((mzMax - mzMin) / mzCellWidth) + 1;
+    rtCells = (long) ((rtMax - rtMin) / rtCellWidth) + 1;
+
+    // Fill the cells, row indexes are sorted within each cell
+    cells = new ArrayList<>(numGrids);
+    for (List<double[]> gridPoints : points) {
+      Map<Long, List<Integer>> lists = new HashMap<>();
+      for (double p[] : gridPoints) {
+        long key = getMZCell(p[0]) * rtCells + getRTCell(p[1]);
+        lists.computeIfAbsent(key, k -> new ArrayList<>()).add((int) p[2]);
+      }
+      Map<Long, int[]> gridCells = new HashMap<>(lists.size() * 2);
+      for (Map.Entry<Long, List<Integer>> e : lists.entrySet())
+        gridCells.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+      cells.add(gridCells);
+    }
+  }
+
+  private static double getCellWidth(double tolerance, double span) {
+    double width = Math.max(tolerance, span / MAX_CELLS);
+    return width > 0 ? width : 1;
+  }
+
+  private long getMZCell(double mz) {
+    return Math.min(mzCells - 1, Math.max(0, (long) Math.floor((mz - minMZ) / mzCellWidth)));
+  }
+
+  private long getRTCell(double rt) {
+    return Math.min(rtCells - 1, Math.max(0, (long) Math.floor((rt - minRT) / rtCellWidth)));
+  }
+
+  /**
+   * Finds all rows which may be within the tolerances of the given row
+   *
+   * @param row the row to compare, does not need to be part of the grid
+   * @param mzTolerance m/z tolerance
+   * @param rtTolerance RT tolerance
+   * @param afterIndex only rows with a higher index are returned
+   * @return sorted indexes of the rows in the neighbouring cells
+   */
+  int[] getCandidates(PeakListRow row, MZTolerance mzTolerance, RTTolerance rtTolerance,
+      int afterIndex) {
+    List<int[]> found = new ArrayList<>();
+    if (averageMode) {
+      addCandidates(cells.get(0), mzTolerance.getToleranceRange(row.getAverageMZ()),
+          rtTolerance.getToleranceRange(row.getAverageRT()), found);
+    } else {
+      for (int g = 0; g < rawFiles.length; g++) {
+        Feature f = row.getPeak(rawFiles[g]);
+        if (f != null)
+          addCandidates(cells.get(g), mzTolerance.getToleranceRange(f.getMZ()),
+              rtTolerance.getToleranceRange(f.getRT()), found);
+      }
+    }
+    return found.stream().flatMapToInt(Arrays::stream).filter(i -> i > afterIndex).sorted()
+        .distinct().toArray();
+  }
+
+  private void addCandidates(Map<Long, int[]> gridCells, Range<Double> mzRange,
+      Range<Double> rtRange, List<int[]> found) {
+    long mzFirst = getMZCell(mzRange.lowerEndpoint()), mzLast = getMZCell(mzRange.upperEndpoint());
+    long rtFirst = getRTCell(rtRange.lowerEndpoint()), rtLast = getRTCell(rtRange.upperEndpoint());
+    for (long m = mzFirst; m <= mzLast; m++) {
+      for (long r = rtFirst; r <= rtLast; r++) {
+        int cell[] = gridCells.get(m * rtCells + r);
+        if (cell != null)
+          found.add(cell);
+      }
+    }
+  }
+
+}
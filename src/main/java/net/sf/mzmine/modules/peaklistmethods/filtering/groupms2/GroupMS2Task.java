@@ -21,13 +21,11 @@ package net.sf.mzmine.modules.peaklistmethods.filtering.groupms2;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -99,49 +97,8 @@ public class GroupMS2Task extends AbstractTask {
           if (isCanceled())
             return;
 
-          RawDataFile raw = f.getDataFile();
-          IntArrayList scans = new IntArrayList();
-          int best = f.getRepresentativeScanNumber();
-          double frt = f.getRT();
-          double fmz = f.getMZ();
-          Range<Double> rtRange = f.getRawDataPointsRTRange();
-          int i = best;
-          // left
-          while (i > 1) {
-            i--;
-            Scan scan = raw.getScan(i);
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
-          }
-          int[] scanNumbers = raw.getScanNumbers();
-          // right
-          while (i < scanNumbers[scanNumbers.length - 1]) {
-            i++;
-            Scan scan = raw.getScan(i);
-            // scanID does not have to be contiguous
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
-          }
           // set list to feature
-          f.setAllMS2FragmentScanNumbers(scans.toIntArray());
+          f.setAllMS2FragmentScanNumbers(findMS2Scans(f, rtTol, mzTol, limitRTByFeature));
         }
         processedRows++;
       }
@@ -158,6 +115,27 @@ public class GroupMS2Task extends AbstractTask {
 
   }
 
+  /**
+   * MS2 and higher level scans of the feature's raw data file with a precursor m/z and retention
+   * time within tolerance of the feature
+   *
+   * @param limitRTByFeature only scans within the RT range of the feature
+   * @return sorted scan numbers
+   */
+  static int[] findMS2Scans(Feature f, RTTolerance rtTol, MZTolerance mzTol,
+      boolean limitRTByFeature) {
+    RawDataFile raw = f.getDataFile();
+    Range<Double> rtRange = rtTol.getToleranceRange(f.getRT());
+    if (limitRTByFeature) {
+      Range<Double> featureRTRange = f.getRawDataPointsRTRange();
+      if (!rtRange.isConnected(featureRTRange))
+        return new int[0];
+      rtRange = rtRange.intersection(featureRTRange);
+    }
+    Range<Double> mzRange = mzTol.getToleranceRange(f.getMZ());
+    return raw.getPrecursorIndex().getScanNumbers(rtRange, mzRange);
+  }
+
 }
 
 
@@ -31,23 +31,24 @@ import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.sweep.ScanSweep;
 
 class PeakFinderTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final MZmineProject project;
-  private PeakList peakList, processedPeakList;
+  private PeakList peakList;
+  private SimplePeakList processedPeakList;
   private String suffix;
   private double intTolerance;
   private MZTolerance mzTolerance;
@@ -92,7 +93,7 @@ class PeakFinderTask extends AbstractTask {
     // Fill new peak list with empty rows
     for (int row = 0; row < peakList.getNumberOfRows(); row++) {
       PeakListRow sourceRow = peakList.getRow(row);
-      PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+      PeakListRow newRow = new DensePeakListRow(sourceRow.getID(), processedPeakList);
       newRow.setComment(sourceRow.getComment());
       for (PeakIdentity ident : sourceRow.getPeakIdentities()) {
         newRow.addPeakIdentity(ident, false);
@@ -168,32 +169,13 @@ class PeakFinderTask extends AbstractTask {
           return;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = dataFile.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
-            return;
-          }
-
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
+        // Decode each scan of this data file once for all gaps, the sweep
+        // finalizes the gaps (if canceled, this only skips this element)
+        ScanSweep sweep = new ScanSweep(dataFile, 1);
         for (Gap gap : gaps) {
-          gap.noMoreOffers();
+          sweep.addConsumer(gap);
         }
+        sweep.run(this::isCanceled, processedScans::incrementAndGet);
       });
     }
     // terminate - stream only skips all elements
@@ -304,30 +286,14 @@ class PeakFinderTask extends AbstractTask {
           continue;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = datafile1.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-
-          // Canceled?
-          if (isCanceled()) {
-            return;
-          }
-
-          // Get the scan
-          Scan scan = datafile1.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
+        // Decode each scan of this data file once for all gaps, the sweep
+        // finalizes the gaps
+        ScanSweep sweep = new ScanSweep(datafile1, 1);
         for (Gap gap : gaps) {
-          gap.noMoreOffers();
+          sweep.addConsumer(gap);
+        }
+        if (!sweep.run(this::isCanceled, processedScans::incrementAndGet)) {
+          return;
         }
       }
     }
@@ -25,7 +25,7 @@ import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.MZmineCore;
@@ -141,7 +141,7 @@ class MultiThreadPeakFinderMainTask extends AbstractTask {
     // Fill new peak list with empty rows
     for (int row = 0; row < peakList.getNumberOfRows(); row++) {
       PeakListRow sourceRow = peakList.getRow(row);
-      PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+      PeakListRow newRow = new DensePeakListRow(sourceRow.getID(), processedPeakList);
       newRow.setComment(sourceRow.getComment());
       for (PeakIdentity ident : sourceRow.getPeakIdentities()) {
         newRow.addPeakIdentity(ident, false);
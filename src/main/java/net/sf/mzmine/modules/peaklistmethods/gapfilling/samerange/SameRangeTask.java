@@ -35,7 +35,7 @@ import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.DensePeakListRow;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
@@ -49,7 +49,8 @@ class SameRangeTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final MZmineProject project;
-  private PeakList peakList, processedPeakList;
+  private PeakList peakList;
+  private SimplePeakList processedPeakList;
 
   private String suffix;
   private MZTolerance mzTolerance;
@@ -100,7 +101,7 @@ class SameRangeTask extends AbstractTask {
       if (isCanceled())
         return;
 
-      PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+      PeakListRow newRow = new DensePeakListRow(sourceRow.getID(), processedPeakList);
 
       // Copy comment
       newRow.setComment(sourceRow.getComment());
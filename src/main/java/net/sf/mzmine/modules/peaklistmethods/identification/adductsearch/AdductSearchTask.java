@@ -23,7 +23,10 @@ import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.MZ_TOLERANCE;
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,16 +41,18 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowIndex;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
+import com.google.common.collect.Range;
 
 public class AdductSearchTask extends AbstractTask {
 
   // Logger.
   private static final Logger LOG = Logger.getLogger(AdductSearchTask.class.getName());
 
-  private int finishedRows;
+  private final AtomicInteger finishedRows;
   private int totalRows;
   private final PeakList peakList;
 
@@ -69,7 +74,7 @@ public class AdductSearchTask extends AbstractTask {
     peakList = list;
     parameters = parameterSet;
 
-    finishedRows = 0;
+    finishedRows = new AtomicInteger(0);
     totalRows = 0;
 
     rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
@@ -81,7 +86,7 @@ public class AdductSearchTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) finishedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) finishedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -136,34 +141,33 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
-
-        if (i == j)
-          continue;
-
-        findAdducts(rows[i], rows[j]);
-      }
-
-      finishedRows++;
-    }
-  }
-
-  /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
-   *
-   * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
-   */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
-
-    for (final AdductType adduct : selectedAdducts) {
-
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+    // Index the rows by m/z and RT, so the adducts of each row are found by a binary search for
+    // their expected m/z.
+    final PeakListRowIndex index = new PeakListRowIndex(rows, rtTolerance);
+
+    // Search the adducts of all rows in parallel. Adducts of row i are stored as pairs of adduct
+    // and row index in matches[i].
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] matches = new List[totalRows];
+    Arrays.parallelSetAll(matches, i -> {
+      if (isCanceled())
+        return null;
+      List<int[]> found = findAdducts(index, i);
+      finishedRows.incrementAndGet();
+      return found;
+    });
+
+    if (isCanceled())
+      return;
+
+    // Add the identities in the order of the main rows, starting with the highest peaks.
+    for (int i = 0; i < totalRows; i++) {
+      for (final int[] match : matches[i]) {
 
         // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+        final PeakListRow possibleAdduct = rows[match[1]];
+        possibleAdduct.addPeakIdentity(new AdductIdentity(rows[i], selectedAdducts[match[0]]),
+            false);
         MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(possibleAdduct,
             false);
       }
@@ -171,26 +175,30 @@ public class AdductSearchTask extends AbstractTask {
   }
 
   /**
-   * Check if candidate peak is a given type of adduct of given main peak.
+   * Find all rows which may be adducts of a given main row. The mass difference, retention time
+   * tolerance and adduct peak height conditions must be met.
    *
-   * @param mainPeak main peak.
-   * @param possibleAdduct candidate adduct peak.
-   * @param adduct adduct.
-   * @return true if mass difference, retention time tolerance and adduct peak height conditions are
-   *         met.
+   * @param index index of all rows.
+   * @param mainRow index of the main row.
+   * @return pairs of adduct type and row index.
    */
-  private boolean checkAdduct(final PeakListRow mainPeak, final PeakListRow possibleAdduct,
-      final AdductType adduct) {
+  private List<int[]> findAdducts(final PeakListRowIndex index, final int mainRow) {
+
+    final List<int[]> found = new ArrayList<>();
+    final Range<Double> rtRange = rtTolerance.getToleranceRange(index.getRT(mainRow));
+    final double maxHeight = index.getHeight(mainRow) * maxAdductHeight;
 
-    return
-    // Check mass difference condition.
-    mzTolerance.checkWithinTolerance(mainPeak.getAverageMZ() + adduct.getMassDifference(),
-        possibleAdduct.getAverageMZ())
+    for (int a = 0; a < selectedAdducts.length; a++) {
 
-        // Check retention time condition.
-        && rtTolerance.checkWithinTolerance(mainPeak.getAverageRT(), possibleAdduct.getAverageRT())
+      final int adduct = a;
+      final Range<Double> mzRange = mzTolerance
+          .getToleranceRange(index.getMZ(mainRow) + selectedAdducts[a].getMassDifference());
 
-        // Check height condition.
-        && possibleAdduct.getAverageHeight() <= mainPeak.getAverageHeight() * maxAdductHeight;
+      index.forEachInRange(mzRange, rtRange, possibleAdduct -> {
+        if (possibleAdduct != mainRow && index.getHeight(possibleAdduct) <= maxHeight)
+          found.add(new int[] {adduct, possibleAdduct});
+      });
+    }
+    return found;
   }
 }
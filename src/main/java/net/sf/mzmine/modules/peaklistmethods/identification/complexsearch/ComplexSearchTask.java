@@ -18,7 +18,10 @@
 
 package net.sf.mzmine.modules.peaklistmethods.identification.complexsearch;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IonizationType;
@@ -34,6 +37,7 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.PeakListRowIndex;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
@@ -44,7 +48,8 @@ public class ComplexSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  private AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
   private PeakList peakList;
 
   private RTTolerance rtTolerance;
@@ -75,7 +80,7 @@ public class ComplexSearchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0;
-    return ((double) finishedRows) / totalRows;
+    return ((double) finishedRows.get()) / totalRows;
   }
 
   /**
@@ -97,38 +102,36 @@ public class ComplexSearchTask extends AbstractTask {
     PeakListRow rows[] = peakList.getRows();
     totalRows = rows.length;
 
-    // Sort the array by m/z so we start with biggest peak (possible
-    // complex)
-    Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending));
-
-    // Compare each three rows against each other
-    for (int i = 0; i < totalRows; i++) {
-
-      Range<Double> testRTRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
-      PeakListRow testRows[] = peakList.getRowsInsideScanRange(testRTRange);
-
-      for (int j = 0; j < testRows.length; j++) {
-
-        for (int k = j; k < testRows.length; k++) {
-
-          // Task canceled?
-          if (isCanceled())
-            return;
-
-          // To avoid finding a complex of the peak itself and another
-          // very small m/z peak
-          if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
-            continue;
-
-          if (checkComplex(rows[i], testRows[j], testRows[k]))
-            addComplexInfo(rows[i], testRows[j], testRows[k]);
-
-        }
-
-      }
-
-      finishedRows++;
-
+    // Index the rows by m/z and RT, so for each pair of a complex candidate and its first part,
+    // the second part is found by a binary search for the remaining mass
+    PeakListRowIndex index = new PeakListRowIndex(rows, rtTolerance);
+
+    // Search the parts of all complex candidates in parallel. The pairs of row indexes found for
+    // row i are stored in matches[i].
+    @SuppressWarnings("unchecked")
+    List<int[]> matches[] = new List[totalRows];
+    Arrays.parallelSetAll(matches, i -> {
+      if (isCanceled())
+        return null;
+      List<int[]> found = findComplexParts(index, i);
+      finishedRows.incrementAndGet();
+      return found;
+    });
+
+    if (isCanceled())
+      return;
+
+    // Add the identities in the original order: starting with the biggest m/z (possible complex),
+    // and for each complex the pairs of parts in the order of the peak list
+    Integer order[] = new Integer[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      order[i] = i;
+    PeakListRowSorter sorter =
+        new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending);
+    Arrays.sort(order, (i1, i2) -> sorter.compare(rows[i1], rows[i2]));
+    for (int i : order) {
+      for (int pair[] : matches[i])
+        addComplexInfo(rows[i], rows[pair[0]], rows[pair[1]]);
     }
 
     // Add task description to peakList
@@ -147,32 +150,47 @@ public class ComplexSearchTask extends AbstractTask {
   }
 
   /**
-   * Check if candidate peak may be a possible complex of given two peaks
+   * Find all pairs of rows which may form the given complex row. Both rows must be within the
+   * retention time tolerance of the complex, their masses must add up to the complex mass and the
+   * complex must not exceed the maximum height relative to both of them.
    * 
+   * @return pairs of row indexes, ordered as in the peak list
    */
-  private boolean checkComplex(PeakListRow complexRow, PeakListRow row1, PeakListRow row2) {
-
-    // Check retention time condition
-    Range<Double> rtRange = rtTolerance.getToleranceRange(complexRow.getAverageRT());
-    if (!rtRange.contains(row1.getAverageRT()))
-      return false;
-    if (!rtRange.contains(row2.getAverageRT()))
-      return false;
-
-    // Check mass condition
-    double expectedMass = row1.getAverageMZ() + row2.getAverageMZ() - (2 * ionType.getAddedMass());
-    double detectedMass = complexRow.getAverageMZ() - ionType.getAddedMass();
+  private List<int[]> findComplexParts(PeakListRowIndex index, int complexRow) {
+
+    List<int[]> found = new ArrayList<>();
+
+    Range<Double> rtRange = rtTolerance.getToleranceRange(index.getRT(complexRow));
+    double addedMass = ionType.getAddedMass();
+    double detectedMass = index.getMZ(complexRow) - addedMass;
     Range<Double> mzRange = mzTolerance.getToleranceRange(detectedMass);
-    if (!mzRange.contains(expectedMass))
-      return false;
+    double minHeight = index.getHeight(complexRow);
 
-    // Check height condition
-    if ((complexRow.getAverageHeight() > row1.getAverageHeight() * maxComplexHeight)
-        || (complexRow.getAverageHeight() > row2.getAverageHeight() * maxComplexHeight))
-      return false;
+    // m/z of row1 + m/z of row2 - 2 * added mass must be within the range of the detected mass.
+    // Each pair is found once, from the part with the lower m/z.
+    double maxPartSum = mzRange.upperEndpoint() + 2 * addedMass;
+    index.forEachInRange(Double.NEGATIVE_INFINITY, maxPartSum / 2, rtRange.lowerEndpoint(),
+        rtRange.upperEndpoint(), row1 -> {
 
-    return true;
+          // To avoid finding a complex of the peak itself and another very small m/z peak
+          if (row1 == complexRow || minHeight > index.getHeight(row1) * maxComplexHeight)
+            return;
 
+          double mz1 = index.getMZ(row1);
+          index.forEachInRange(mzRange.lowerEndpoint() + 2 * addedMass - mz1, maxPartSum - mz1,
+              rtRange.lowerEndpoint(), rtRange.upperEndpoint(), row2 -> {
+                double mz2 = index.getMZ(row2);
+                if (row2 == complexRow || mz2 < mz1 || (mz2 == mz1 && row2 < row1)
+                    || minHeight > index.getHeight(row2) * maxComplexHeight)
+                  return;
+                found.add(new int[] {Math.min(row1, row2), Math.max(row1, row2)});
+              });
+        });
+
+    // Keep the order of the identities independent of the index
+    found.sort((p1, p2) -> p1[0] != p2[0] ? Integer.compare(p1[0], p2[0])
+        : Integer.compare(p1[1], p2[1]));
+    return found;
   }
 
   /**
@@ -43,6 +43,16 @@ public class ElementalHeuristicChecker {
         eH += formula.getIsotopeCount(isotope);
     }
 
+    return checkCounts(eC, eH, eN, eO, eP, eS, parameters);
+
+  }
+
+  /**
+   * Same as checkFormula, for the given numbers of C, H, N, O, P and S atoms
+   */
+  public static boolean checkCounts(double eC, double eH, double eN, double eO, double eP,
+      double eS, ParameterSet parameters) {
+
     // If there is no carbon, consider the formula OK
     if (eC == 0)
       return true;
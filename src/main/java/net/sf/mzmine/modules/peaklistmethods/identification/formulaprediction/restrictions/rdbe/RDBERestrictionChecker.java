@@ -94,6 +94,13 @@ public class RDBERestrictionChecker {
     return sum;
   }
 
+  /**
+   * Returns the ground valence of the given element, or null if the element is not known
+   */
+  public static Integer getValence(String symbol) {
+    return valences.get(symbol);
+  }
+
   public static boolean checkRDBE(double rdbeValue, ParameterSet parameters) {
 
     boolean mustBeInteger =
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.elements.ElementalHeuristicChecker;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.elements.ElementalHeuristicParameters;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionParameters;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * All formulas within the element count ranges and up to a maximum mass, sorted by mass. Formulas
+ * failing the element count heuristics or RDBE restrictions, which do not depend on the peak, are
+ * left out. The formulas of a peak are then found by binary search instead of enumerating them
+ * again for every peak.
+ *
+ * Indexes are cached in the user's home directory, keyed by the element ranges, maximum mass and
+ * restrictions. When the cache grows over MAX_CACHE_SIZE, the least recently used indexes are
+ * deleted.
+ */
+class FormulaMassIndex {
+
+  private static final Logger logger = Logger.getLogger(FormulaMassIndex.class.getName());
+
+  // Larger indexes take too much memory, the formulas are then generated for each peak
+  private static final int MAX_FORMULAS = 10000000;
+
+  // The maximum mass is rounded up, so similar peak lists can use the same index
+  private static final double MASS_STEP = 100;
+
+  private static final int FILE_VERSION = 1;
+
+  private static final File CACHE_DIR = new File(System.getProperty("user.home"),
+      ".mzmine" + File.separator + "formulaindex");
+
+  // A single index can take about 200 MB
+  private static final long MAX_CACHE_SIZE = 1L << 30;
+
+  // Elements of the heuristic checks, see ElementalHeuristicChecker
+  private static final String HEURISTIC_ELEMENTS[] = {"C", "H", "N", "O", "P", "S"};
+
+  private final IIsotope isotopes[];
+  private final double masses[];
+
+  // Element counts of the formulas, isotopes.length values per formula
+  private final short counts[];
+
+  private FormulaMassIndex(IIsotope isotopes[], double masses[], short counts[]) {
+    this.isotopes = isotopes;
+    this.masses = masses;
+    this.counts = counts;
+  }
+
+  /**
+   * Loads the index from the cache, or enumerates the formulas and caches the index.
+   *
+   * @param ratiosParameters element count heuristics, or null if not checked
+   * @param rdbeParameters RDBE restrictions, or null if not checked
+   * @return the index, or null if it would be too large or canceled is true
+   */
+  static FormulaMassIndex getIndex(MolecularFormulaRange elementCounts, double maxMass,
+      ParameterSet ratiosParameters, ParameterSet rdbeParameters, BooleanSupplier canceled) {
+
+    final IIsotope isotopes[] = getIsotopes(elementCounts);
+    maxMass = Math.ceil(maxMass / MASS_STEP) * MASS_STEP;
+
+    // Everything the contents of the index depend on
+    StringBuilder key = new StringBuilder();
+    key.append(maxMass);
+    for (IIsotope isotope : isotopes) {
+      key.append(';').append(isotope.getSymbol()).append(',').append(isotope.getMassNumber())
+          .append(',').append(isotope.getExactMass()).append(',')
+          .append(elementCounts.getIsotopeCountMin(isotope)).append(',')
+          .append(elementCounts.getIsotopeCountMax(isotope));
+    }
+    if (ratiosParameters != null) {
+      key.append(";ratios,")
+          .append(ratiosParameters.getParameter(ElementalHeuristicParameters.checkHC).getValue())
+          .append(',')
+          .append(ratiosParameters.getParameter(ElementalHeuristicParameters.checkNOPS).getValue())
+          .append(',').append(
+              ratiosParameters.getParameter(ElementalHeuristicParameters.checkMultiple).getValue());
+    }
+    if (rdbeParameters != null) {
+      key.append(";rdbe,")
+          .append(rdbeParameters.getParameter(RDBERestrictionParameters.rdbeRange).getValue())
+          .append(',')
+          .append(rdbeParameters.getParameter(RDBERestrictionParameters.rdbeWholeNum).getValue());
+    }
+
+    final File cacheFile = getCacheFile(key.toString());
+    if (cacheFile != null && cacheFile.exists()) {
+      try {
+        FormulaMassIndex index = readIndex(cacheFile, key.toString(), isotopes);
+        if (index != null) {
+          logger.fine("Loaded " + index.size() + " formulas from " + cacheFile);
+          // The modification time is the time of the last use, for the eviction
+          cacheFile.setLastModified(System.currentTimeMillis());
+          return index;
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not read formula index " + cacheFile, e);
+      }
+    }
+
+    final FormulaMassIndex index = enumerateFormulas(elementCounts, isotopes, maxMass,
+        ratiosParameters, rdbeParameters, canceled);
+    if (index == null)
+      return null;
+
+    if (cacheFile != null) {
+      try {
+        index.writeIndex(cacheFile, key.toString());
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not write formula index " + cacheFile, e);
+      }
+      evictIndexes(cacheFile);
+    }
+    return index;
+  }
+
+  /**
+   * Enumerates the formulas up to the given mass, without the cache.
+   *
+   * @return the index, or null if it would be too large or canceled is true
+   */
+  static FormulaMassIndex enumerateFormulas(MolecularFormulaRange elementCounts, double maxMass,
+      ParameterSet ratiosParameters, ParameterSet rdbeParameters, BooleanSupplier canceled) {
+    return enumerateFormulas(elementCounts, getIsotopes(elementCounts), maxMass, ratiosParameters,
+        rdbeParameters, canceled);
+  }
+
+  private static IIsotope[] getIsotopes(MolecularFormulaRange elementCounts) {
+    final IIsotope isotopes[] = new IIsotope[elementCounts.getIsotopeCount()];
+    int i = 0;
+    for (IIsotope isotope : elementCounts.isotopes())
+      isotopes[i++] = isotope;
+    return isotopes;
+  }
+
+  int size() {
+    return masses.length;
+  }
+
+  double getMass(int formula) {
+    return masses[formula];
+  }
+
+  /**
+   * @return the first formula with a mass not lower than the given mass, or size() if there is none
+   */
+  int findFirst(double mass) {
+    int low = 0, high = masses.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (masses[mid] < mass)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  IMolecularFormula getFormula(int formula, IChemObjectBuilder builder) {
+    IMolecularFormula cdkFormula = builder.newInstance(IMolecularFormula.class);
+    for (int i = 0; i < isotopes.length; i++) {
+      int count = counts[formula * isotopes.length + i];
+      if (count > 0)
+        cdkFormula.addIsotope(isotopes[i], count);
+    }
+    return cdkFormula;
+  }
+
+  private static FormulaMassIndex enumerateFormulas(MolecularFormulaRange elementCounts,
+      IIsotope isotopes[], double maxMass, ParameterSet ratiosParameters,
+      ParameterSet rdbeParameters, BooleanSupplier canceled) {
+
+    final int numElements = isotopes.length;
+    final double elementMasses[] = new double[numElements];
+    final int minCounts[] = new int[numElements];
+    final int maxCounts[] = new int[numElements];
+    final int heuristicElements[] = new int[numElements];
+    final Integer valences[] = new Integer[numElements];
+    for (int i = 0; i < numElements; i++) {
+      elementMasses[i] = isotopes[i].getExactMass();
+      minCounts[i] = elementCounts.getIsotopeCountMin(isotopes[i]);
+      maxCounts[i] = elementCounts.getIsotopeCountMax(isotopes[i]);
+      if (maxCounts[i] > Short.MAX_VALUE)
+        return null;
+      heuristicElements[i] =
+          Arrays.asList(HEURISTIC_ELEMENTS).indexOf(isotopes[i].getSymbol());
+      valences[i] = RDBERestrictionChecker.getValence(isotopes[i].getSymbol());
+    }
+
+    // Minimum mass of the elements following each element, for pruning
+    final double minRemainingMass[] = new double[numElements + 1];
+    for (int i = numElements - 1; i >= 0; i--)
+      minRemainingMass[i] = minRemainingMass[i + 1] + minCounts[i] * elementMasses[i];
+
+    final Range<Double> rdbeRange = rdbeParameters == null ? null
+        : rdbeParameters.getParameter(RDBERestrictionParameters.rdbeRange).getValue();
+    final boolean rdbeWholeNum = rdbeParameters != null
+        && rdbeParameters.getParameter(RDBERestrictionParameters.rdbeWholeNum).getValue();
+
+    final DoubleArrayList masses = new DoubleArrayList();
+    final ShortArrayList counts = new ShortArrayList();
+    final int current[] = minCounts.clone();
+    final double heuristicCounts[] = new double[HEURISTIC_ELEMENTS.length];
+
+    // Iterate over all count combinations like an odometer, the last element counting fastest
+    double mass = minRemainingMass[0];
+    while (true) {
+
+      // Check the complete formula
+      if (mass > 0 && mass <= maxMass) {
+        boolean ok = true;
+
+        if (ratiosParameters != null) {
+          Arrays.fill(heuristicCounts, 0);
+          for (int i = 0; i < numElements; i++) {
+            if (heuristicElements[i] >= 0)
+              heuristicCounts[heuristicElements[i]] += current[i];
+          }
+          ok = ElementalHeuristicChecker.checkCounts(heuristicCounts[0], heuristicCounts[1],
+              heuristicCounts[2], heuristicCounts[3], heuristicCounts[4], heuristicCounts[5],
+              ratiosParameters);
+        }
+
+        // Same as RDBERestrictionChecker.calculateRDBE, elements with unknown valence disable
+        // the check
+        if (ok && rdbeRange != null) {
+          double rdbe = 0;
+          boolean known = true;
+          for (int i = 0; i < numElements; i++) {
+            if (current[i] == 0)
+              continue;
+            if (valences[i] == null) {
+              known = false;
+              break;
+            }
+            rdbe += (valences[i] - 2) * current[i];
+          }
+          rdbe = rdbe / 2 + 1;
+          if (known)
+            ok = (!rdbeWholeNum || Math.floor(rdbe) == rdbe) && rdbeRange.contains(rdbe);
+        }
+
+        if (ok) {
+          if (masses.size() >= MAX_FORMULAS) {
+            logger.info("More than " + MAX_FORMULAS + " formulas up to mass " + maxMass
+                + ", not using a formula index");
+            return null;
+          }
+          masses.add(mass);
+          for (int i = 0; i < numElements; i++)
+            counts.add((short) current[i]);
+        }
+      }
+
+      // Next combination: increase the last element which does not exceed the mass, reset the
+      // following ones
+      int element = numElements - 1;
+      while (element >= 0) {
+        if (current[element] < maxCounts[element]
+            && mass + elementMasses[element] <= maxMass + 1e-9) {
+          current[element]++;
+          mass += elementMasses[element];
+          break;
+        }
+        mass -= (current[element] - minCounts[element]) * elementMasses[element];
+        current[element] = minCounts[element];
+        element--;
+      }
+      if (element < 0)
+        break;
+
+      // Recalculate the sum now and then to avoid accumulating rounding errors
+      if (element < numElements - 1) {
+        mass = 0;
+        for (int i = 0; i < numElements; i++)
+          mass += current[i] * elementMasses[i];
+        if (canceled.getAsBoolean())
+          return null;
+      }
+    }
+
+    // Sort by mass, moving the counts along
+    final double massArray[] = masses.toDoubleArray();
+    final short countArray[] = counts.toShortArray();
+    it.unimi.dsi.fastutil.Arrays.parallelQuickSort(0, massArray.length,
+        (a, b) -> Double.compare(massArray[a], massArray[b]), (a, b) -> {
+          double m = massArray[a];
+          massArray[a] = massArray[b];
+          massArray[b] = m;
+          for (int i = 0; i < numElements; i++) {
+            short c = countArray[a * numElements + i];
+            countArray[a * numElements + i] = countArray[b * numElements + i];
+            countArray[b * numElements + i] = c;
+          }
+        });
+
+    logger.fine("Enumerated " + massArray.length + " formulas up to mass " + maxMass);
+    return new FormulaMassIndex(isotopes, massArray, countArray);
+  }
+
+  private static File getCacheFile(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder name = new StringBuilder("formulas_");
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8)))
+        name.append(String.format("%02x", b));
+      return new File(CACHE_DIR, name.append(".bin").toString());
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+
+  private static FormulaMassIndex readIndex(File file, String key, IIsotope isotopes[])
+      throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != FILE_VERSION || !in.readUTF().equals(key))
+        return null;
+      final int size = in.readInt();
+      final double masses[] = new double[size];
+      for (int i = 0; i < size; i++)
+        masses[i] = in.readDouble();
+      final short counts[] = new short[size * isotopes.length];
+      for (int i = 0; i < counts.length; i++)
+        counts[i] = in.readShort();
+      return new FormulaMassIndex(isotopes, masses, counts);
+    }
+  }
+
+  private void writeIndex(File file, String key) throws IOException {
+    CACHE_DIR.mkdirs();
+
+    // Write to a temporary file first, so other instances never read a partial index
+    File tmpFile = File.createTempFile("formulas", ".tmp", CACHE_DIR);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+        out.writeInt(FILE_VERSION);
+        out.writeUTF(key);
+        out.writeInt(masses.length);
+        for (double mass : masses)
+          out.writeDouble(mass);
+        for (short count : counts)
+          out.writeShort(count);
+      }
+      // A failed move is logged as a warning by getIndex
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      // Left over if writing or renaming failed
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Deletes the least recently used indexes until the cache is not larger than MAX_CACHE_SIZE. The
+   * given index, which was just used, is kept.
+   */
+  private static void evictIndexes(File keep) {
+    File files[] =
+        CACHE_DIR.listFiles((dir, name) -> name.startsWith("formulas_") && name.endsWith(".bin"));
+    if (files == null)
+      return;
+
+    // Read the times once, other instances can update them while sorting
+    final Map<File, Long> lastUsed = new HashMap<>();
+    long cacheSize = 0;
+    for (File file : files) {
+      lastUsed.put(file, file.lastModified());
+      cacheSize += file.length();
+    }
+    Arrays.sort(files, Comparator.comparing(lastUsed::get));
+
+    for (File file : files) {
+      if (cacheSize <= MAX_CACHE_SIZE)
+        break;
+      if (file.equals(keep))
+        continue;
+      long length = file.length();
+      if (file.delete()) {
+        cacheSize -= length;
+        logger.fine("Deleted least recently used formula index " + file);
+      }
+    }
+  }
+
+}
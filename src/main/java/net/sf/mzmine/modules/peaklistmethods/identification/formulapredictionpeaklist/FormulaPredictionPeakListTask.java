@@ -17,9 +17,14 @@
  */
 package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
@@ -55,18 +60,17 @@ import net.sf.mzmine.util.FormulaUtils;
 public class FormulaPredictionPeakListTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
+  private final Set<MolecularFormulaGenerator> generators = ConcurrentHashMap.newKeySet();
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private PeakList peakList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
   private ParameterSet isotopeParameters, msmsParameters, ratiosParameters, rdbeParameters;
   private MZTolerance mzTolerance;
   private String message;
-  private int totalRows, finishedRows;
+  private int totalRows;
+  private final AtomicInteger finishedRows = new AtomicInteger();
   private int maxBestFormulasPerPeak;
 
   /**
@@ -122,7 +126,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0.0;
-    return (double) finishedRows / (double) totalRows;
+    return (double) finishedRows.get() / (double) totalRows;
   }
 
   /**
@@ -139,77 +143,116 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
     setStatus(TaskStatus.PROCESSING);
 
-    totalRows = peakList.getNumberOfRows();
-
+    List<PeakListRow> rows = new ArrayList<>();
+    double maxMass = 0;
     for (PeakListRow row : peakList.getRows()) {
-
       if (row.getPeakIdentities().length > 0) {
         continue;
       }
+      rows.add(row);
+      double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+      maxMass = Math.max(maxMass, mzTolerance.getToleranceRange(searchedMass).upperEndpoint());
+    }
+    totalRows = rows.size();
 
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    // The element ranges and mass independent restrictions are the same for all rows, so the
+    // candidate formulas are enumerated only once
+    message = "Preparing formulas up to mass "
+        + MZmineCore.getConfiguration().getMZFormat().format(maxMass);
+    final FormulaMassIndex index = FormulaMassIndex.getIndex(elementCounts, maxMass,
+        checkRatios ? ratiosParameters : null, checkRDBE ? rdbeParameters : null,
+        this::isCanceled);
 
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
+    if (isCanceled())
+      return;
 
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+    message = "Formula prediction for " + peakList;
+    rows.parallelStream().forEach(row -> {
+      if (isCanceled() || getStatus() == TaskStatus.ERROR)
+        return;
+      predictFormulas(row, index);
+      finishedRows.incrementAndGet();
+    });
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+    if (isCanceled() || getStatus() == TaskStatus.ERROR)
+      return;
 
-      IMolecularFormula cdkFormula;
+    logger.finest("Finished formula search for all the peaks");
+    if (checkIsotopes)
+      IsotopePatternCalculator.logCacheStats();
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulas = new TreeMap<>();
-      while ((cdkFormula = generator.getNextFormula()) != null) {
-        if (isCanceled())
-          return;
+    setStatus(TaskStatus.FINISHED);
 
-        // Mass is ok, so test other constraints
-        if (checkConstraints(cdkFormula, row) == true) {
-          String formula = MolecularFormulaManipulator.getString(cdkFormula);
+  }
 
-          // calc rel mass deviation
-          Double relMassDev =
-              ((searchedMass - (FormulaUtils.calculateExactMass(formula))) / searchedMass)
-                  * 1000000;
+  /**
+   * Adds the best formulas within the m/z tolerance to the row. The candidates are taken from the
+   * index, or generated for the row if there is no index.
+   */
+  private void predictFormulas(PeakListRow row, FormulaMassIndex index) {
 
-          // write to map
-          possibleFormulas.put(relMassDev, formula);
-        }
-      }
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
+    final IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
 
-      if (isCanceled())
-        return;
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulas = new TreeMap<>();
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulasSorted = new TreeMap<>(
-          (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
-      possibleFormulasSorted.putAll(possibleFormulas);
-
-      // Add the new formula entry top results
-      int ctr = 0;
-      for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
-        if (ctr < maxBestFormulasPerPeak) {
-          SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue());
-          row.addPeakIdentity(newIdentity, false);
-          ctr++;
-        }
+    if (index != null) {
+      for (int i = index.findFirst(massRange.lowerEndpoint()); i < index.size()
+          && index.getMass(i) <= massRange.upperEndpoint(); i++) {
+        if (isCanceled())
+          return;
+        // Element ratios and RDBE were checked when building the index
+        IMolecularFormula cdkFormula = index.getFormula(i, builder);
+        if (checkPeakConstraints(cdkFormula, row))
+          addFormula(possibleFormulas, cdkFormula, searchedMass);
       }
-      if (isCanceled())
-        return;
-      finishedRows++;
+    } else {
+      MolecularFormulaGenerator generator = new MolecularFormulaGenerator(builder,
+          massRange.lowerEndpoint(), massRange.upperEndpoint(), elementCounts);
+      generators.add(generator);
+      IMolecularFormula cdkFormula;
+      while ((cdkFormula = generator.getNextFormula()) != null) {
+        if (isCanceled())
+          break;
 
+        // Mass is ok, so test other constraints
+        if (checkConstraints(cdkFormula, row) == true)
+          addFormula(possibleFormulas, cdkFormula, searchedMass);
+      }
+      generators.remove(generator);
     }
 
     if (isCanceled())
       return;
 
-    logger.finest("Finished formula search for all the peaks");
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulasSorted = new TreeMap<>(
+        (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
+    possibleFormulasSorted.putAll(possibleFormulas);
+
+    // Add the new formula entry top results
+    int ctr = 0;
+    for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
+      if (ctr < maxBestFormulasPerPeak) {
+        SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue());
+        row.addPeakIdentity(newIdentity, false);
+        ctr++;
+      }
+    }
+  }
 
-    setStatus(TaskStatus.FINISHED);
+  private void addFormula(Map<Double, String> possibleFormulas, IMolecularFormula cdkFormula,
+      double searchedMass) {
+    String formula = MolecularFormulaManipulator.getString(cdkFormula);
+
+    // calc rel mass deviation
+    Double relMassDev =
+        ((searchedMass - (FormulaUtils.calculateExactMass(formula))) / searchedMass) * 1000000;
 
+    // write to map
+    possibleFormulas.put(relMassDev, formula);
   }
 
   private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
@@ -232,6 +275,14 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
       }
     }
 
+    return checkPeakConstraints(cdkFormula, peakListRow);
+  }
+
+  /**
+   * Checks the isotope pattern and MS/MS restrictions, which depend on the peak
+   */
+  private boolean checkPeakConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
+
     // Calculate isotope similarity score
     IsotopePattern detectedPattern = peakListRow.getBestIsotopePattern();
     IsotopePattern predictedIsotopePattern = null;
@@ -302,9 +353,9 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public void cancel() {
     super.cancel();
 
-    // We need to cancel the formula generator, because searching for next
+    // We need to cancel the formula generators, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
+    for (MolecularFormulaGenerator generator : generators) {
       generator.cancel();
     }
 
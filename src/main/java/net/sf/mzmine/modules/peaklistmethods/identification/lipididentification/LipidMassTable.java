@@ -0,0 +1,152 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.identification.lipididentification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.sf.mzmine.datamodel.IonizationType;
+import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipids.LipidClasses;
+import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipidutils.LipidIdentity;
+
+/**
+ * Ion masses of all lipids of the selected classes, chain lengths and double bonds, and of their
+ * modifications, sorted by m/z. The table is built once per search, so every peak list row is
+ * matched by a binary search instead of comparing it with each lipid.
+ *
+ * Each entry is identified by its lipid index (in the order in which the lipids were enumerated)
+ * and its modification index, so sorting matching entries restores the order of the original
+ * nested search loops.
+ */
+class LipidMassTable {
+
+  private final LipidIdentity lipids[];
+  private final double lipidIonMasses[];
+  private final int entriesPerLipid;
+
+  // Sorted ion masses and the corresponding entries
+  private final double masses[];
+  private final int entries[];
+
+  LipidMassTable(LipidClasses selectedLipids[], int minChainLength, int maxChainLength,
+      int minDoubleBonds, int maxDoubleBonds, IonizationType ionizationType,
+      double modificationMasses[]) {
+
+    this.entriesPerLipid = modificationMasses.length + 1;
+
+    // Try all combinations of fatty acid lengths and double bonds
+    final List<LipidIdentity> lipidList = new ArrayList<>();
+    for (LipidClasses lipidClass : selectedLipids) {
+      int numberOfAcylChains = lipidClass.getNumberOfAcylChains();
+      int numberOfAlkylChains = lipidClass.getNumberofAlkyChains();
+      for (int chainLength = minChainLength; chainLength <= maxChainLength; chainLength++) {
+        for (int chainDoubleBonds =
+            minDoubleBonds; chainDoubleBonds <= maxDoubleBonds; chainDoubleBonds++) {
+          // If we have more double bonds than carbons, it
+          // doesn't make sense, so let's skip such lipids
+          if (((chainDoubleBonds > 0) && (chainDoubleBonds > chainLength - 1)))
+            continue;
+          lipidList.add(new LipidIdentity(lipidClass, chainLength, chainDoubleBonds,
+              numberOfAcylChains, numberOfAlkylChains));
+        }
+      }
+    }
+    lipids = lipidList.toArray(new LipidIdentity[0]);
+
+    lipidIonMasses = new double[lipids.length];
+    final DoubleArrayList massList = new DoubleArrayList(lipids.length * entriesPerLipid);
+    final IntArrayList entryList = new IntArrayList(lipids.length * entriesPerLipid);
+    for (int i = 0; i < lipids.length; i++) {
+      lipidIonMasses[i] = lipids[i].getMass() + ionizationType.getAddedMass();
+      massList.add(lipidIonMasses[i]);
+      entryList.add(i * entriesPerLipid);
+      for (int j = 0; j < modificationMasses.length; j++) {
+        massList.add(lipidIonMasses[i] + (modificationMasses[j]));
+        entryList.add(i * entriesPerLipid + j + 1);
+      }
+    }
+
+    // Sort by mass, moving the entries along
+    masses = massList.toDoubleArray();
+    entries = entryList.toIntArray();
+    it.unimi.dsi.fastutil.Arrays.quickSort(0, masses.length,
+        (a, b) -> Double.compare(masses[a], masses[b]), (a, b) -> {
+          double m = masses[a];
+          masses[a] = masses[b];
+          masses[b] = m;
+          int e = entries[a];
+          entries[a] = entries[b];
+          entries[b] = e;
+        });
+  }
+
+  /**
+   * @return number of lipids in the table, not counting modifications
+   */
+  int getNumberOfLipids() {
+    return lipids.length;
+  }
+
+  /**
+   * Returns the entries whose ion mass is within the given range, in the order of the lipid
+   * enumeration, each unmodified lipid followed by its modifications
+   */
+  int[] getMatchingEntries(Range<Double> mzRange) {
+    // Find the first mass not below the range
+    int low = 0, high = masses.length;
+    final double lowerEndpoint = mzRange.lowerEndpoint();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (masses[mid] < lowerEndpoint)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    int end = low;
+    while (end < masses.length && mzRange.contains(masses[end]))
+      end++;
+    int matching[] = Arrays.copyOfRange(entries, low, end);
+    Arrays.sort(matching);
+    return matching;
+  }
+
+  LipidIdentity getLipid(int entry) {
+    return lipids[entry / entriesPerLipid];
+  }
+
+  int getLipidIndex(int entry) {
+    return entry / entriesPerLipid;
+  }
+
+  double getLipidIonMass(int entry) {
+    return lipidIonMasses[entry / entriesPerLipid];
+  }
+
+  /**
+   * @return index of the lipid modification of the entry, or -1 for the unmodified lipid
+   */
+  int getModificationIndex(int entry) {
+    return entry % entriesPerLipid - 1;
+  }
+
+}
@@ -21,11 +21,18 @@ package net.sf.mzmine.modules.peaklistmethods.identification.lipididentification
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IonizationType;
+import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.PolarityType;
@@ -37,6 +44,7 @@ import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipididentificationtools.MSMSLipidTools;
+import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipididentificationtools.MSMSLipidTools.FragmentCandidate;
 import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipids.LipidClasses;
 import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipids.lipidmodifications.LipidModification;
 import net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipidutils.LipidIdentity;
@@ -58,7 +66,8 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 public class LipidSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedSteps, totalSteps;
+  private final AtomicInteger finishedRows = new AtomicInteger();
+  private int totalRows;
   private PeakList peakList;
   private Object[] selectedObjects;
   private LipidClasses[] selectedLipids;
@@ -70,6 +79,14 @@ public class LipidSearchTask extends AbstractTask {
   private double noiseLevelMSMS;
   private double[] lipidModificationMasses;
   private LipidModification[] lipidModification;
+  private LipidMassTable lipidMassTable;
+
+  // Mass lists of MS/MS scans, calculated once when several lipids match a row
+  private final Map<Scan, DataPoint[]> msmsMassLists = new ConcurrentHashMap<>();
+
+  // Class specific fragments, keyed by preferred row identity, lipid and polarity
+  private final Map<List<Object>, List<FragmentCandidate>> fragmentCandidates =
+      new ConcurrentHashMap<>();
 
   private ParameterSet parameters;
 
@@ -107,9 +124,9 @@ public class LipidSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalSteps == 0)
+    if (totalRows == 0)
       return 0;
-    return (finishedSteps) / totalSteps;
+    return (double) finishedRows.get() / totalRows;
   }
 
   /**
@@ -130,48 +147,45 @@ public class LipidSearchTask extends AbstractTask {
     logger.info("Starting lipid search in " + peakList);
 
     PeakListRow rows[] = peakList.getRows();
+    totalRows = rows.length;
 
     // Check if lipids should be modified
     if (searchForModifications == true) {
       lipidModificationMasses = getLipidModificationMasses(lipidModification);
+    } else {
+      lipidModificationMasses = new double[0];
     }
-    // Calculate how many possible lipids we will try
-    totalSteps = ((maxChainLength - minChainLength + 1) * (maxDoubleBonds - minDoubleBonds + 1))
-        * selectedLipids.length;
-
-    // Try all combinations of fatty acid lengths and double bonds
-    for (int i = 0; i < selectedLipids.length; i++) {
-      int numberOfAcylChains = selectedLipids[i].getNumberOfAcylChains();
-      int numberOfAlkylChains = selectedLipids[i].getNumberofAlkyChains();
-      for (int chainLength = minChainLength; chainLength <= maxChainLength; chainLength++) {
-        for (int chainDoubleBonds =
-            minDoubleBonds; chainDoubleBonds <= maxDoubleBonds; chainDoubleBonds++) {
-          // Task canceled?
-          if (isCanceled())
-            return;
-
-          // If we have non-zero fatty acid, which is shorter
-          // than minimal length, skip this lipid
-          if (((chainLength > 0) && (chainLength < minChainLength))) {
-            finishedSteps++;
-            continue;
-          }
 
-          // If we have more double bonds than carbons, it
-          // doesn't make sense, so let's skip such lipids
-          if (((chainDoubleBonds > 0) && (chainDoubleBonds > chainLength - 1))) {
-            finishedSteps++;
-            continue;
-          }
-          // Prepare a lipid instance
-          LipidIdentity lipidChain = new LipidIdentity(selectedLipids[i], chainLength,
-              chainDoubleBonds, numberOfAcylChains, numberOfAlkylChains);
-          // Find all rows that match this lipid
-          findPossibleLipid(lipidChain, rows);
-          finishedSteps++;
-        }
-      }
+    // Calculate the ion masses of all combinations of fatty acid lengths and double bonds once
+    lipidMassTable = new LipidMassTable(selectedLipids, minChainLength, maxChainLength,
+        minDoubleBonds, maxDoubleBonds, ionizationType, lipidModificationMasses);
+    logger.info("Searching for " + lipidMassTable.getNumberOfLipids() + " lipids");
+
+    // The noise level parameters are static, so set them before the rows are processed
+    CentroidMassDetectorParameters.noiseLevel.setValue(noiseLevelMSMS);
+    ExactMassDetectorParameters.noiseLevel.setValue(noiseLevelMSMS);
+
+    // Rows are annotated independently, so process them in parallel
+    Set<PeakListRow> changedRows = ConcurrentHashMap.newKeySet();
+    Arrays.stream(rows).parallel().forEach(row -> {
+      if (isCanceled())
+        return;
+      if (findPossibleLipids(row))
+        changedRows.add(row);
+      finishedRows.incrementAndGet();
+    });
+
+    // Task canceled?
+    if (isCanceled())
+      return;
+
+    // Notify the GUI about the changes in the project
+    MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
+    for (PeakListRow row : rows) {
+      if (changedRows.contains(row))
+        project.notifyObjectChanged(row, false);
     }
+
     // Add task description to peakList
     ((SimplePeakList) peakList)
         .addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod("Lipid search", parameters));
@@ -187,45 +201,41 @@ public class LipidSearchTask extends AbstractTask {
   }
 
   /**
-   * Check if candidate peak may be a possible adduct of a given main peak
+   * Annotates the row with all lipids and modified lipids whose ion mass is within the m/z
+   * tolerance of the row. The matches are processed in the order of the lipid enumeration.
    * 
-   * @param mainPeak
-   * @param possibleFragment
+   * @return true if the row was annotated
    */
-  private void findPossibleLipid(LipidIdentity lipid, PeakListRow rows[]) {
-    double lipidIonMass = 0.0;
-    double lipidMass = lipid.getMass();
-    lipidIonMass = lipidMass + ionizationType.getAddedMass();
-    logger.info("Searching for lipid " + lipid.getDescription() + ", " + lipidIonMass + " m/z");
-    for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+  private boolean findPossibleLipids(PeakListRow row) {
+    Range<Double> mzTolRange12C = mzTolerance.getToleranceRange(row.getAverageMZ());
+    int matchingEntries[] = lipidMassTable.getMatchingEntries(mzTolRange12C);
+    for (int entry : matchingEntries) {
       if (isCanceled())
-        return;
-      Range<Double> mzTolRange12C = mzTolerance.getToleranceRange(rows[rowIndex].getAverageMZ());
-      if (mzTolRange12C.contains(lipidIonMass)) {
-
-        // Calc rel mass deviation;
-        double relMassDev =
-            ((lipidIonMass - rows[rowIndex].getAverageMZ()) / lipidIonMass) * 1000000;
-        rows[rowIndex].addPeakIdentity(lipid, false);
-        rows[rowIndex].setComment("Ionization: " + ionizationType.getAdduct() + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm"); // Format relativ mass
-                                                                       // deviation
-        // If search for MSMS fragments is selected search for fragments
-        if (searchForMSMSFragments == true) {
-          searchMsmsFragments(rows[rowIndex], lipidIonMass, lipid);
-        }
-        // Notify the GUI about the change in the project
-        MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(rows[rowIndex],
-            false);
-        logger.info("Found lipid: " + lipid.getName() + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm");
+        return false;
+      LipidIdentity lipid = lipidMassTable.getLipid(entry);
+      double lipidIonMass = lipidMassTable.getLipidIonMass(entry);
+      int modification = lipidMassTable.getModificationIndex(entry);
+
+      // Modified lipid
+      if (modification >= 0) {
+        addModifiedLipid(row, lipidIonMass, lipid, modification);
+        continue;
       }
-      // If search for modifications is selected search for modifications in MS1
-      if (searchForModifications == true) {
-        searchModifications(rows[rowIndex], lipidIonMass, lipid, lipidModificationMasses,
-            mzTolRange12C);
+
+      // Calc rel mass deviation;
+      double relMassDev = ((lipidIonMass - row.getAverageMZ()) / lipidIonMass) * 1000000;
+      row.addPeakIdentity(lipid, false);
+      row.setComment("Ionization: " + ionizationType.getAdduct() + ", Δ "
+          + NumberFormat.getInstance().format(relMassDev) + " ppm"); // Format relativ mass
+                                                                     // deviation
+      // If search for MSMS fragments is selected search for fragments
+      if (searchForMSMSFragments == true) {
+        searchMsmsFragments(row, lipidIonMass, lipid, lipidMassTable.getLipidIndex(entry));
       }
+      logger.info("Found lipid: " + lipid.getName() + ", Δ "
+          + NumberFormat.getInstance().format(relMassDev) + " ppm");
     }
+    return matchingEntries.length > 0;
   }
 
   /**
@@ -233,32 +243,15 @@ public class LipidSearchTask extends AbstractTask {
    * no mass list is present for MS2 scans it will create one using centroid or exact mass detection
    * algorithm
    */
-  private void searchMsmsFragments(PeakListRow row, double lipidIonMass, LipidIdentity lipid) {
+  private void searchMsmsFragments(PeakListRow row, double lipidIonMass, LipidIdentity lipid,
+      int lipidIndex) {
 
-    MassDetector massDetector = null;
     // Check if selected feature has MSMS spectra
     if (row.getAllMS2Fragmentations() != null) {
       Scan[] msmsScans = row.getAllMS2Fragmentations();
       for (Scan msmsScan : msmsScans) {
 
-        DataPoint[] massList = null;
-        // check if MS/MS scan already has a mass list
-        if (msmsScan.getMassLists().length != 0) {
-          massList = msmsScan.getMassLists()[0].getDataPoints();
-        } else {
-          // Create a new mass list for MS/MS scan. Check if sprectrum is profile or centroid mode
-          if (msmsScan.getSpectrumType() == MassSpectrumType.CENTROIDED) {
-            massDetector = new CentroidMassDetector();
-            CentroidMassDetectorParameters parametersMSMS = new CentroidMassDetectorParameters();
-            CentroidMassDetectorParameters.noiseLevel.setValue(noiseLevelMSMS);
-            massList = massDetector.getMassValues(msmsScan, parametersMSMS);
-          } else {
-            massDetector = new ExactMassDetector();
-            ExactMassDetectorParameters parametersMSMS = new ExactMassDetectorParameters();
-            ExactMassDetectorParameters.noiseLevel.setValue(noiseLevelMSMS);
-            massList = massDetector.getMassValues(msmsScan, parametersMSMS);
-          }
-        }
+        DataPoint[] massList = msmsMassLists.computeIfAbsent(msmsScan, this::getMsmsMassList);
         MSMSLipidTools msmsLipidTools = new MSMSLipidTools();
 
         // check for negative polarity
@@ -268,11 +261,13 @@ public class LipidSearchTask extends AbstractTask {
           String[] fragments = lipid.getLipidClass().getMsmsFragmentsNegativeIonization();
           if (fragments.length > 0) {
             ArrayList<String> listOfAnnotatedNegativeFragments = new ArrayList<String>();
+            List<FragmentCandidate> candidates = getFragmentCandidates(msmsLipidTools,
+                row.getPreferredPeakIdentity(), lipidIndex, lipidIonMass, PolarityType.NEGATIVE,
+                fragments);
             for (int i = 0; i < massList.length; i++) {
               Range<Double> mzTolRangeMSMS = mzToleranceMS2.getToleranceRange(massList[i].getMZ());
               String annotatedNegativeFragment =
-                  msmsLipidTools.checkForNegativeClassSpecificFragment(mzTolRangeMSMS,
-                      row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+                  msmsLipidTools.findFragment(mzTolRangeMSMS, candidates);
               if (annotatedNegativeFragment.equals("") == false
                   && row.getComment().contains(annotatedNegativeFragment) == false) {
                 listOfAnnotatedNegativeFragments.add(annotatedNegativeFragment);
@@ -328,11 +323,13 @@ public class LipidSearchTask extends AbstractTask {
           String[] fragments = lipid.getLipidClass().getMsmsFragmentsPositiveIonization();
           if (fragments.length > 0) {
             ArrayList<String> listOfAnnotatedPositiveFragments = new ArrayList<String>();
+            List<FragmentCandidate> candidates = getFragmentCandidates(msmsLipidTools,
+                row.getPreferredPeakIdentity(), lipidIndex, lipidIonMass, PolarityType.POSITIVE,
+                fragments);
             for (int i = 0; i < massList.length; i++) {
               Range<Double> mzTolRangeMSMS = mzToleranceMS2.getToleranceRange(massList[i].getMZ());
               String annotatedPositiveFragment =
-                  msmsLipidTools.checkForPositiveClassSpecificFragment(mzTolRangeMSMS,
-                      row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+                  msmsLipidTools.findFragment(mzTolRangeMSMS, candidates);
               if (annotatedPositiveFragment.equals("") == false
                   && row.getComment().contains(annotatedPositiveFragment) == false) {
                 listOfAnnotatedPositiveFragments.add(annotatedPositiveFragment);
@@ -379,23 +376,55 @@ public class LipidSearchTask extends AbstractTask {
     }
   }
 
-  private void searchModifications(PeakListRow rows, double lipidIonMass, LipidIdentity lipid,
-      double[] lipidModificationMasses, Range<Double> mzTolModification) {
-    for (int j = 0; j < lipidModificationMasses.length; j++) {
-      if (mzTolModification.contains(lipidIonMass + (lipidModificationMasses[j]))) {
-        // Calc relativ mass deviation
-        double relMassDev = ((lipidIonMass + (lipidModificationMasses[j]) - rows.getAverageMZ())
-            / (lipidIonMass + lipidModificationMasses[j])) * 1000000;
-        // Add row identity
-        rows.addPeakIdentity(new SimplePeakIdentity(lipid + " " + lipidModification[j]), false);
-        rows.setComment("Ionization: " + ionizationType.getAdduct() + " " + lipidModification[j]
-            + ", Δ " + NumberFormat.getInstance().format(relMassDev) + " ppm");
-        logger.info("Found modified lipid: " + lipid.getName() + " " + lipidModification[j] + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm");
-        // Notify the GUI about the change in the project
-        MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(rows, false);
-      }
+  /**
+   * Returns the mass list of a MS/MS scan. A mass list for MS2 scans will be used if present. If no
+   * mass list is present it will create one using centroid or exact mass detection algorithm
+   */
+  private DataPoint[] getMsmsMassList(Scan msmsScan) {
+    // check if MS/MS scan already has a mass list
+    if (msmsScan.getMassLists().length != 0) {
+      return msmsScan.getMassLists()[0].getDataPoints();
+    }
+    // Create a new mass list for MS/MS scan. Check if sprectrum is profile or centroid mode
+    MassDetector massDetector;
+    ParameterSet parametersMSMS;
+    if (msmsScan.getSpectrumType() == MassSpectrumType.CENTROIDED) {
+      massDetector = new CentroidMassDetector();
+      parametersMSMS = new CentroidMassDetectorParameters();
+    } else {
+      massDetector = new ExactMassDetector();
+      parametersMSMS = new ExactMassDetectorParameters();
     }
+    return massDetector.getMassValues(msmsScan, parametersMSMS);
+  }
+
+  /**
+   * Returns the class specific fragments of a lipid. They only depend on the preferred identity of
+   * the row, the lipid and the polarity, so they are calculated once for all data points and rows.
+   */
+  private List<FragmentCandidate> getFragmentCandidates(MSMSLipidTools msmsLipidTools,
+      PeakIdentity peakIdentity, int lipidIndex, double lipidIonMass, PolarityType polarity,
+      String[] fragments) {
+    List<Object> key = Arrays.asList(peakIdentity.getName(), lipidIndex, polarity);
+    return fragmentCandidates.computeIfAbsent(key,
+        k -> polarity == PolarityType.NEGATIVE
+            ? msmsLipidTools.getNegativeClassSpecificFragments(peakIdentity, lipidIonMass,
+                fragments)
+            : msmsLipidTools.getPositiveClassSpecificFragments(peakIdentity, lipidIonMass,
+                fragments));
+  }
+
+  private void addModifiedLipid(PeakListRow rows, double lipidIonMass, LipidIdentity lipid,
+      int j) {
+    // Calc relativ mass deviation
+    double relMassDev = ((lipidIonMass + (lipidModificationMasses[j]) - rows.getAverageMZ())
+        / (lipidIonMass + lipidModificationMasses[j])) * 1000000;
+    // Add row identity
+    rows.addPeakIdentity(new SimplePeakIdentity(lipid + " " + lipidModification[j]), false);
+    rows.setComment("Ionization: " + ionizationType.getAdduct() + " " + lipidModification[j]
+        + ", Δ " + NumberFormat.getInstance().format(relMassDev) + " ppm");
+    logger.info("Found modified lipid: " + lipid.getName() + " " + lipidModification[j] + ", Δ "
+        + NumberFormat.getInstance().format(relMassDev) + " ppm");
   }
 
   private double[] getLipidModificationMasses(LipidModification[] lipidModification) {
@@ -19,6 +19,7 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.lipididentification.lipididentificationtools;
 
 import java.util.ArrayList;
+import java.util.List;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.IonizationType;
 import net.sf.mzmine.datamodel.PeakIdentity;
@@ -31,6 +32,28 @@ import net.sf.mzmine.util.FormulaUtils;
  */
 public class MSMSLipidTools {
 
+  /**
+   * A possible class specific fragment with its m/z and annotation
+   */
+  public static class FragmentCandidate {
+
+    private final double mz;
+    private final String annotation;
+
+    FragmentCandidate(double mz, String annotation) {
+      this.mz = mz;
+      this.annotation = annotation;
+    }
+
+    public double getMZ() {
+      return mz;
+    }
+
+    public String getAnnotation() {
+      return annotation;
+    }
+  }
+
   /**
    * This method checks for negative class specific fragments in the MS/MS spectra of an annotated
    * lipid
@@ -39,7 +62,41 @@ public class MSMSLipidTools {
    */
   public String checkForNegativeClassSpecificFragment(Range<Double> mzTolRangeMSMS,
       PeakIdentity peakIdentity, double lipidIonMass, String[] classSpecificFragments) {
+    return findFragment(mzTolRangeMSMS,
+        getNegativeClassSpecificFragments(peakIdentity, lipidIonMass, classSpecificFragments));
+  }
+
+  /**
+   * This method checks for positive class specific fragments in the MS/MS spectra of an annotated
+   * lipid
+   * 
+   * returns a list of annotated fragments
+   */
+  public String checkForPositiveClassSpecificFragment(Range<Double> mzTolRangeMSMS,
+      PeakIdentity peakIdentity, double lipidIonMass, String[] classSpecificFragments) {
+    return findFragment(mzTolRangeMSMS,
+        getPositiveClassSpecificFragments(peakIdentity, lipidIonMass, classSpecificFragments));
+  }
+
+  /**
+   * Returns the annotation of the last fragment candidate within the m/z range, or an empty string
+   * if there is none. The candidates can be calculated once for all data points of a spectrum.
+   */
+  public String findFragment(Range<Double> mzTolRangeMSMS, List<FragmentCandidate> candidates) {
     String annotatedFragment = "";
+    for (FragmentCandidate candidate : candidates) {
+      if (mzTolRangeMSMS.contains(candidate.getMZ()))
+        annotatedFragment = candidate.getAnnotation();
+    }
+    return annotatedFragment;
+  }
+
+  /**
+   * Calculates the negative class specific fragments of an annotated lipid
+   */
+  public List<FragmentCandidate> getNegativeClassSpecificFragments(PeakIdentity peakIdentity,
+      double lipidIonMass, String[] classSpecificFragments) {
+    List<FragmentCandidate> candidates = new ArrayList<>();
 
     // load lipid tools to get information of annotations
     LipidTools lipidTools = new LipidTools();
@@ -56,9 +113,7 @@ public class MSMSLipidTools {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
           double mass = IonizationType.NEGATIVE_HYDROGEN.getAddedMass()
               + FormulaUtils.calculateExactMass((fattyAcidFormulas.get(j)));
-          if (mzTolRangeMSMS.contains(mass)) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j);
-          }
+          candidates.add(new FragmentCandidate(mass, "FA" + fattyAcidNames.get(j)));
         }
       }
 
@@ -66,10 +121,9 @@ public class MSMSLipidTools {
       else if (classSpecificFragments[i].equals("M-FA")) {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
           double massFattyAcid = FormulaUtils.calculateExactMass((fattyAcidFormulas.get(j)));
-          if (mzTolRangeMSMS
-              .contains(lipidIonMass - massFattyAcid - FormulaUtils.calculateExactMass("H"))) {
-            annotatedFragment = "M-FA" + fattyAcidNames.get(j);
-          }
+          candidates.add(new FragmentCandidate(
+              lipidIonMass - massFattyAcid - FormulaUtils.calculateExactMass("H"),
+              "M-FA" + fattyAcidNames.get(j)));
         }
       }
 
@@ -81,10 +135,8 @@ public class MSMSLipidTools {
               lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
           double accurateMass = IonizationType.NEGATIVE_HYDROGEN.getAddedMass()
               + FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)) + massOfFragment;
-          if (mzTolRangeMSMS.contains(accurateMass)) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j) + "+"
-                + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-          }
+          candidates.add(new FragmentCandidate(accurateMass, "FA" + fattyAcidNames.get(j) + "+"
+              + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i])));
         }
       }
 
@@ -92,68 +144,35 @@ public class MSMSLipidTools {
       else if (classSpecificFragments[i].contains("M") && classSpecificFragments[i].contains("-")
           && classSpecificFragments[i].contains("+")) {
         if (classSpecificFragments[i].contains("FA")) {
-          for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-            double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-            double massOfSumFormulasToAdd = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j)
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]) + "+"
-                  + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-            }
-          }
+          addFattyAcidSumFormulaFragments(candidates, lipidTools, fattyAcidFormulas,
+              fattyAcidNames, lipidIonMass, classSpecificFragments[i]);
         }
       }
 
       // check for fragments with M-FA and - sum formula or M - sum formula
       else if (classSpecificFragments[i].contains("M") && classSpecificFragments[i].contains("-")) {
-        if (classSpecificFragments[i].contains("FA")) {
-          for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-            double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA-"
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-            }
-          }
-        }
-        // only substract sum formula
-        else {
-          double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-              lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-          if (mzTolRangeMSMS.contains(lipidIonMass - massOfSumFormulasToSubstract)) {
-            annotatedFragment =
-                "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-          }
-        }
+        addSubstractedSumFormulaFragments(candidates, lipidTools, fattyAcidFormulas, lipidIonMass,
+            classSpecificFragments[i]);
       }
 
       // check for specific sum formula fragment
       else if (classSpecificFragments[i].contains("C") || classSpecificFragments[i].contains("O")) {
-        if (mzTolRangeMSMS.contains(FormulaUtils.calculateExactMass(
-            lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])))) {
-          annotatedFragment = classSpecificFragments[i];
-        }
+        candidates.add(new FragmentCandidate(
+            FormulaUtils.calculateExactMass(
+                lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])),
+            classSpecificFragments[i]));
       }
 
     }
-    return annotatedFragment;
+    return candidates;
   }
 
   /**
-   * This method checks for positive class specific fragments in the MS/MS spectra of an annotated
-   * lipid
-   * 
-   * returns a list of annotated fragments
+   * Calculates the positive class specific fragments of an annotated lipid
    */
-  public String checkForPositiveClassSpecificFragment(Range<Double> mzTolRangeMSMS,
-      PeakIdentity peakIdentity, double lipidIonMass, String[] classSpecificFragments) {
-    String annotatedFragment = "";
+  public List<FragmentCandidate> getPositiveClassSpecificFragments(PeakIdentity peakIdentity,
+      double lipidIonMass, String[] classSpecificFragments) {
+    List<FragmentCandidate> candidates = new ArrayList<>();
 
     // load lipid tools to get information of annotations
     LipidTools lipidTools = new LipidTools();
@@ -168,10 +187,9 @@ public class MSMSLipidTools {
       // check for FA residues
       if (classSpecificFragments[i].equals("M-FA")) {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-          if (mzTolRangeMSMS
-              .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)))) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j);
-          }
+          candidates.add(new FragmentCandidate(
+              lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)),
+              "FA" + fattyAcidNames.get(j)));
         }
       }
 
@@ -180,58 +198,70 @@ public class MSMSLipidTools {
       else if (classSpecificFragments[i].contains("M") && classSpecificFragments[i].contains("-")
           && classSpecificFragments[i].contains("+")) {
         if (classSpecificFragments[i].contains("FA")) {
-          for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-            double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-            double massOfSumFormulasToAdd = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j)
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]) + "+"
-                  + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-            }
-          }
+          addFattyAcidSumFormulaFragments(candidates, lipidTools, fattyAcidFormulas,
+              fattyAcidNames, lipidIonMass, classSpecificFragments[i]);
         }
       }
 
 
       // check for fragments with M-FA and - sum formula or M - sum formula
       else if (classSpecificFragments[i].contains("M") && classSpecificFragments[i].contains("-")) {
-        if (classSpecificFragments[i].contains("FA")) {
-          for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-            double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-                lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA-"
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-            }
-          }
-        }
-        // only substract sum formula
-        else {
-          double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
-              lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-          if (mzTolRangeMSMS.contains(lipidIonMass - massOfSumFormulasToSubstract)) {
-            annotatedFragment =
-                "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-          }
-        }
+        addSubstractedSumFormulaFragments(candidates, lipidTools, fattyAcidFormulas, lipidIonMass,
+            classSpecificFragments[i]);
       }
 
       // check for specific sum formula fragment
       else if (classSpecificFragments[i].contains("C") || classSpecificFragments[i].contains("O")) {
-        if (mzTolRangeMSMS.contains(FormulaUtils.calculateExactMass(
-            lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])))) {
-          annotatedFragment = classSpecificFragments[i];
-        }
+        candidates.add(new FragmentCandidate(
+            FormulaUtils.calculateExactMass(
+                lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])),
+            classSpecificFragments[i]));
       }
     }
-    return annotatedFragment;
+    return candidates;
+  }
+
+  /**
+   * Fragments with M-FA and + sum formula, same for both polarities
+   */
+  private void addFattyAcidSumFormulaFragments(List<FragmentCandidate> candidates,
+      LipidTools lipidTools, List<String> fattyAcidFormulas, List<String> fattyAcidNames,
+      double lipidIonMass, String classSpecificFragment) {
+    double massOfSumFormulasToSubstract = FormulaUtils
+        .calculateExactMass(lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragment));
+    double massOfSumFormulasToAdd = FormulaUtils.calculateExactMass(
+        lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragment));
+    for (int j = 0; j < fattyAcidFormulas.size(); j++) {
+      candidates.add(new FragmentCandidate(
+          lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+              + massOfSumFormulasToAdd - massOfSumFormulasToSubstract,
+          "M-FA" + fattyAcidNames.get(j)
+              + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragment) + "+"
+              + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragment)));
+    }
+  }
+
+  /**
+   * Fragments with M-FA and - sum formula or M - sum formula, same for both polarities
+   */
+  private void addSubstractedSumFormulaFragments(List<FragmentCandidate> candidates,
+      LipidTools lipidTools, List<String> fattyAcidFormulas, double lipidIonMass,
+      String classSpecificFragment) {
+    double massOfSumFormulasToSubstract = FormulaUtils
+        .calculateExactMass(lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragment));
+    if (classSpecificFragment.contains("FA")) {
+      for (int j = 0; j < fattyAcidFormulas.size(); j++) {
+        candidates.add(new FragmentCandidate(
+            lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+                - massOfSumFormulasToSubstract,
+            "M-FA-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragment)));
+      }
+    }
+    // only substract sum formula
+    else {
+      candidates.add(new FragmentCandidate(lipidIonMass - massOfSumFormulasToSubstract,
+          "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragment)));
+    }
   }
 
 
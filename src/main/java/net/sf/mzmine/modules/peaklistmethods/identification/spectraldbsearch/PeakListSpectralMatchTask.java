@@ -20,10 +20,13 @@ package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.PeakList;
@@ -75,6 +78,10 @@ public class PeakListSpectralMatchTask extends AbstractTask {
   private final int minMatch;
   private List<SpectralDBEntry> list;
 
+  // entries with precursor m/z, sorted by it (only for MS level > 1)
+  private List<SpectralDBEntry> sortedEntries;
+  private double sortedPrecursorMZ[];
+
   private int count = 0;
 
   // as this module is started in a series the start entry is saved to track progress
@@ -150,6 +157,9 @@ public class PeakListSpectralMatchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
+    if (msLevel > 1)
+      sortByPrecursorMZ();
+
     for (PeakListRow row : peakList.getRows()) {
       if (isCanceled()) {
         logger.info("Added " + count + " spectral library matches (before being cancelled)");
@@ -176,8 +186,8 @@ public class PeakListSpectralMatchTask extends AbstractTask {
           if (removeIsotopes)
             rowMassList = removeIsotopes(rowMassList);
 
-          // match against all library entries
-          for (SpectralDBEntry ident : list) {
+          // match against all library entries within the precursor tolerance
+          for (SpectralDBEntry ident : getCandidates(row)) {
             SpectralSimilarity sim = spectraDBMatch(row, rowMassList, ident);
             if (sim != null) {
               count++;
@@ -196,6 +206,7 @@ public class PeakListSpectralMatchTask extends AbstractTask {
           setStatus(TaskStatus.ERROR);
           setErrorMessage("Data base matching failed. To many missing mass lists ");
           list = null;
+          sortedEntries = null;
           return;
         }
       }
@@ -209,9 +220,53 @@ public class PeakListSpectralMatchTask extends AbstractTask {
     repaintWindow();
 
     list = null;
+    sortedEntries = null;
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Sorts all entries with precursor m/z, entries without cannot match in MS level > 1
+   */
+  private void sortByPrecursorMZ() {
+    sortedEntries = list.stream().filter(e -> e.getPrecursorMZ() != null)
+        .sorted(Comparator.comparingDouble(SpectralDBEntry::getPrecursorMZ))
+        .collect(Collectors.toList());
+    sortedPrecursorMZ =
+        sortedEntries.stream().mapToDouble(SpectralDBEntry::getPrecursorMZ).toArray();
+  }
+
+  /**
+   * @return all entries for MS level 1, otherwise the entries in the precursor m/z window of the
+   *         row
+   */
+  private List<SpectralDBEntry> getCandidates(PeakListRow row) {
+    if (msLevel == 1)
+      return list;
+    // The tolerance is applied to the precursor m/z of the entry (see checkPrecursorMZ). Widening
+    // the window around the row m/z twice covers the ppm tolerance of all entries in range; the
+    // exact check is still done for each candidate.
+    Range<Double> window = mzTolerancePrecursor
+        .getToleranceRange(mzTolerancePrecursor.getToleranceRange(row.getAverageMZ()));
+    int first = lowerBound(window.lowerEndpoint());
+    int last = lowerBound(Math.nextUp(window.upperEndpoint()));
+    return sortedEntries.subList(first, last);
+  }
+
+  /**
+   * @return index of the first sorted entry with precursor m/z >= mz
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = sortedPrecursorMZ.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedPrecursorMZ[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
   private void repaintWindow() {
     Desktop desktop = MZmineCore.getDesktop();
     if (!(desktop instanceof HeadLessDesktop))
@@ -236,9 +291,9 @@ public class PeakListSpectralMatchTask extends AbstractTask {
    */
   private SpectralSimilarity spectraDBMatch(PeakListRow row, DataPoint[] rowMassList,
       SpectralDBEntry ident) {
+    // MS level 1 or check precursorMZ first, as it is part of the index of compiled libraries
     // retention time
-    // MS level 1 or check precursorMZ
-    if (checkRT(row, ident) && (msLevel == 1 || checkPrecursorMZ(row, ident))) {
+    if ((msLevel == 1 || checkPrecursorMZ(row, ident)) && checkRT(row, ident)) {
       DataPoint[] library = ident.getDataPoints();
       if (removeIsotopes)
         library = removeIsotopes(library);
@@ -280,8 +335,10 @@ public class PeakListSpectralMatchTask extends AbstractTask {
   }
 
   private boolean checkRT(PeakListRow row, SpectralDBEntry ident) {
+    if (!useRT)
+      return true;
     Double rt = (Double) ident.getField(DBEntryField.RT).orElse(null);
-    return (!useRT || rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
+    return (rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
   }
 
   /**
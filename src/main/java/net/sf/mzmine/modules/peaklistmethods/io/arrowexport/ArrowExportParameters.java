@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.arrowexport;
+
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
+import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+
+public class ArrowExportParameters extends SimpleParameterSet {
+
+  public static final PeakListsParameter peakLists = new PeakListsParameter(1);
+
+  public static final FileNameParameter filename = new FileNameParameter("Filename",
+      "Name of the output Arrow file. "
+          + "Use pattern \"{}\" in the file name to substitute with peak list name. "
+          + "(i.e. \"blah{}blah.arrow\" would become \"blahSourcePeakListNameblah.arrow\"). "
+          + "If the file already exists, it will be overwritten.",
+      "arrow");
+
+  public static final IntegerParameter batchSize = new IntegerParameter("Rows per batch",
+      "Number of peak list rows written together in one Arrow record batch", 1000, 1, null);
+
+  public ArrowExportParameters() {
+    super(new Parameter[] {peakLists, filename, batchSize});
+  }
+
+}
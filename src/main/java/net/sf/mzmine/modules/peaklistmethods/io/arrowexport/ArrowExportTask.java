@@ -0,0 +1,251 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.arrowexport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Writes the peak list as an Arrow IPC file with one table row per peak list row: the row ID, m/z,
+ * retention time, identity, comment and number of detected peaks, followed by the m/z, RT, height,
+ * area and status of the peak in each raw data file. Missing peaks are null.
+ *
+ * The rows are written in record batches, so only one batch of column vectors is held in memory.
+ */
+class ArrowExportTask extends AbstractTask {
+
+  private static final ArrowType INT = new ArrowType.Int(32, true);
+  private static final ArrowType DOUBLE =
+      new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+  private static final ArrowType STRING = new ArrowType.Utf8();
+
+  // Number of row columns preceding the data file columns
+  private static final int ROW_COLUMNS = 6;
+
+  // Number of columns for each data file
+  private static final int DATA_FILE_COLUMNS = 5;
+
+  private final PeakList[] peakLists;
+  private final File fileName;
+  private final String plNamePattern = "{}";
+  private final int batchSize;
+
+  private int processedRows = 0, totalRows = 0;
+
+  ArrowExportTask(ParameterSet parameters) {
+    this.peakLists =
+        parameters.getParameter(ArrowExportParameters.peakLists).getValue().getMatchingPeakLists();
+    this.fileName = parameters.getParameter(ArrowExportParameters.filename).getValue();
+    this.batchSize = parameters.getParameter(ArrowExportParameters.batchSize).getValue();
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (totalRows == 0) {
+      return 0;
+    }
+    return (double) processedRows / (double) totalRows;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Exporting peak list(s) " + Arrays.toString(peakLists) + " to Arrow file(s)";
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+
+    // Shall export several files?
+    boolean substitute = fileName.getPath().contains(plNamePattern);
+
+    // Total number of rows
+    for (PeakList peakList : peakLists) {
+      totalRows += peakList.getNumberOfRows();
+    }
+
+    // Process peak lists
+    for (PeakList peakList : peakLists) {
+
+      // Filename
+      File curFile = fileName;
+      if (substitute) {
+        // Cleanup from illegal filename characters
+        String cleanPlName = peakList.getName().replaceAll("[^a-zA-Z0-9.-]", "_");
+        // Substitute
+        String newFilename =
+            fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
+        curFile = new File(newFilename);
+      }
+
+      try {
+        if (!exportPeakList(peakList, curFile)) {
+          // Canceled, do not leave a partial file
+          curFile.delete();
+          return;
+        }
+      } catch (IOException | RuntimeException e) {
+        curFile.delete();
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not write to file " + curFile + ": " + e.getMessage());
+        return;
+      }
+
+      // If peak list substitution pattern wasn't found,
+      // treat one peak list only
+      if (!substitute)
+        break;
+    }
+
+    if (getStatus() == TaskStatus.PROCESSING)
+      setStatus(TaskStatus.FINISHED);
+
+  }
+
+  /**
+   * @return false if the task was canceled before the file was complete
+   */
+  private boolean exportPeakList(PeakList peakList, File file) throws IOException {
+
+    final RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
+
+    final List<Field> fields = new ArrayList<>();
+    fields.add(Field.nullable("row ID", INT));
+    fields.add(Field.nullable("row m/z", DOUBLE));
+    fields.add(Field.nullable("row retention time", DOUBLE));
+    fields.add(Field.nullable("row identity", STRING));
+    fields.add(Field.nullable("row comment", STRING));
+    fields.add(Field.nullable("row number of detected peaks", INT));
+    // Raw data files may share a name, but the column names must be unique
+    final Set<String> prefixes = new HashSet<>();
+    for (RawDataFile dataFile : rawDataFiles) {
+      String prefix = dataFile.getName();
+      for (int n = 2; !prefixes.add(prefix); n++)
+        prefix = dataFile.getName() + " (" + n + ")";
+      fields.add(Field.nullable(prefix + " Peak m/z", DOUBLE));
+      fields.add(Field.nullable(prefix + " Peak RT", DOUBLE));
+      fields.add(Field.nullable(prefix + " Peak height", DOUBLE));
+      fields.add(Field.nullable(prefix + " Peak area", DOUBLE));
+      fields.add(Field.nullable(prefix + " Peak status", STRING));
+    }
+
+    // Status names are the same for all peaks
+    final EnumMap<FeatureStatus, byte[]> statusNames = new EnumMap<>(FeatureStatus.class);
+    for (FeatureStatus status : FeatureStatus.values())
+      statusNames.put(status, status.name().getBytes(StandardCharsets.UTF_8));
+
+    try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+        VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields), allocator);
+        FileOutputStream out = new FileOutputStream(file);
+        ArrowFileWriter writer = new ArrowFileWriter(root, null, out.getChannel())) {
+
+      final List<FieldVector> vectors = root.getFieldVectors();
+      final IntVector rowIds = (IntVector) vectors.get(0);
+      final Float8Vector rowMZs = (Float8Vector) vectors.get(1);
+      final Float8Vector rowRTs = (Float8Vector) vectors.get(2);
+      final VarCharVector rowIdentities = (VarCharVector) vectors.get(3);
+      final VarCharVector rowComments = (VarCharVector) vectors.get(4);
+      final IntVector rowPeakNumbers = (IntVector) vectors.get(5);
+
+      writer.start();
+
+      final PeakListRow rows[] = peakList.getRows();
+      for (int start = 0; start < rows.length; start += batchSize) {
+
+        // Cancel?
+        if (isCanceled()) {
+          return false;
+        }
+
+        // Allocating clears the vectors, so unset values are null
+        for (FieldVector vector : vectors)
+          vector.allocateNew();
+
+        final int count = Math.min(batchSize, rows.length - start);
+        for (int i = 0; i < count; i++) {
+          final PeakListRow row = rows[start + i];
+
+          rowIds.setSafe(i, row.getID());
+          rowMZs.setSafe(i, row.getAverageMZ());
+          rowRTs.setSafe(i, row.getAverageRT());
+          PeakIdentity identity = row.getPreferredPeakIdentity();
+          if (identity != null)
+            rowIdentities.setSafe(i, identity.getName().getBytes(StandardCharsets.UTF_8));
+          if (row.getComment() != null)
+            rowComments.setSafe(i, row.getComment().getBytes(StandardCharsets.UTF_8));
+          rowPeakNumbers.setSafe(i, row.getNumberOfPeaks());
+
+          for (int df = 0; df < rawDataFiles.length; df++) {
+            Feature peak = row.getPeak(rawDataFiles[df]);
+            if (peak == null)
+              continue;
+            final int column = ROW_COLUMNS + df * DATA_FILE_COLUMNS;
+            ((Float8Vector) vectors.get(column)).setSafe(i, peak.getMZ());
+            ((Float8Vector) vectors.get(column + 1)).setSafe(i, peak.getRT());
+            ((Float8Vector) vectors.get(column + 2)).setSafe(i, peak.getHeight());
+            ((Float8Vector) vectors.get(column + 3)).setSafe(i, peak.getArea());
+            ((VarCharVector) vectors.get(column + 4)).setSafe(i,
+                statusNames.get(peak.getFeatureStatus()));
+          }
+        }
+
+        root.setRowCount(count);
+        writer.writeBatch();
+        processedRows += count;
+      }
+
+      writer.end();
+    }
+    return true;
+  }
+
+}
@@ -157,6 +157,12 @@ public class GNPSExportTask extends AbstractTask {
   private void export(PeakList peakList, FileWriter writer, File curFile) throws IOException {
     final String newLine = System.lineSeparator();
 
+    // Merge the MS/MS of all rows in parallel, the rows below take them from the cache
+    if (mergeParameters != null) {
+      MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+      merger.getBestMergedSpectra(mergeParameters, peakList.getRows(), massListName);
+    }
+
     for (PeakListRow row : peakList.getRows()) {
       String rowID = Integer.toString(row.getID());
 
@@ -180,6 +180,15 @@ public class GNPSmgfExportTask extends AbstractTask {
     // count exported
     int count = 0;
     int countMissingMassList = 0;
+
+    // Merge the MS/MS of all exported rows in parallel, the rows below take them from the cache
+    if (mergeParameters != null) {
+      MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+      merger.getBestMergedSpectra(mergeParameters,
+          Arrays.stream(peakList.getRows()).filter(filter::filter).toArray(PeakListRow[]::new),
+          massListName);
+    }
+
     for (PeakListRow row : peakList.getRows()) {
       // do not export if no MSMS
       if (!filter.filter(row))
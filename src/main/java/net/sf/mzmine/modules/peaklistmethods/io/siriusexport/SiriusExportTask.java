@@ -163,6 +163,11 @@ public class SiriusExportTask extends AbstractTask {
 
 
     private void exportPeakList(PeakList peakList, BufferedWriter writer) throws IOException {
+        // merge the MS/MS of all rows in parallel, the rows below take the merged spectra from the cache
+        if (mergeParameters != null) {
+            MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+            merger.getBestMergedSpectra(mergeParameters, peakList.getRows(), massListName);
+        }
         for (PeakListRow row : peakList.getRows()) {
             exportPeakListRow(row, writer);
             finishedRows++;
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Writes records through one prepared INSERT statement using JDBC batches. A batch is executed
+ * every batchSize records and the transaction is committed every commitInterval records, so large
+ * exports neither need a round trip per record nor one huge transaction.
+ *
+ * A record holds one value per statement parameter: a String, Double, Integer, byte[] or null.
+ * Null values are bound with the SQL type given for their parameter.
+ */
+class SQLBatchWriter implements AutoCloseable {
+
+  private final Connection connection;
+  private final PreparedStatement statement;
+  private final int nullTypes[];
+  private final int batchSize, commitInterval;
+
+  private int batchedRecords = 0, uncommittedRecords = 0;
+
+  SQLBatchWriter(Connection connection, String sql, int nullTypes[], int batchSize,
+      int commitInterval) throws SQLException {
+    this.connection = connection;
+    this.statement = connection.prepareStatement(sql);
+    this.nullTypes = nullTypes;
+    this.batchSize = Math.max(1, batchSize);
+    this.commitInterval = Math.max(this.batchSize, commitInterval);
+    connection.setAutoCommit(false);
+  }
+
+  void write(Object record[]) throws SQLException {
+
+    for (int i = 0; i < record.length; i++) {
+      final Object value = record[i];
+      if (value == null)
+        statement.setNull(i + 1, nullTypes[i]);
+      else if (value instanceof String)
+        statement.setString(i + 1, (String) value);
+      else if (value instanceof Double)
+        statement.setDouble(i + 1, (Double) value);
+      else if (value instanceof Integer)
+        statement.setInt(i + 1, (Integer) value);
+      else if (value instanceof byte[])
+        statement.setBytes(i + 1, (byte[]) value);
+      else
+        statement.setObject(i + 1, value);
+    }
+    statement.addBatch();
+    batchedRecords++;
+    uncommittedRecords++;
+
+    if (batchedRecords >= batchSize) {
+      statement.executeBatch();
+      batchedRecords = 0;
+    }
+    if (uncommittedRecords >= commitInterval) {
+      connection.commit();
+      uncommittedRecords = 0;
+    }
+  }
+
+  /**
+   * Executes the pending batch and commits the transaction.
+   */
+  void flush() throws SQLException {
+    if (batchedRecords > 0) {
+      statement.executeBatch();
+      batchedRecords = 0;
+    }
+    connection.commit();
+    uncommittedRecords = 0;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    statement.close();
+  }
+
+}
@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 
@@ -41,8 +42,16 @@ public class SQLExportParameters extends SimpleParameterSet {
   public static final BooleanParameter emptyExport = new BooleanParameter("Export empty peak list",
       "If selected, an empty peak list will be exported with null values for all column other than the rawdatafile and any constant values.");
 
+  public static final IntegerParameter batchSize = new IntegerParameter("Batch size",
+      "Number of table rows sent to the database together in one JDBC batch",
+      1000, 1, null);
+
+  public static final IntegerParameter commitInterval = new IntegerParameter("Rows per commit",
+      "Number of exported table rows after which the transaction is committed", 50000, 1, null);
+
   public SQLExportParameters() {
-    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport});
+    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport,
+        batchSize, commitInterval});
   }
 
 }
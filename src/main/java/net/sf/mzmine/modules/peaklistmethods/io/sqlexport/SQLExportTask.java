@@ -18,12 +18,19 @@
 
 package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
-import java.io.ByteArrayInputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
@@ -34,20 +41,36 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.modules.peaklistmethods.io.mztabexport.MzTabExportParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
 
+/**
+ * Exports the peak list rows through JDBC batches. Rows are formatted into records in chunks of
+ * about one batch on the common pool, while this task's thread writes the previous chunk, so at most
+ * two chunks are held in memory.
+ */
 class SQLExportTask extends AbstractTask {
 
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
   private final PeakList peakList;
   private final String connectionString;
   private final String tableName;
   private final SQLColumnSettings exportColumns;
   private final boolean emptyExport;
+  private final int batchSize, commitInterval;
+
+  // Data types which are exported once per raw data file
+  private static final EnumSet<SQLExportDataType> DATA_FILE_TYPES =
+      EnumSet.of(SQLExportDataType.PEAKSTATUS, SQLExportDataType.PEAKMZ,
+          SQLExportDataType.PEAKRT, SQLExportDataType.PEAKRT_START, SQLExportDataType.PEAKRT_END,
+          SQLExportDataType.PEAKDURATION, SQLExportDataType.PEAKHEIGHT,
+          SQLExportDataType.PEAKAREA, SQLExportDataType.PEAKCHARGE, SQLExportDataType.DATAPOINTS,
+          SQLExportDataType.FWHM, SQLExportDataType.TAILINGFACTOR,
+          SQLExportDataType.ASYMMETRYFACTOR, SQLExportDataType.RAWFILE);
 
   private int processedRows = 0, totalRows = 0;
 
@@ -63,6 +86,8 @@ class SQLExportTask extends AbstractTask {
     this.tableName = parameters.getParameter(SQLExportParameters.tableName).getValue();
     this.exportColumns = parameters.getParameter(SQLExportParameters.exportColumns).getValue();
     this.emptyExport = parameters.getParameter(SQLExportParameters.emptyExport).getValue();
+    this.batchSize = parameters.getParameter(SQLExportParameters.batchSize).getValue();
+    this.commitInterval = parameters.getParameter(SQLExportParameters.commitInterval).getValue();
 
   }
 
@@ -92,28 +117,52 @@ class SQLExportTask extends AbstractTask {
     }
 
     PeakListRow rows[] = peakList.getRows();
+    CompletableFuture<List<Object[][]>> next = null;
 
-    try {
-      dbConnection.setAutoCommit(false);
+    try (SQLBatchWriter writer = new SQLBatchWriter(dbConnection, getInsertStatement(),
+        getNullTypes(), batchSize, commitInterval)) {
 
       // If select, an empty row with just the raw data file
       // information will be exported
       if (rows.length < 1 && emptyExport) {
-        exportPeakListRow(null);
+        writer.write(formatEmptyRow());
       } else {
-        for (PeakListRow row : rows) {
+        // Format the next chunk while the current one is written
+        final int chunkSize = getChunkSize();
+        next = formatChunk(rows, 0, chunkSize);
+        for (int start = 0; start < rows.length; start += chunkSize) {
+          List<Object[][]> chunk = next.join();
+          next = start + chunkSize < rows.length ? formatChunk(rows, start + chunkSize, chunkSize)
+              : null;
+          for (Object records[][] : chunk) {
+            if (getStatus() != TaskStatus.PROCESSING)
+              break;
+            for (Object record[] : records)
+              writer.write(record);
+            processedRows++;
+          }
           if (getStatus() != TaskStatus.PROCESSING)
             break;
-          exportPeakListRow(row);
-          processedRows++;
         }
       }
-      dbConnection.commit();
-      dbConnection.close();
+      writer.flush();
     } catch (SQLException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error running SQL query: " + e.toString());
       return;
+    } catch (CompletionException e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Error formatting peak list rows: " + e.getCause());
+      return;
+    } finally {
+      // The chunk being formatted stops as soon as this task is no longer processing
+      if (next != null)
+        next.cancel(false);
+      try {
+        dbConnection.close();
+      } catch (SQLException e) {
+        logger.log(Level.WARNING, "Error closing the SQL connection", e);
+      }
     }
 
     if (getStatus() == TaskStatus.PROCESSING)
@@ -121,16 +170,7 @@ class SQLExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakListRow(PeakListRow row) throws SQLException {
-
-    // Cancel?
-    if (isCanceled()) {
-      return;
-    }
-
-    // Value for looping through raw data files
-    boolean loopDataFiles = false;
-
+  private String getInsertStatement() {
     StringBuilder sql = new StringBuilder();
     sql.append("INSERT INTO ");
     sql.append(tableName);
@@ -147,166 +187,218 @@ class SQLExportTask extends AbstractTask {
         sql.append(",");
     }
     sql.append(")");
+    return sql.toString();
+  }
 
-    PreparedStatement statement = dbConnection.prepareStatement(sql.toString());
+  private int[] getNullTypes() {
+    int nullTypes[] = new int[exportColumns.getRowCount()];
+    for (int i = 0; i < nullTypes.length; i++) {
+      SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+      switch (dataType.valueType()) {
+        case "BLOB":
+          nullTypes[i] = Types.BLOB;
+          break;
+        case "DOUBLE":
+          nullTypes[i] = Types.DOUBLE;
+          break;
+        case "INT":
+          nullTypes[i] = Types.INTEGER;
+          break;
+        default:
+          nullTypes[i] = Types.VARCHAR;
+          break;
+      }
+    }
+    return nullTypes;
+  }
+
+  /**
+   * @return number of peak list rows giving about one batch of table rows
+   */
+  private int getChunkSize() {
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      if (DATA_FILE_TYPES.contains(exportColumns.getValueAt(i, 1)))
+        return Math.max(1, batchSize / Math.max(1, peakList.getNumberOfRawDataFiles()));
+    }
+    return batchSize;
+  }
+
+  /**
+   * Formats the rows of the chunk starting at the given position on the common pool.
+   */
+  private CompletableFuture<List<Object[][]>> formatChunk(PeakListRow rows[], int start,
+      int chunkSize) {
+    final int end = Math.min(rows.length, start + chunkSize);
+    return CompletableFuture.supplyAsync(() -> Arrays.stream(rows, start, end).parallel()
+        .map(this::formatPeakListRow).collect(Collectors.toList()));
+  }
+
+  private Object[] formatEmptyRow() {
+    Object record[] = new Object[exportColumns.getRowCount()];
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+      String dataValue = (String) exportColumns.getValueAt(i, 2);
+      switch (dataType) {
+        case CONSTANT:
+          record[i] = dataValue;
+          break;
+        case RAWFILE:
+          RawDataFile rawdatafiles[] = peakList.getRawDataFiles();
+          record[i] = rawdatafiles[0].getName();
+          break;
+        default:
+          record[i] = null;
+          break;
+      }
+    }
+    return record;
+  }
+
+  /**
+   * @return one record per raw data file of the row if data file elements are exported, otherwise
+   *         one record for the first raw data file
+   */
+  private Object[][] formatPeakListRow(PeakListRow row) {
+
+    // Canceled or failed?
+    if (getStatus() != TaskStatus.PROCESSING) {
+      return new Object[0][];
+    }
+
+    // Value for looping through raw data files
+    boolean loopDataFiles = false;
+
+    List<Object[]> records = new ArrayList<>();
+
+    for (RawDataFile rawDataFile : row.getRawDataFiles()) {
+      Feature peak = row.getPeak(rawDataFile);
+      Object record[] = new Object[exportColumns.getRowCount()];
 
-    if (row == null) {
       for (int i = 0; i < exportColumns.getRowCount(); i++) {
         SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
         String dataValue = (String) exportColumns.getValueAt(i, 2);
         switch (dataType) {
           case CONSTANT:
-            statement.setString(i + 1, dataValue);
+            record[i] = dataValue;
+            break;
+          case MZ:
+            record[i] = row.getAverageMZ();
+            break;
+          case RT:
+            record[i] = row.getAverageRT();
+            break;
+          case ID:
+            record[i] = row.getID();
+            break;
+          case PEAKCHARGE:
+            record[i] = (double) peak.getCharge();
+            loopDataFiles = true;
+            break;
+          case PEAKDURATION:
+            record[i] = RangeUtils.rangeLength(peak.getRawDataPointsRTRange());
+            loopDataFiles = true;
+            break;
+          case PEAKSTATUS:
+            record[i] = peak.getFeatureStatus().name();
+            loopDataFiles = true;
+            break;
+          case PEAKMZ:
+            record[i] = peak.getMZ();
+            loopDataFiles = true;
+            break;
+          case PEAKRT:
+            record[i] = peak.getRT();
+            loopDataFiles = true;
+            break;
+          case PEAKRT_START:
+            record[i] = peak.getRawDataPointsRTRange().lowerEndpoint();
+            loopDataFiles = true;
+            break;
+          case PEAKRT_END:
+            record[i] = peak.getRawDataPointsRTRange().upperEndpoint();
+            loopDataFiles = true;
+            break;
+          case PEAKHEIGHT:
+            record[i] = peak.getHeight();
+            loopDataFiles = true;
+            break;
+          case PEAKAREA:
+            record[i] = peak.getArea();
+            loopDataFiles = true;
+            break;
+          case DATAPOINTS:
+            record[i] = (double) peak.getScanNumbers().length;
+            loopDataFiles = true;
+            break;
+          case FWHM:
+            record[i] = peak.getFWHM();
+            loopDataFiles = true;
+            break;
+          case TAILINGFACTOR:
+            record[i] = peak.getTailingFactor();
+            loopDataFiles = true;
+            break;
+          case ASYMMETRYFACTOR:
+            record[i] = peak.getAsymmetryFactor();
+            loopDataFiles = true;
             break;
           case RAWFILE:
-            RawDataFile rawdatafiles[] = peakList.getRawDataFiles();
-            statement.setString(i + 1, rawdatafiles[0].getName());
+            record[i] = rawDataFile.getName();
+            loopDataFiles = true;
             break;
-          default:
-            statement.setString(i + 1, null);
+          case HEIGHT:
+            record[i] = row.getAverageHeight();
             break;
-        }
-      }
-      statement.executeUpdate();
-    }
-
-    else {
-      for (RawDataFile rawDataFile : row.getRawDataFiles()) {
-        Feature peak = row.getPeak(rawDataFile);
-
-        for (int i = 0; i < exportColumns.getRowCount(); i++) {
-          SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
-          String dataValue = (String) exportColumns.getValueAt(i, 2);
-          switch (dataType) {
-            case CONSTANT:
-              statement.setString(i + 1, dataValue);
-              break;
-            case MZ:
-              statement.setDouble(i + 1, row.getAverageMZ());
-              break;
-            case RT:
-              statement.setDouble(i + 1, row.getAverageRT());
-              break;
-            case ID:
-              statement.setInt(i + 1, row.getID());
-              break;
-            case PEAKCHARGE:
-              statement.setDouble(i + 1, peak.getCharge());
-              loopDataFiles = true;
-              break;
-            case PEAKDURATION:
-              statement.setDouble(i + 1, RangeUtils.rangeLength(peak.getRawDataPointsRTRange()));
-              loopDataFiles = true;
-              break;
-            case PEAKSTATUS:
-              statement.setString(i + 1, peak.getFeatureStatus().name());
-              loopDataFiles = true;
-              break;
-            case PEAKMZ:
-              statement.setDouble(i + 1, peak.getMZ());
-              loopDataFiles = true;
-              break;
-            case PEAKRT:
-              statement.setDouble(i + 1, peak.getRT());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_START:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().lowerEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_END:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().upperEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKHEIGHT:
-              statement.setDouble(i + 1, peak.getHeight());
-              loopDataFiles = true;
-              break;
-            case PEAKAREA:
-              statement.setDouble(i + 1, peak.getArea());
-              loopDataFiles = true;
-              break;
-            case DATAPOINTS:
-              statement.setDouble(i + 1, peak.getScanNumbers().length);
-              loopDataFiles = true;
-              break;
-            case FWHM:
-              statement.setDouble(i + 1, peak.getFWHM());
-              loopDataFiles = true;
-              break;
-            case TAILINGFACTOR:
-              statement.setDouble(i + 1, peak.getTailingFactor());
-              loopDataFiles = true;
-              break;
-            case ASYMMETRYFACTOR:
-              statement.setDouble(i + 1, peak.getAsymmetryFactor());
-              loopDataFiles = true;
-              break;
-            case RAWFILE:
-              statement.setString(i + 1, rawDataFile.getName());
-              loopDataFiles = true;
-              break;
-            case HEIGHT:
-              statement.setDouble(i + 1, row.getAverageHeight());
-              break;
-            case AREA:
-              statement.setDouble(i + 1, row.getAverageArea());
-              break;
-            case COMMENT:
-              statement.setString(i + 1, row.getComment());
-              break;
-            case IDENTITY:
-              PeakIdentity id = row.getPreferredPeakIdentity();
-              if (id != null) {
-                statement.setString(i + 1, id.getName());
-              } else {
-                statement.setNull(i + 1, Types.VARCHAR);
-              }
-              break;
-            case ISOTOPEPATTERN:
-              IsotopePattern isotopes = row.getBestIsotopePattern();
-              if (isotopes == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              DataPoint dataPoints[] = isotopes.getDataPoints();
-              byte bytes[] = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+          case AREA:
+            record[i] = row.getAverageArea();
+            break;
+          case COMMENT:
+            record[i] = row.getComment();
+            break;
+          case IDENTITY:
+            PeakIdentity id = row.getPreferredPeakIdentity();
+            record[i] = id != null ? id.getName() : null;
+            break;
+          case ISOTOPEPATTERN:
+            IsotopePattern isotopes = row.getBestIsotopePattern();
+            if (isotopes == null) {
+              record[i] = null;
               break;
-            case MSMS:
-              int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
-              // Check if there is any MS/MS scan
-              if (msmsScanNum <= 0) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              RawDataFile dataFile = row.getBestPeak().getDataFile();
-              Scan msmsScan = dataFile.getScan(msmsScanNum);
-              MassList msmsMassList = msmsScan.getMassList(dataValue);
-              // Check if there is a masslist for the scan
-              if (msmsMassList == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              dataPoints = msmsMassList.getDataPoints();
-              bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+            }
+            DataPoint dataPoints[] = isotopes.getDataPoints();
+            record[i] = ScanUtils.encodeDataPointsToBytes(dataPoints);
+            break;
+          case MSMS:
+            int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
+            // Check if there is any MS/MS scan
+            if (msmsScanNum <= 0) {
+              record[i] = null;
               break;
-            default:
+            }
+            RawDataFile dataFile = row.getBestPeak().getDataFile();
+            Scan msmsScan = dataFile.getScan(msmsScanNum);
+            MassList msmsMassList = msmsScan.getMassList(dataValue);
+            // Check if there is a masslist for the scan
+            if (msmsMassList == null) {
+              record[i] = null;
               break;
-          }
+            }
+            dataPoints = msmsMassList.getDataPoints();
+            record[i] = ScanUtils.encodeDataPointsToBytes(dataPoints);
+            break;
+          default:
+            break;
         }
-        statement.executeUpdate();
+      }
+      records.add(record);
 
-        // If no data file elements are selected then don't loop through
-        // all
-        // data files in peak list
-        if (!loopDataFiles) {
-          break;
-        }
+      // If no data file elements are selected then don't loop through
+      // all
+      // data files in peak list
+      if (!loopDataFiles) {
+        break;
       }
     }
+    return records.toArray(new Object[records.size()][]);
   }
 }
@@ -20,6 +20,10 @@ package net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction;
 
 import java.awt.Window;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -38,6 +42,11 @@ import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IMolecularFormula;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * The reason why we introduce this as a module, rather than simple utility class, is to remember
@@ -49,6 +58,19 @@ public class IsotopePatternCalculator implements MZmineModule {
 
   private static final String MODULE_NAME = "Isotope pattern prediction.";
 
+  private static final Logger logger = Logger.getLogger(IsotopePatternCalculator.class.getName());
+
+  // Maximum number of predicted patterns kept in the cache
+  private static final int MAX_CACHED_PATTERNS = 100000;
+
+  /**
+   * Predicted patterns by formula, charge, polarity, minimum abundance, merge width and whether the
+   * isotope compositions are stored. Formula prediction, the isotope peak scanner and the preview
+   * often ask for the same formulas again. The patterns are never modified, so they are shared.
+   */
+  private static final Cache<List<Object>, IsotopePattern> patternCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PATTERNS).recordStats().build();
+
   @Override
   public @Nonnull String getName() {
     return MODULE_NAME;
@@ -89,7 +111,39 @@ public class IsotopePatternCalculator implements MZmineModule {
 
   public static IsotopePattern calculateIsotopePattern(IMolecularFormula cdkFormula,
       double minAbundance, double mergeWidth, int charge, PolarityType polarity,
-      boolean storeFormula) {    
+      boolean storeFormula) {
+
+    // The mass numbers distinguish formulas with explicit isotopes, e.g. [13]C
+    List<Object> key = Arrays.asList(MolecularFormulaManipulator.getString(cdkFormula, false, true),
+        cdkFormula.getCharge(), minAbundance, mergeWidth, charge, polarity, storeFormula);
+    try {
+      return patternCache.get(key, () -> predictIsotopePattern(cdkFormula, minAbundance,
+          mergeWidth, charge, polarity, storeFormula));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return hit and miss counts of the isotope pattern cache
+   */
+  public static CacheStats getCacheStats() {
+    return patternCache.stats();
+  }
+
+  /**
+   * Logs the hit rate of the isotope pattern cache, for tasks which predict many patterns
+   */
+  public static void logCacheStats() {
+    CacheStats stats = patternCache.stats();
+    logger.info("Isotope pattern cache: " + stats.hitCount() + " hits, " + stats.missCount()
+        + " calculated patterns, " + patternCache.size() + " cached patterns");
+  }
+
+  private static IsotopePattern predictIsotopePattern(IMolecularFormula cdkFormula,
+      double minAbundance, double mergeWidth, int charge, PolarityType polarity,
+      boolean storeFormula) {
     // TODO: check if the formula is not too big (>100 of a single atom?).
     // if so, just cancel the prediction
 
@@ -138,7 +192,8 @@ public class IsotopePatternCalculator implements MZmineModule {
   
   public static IsotopePattern removeDataPointsBelowIntensity(IsotopePattern pattern, double minIntensity) {
     
-    DataPoint[] dp = pattern.getDataPoints();
+    // Copy, the pattern may be shared by the cache
+    DataPoint[] dp = pattern.getDataPoints().clone();
     for(int i = 0; i < pattern.getNumberOfDataPoints(); i++) {
       if(dp[i].getIntensity() < minIntensity) {
         dp[i] = null;
@@ -214,7 +269,7 @@ public class IsotopePatternCalculator implements MZmineModule {
     String newIsotopeComposition[] = new String[pattern.getNumberOfDataPoints()];
     if (pattern instanceof ExtendedIsotopePattern
         && ((ExtendedIsotopePattern) pattern).getIsotopeCompositions() != null)
-      newIsotopeComposition = ((ExtendedIsotopePattern) pattern).getIsotopeCompositions();
+      newIsotopeComposition = ((ExtendedIsotopePattern) pattern).getIsotopeCompositions().clone();
 
     for (int i = 0; i < dataPoints.length - 1; i++) {
 
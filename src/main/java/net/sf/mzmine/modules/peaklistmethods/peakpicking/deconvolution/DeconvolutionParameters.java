@@ -37,6 +37,7 @@ import net.sf.mzmine.util.maths.CenterMeasure;
 
 public class DeconvolutionParameters extends SimpleParameterSet {
 
+  // CentWaveJavaDetector is added once CentWaveTest validates it against the xcms peaks
   private static final PeakResolver[] RESOLVERS = {new BaselinePeakDetector(),
       new NoiseAmplitudePeakDetector(), new SavitzkyGolayPeakDetector(),
       new MinimumSearchPeakDetector(), new CentWaveDetector(), new ADAPDetector()};
@@ -23,9 +23,10 @@ import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.De
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.SUFFIX;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.sf.mzmine.datamodel.Feature;
+import java.util.stream.IntStream;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakList.PeakListAppliedMethod;
@@ -35,6 +36,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
 import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwavejava.CentWaveJavaDetector;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
@@ -55,7 +57,7 @@ public class DeconvolutionTask extends AbstractTask {
   private PeakList newPeakList;
 
   // Counters.
-  private int processedRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
   private int totalRows;
 
   // User parameters
@@ -83,7 +85,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
     totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
@@ -97,7 +98,7 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -245,26 +246,39 @@ public class DeconvolutionTask extends AbstractTask {
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
     // Initialise counters.
-    processedRows = 0;
+    processedRows.set(0);
     totalRows = peakList.getNumberOfRows();
     int peakId = 1;
 
-    // Process each chromatogram.
+    // Resolve each chromatogram. The Java CentWave resolver is thread safe, so its chromatograms
+    // are resolved in parallel.
     final PeakListRow[] peakListRows = peakList.getRows();
     final int chromatogramCount = peakListRows.length;
+    final PeakResolver resolverModule = resolver.getModule();
+    final ParameterSet resolverParams = resolver.getParameterSet();
+    final ResolvedPeak[][] resolved = new ResolvedPeak[chromatogramCount][];
+    if (resolverModule instanceof CentWaveJavaDetector) {
+      final CentWaveJavaDetector centWave = (CentWaveJavaDetector) resolverModule;
+      IntStream.range(0, chromatogramCount).parallel().forEach(index -> {
+        if (isCanceled())
+          return;
+        resolved[index] = centWave.resolvePeaks(peakListRows[index].getPeak(dataFile),
+            resolverParams, null, mzCenterFunction, msmsRange, RTRangeMSMS);
+        processedRows.incrementAndGet();
+      });
+    } else {
+      for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+        resolved[index] = resolverModule.resolvePeaks(peakListRows[index].getPeak(dataFile),
+            resolverParams, rSession, mzCenterFunction, msmsRange, RTRangeMSMS);
+        processedRows.incrementAndGet();
+      }
+    }
+
+    // Add peaks to the new peak list in the original row order.
     for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
 
       final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
-
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
-          mzCenterFunction, msmsRange, RTRangeMSMS);
-
-      // Add peaks to the new peak list.
-      for (final ResolvedPeak peak : peaks) {
+      for (final ResolvedPeak peak : resolved[index]) {
 
         peak.setParentChromatogramRowID(currentRow.getID());
 
@@ -273,8 +287,6 @@ public class DeconvolutionTask extends AbstractTask {
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
@@ -0,0 +1,702 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwavejava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java port of the centWave peak detection of XCMS (findPeaks.centWave, Tautenhahn et al. 2008)
+ * for a single chromatogram, where each continuous section of non-zero intensities is a region of
+ * interest. The continuous wavelet transform and ridge detection follow the MassSpecWavelet
+ * functions bundled with XCMS. Gaussian fitting is not supported.
+ *
+ * The wavelet kernels are shared by all instances. Each instance keeps scratch arrays which are
+ * reused for all chromatograms, so an instance must only be used by one thread at a time.
+ */
+class CentWave {
+
+  // Mexican hat wavelet sampled as in MassSpecWavelet.
+  private static final int PSI_LENGTH = 256;
+  private static final double PSI_RANGE = 12.0;
+  private static final double[] PSI = new double[PSI_LENGTH];
+
+  static {
+    final double norm = 2.0 / Math.sqrt(3.0) * Math.pow(Math.PI, -0.25);
+    for (int i = 0; i < PSI_LENGTH; i++) {
+      final double x = -PSI_RANGE / 2 + i * PSI_RANGE / (PSI_LENGTH - 1);
+      PSI[i] = norm * (1.0 - x * x) * Math.exp(-x * x / 2.0);
+    }
+  }
+
+  // Wavelet kernels by scale.
+  private static final Map<Integer, double[]> KERNELS = new ConcurrentHashMap<>();
+
+  // Ridge detection parameters of MassSpecWavelet.
+  private static final int MIN_WINDOW_SIZE = 5;
+  private static final int GAP_THRESHOLD = 3;
+
+  // Noise trimming of XCMS.
+  private static final double NOISE_TRIM = 0.05;
+
+  // Scratch arrays.
+  private double[] extended = new double[0];
+  private double[][] coefficients = new double[0][0];
+  private boolean[][] localMaxima = new boolean[0][0];
+
+  /**
+   * Detects peaks in a chromatogram.
+   *
+   * @param retentionTimes retention times of the scans.
+   * @param intensities intensities of the scans, zero where the chromatogram has no data point.
+   * @param minPeakWidth smallest peak width, in the unit of the retention times.
+   * @param maxPeakWidth largest peak width, in the unit of the retention times.
+   * @param snThreshold signal to noise ratio threshold.
+   * @param integrateSmoothed whether peak boundaries are searched on the wavelet coefficients
+   *        instead of the raw intensities.
+   * @return scan index ranges of the detected peaks, as {first, last}.
+   */
+  List<int[]> findPeaks(final double[] retentionTimes, final double[] intensities,
+      final double minPeakWidth, final double maxPeakWidth, final double snThreshold,
+      final boolean integrateSmoothed) {
+
+    final int numScans = intensities.length;
+    final List<int[]> peaks = new ArrayList<>();
+    final List<Double> areas = new ArrayList<>();
+    if (numScans < 2)
+      return peaks;
+
+    final int[] scales = getScales(retentionTimes, minPeakWidth, maxPeakWidth);
+    if (scales.length == 0)
+      return peaks;
+    final int minScale = scales[0];
+    final int maxScale = scales[scales.length - 1];
+    final int narrowNoiseRange = 3 * minScale;
+    final int wideNoiseRange = 3 * maxScale;
+    final int minPtsAboveBaseline = Math.max(4, minScale - 2);
+    final int scanRangeTolerance = minScale / 2;
+
+    for (int roiStart = 0; roiStart < numScans; roiStart++) {
+
+      if (intensities[roiStart] <= 0.0)
+        continue;
+      int roiEnd = roiStart;
+      while (roiEnd + 1 < numScans && intensities[roiEnd + 1] > 0.0)
+        roiEnd++;
+      final int roiLength = roiEnd - roiStart + 1;
+
+      // Region of interest with the wide noise range around it.
+      final int offset = Math.max(0, roiStart - wideNoiseRange);
+      final int length = Math.min(numScans - 1, roiEnd + wideNoiseRange) - offset + 1;
+
+      // Region of interest with a small tolerance, relative to the offset.
+      final int tolStart = Math.max(0, roiStart - scanRangeTolerance) - offset;
+      final int tolEnd = Math.min(offset + length - 1, roiEnd + scanRangeTolerance) - offset;
+
+      // First baseline estimate from the whole chromatogram for long regions.
+      final double noise = roiLength >= 10 * minScale
+          ? estimateChromNoise(intensities, 0, numScans, 3 * minScale)
+          : estimateChromNoise(intensities, offset, length, 3 * minScale);
+
+      roiStart = roiEnd;
+
+      if (!continuousPtsAboveThreshold(intensities, offset + tolStart, offset + tolEnd, noise,
+          minPtsAboveBaseline))
+        continue;
+
+      // Second estimate from the data outside of the region of interest.
+      final double[] localNoise = getLocalNoiseEstimate(intensities, offset, length, tolStart,
+          tolEnd, narrowNoiseRange, numScans, noise, minPtsAboveBaseline);
+      final double baseline = Math.max(1.0, Math.min(localNoise[0], noise));
+      final double sdNoise = Math.max(1.0, localNoise[1]);
+      final double sdThreshold = sdNoise * snThreshold;
+
+      boolean aboveThreshold = false;
+      for (int i = tolStart; !aboveThreshold && i <= tolEnd; i++)
+        aboveThreshold = intensities[offset + i] - baseline >= sdThreshold;
+      if (!aboveThreshold)
+        continue;
+
+      computeCoefficients(intensities, offset, length, scales);
+      aboveThreshold = false;
+      for (int s = 0; !aboveThreshold && s < scales.length; s++)
+        for (int i = 0; !aboveThreshold && i < length; i++)
+          aboveThreshold = coefficients[s][i] - baseline >= sdThreshold;
+      if (!aboveThreshold)
+        continue;
+
+      if (offset + length == numScans && length > 1) {
+        for (int s = 0; s < scales.length; s++)
+          coefficients[s][length - 1] = coefficients[s][length - 2] * 0.99;
+      }
+
+      findLocalMaxima(scales, length);
+      final List<int[]> ridges = getRidges(scales, length);
+
+      final int halfRange = (minScale + 1) / 2;
+      for (final int[] ridge : ridges) {
+
+        // The wavelet peak must be above the threshold at the smallest scale...
+        boolean isPeak = false;
+        for (int k = 0; !isPeak && k < ridge.length; k++)
+          isPeak = coefficients[0][ridge[k]] - baseline >= sdThreshold;
+        if (!isPeak)
+          continue;
+
+        // ... within the region of interest, also in the original data.
+        boolean inRange = false;
+        isPeak = false;
+        for (int k = 0; k < ridge.length; k++) {
+          if (ridge[k] >= tolStart && ridge[k] <= tolEnd) {
+            inRange = true;
+            isPeak |= intensities[offset + ridge[k]] - baseline >= sdThreshold;
+          }
+        }
+        if (!inRange || !isPeak)
+          continue;
+
+        // Best scale is where the ridge has the largest intensity around it.
+        int best = 0;
+        double bestSum = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < ridge.length; k++) {
+          double sum = 0.0;
+          for (int i = Math.max(0, ridge[k] - halfRange); i <= Math.min(length - 1,
+              ridge[k] + halfRange); i++)
+            sum += intensities[offset + i];
+          if (sum > bestSum) {
+            bestSum = sum;
+            best = k;
+          }
+        }
+        final int scaleIndex = Math.min(best, scales.length - 1);
+        final int position = ridge[best];
+        final int left = Math.max(0, position - scales[scaleIndex]);
+        final int right = Math.min(length - 1, position + scales[scaleIndex]);
+
+        // Peak boundaries.
+        int[] bounds = null;
+        if (integrateSmoothed) {
+          bounds = descendMin(coefficients[scaleIndex], length, position);
+          boolean gap = true;
+          for (int i = bounds[0]; gap && i <= bounds[1]; i++)
+            gap = intensities[offset + i] == 0.0;
+          if (bounds[0] == bounds[1] || gap)
+            bounds = null;
+        }
+        if (bounds == null)
+          bounds = descendMinTol(intensities, offset, length, left, right, scanRangeTolerance);
+
+        // Skip leading and trailing intensities below 1.
+        int first = bounds[0], last = bounds[1];
+        int skip = 0;
+        while (first + skip < last && intensities[offset + first + skip] < 1.0)
+          skip++;
+        first += Math.max(0, skip - 1);
+        skip = 0;
+        while (last - skip > first && intensities[offset + last - skip] < 1.0)
+          skip++;
+        last -= Math.max(0, skip - 1);
+
+        double area = 0.0;
+        for (int i = first; i <= last; i++)
+          area += intensities[offset + i];
+        if (last > first)
+          area *= (retentionTimes[offset + last] - retentionTimes[offset + first]) / (last - first);
+
+        peaks.add(new int[] {offset + first, offset + last});
+        areas.add(area);
+      }
+    }
+
+    return removeOverlappingPeaks(peaks, areas);
+  }
+
+  /**
+   * Wavelet scales (in number of scans) for the peak width range, as in XCMS: half of the peak
+   * widths, in steps of 2.
+   */
+  private static int[] getScales(final double[] retentionTimes, final double minPeakWidth,
+      final double maxPeakWidth) {
+
+    final int n = retentionTimes.length;
+    final double meanDiff = (retentionTimes[n - 1] - retentionTimes[0]) / (n - 1);
+    if (!(meanDiff > 0.0))
+      return new int[0];
+    final int low = (int) Math.rint(minPeakWidth / meanDiff / 2.0);
+    final int high = (int) Math.rint(maxPeakWidth / meanDiff / 2.0);
+
+    if (low <= 0 && high <= 0)
+      return new int[0];
+    if (low <= 0)
+      return new int[] {high};
+    if (high <= 0)
+      return new int[] {low};
+    if (high < low)
+      return new int[0];
+
+    final int[] scales = new int[(high - low) / 2 + 1];
+    for (int i = 0; i < scales.length; i++)
+      scales[i] = low + 2 * i;
+    return scales;
+  }
+
+  /**
+   * Trimmed mean of the positive intensities, or the mean of all intensities if there are too
+   * few positive ones.
+   */
+  private static double estimateChromNoise(final double[] intensities, final int offset,
+      final int length, final int minPoints) {
+
+    final double[] positive = new double[length];
+    int count = 0;
+    double sum = 0.0;
+    for (int i = offset; i < offset + length; i++) {
+      sum += intensities[i];
+      if (intensities[i] > 0.0)
+        positive[count++] = intensities[i];
+    }
+    if (count < minPoints)
+      return sum / length;
+
+    Arrays.sort(positive, 0, count);
+    final int trim = (int) Math.floor(count * NOISE_TRIM);
+    double trimmedSum = 0.0;
+    for (int i = trim; i < count - trim; i++)
+      trimmedSum += positive[i];
+    return trimmedSum / (count - 2 * trim);
+  }
+
+  private static boolean continuousPtsAboveThreshold(final double[] values, final int first,
+      final int last, final double threshold, final int num) {
+
+    int count = 0;
+    for (int i = first; i <= last; i++) {
+      count = values[i] > threshold ? count + 1 : 0;
+      if (count >= num)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes all runs of at least num values above the threshold.
+   */
+  private static double[] removeContinuousPtsAboveThreshold(final double[] values,
+      final double threshold, final int num) {
+
+    final boolean[] remove = new boolean[values.length];
+    int count = 0;
+    for (int i = 0; i < values.length; i++) {
+      count = values[i] > threshold ? count + 1 : 0;
+      if (count >= num)
+        Arrays.fill(remove, i - count + 1, i + 1, true);
+    }
+    int size = 0;
+    final double[] result = new double[values.length];
+    for (int i = 0; i < values.length; i++)
+      if (!remove[i])
+        result[size++] = values[i];
+    return Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Baseline and noise estimates from the data around the region of interest, without continuous
+   * data above the first baseline estimate.
+   *
+   * @return {baseline, standard deviation of the noise}
+   */
+  private static double[] getLocalNoiseEstimate(final double[] intensities, final int offset,
+      final int length, final int tolStart, final int tolEnd, final int noiseRange,
+      final int numScans, final double threshold, final int num) {
+
+    if (length >= numScans) {
+      // Trimmed positive values of the whole chromatogram.
+      final double[] positive =
+          Arrays.stream(intensities, offset, offset + length).filter(v -> v > 0.0).sorted()
+              .toArray();
+      final int from = (int) Math.rint(positive.length * NOISE_TRIM + 1) - 1;
+      final int to = (int) Math.rint(positive.length * (1.0 - NOISE_TRIM));
+      if (to - from < 2)
+        return new double[] {1.0, 1.0};
+      final double[] trimmed = Arrays.copyOfRange(positive, from, to);
+      return new double[] {mean(trimmed), sd(trimmed)};
+    }
+
+    // Wide range: everything outside of the region of interest.
+    final double[] wide = new double[length - (tolEnd - tolStart + 1)];
+    System.arraycopy(intensities, offset, wide, 0, tolStart);
+    System.arraycopy(intensities, offset + tolEnd + 1, wide, tolStart, length - tolEnd - 1);
+    final double[] wideNoise = removeContinuousPtsAboveThreshold(wide, threshold, num);
+
+    // Narrow range: the noise range on both sides of the region of interest.
+    final int narrowStart = Math.max(0, tolStart - noiseRange);
+    final int narrowEnd = Math.min(length - 1, tolEnd + noiseRange);
+    final double[] narrow = new double[(tolStart - narrowStart + 1) + (narrowEnd - tolEnd + 1)];
+    System.arraycopy(intensities, offset + narrowStart, narrow, 0, tolStart - narrowStart + 1);
+    System.arraycopy(intensities, offset + tolEnd, narrow, tolStart - narrowStart + 1,
+        narrowEnd - tolEnd + 1);
+    final double[] narrowNoise = removeContinuousPtsAboveThreshold(narrow, threshold, num);
+
+    final double baseline1 = wideNoise.length > 1 ? mean(wideNoise) : 1.0;
+    final double sdNoise1 = wideNoise.length > 1 ? sd(wideNoise) : 1.0;
+    final double baseline2 = narrowNoise.length > 1 ? mean(narrowNoise) : 1.0;
+    final double sdNoise2 = narrowNoise.length > 1 ? sd(narrowNoise) : 1.0;
+    return new double[] {Math.min(baseline1, baseline2), Math.min(sdNoise1, sdNoise2)};
+  }
+
+  private static double mean(final double[] values) {
+    double sum = 0.0;
+    for (final double v : values)
+      sum += v;
+    return sum / values.length;
+  }
+
+  private static double sd(final double[] values) {
+    final double mean = mean(values);
+    double sum = 0.0;
+    for (final double v : values)
+      sum += (v - mean) * (v - mean);
+    return Math.sqrt(sum / (values.length - 1));
+  }
+
+  /**
+   * Mexican hat kernel of a scale, centered and with zero mean.
+   */
+  private static double[] getKernel(final int scale) {
+    return KERNELS.computeIfAbsent(scale, s -> {
+      final double step = PSI_RANGE / (PSI_LENGTH - 1);
+      final int length = (int) Math.floor(s * PSI_RANGE) + 1;
+      final double[] kernel = new double[Math.max(2, length)];
+      double mean = 0.0;
+      for (int t = 0; t < kernel.length; t++) {
+        final int j = t < length ? (int) Math.floor(t / (s * step)) : 0;
+        kernel[kernel.length - 1 - t] = PSI[Math.min(PSI_LENGTH - 1, j)];
+        mean += PSI[Math.min(PSI_LENGTH - 1, j)];
+      }
+      mean /= kernel.length;
+      for (int t = 0; t < kernel.length; t++)
+        kernel[t] -= mean;
+      return kernel;
+    });
+  }
+
+  /**
+   * Continuous wavelet transform of a section of the intensities, which is extended to a power of
+   * 2 by reflection at the end and transformed by circular correlation, as in MassSpecWavelet.
+   */
+  private void computeCoefficients(final double[] intensities, final int offset,
+      final int length, final int[] scales) {
+
+    int extendedLength = 1;
+    while (extendedLength < length)
+      extendedLength <<= 1;
+    if (extended.length < extendedLength)
+      extended = new double[extendedLength];
+    System.arraycopy(intensities, offset, extended, 0, length);
+    for (int i = length; i < extendedLength; i++)
+      extended[i] = intensities[offset + Math.max(0, 2 * length - 1 - i)];
+
+    if (coefficients.length < scales.length || coefficients[0].length < length) {
+      final int size = Math.max(length, coefficients.length == 0 ? 0 : coefficients[0].length);
+      coefficients = new double[Math.max(scales.length, coefficients.length)][size];
+      localMaxima = new boolean[coefficients.length][size];
+    }
+
+    for (int s = 0; s < scales.length; s++) {
+      final double[] kernel = getKernel(scales[s]);
+      final int half = kernel.length / 2;
+      final double norm = 1.0 / Math.sqrt(scales[s]);
+      final double[] row = coefficients[s];
+      for (int m = 0; m < length; m++) {
+        double sum = 0.0;
+        int index = Math.floorMod(m - half, extendedLength);
+        for (int i = 0; i < kernel.length; i++) {
+          sum += extended[index] * kernel[i];
+          if (++index == extendedLength)
+            index = 0;
+        }
+        row[m] = norm * sum;
+      }
+    }
+  }
+
+  /**
+   * Local maxima of the coefficients of each scale, in windows proportional to the scale.
+   */
+  private void findLocalMaxima(final int[] scales, final int length) {
+    for (int s = 0; s < scales.length; s++) {
+      final boolean[] maxima = localMaxima[s];
+      final double[] row = coefficients[s];
+      Arrays.fill(maxima, 0, length, false);
+      final int winSize = Math.max(MIN_WINDOW_SIZE, 2 * scales[s] + 1);
+      markWindowMaxima(row, length, winSize, 0, maxima);
+      markWindowMaxima(row, length, winSize, winSize / 2, maxima);
+
+      // Of two maxima closer than the window size, keep the larger one.
+      int previous = -1;
+      for (int i = 0; i < length; i++) {
+        if (!maxima[i])
+          continue;
+        if (previous >= 0 && i - previous < winSize) {
+          if (row[previous] - row[i] <= 0)
+            maxima[previous] = false;
+          else
+            maxima[i] = false;
+        }
+        previous = i;
+      }
+      for (int i = 0; i < length; i++)
+        if (row[i] < 0.0)
+          maxima[i] = false;
+    }
+  }
+
+  /**
+   * Marks the maximum of each window which is larger than the window boundaries. Windows start at
+   * -shift, values outside of the row are the first or the last value.
+   */
+  private static void markWindowMaxima(final double[] row, final int length, final int winSize,
+      final int shift, final boolean[] maxima) {
+    for (int start = -shift; start < length; start += winSize) {
+      int maxPos = start;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = start; i < start + winSize; i++) {
+        final double v = row[Math.min(length - 1, Math.max(0, i))];
+        if (v > max) {
+          max = v;
+          maxPos = i;
+        }
+      }
+      final double first = row[Math.min(length - 1, Math.max(0, start))];
+      final double last = row[Math.min(length - 1, Math.max(0, start + winSize - 1))];
+      if (max > first && max > last && maxPos >= 0 && maxPos < length)
+        maxima[maxPos] = true;
+    }
+  }
+
+  /**
+   * Ridge line of local maxima through the scales.
+   */
+  private static class Ridge {
+    private int[] positions = new int[4];
+    private int size = 0;
+    private int status = 0;
+    private final int firstScale;
+
+    Ridge(final int firstScale, final int position) {
+      this.firstScale = firstScale;
+      add(position);
+    }
+
+    void add(final int position) {
+      if (size == positions.length)
+        positions = Arrays.copyOf(positions, size * 2);
+      positions[size++] = position;
+    }
+
+    int last() {
+      return positions[size - 1];
+    }
+
+    /**
+     * @return the first count positions, from the smallest to the largest scale
+     */
+    int[] reversed(final int count) {
+      final int[] result = new int[count];
+      for (int i = 0; i < count; i++)
+        result[i] = positions[count - 1 - i];
+      return result;
+    }
+  }
+
+  /**
+   * Connects the local maxima from the largest to the smallest scale, as MSW.getRidge.
+   *
+   * @return ridges, with their positions from the smallest to the largest scale
+   */
+  private List<int[]> getRidges(final int[] scales, final int length) {
+
+    final int numScales = scales.length;
+    List<Ridge> current = new ArrayList<>();
+    final List<int[]> orphans = new ArrayList<>();
+    final Set<String> orphanNames = new HashSet<>();
+
+    for (int i = 0; i < length; i++)
+      if (localMaxima[numScales - 1][i])
+        current.add(new Ridge(numScales - 1, i));
+
+    for (int s = numScales - 2; s >= 0; s--) {
+
+      final boolean[] maxima = localMaxima[s];
+      final int winSize = Math.max(MIN_WINDOW_SIZE, 2 * scales[s] + 1);
+      final List<Ridge> next = new ArrayList<>(current.size());
+
+      if (current.isEmpty()) {
+        for (int i = 0; i < length; i++)
+          if (maxima[i])
+            next.add(new Ridge(s, i));
+        current = next;
+        continue;
+      }
+
+      for (final Ridge ridge : current) {
+        final int position = ridge.last();
+        int closest = -1;
+        for (int i = Math.max(0, position - winSize); i <= Math.min(length - 1,
+            position + winSize); i++) {
+          if (maxima[i] && (closest < 0 || Math.abs(i - position) < Math.abs(closest - position)))
+            closest = i;
+        }
+        if (closest < 0) {
+          if (ridge.status > GAP_THRESHOLD && scales[s] >= 2) {
+            // Disconnected: keep the ridge without the gap.
+            addOrphan(ridge, ridge.size - ridge.status, s + ridge.status + 1, orphans,
+                orphanNames);
+            continue;
+          }
+          closest = position;
+          ridge.status++;
+        } else {
+          ridge.status = 0;
+        }
+        ridge.add(closest);
+        next.add(ridge);
+      }
+
+      // Ridges meeting at the same position: keep the longest one.
+      final List<Ridge> connected = new ArrayList<>(next.size());
+      final Map<Integer, Ridge> byPosition = new LinkedHashMap<>();
+      for (final Ridge ridge : next) {
+        final Ridge other = byPosition.get(ridge.last());
+        if (other == null) {
+          byPosition.put(ridge.last(), ridge);
+        } else if (ridge.size > other.size) {
+          addOrphan(other, other.size - 1, s + 1, orphans, orphanNames);
+          byPosition.put(ridge.last(), ridge);
+        } else {
+          addOrphan(ridge, ridge.size - 1, s + 1, orphans, orphanNames);
+        }
+      }
+      for (final Ridge ridge : next)
+        if (byPosition.get(ridge.last()) == ridge)
+          connected.add(ridge);
+
+      // Start new ridges at the unconnected maxima.
+      if (scales[s] >= 2) {
+        for (int i = 0; i < length; i++)
+          if (maxima[i] && !byPosition.containsKey(i))
+            connected.add(new Ridge(s, i));
+      }
+      current = connected;
+    }
+
+    final List<int[]> ridges = new ArrayList<>(current.size() + orphans.size());
+    for (final Ridge ridge : current)
+      ridges.add(ridge.reversed(ridge.size));
+    ridges.addAll(orphans);
+    return ridges;
+  }
+
+  private static void addOrphan(final Ridge ridge, final int count, final int lastScale,
+      final List<int[]> orphans, final Set<String> names) {
+    if (count <= 0)
+      return;
+    if (names.add(lastScale + "_" + ridge.positions[count - 1]))
+      orphans.add(ridge.reversed(count));
+  }
+
+  /**
+   * Descends from the start position on both sides while the values decrease.
+   */
+  private static int[] descendMin(final double[] values, final int length, final int start) {
+    int lower = start, upper = start;
+    while (lower > 0 && values[lower - 1] < values[lower])
+      lower--;
+    while (upper < length - 1 && values[upper + 1] < values[upper])
+      upper++;
+    return new int[] {lower, upper};
+  }
+
+  /**
+   * Descends from the start positions on both sides to the minimum, tolerating up to
+   * maxOutliers consecutive values above the current minimum.
+   */
+  private static int[] descendMinTol(final double[] intensities, final int offset,
+      final int length, final int left, final int right, final int maxOutliers) {
+
+    int lower = left, outliers = 0;
+    for (int i = left - 1; i >= 0 && outliers <= maxOutliers; i--) {
+      if (intensities[offset + i] > intensities[offset + lower]) {
+        outliers++;
+      } else {
+        outliers = 0;
+        lower = i;
+      }
+    }
+    int upper = right;
+    outliers = 0;
+    for (int i = right + 1; i < length && outliers <= maxOutliers; i++) {
+      if (intensities[offset + i] > intensities[offset + upper]) {
+        outliers++;
+      } else {
+        outliers = 0;
+        upper = i;
+      }
+    }
+    return new int[] {lower, upper};
+  }
+
+  /**
+   * Keeps the peaks which do not overlap a peak with a larger area, in their original order.
+   */
+  private static List<int[]> removeOverlappingPeaks(final List<int[]> peaks,
+      final List<Double> areas) {
+
+    final Integer[] order = new Integer[peaks.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> Double.compare(areas.get(b), areas.get(a)));
+
+    final boolean[] keep = new boolean[order.length];
+    final List<int[]> kept = new ArrayList<>();
+    for (final int i : order) {
+      final int[] peak = peaks.get(i);
+      boolean overlaps = false;
+      for (final int[] other : kept)
+        overlaps |= peak[1] > other[0] && peak[0] < other[1];
+      if (!overlaps) {
+        keep[i] = true;
+        kept.add(peak);
+      }
+    }
+
+    final List<int[]> result = new ArrayList<>(kept.size());
+    for (int i = 0; i < keep.length; i++)
+      if (keep[i])
+        result.add(peaks.get(i));
+    return result;
+  }
+
+}
@@ -130,8 +130,9 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
    * R engine type.
    */
   public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
-      REngineType.RCALLER);
+      "R engine",
+      "The R engine to be used for communicating with R. All correction methods, including PeakDetection, compute the baselines in R with the packages of the selected method.",
+      REngineType.values(), REngineType.RCALLER);
 
   /**
    * Create the parameter set.
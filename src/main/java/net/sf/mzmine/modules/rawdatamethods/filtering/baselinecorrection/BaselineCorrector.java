@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -48,6 +49,13 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   // Logger.
   protected static final Logger LOG = Logger.getLogger(BaselineCorrector.class.getName());
 
+  /**
+   * The Java implementations are only used once their baselines are validated against the R
+   * packages by BaselineCorrectorsTest, which needs the R output generated by references.R in its
+   * test resources. Until then, all baselines are computed in R.
+   */
+  static final boolean USE_JAVA_IMPLEMENTATIONS = false;
+
   // Processing info storage
   /**
    * String: dataFile being processed. int[]: 3 values array => { progress, progressMax, isAborted }
@@ -106,7 +114,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
+    if (isAborted(dataFile) || (rSession != null && !rSession.isSessionRunning()))
       return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
@@ -255,11 +263,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, parameters, false);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -304,25 +308,10 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     LOG.finest("Building TIC chromatograms.");
     final double[][] baseChrom = buildTICChromatograms(origDataFile, level, numBins);
 
-    // Calculate baselines: done in-place, i.e. overwrite chromatograms to
-    // save memory.
+    // Calculate baselines and normalize them w.r.t. chromatogram (TIC): done in-place, i.e.
+    // overwrite chromatograms to save memory.
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-        }
-      }
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, parameters, true);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -344,6 +333,55 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Computes the baselines of all m/z bins in place. Without an R session, the bins are processed
+   * in parallel by the Java implementation of the corrector.
+   * 
+   * @param rSession the R session, or null to use the Java implementation.
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms - one per m/z bin, replaced by the baselines.
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @param normalize whether to divide the baselines by the chromatograms (TIC).
+   * @throws RSessionWrapperException
+   */
+  private void computeBaselines(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      final double[][] chromatograms, final ParameterSet parameters, final boolean normalize)
+      throws RSessionWrapperException {
+
+    final int[] progress = progressMap.get(origDataFile);
+
+    if (rSession != null) {
+      for (int binIndex = 0; !isAborted(origDataFile) && binIndex < chromatograms.length;
+          binIndex++) {
+        final double[] baseline =
+            computeBaseline(rSession, origDataFile, chromatograms[binIndex], parameters);
+        storeBaseline(chromatograms[binIndex], baseline, normalize);
+        progress[0]++;
+      }
+    } else {
+      IntStream.range(0, chromatograms.length).parallel().forEach(binIndex -> {
+        if (isAborted(origDataFile))
+          return;
+        final double[] baseline = computeBaseline(chromatograms[binIndex], parameters);
+        storeBaseline(chromatograms[binIndex], baseline, normalize);
+        synchronized (progress) {
+          progress[0]++;
+        }
+      });
+    }
+  }
+
+  private static void storeBaseline(final double[] chromatogram, final double[] baseline,
+      final boolean normalize) {
+    for (int scanIndex = 0; scanIndex < chromatogram.length; scanIndex++) {
+      if (!normalize) {
+        chromatogram[scanIndex] = baseline[scanIndex];
+      } else if (chromatogram[scanIndex] != 0.0) {
+        chromatogram[scanIndex] = baseline[scanIndex] / chromatogram[scanIndex];
+      }
+    }
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    * 
@@ -551,6 +589,17 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     progressMap.remove(origDataFile);
   }
 
+  /**
+   * Whether computeBaseline(double[], ParameterSet) is implemented. Otherwise the baselines are
+   * always computed in R.
+   */
+  public boolean hasJavaImplementation() {
+    return true;
+  }
+
+  public boolean isUsingR() {
+    return !USE_JAVA_IMPLEMENTATIONS || !hasJavaImplementation();
+  }
 
   public REngineType getRengineType() {
     return this.rEgineType;
@@ -42,4 +42,10 @@ public interface BaselineProvider {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       final double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException;
 
+  /**
+   * Returns a baseline for correcting the given chromatogram, computed in Java. Must be thread
+   * safe, as the m/z bins of a data file are processed in parallel.
+   */
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters);
+
 }
@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -29,11 +31,15 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
 /**
  * @description Asymmetric baseline corrector. Estimates a trend based on asymmetric least squares.
  *              Uses "asysm" feature from "ptw" R-package
- *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf).
+ *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf), or its Java port.
  * 
  */
 public class AsymmetryCorrector extends BaselineCorrector {
 
+  // Convergence criteria of "asysm".
+  private static final int MAX_ITERATIONS = 25;
+  private static final double EPSILON = 1e-8;
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"ptw"};
@@ -74,6 +80,35 @@ public class AsymmetryCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    final double smoothing =
+        parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
+    final double asymmetry =
+        parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
+
+    // Whittaker smoothing with weights "asymmetry" above and "1 - asymmetry" below the baseline,
+    // repeated until the baseline converges.
+    final int n = chromatogram.length;
+    final double[] weights = new double[n];
+    Arrays.fill(weights, 1.0);
+    double[] baseline = new double[n];
+    for (int it = 0; it < MAX_ITERATIONS; it++) {
+      final double[] previous = baseline;
+      baseline = BaselineMath.whittakerSmooth(chromatogram, weights, smoothing);
+      double change = 0.0;
+      for (int i = 0; i < n; i++) {
+        weights[i] = chromatogram[i] > baseline[i] ? asymmetry : 1.0 - asymmetry;
+        change = Math.max(change, Math.abs(baseline[i] - previous[i]));
+      }
+      if (change < EPSILON)
+        break;
+    }
+
+    return baseline;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
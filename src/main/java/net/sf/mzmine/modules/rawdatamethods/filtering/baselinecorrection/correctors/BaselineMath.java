@@ -0,0 +1,571 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.univariate.BrentOptimizer;
+import org.apache.commons.math3.optim.univariate.SearchInterval;
+import org.apache.commons.math3.optim.univariate.UnivariateObjectiveFunction;
+
+/**
+ * Numerical routines shared by the Java implementations of the baseline correctors. All methods
+ * are stateless and can be called from several threads.
+ */
+class BaselineMath {
+
+  private BaselineMath() {}
+
+  /**
+   * Solves the symmetric positive definite pentadiagonal system A x = b in place by an LDL'
+   * decomposition.
+   *
+   * @param d0 diagonal A[i][i], replaced by the diagonal of D
+   * @param d1 first off-diagonal A[i][i+1], replaced by L[i+1][i]
+   * @param d2 second off-diagonal A[i][i+2], replaced by L[i+2][i]
+   * @param b right hand side, replaced by the solution (may be null to only factorize)
+   */
+  static void solvePentadiagonal(double d0[], double d1[], double d2[], double b[]) {
+    final int n = d0.length;
+
+    // Factorization. L[i][i-1] is stored in d1[i-1] and L[i][i-2] in d2[i-2].
+    for (int i = 0; i < n; i++) {
+      if (i >= 2)
+        d2[i - 2] /= d0[i - 2];
+      if (i >= 1) {
+        double a = d1[i - 1];
+        if (i >= 2)
+          a -= d2[i - 2] * d0[i - 2] * d1[i - 2];
+        d1[i - 1] = a / d0[i - 1];
+        d0[i] -= d1[i - 1] * d1[i - 1] * d0[i - 1];
+      }
+      if (i >= 2)
+        d0[i] -= d2[i - 2] * d2[i - 2] * d0[i - 2];
+    }
+
+    if (b == null)
+      return;
+
+    // Forward substitution L u = b
+    for (int i = 1; i < n; i++) {
+      b[i] -= d1[i - 1] * b[i - 1];
+      if (i >= 2)
+        b[i] -= d2[i - 2] * b[i - 2];
+    }
+    // D v = u and backward substitution L' x = v
+    for (int i = n - 1; i >= 0; i--) {
+      b[i] /= d0[i];
+      if (i + 1 < n)
+        b[i] -= d1[i] * b[i + 1];
+      if (i + 2 < n)
+        b[i] -= d2[i] * b[i + 2];
+    }
+  }
+
+  /**
+   * Weighted Whittaker smoother with second order differences: solves (W + lambda D'D) z = W y
+   */
+  static double[] whittakerSmooth(double y[], double w[], double lambda) {
+    final int n = y.length;
+    double d0[] = new double[n], d1[] = new double[n], d2[] = new double[n];
+    double z[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      d0[i] = w[i];
+      z[i] = w[i] * y[i];
+    }
+    // D'D as sum over the rows (1, -2, 1) of D
+    for (int k = 0; k + 2 < n; k++) {
+      d0[k] += lambda;
+      d0[k + 1] += 4 * lambda;
+      d0[k + 2] += lambda;
+      d1[k] -= 2 * lambda;
+      d1[k + 1] -= 2 * lambda;
+      d2[k] += lambda;
+    }
+    solvePentadiagonal(d0, d1, d2, z);
+    return z;
+  }
+
+  /**
+   * Minimum (or maximum) of all values in the window [i - halfWidth, i + halfWidth], limited to
+   * the array bounds, computed with a monotonic queue.
+   */
+  static double[] runningExtreme(double values[], int halfWidth, boolean max) {
+    final int n = values.length;
+    double result[] = new double[n];
+    int queue[] = new int[n];
+    int head = 0, tail = 0;
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      int last = Math.min(n - 1, i + halfWidth);
+      for (; next <= last; next++) {
+        while (tail > head && (max ? values[queue[tail - 1]] <= values[next]
+            : values[queue[tail - 1]] >= values[next]))
+          tail--;
+        queue[tail++] = next;
+      }
+      while (queue[head] < i - halfWidth)
+        head++;
+      result[i] = values[queue[head]];
+    }
+    return result;
+  }
+
+  /**
+   * Mean of all values in the window [i - halfWidth, i + halfWidth], limited to the array bounds
+   */
+  static double[] runningMean(double values[], int halfWidth) {
+    final int n = values.length;
+    double sums[] = new double[n + 1];
+    for (int i = 0; i < n; i++)
+      sums[i + 1] = sums[i] + values[i];
+    double result[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      int from = Math.max(0, i - halfWidth), to = Math.min(n, i + halfWidth + 1);
+      result[i] = (sums[to] - sums[from]) / (to - from);
+    }
+    return result;
+  }
+
+  /**
+   * Quantile of the values (R type 7), the array is sorted in place
+   */
+  static double quantile(double values[], double probability) {
+    Arrays.sort(values);
+    double h = (values.length - 1) * probability;
+    int low = (int) Math.floor(h);
+    int high = Math.min(values.length - 1, low + 1);
+    return values[low] + (h - low) * (values[high] - values[low]);
+  }
+
+  /**
+   * Linear interpolation of the points (x, y) at the positions 0 .. n - 1. Values outside of the
+   * points are constant.
+   *
+   * @param x increasing positions
+   */
+  static double[] interpolateLinear(double x[], double y[], int n) {
+    double result[] = new double[n];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      while (k + 1 < x.length && x[k + 1] <= i)
+        k++;
+      if (i <= x[0])
+        result[i] = y[0];
+      else if (k + 1 >= x.length)
+        result[i] = y[x.length - 1];
+      else
+        result[i] = y[k] + (y[k + 1] - y[k]) * (i - x[k]) / (x[k + 1] - x[k]);
+    }
+    return result;
+  }
+
+  /**
+   * Local linear regression (loess with degree 1, without robustness iterations) of the points
+   * (x, y), evaluated at the positions 0 .. n - 1. Each fit uses the span * (number of points)
+   * nearest points with tricube weights. Values outside of the points are constant.
+   *
+   * @param x increasing positions
+   */
+  static double[] loess(double x[], double y[], double span, int n) {
+    final int k = x.length;
+    final int q = Math.min(k, Math.max(2, (int) (span * k)));
+    double result[] = new double[n];
+    int left = 0;
+    for (int p = 0; p < n; p++) {
+      final double position = Math.min(x[k - 1], Math.max(x[0], p));
+      // Window of the q nearest points
+      while (left + q < k && position - x[left] > x[left + q] - position)
+        left++;
+      final double maxDistance = Math.max(position - x[left], x[left + q - 1] - position);
+      // Equal weights if both points of the window are at the maximum distance
+      final boolean tricube = q > 2 || position - x[left] != x[left + 1] - position;
+
+      double sumWeights = 0, sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+      for (int i = left; i < left + q; i++) {
+        double weight = 1;
+        if (tricube && maxDistance > 0) {
+          final double distance = Math.abs(x[i] - position) / maxDistance;
+          final double tmp = 1 - distance * distance * distance;
+          weight = tmp * tmp * tmp;
+        }
+        final double dx = x[i] - position;
+        sumWeights += weight;
+        sumX += weight * dx;
+        sumY += weight * y[i];
+        sumXX += weight * dx * dx;
+        sumXY += weight * dx * y[i];
+      }
+      final double meanX = sumX / sumWeights, meanY = sumY / sumWeights;
+      final double variance = sumXX / sumWeights - meanX * meanX;
+      if (variance > 1e-12 * maxDistance * maxDistance) {
+        final double slope = (sumXY / sumWeights - meanX * meanY) / variance;
+        result[p] = meanY - slope * meanX;
+      } else {
+        result[p] = meanY;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Positions of the vertices of the lower convex hull of the points (i, values[i]), including
+   * the first and the last position. Points on the edges of the hull are not included.
+   */
+  static int[] lowerConvexHull(double values[]) {
+    final int n = values.length;
+    int hull[] = new int[n];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      while (size >= 2) {
+        int o = hull[size - 2], a = hull[size - 1];
+        double cross = (a - o) * (values[i] - values[o]) - (values[a] - values[o]) * (i - o);
+        if (cross > 0)
+          break;
+        size--;
+      }
+      hull[size++] = i;
+    }
+    return Arrays.copyOf(hull, size);
+  }
+
+  /**
+   * Fits a cubic smoothing spline to the points (x, y) as R's smooth.spline() does, and evaluates
+   * it at the positions 0 .. n - 1. Positions outside of the points are extrapolated linearly, as
+   * in predict.smooth.spline(). If df is in (1, number of points], the smoothing parameter is
+   * chosen to give df equivalent degrees of freedom, otherwise it is chosen by generalized cross
+   * validation. With less than 4 points (where smooth.spline() fails), the interpolating spline of
+   * R's spline() is used instead, as in hyperSpec.
+   *
+   * @param x increasing, distinct positions
+   */
+  static double[] smoothingSpline(double x[], double y[], double df, int n) {
+    final int k = x.length;
+    double result[] = new double[n];
+    if (k == 1) {
+      Arrays.fill(result, y[0]);
+      return result;
+    }
+    if (k == 2)
+      return interpolateLinear(x, y, n);
+    if (k == 3) {
+      // The "fmm" spline through 3 points is the interpolating parabola
+      for (int p = 0; p < n; p++)
+        result[p] = y[0] * (p - x[1]) * (p - x[2]) / ((x[0] - x[1]) * (x[0] - x[2]))
+            + y[1] * (p - x[0]) * (p - x[2]) / ((x[1] - x[0]) * (x[1] - x[2]))
+            + y[2] * (p - x[0]) * (p - x[1]) / ((x[2] - x[0]) * (x[2] - x[1]));
+      return result;
+    }
+
+    final SmoothingSpline spline = new SmoothingSpline(x, y);
+    final boolean matchDf = df > 1 && df <= k;
+    // Minimize the criterion of smooth.spline() over spar in [-1.5, 1.5], with its default
+    // tolerances
+    UnivariateFunction criterion = spar -> {
+      spline.fit(spar);
+      return matchDf ? 3 + (df - spline.df) * (df - spline.df) : spline.gcv;
+    };
+    double spar = new BrentOptimizer(2e-8, 1e-4 / 3)
+        .optimize(new MaxEval(500), new UnivariateObjectiveFunction(criterion),
+            GoalType.MINIMIZE, new SearchInterval(-1.5, 1.5, -1.5 + 3 * (3 - Math.sqrt(5)) / 2))
+        .getPoint();
+    spline.fit(spar);
+
+    for (int p = 0; p < n; p++)
+      result[p] = spline.evaluate(p);
+    return result;
+  }
+
+  /**
+   * Penalized cubic regression spline of smooth.spline(): a B-spline basis on a subset of the
+   * points as knots (all points if less than 50), with the smoothing parameter
+   * lambda = r * 256^(3 * spar - 1). See Hastie and Tibshirani, Generalized Additive Models
+   * (1990), and the sbart.c source of R.
+   */
+  private static class SmoothingSpline {
+
+    private final double x0, range;
+    private final double xbar[], y[];
+    private final double knots[];
+    private final int numBasis;
+    // Symmetric band matrices with 3 off-diagonals: m[d][i] is the entry (i, i + d)
+    private final double btb[][], omega[][];
+    private final double bty[];
+    private final double ratio;
+
+    private double coefficients[];
+    private double df, gcv;
+
+    SmoothingSpline(double x[], double y[]) {
+      final int k = x.length;
+      this.x0 = x[0];
+      this.range = x[k - 1] - x[0];
+      this.y = y;
+      xbar = new double[k];
+      for (int i = 0; i < k; i++)
+        xbar[i] = (x[i] - x0) / range;
+
+      // Knots at xbar[seq.int(1, k, length.out = numKnots)], boundary knots repeated 3 times
+      final int numKnots = getNumberOfKnots(k);
+      numBasis = numKnots + 2;
+      knots = new double[numKnots + 6];
+      final double step = (double) (k - 1) / (numKnots - 1);
+      for (int j = 0; j < numKnots; j++) {
+        int index = j == numKnots - 1 ? k - 1 : (int) (1 + j * step) - 1;
+        knots[j + 3] = xbar[index];
+      }
+      for (int j = 0; j < 3; j++) {
+        knots[j] = xbar[0];
+        knots[numKnots + 3 + j] = xbar[k - 1];
+      }
+
+      // B'B and B'y
+      btb = new double[4][numBasis];
+      bty = new double[numBasis];
+      for (int i = 0; i < k; i++) {
+        final int span = findSpan(xbar[i]);
+        final double values[] = basisFunctions(span, xbar[i], 0)[0];
+        for (int a = 0; a < 4; a++) {
+          bty[span - 3 + a] += values[a] * y[i];
+          for (int b = a; b < 4; b++)
+            btb[b - a][span - 3 + a] += values[a] * values[b];
+        }
+      }
+
+      // Integrated products of the second derivatives, which are linear within each knot
+      // interval
+      omega = new double[4][numBasis];
+      for (int span = 3; span < numBasis; span++) {
+        final double h = knots[span + 1] - knots[span];
+        if (h <= 0)
+          continue;
+        final double left[] = basisFunctions(span, knots[span], 2)[2];
+        final double right[] = basisFunctions(span, knots[span + 1], 2)[2];
+        for (int a = 0; a < 4; a++) {
+          for (int b = a; b < 4; b++) {
+            omega[b - a][span - 3 + a] += h * (left[a] * left[b] / 3
+                + (left[a] * right[b] + right[a] * left[b]) / 6 + right[a] * right[b] / 3);
+          }
+        }
+      }
+
+      // Scale of lambda: ratio of the diagonals, without the 3 outer entries on each side
+      double t1 = 0, t2 = 0;
+      for (int i = 2; i < numBasis - 3; i++) {
+        t1 += btb[0][i];
+        t2 += omega[0][i];
+      }
+      ratio = t1 / t2;
+    }
+
+    /**
+     * Number of knots used by smooth.spline() for k distinct points (.nknots.smspl)
+     */
+    private static int getNumberOfKnots(int k) {
+      if (k < 50)
+        return k;
+      final double a1 = log2(50), a2 = log2(100), a3 = log2(140), a4 = log2(200);
+      if (k < 200)
+        return (int) Math.pow(2, a1 + (a2 - a1) * (k - 50) / 150);
+      if (k < 800)
+        return (int) Math.pow(2, a2 + (a3 - a2) * (k - 200) / 600);
+      if (k < 3200)
+        return (int) Math.pow(2, a3 + (a4 - a3) * (k - 800) / 2400);
+      return (int) (200 + Math.pow(k - 3200, 0.2));
+    }
+
+    private static double log2(double value) {
+      return Math.log(value) / Math.log(2);
+    }
+
+    /**
+     * Solves (B'B + lambda Omega) c = B'y and computes the equivalent degrees of freedom
+     * trace((B'B + lambda Omega)^-1 B'B) and the GCV score of the fit.
+     */
+    void fit(double spar) {
+      final double lambda = ratio * Math.pow(256, 3 * spar - 1);
+      final int m = numBasis;
+
+      // LDL' decomposition of the band matrix: l[d][i] is L(i + d, i)
+      double d[] = new double[m];
+      double l[][] = new double[4][m];
+      for (int i = 0; i < m; i++) {
+        double sum = btb[0][i] + lambda * omega[0][i];
+        for (int j = Math.max(0, i - 3); j < i; j++)
+          sum -= l[i - j][j] * l[i - j][j] * d[j];
+        d[i] = sum;
+        for (int r = i + 1; r <= Math.min(m - 1, i + 3); r++) {
+          double value = btb[r - i][i] + lambda * omega[r - i][i];
+          for (int j = Math.max(0, r - 3); j < i; j++)
+            value -= l[r - j][j] * l[i - j][j] * d[j];
+          l[r - i][i] = value / d[i];
+        }
+      }
+
+      // Coefficients
+      double c[] = bty.clone();
+      for (int i = 0; i < m; i++)
+        for (int j = Math.max(0, i - 3); j < i; j++)
+          c[i] -= l[i - j][j] * c[j];
+      for (int i = m - 1; i >= 0; i--) {
+        c[i] /= d[i];
+        for (int r = i + 1; r <= Math.min(m - 1, i + 3); r++)
+          c[i] -= l[r - i][i] * c[r];
+      }
+      coefficients = c;
+
+      // Band of the inverse (Hutchinson and de Hoog): s[d][i] is the entry (i, i + d)
+      double s[][] = new double[4][m];
+      for (int i = m - 1; i >= 0; i--) {
+        for (int dj = 3; dj >= 1; dj--) {
+          if (i + dj >= m)
+            continue;
+          double value = 0;
+          for (int r = i + 1; r <= Math.min(m - 1, i + 3); r++)
+            value -= l[r - i][i] * s[Math.abs(r - i - dj)][Math.min(r, i + dj)];
+          s[dj][i] = value;
+        }
+        double value = 1 / d[i];
+        for (int r = i + 1; r <= Math.min(m - 1, i + 3); r++)
+          value -= l[r - i][i] * s[r - i][i];
+        s[0][i] = value;
+      }
+      double trace = 0;
+      for (int i = 0; i < m; i++) {
+        trace += s[0][i] * btb[0][i];
+        for (int dj = 1; dj < 4 && i + dj < m; dj++)
+          trace += 2 * s[dj][i] * btb[dj][i];
+      }
+      df = trace;
+
+      final int k = xbar.length;
+      double rss = 0;
+      for (int i = 0; i < k; i++) {
+        final double residual = y[i] - evaluateScaled(xbar[i], 0);
+        rss += residual * residual;
+      }
+      gcv = (rss / k) / ((1 - df / k) * (1 - df / k));
+    }
+
+    /**
+     * Value of the fitted spline at the position p, extrapolated linearly outside of the points
+     */
+    double evaluate(double p) {
+      final double value = (p - x0) / range;
+      if (value < 0)
+        return evaluateScaled(0, 0) + value * evaluateScaled(0, 1);
+      if (value > 1)
+        return evaluateScaled(1, 0) + (value - 1) * evaluateScaled(1, 1);
+      return evaluateScaled(value, 0);
+    }
+
+    private double evaluateScaled(double value, int derivative) {
+      final int span = findSpan(value);
+      final double values[] = basisFunctions(span, value, derivative)[derivative];
+      double result = 0;
+      for (int a = 0; a < 4; a++)
+        result += values[a] * coefficients[span - 3 + a];
+      return result;
+    }
+
+    /**
+     * Index of the knot interval [knots[span], knots[span + 1]) containing the value
+     */
+    private int findSpan(double value) {
+      if (value >= knots[numBasis])
+        return numBasis - 1;
+      int low = 3, high = numBasis;
+      while (high - low > 1) {
+        int mid = (low + high) >>> 1;
+        if (value < knots[mid])
+          high = mid;
+        else
+          low = mid;
+      }
+      return low;
+    }
+
+    /**
+     * Values and derivatives of the 4 cubic B-splines span - 3 .. span which are non-zero at the
+     * value. See Piegl and Tiller, The NURBS Book (1997), algorithm A2.3.
+     *
+     * @return the derivatives 0 .. numDerivatives (rows) of each B-spline (columns)
+     */
+    private double[][] basisFunctions(int span, double value, int numDerivatives) {
+      final int p = 3;
+      double ndu[][] = new double[p + 1][p + 1];
+      double left[] = new double[p + 1], right[] = new double[p + 1];
+      ndu[0][0] = 1;
+      for (int j = 1; j <= p; j++) {
+        left[j] = value - knots[span + 1 - j];
+        right[j] = knots[span + j] - value;
+        double saved = 0;
+        for (int r = 0; r < j; r++) {
+          ndu[j][r] = right[r + 1] + left[j - r];
+          double temp = ndu[r][j - 1] / ndu[j][r];
+          ndu[r][j] = saved + right[r + 1] * temp;
+          saved = left[j - r] * temp;
+        }
+        ndu[j][j] = saved;
+      }
+
+      double ders[][] = new double[numDerivatives + 1][p + 1];
+      for (int j = 0; j <= p; j++)
+        ders[0][j] = ndu[j][p];
+      double a[][] = new double[2][p + 1];
+      for (int r = 0; r <= p; r++) {
+        int s1 = 0, s2 = 1;
+        a[0][0] = 1;
+        for (int kk = 1; kk <= numDerivatives; kk++) {
+          double d = 0;
+          int rk = r - kk, pk = p - kk;
+          if (r >= kk) {
+            a[s2][0] = a[s1][0] / ndu[pk + 1][rk];
+            d = a[s2][0] * ndu[rk][pk];
+          }
+          int j1 = rk >= -1 ? 1 : -rk;
+          int j2 = r - 1 <= pk ? kk - 1 : p - r;
+          for (int j = j1; j <= j2; j++) {
+            a[s2][j] = (a[s1][j] - a[s1][j - 1]) / ndu[pk + 1][rk + j];
+            d += a[s2][j] * ndu[rk + j][pk];
+          }
+          if (r <= pk) {
+            a[s2][kk] = -a[s1][kk - 1] / ndu[pk + 1][r];
+            d += a[s2][kk] * ndu[r][pk];
+          }
+          ders[kk][r] = d;
+          int swap = s1;
+          s1 = s2;
+          s2 = swap;
+        }
+      }
+      int factor = p;
+      for (int kk = 1; kk <= numDerivatives; kk++) {
+        for (int j = 0; j <= p; j++)
+          ders[kk][j] *= factor;
+        factor *= p - kk;
+      }
+      return ders;
+    }
+  }
+
+}
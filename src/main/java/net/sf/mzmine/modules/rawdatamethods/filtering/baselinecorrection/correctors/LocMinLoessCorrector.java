@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -29,7 +31,8 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
 /**
  * @description Local Minima + LOESS (smoothed low-percentile intensity) baseline corrector. Uses
  *              "bslnoff" feature from "PROcess" R/Bioconductor package
- *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf).
+ *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf),
+ *              or its Java port.
  * 
  */
 public class LocMinLoessCorrector extends BaselineCorrector {
@@ -79,6 +82,84 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Local Minima parameters.
+    String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
+    double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
+    int breaks = parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).getValue();
+    int breaks_width =
+        parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
+    double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+    if (breaks_width > 0)
+      breaks = (int) Math.round((double) (n - 1) / (double) breaks_width);
+
+    // "breaks - 1" equally spaced intervals on the log scale of the scan positions (1..n).
+    final int numIntervals = Math.max(1, breaks - 1);
+    final double logMax = Math.log(n);
+    final int[] intervalStart = new int[numIntervals + 1];
+    for (int i = 0, interval = 0; i < n; i++) {
+      final int in = logMax > 0
+          ? Math.min(numIntervals - 1, (int) (Math.log(i + 1) / logMax * numIntervals)) : 0;
+      while (interval < in)
+        intervalStart[++interval] = i;
+    }
+    for (int interval = 1; interval <= numIntervals; interval++)
+      if (intervalStart[interval] == 0)
+        intervalStart[interval] = n;
+
+    // Local minima, or all points below the local quantile, of each interval.
+    int count = 0;
+    final double[] pointX = new double[n], pointY = new double[n];
+    for (int interval = 0; interval < numIntervals; interval++) {
+      final int from = intervalStart[interval], to = intervalStart[interval + 1];
+      if (from >= to)
+        continue;
+      if (qntl == 0.0) {
+        int min = from;
+        for (int i = from + 1; i < to; i++)
+          if (chromatogram[i] < chromatogram[min])
+            min = i;
+        pointX[count] = min;
+        pointY[count++] = chromatogram[min];
+      } else {
+        final double q =
+            BaselineMath.quantile(Arrays.copyOfRange(chromatogram, from, to), qntl);
+        for (int i = from; i < to; i++) {
+          if (chromatogram[i] < q) {
+            pointX[count] = i;
+            pointY[count++] = chromatogram[i];
+          }
+        }
+      }
+    }
+    if (count == 0)
+      return new double[n];
+
+    final double[] x = Arrays.copyOf(pointX, count);
+    final double[] y = Arrays.copyOf(pointY, count);
+    final double[] baseline;
+    // Local linear regression without robustness iterations, predicted at every scan, with the
+    // same span as in R. R fails if the span covers less than 2 points, the points are
+    // interpolated linearly in that case.
+    final double span = Math.min(1.0, Math.max(bw, BW_MIN_VAL));
+    if (method.equals("loess") && (int) (span * count) >= 2)
+      baseline = BaselineMath.loess(x, y, span, n);
+    else
+      baseline = BaselineMath.interpolateLinear(x, y, n);
+
+    // bslnoff() sets negative corrected intensities to zero, so the baseline never exceeds the
+    // chromatogram.
+    for (int i = 0; i < n; i++)
+      baseline[i] = Math.min(baseline[i], chromatogram[i]);
+    return baseline;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Local minima + LOESS baseline corrector";
@@ -33,6 +33,7 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  *              "peakDetection" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (A translation from
  *              Kevin R. Coombes et al.'s MATLAB code for detecting peaks and removing baselines).
+ *              Without R, a Java adaptation of the same steps is used.
  * 
  */
 public class PeakDetectionCorrector extends BaselineCorrector {
@@ -90,6 +91,20 @@ public class PeakDetectionCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  /**
+   * There is no Java port of the "baseline" package's peak detection method yet, so this
+   * corrector always uses R.
+   */
+  @Override
+  public boolean hasJavaImplementation() {
+    return false;
+  }
+
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+    throw new UnsupportedOperationException(getName() + " requires R");
+  }
+
   @Override
   public @Nonnull String getName() {
     return "PeakDetection baseline corrector";
@@ -31,7 +31,7 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  *              Uses "rollingBall" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (Ideas from Rolling
  *              Ball algorithm for X-ray spectra by M.A.Kneen and H.J. Annegarn. Variable window
- *              width has been left out).
+ *              width has been left out). Without R, the same algorithm is computed in Java.
  * 
  */
 public class RollingBallCorrector extends BaselineCorrector {
@@ -83,6 +83,18 @@ public class RollingBallCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    final int wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    final int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+
+    // Minimize, maximize the minima and smooth, over windows shrinking at the ends.
+    final double[] minima = BaselineMath.runningExtreme(chromatogram, wm, false);
+    final double[] maxima = BaselineMath.runningExtreme(minima, wm, true);
+    return BaselineMath.runningMean(maxima, ws);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RollingBall baseline corrector";
@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -30,7 +32,8 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  * @description Rubber Band baseline corrector. Estimates a trend based on Rubber Band algorithm
  *              (which determines a convex envelope for the spectra - underneath side). Uses
  *              "spc.rubberband" feature from "hyperSpec" R-package
- *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
+ *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf), or
+ *              its Java port.
  * 
  */
 public class RubberBandCorrector extends BaselineCorrector {
@@ -79,6 +82,61 @@ public class RubberBandCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Rubber Band parameters.
+    double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
+    boolean autoNoise =
+        parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).getValue();
+    double df = parameters.getParameter(RubberBandCorrectorParameters.DF).getValue();
+    boolean spline = parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
+    double bendFactor =
+        parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+    if (autoNoise)
+      noise = Arrays.stream(chromatogram).min().getAsDouble();
+
+    // Bend: quadratic in the scan position normalized to [0, 1].
+    final double[] bend = new double[n];
+    final double[] bent = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = n > 1 ? (double) i / (n - 1) : 0.0;
+      bend[i] = bendFactor * x * x;
+      bent[i] = chromatogram[i] + bend[i];
+    }
+
+    // Linear interpolation of the lower convex hull.
+    final int[] hull = BaselineMath.lowerConvexHull(bent);
+    final double[] hullX = new double[hull.length], hullY = new double[hull.length];
+    for (int i = 0; i < hull.length; i++) {
+      hullX[i] = hull[i];
+      hullY[i] = bent[hull[i]];
+    }
+    double[] baseline = BaselineMath.interpolateLinear(hullX, hullY, n);
+
+    // Smoothing spline through all points within the noise level above the hull.
+    if (spline) {
+      int count = 0;
+      final double[] splineX = new double[n], splineY = new double[n];
+      for (int i = 0; i < n; i++) {
+        if (bent[i] <= baseline[i] + noise) {
+          splineX[count] = i;
+          splineY[count++] = bent[i];
+        }
+      }
+      baseline = BaselineMath.smoothingSpline(Arrays.copyOf(splineX, count),
+          Arrays.copyOf(splineY, count), df, n);
+    }
+
+    for (int i = 0; i < n; i++)
+      baseline[i] -= bend[i];
+    return baseline;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
@@ -29,13 +29,14 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.visualization.peaklisttable.table.PeakListTable;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.scans.sweep.ScanSweep;
+import net.sf.mzmine.util.scans.sweep.ScanSweepConsumer;
+import net.sf.mzmine.util.scans.sweep.SweepSpectrum;
 import com.google.common.collect.Range;
 
 class ManualPickerTask extends AbstractTask {
@@ -84,50 +85,16 @@ class ManualPickerTask extends AbstractTask {
 
     // Calculate total number of scans to process
     for (RawDataFile dataFile : dataFiles) {
-      int[] scanNumbers = dataFile.getScanNumbers(1, rtRange);
-      totalScans += scanNumbers.length;
+      totalScans += dataFile.getNumOfScans(1);
     }
 
     // Find peak in each data file
     for (RawDataFile dataFile : dataFiles) {
 
-      ManualPeak newPeak = new ManualPeak(dataFile);
-      boolean dataPointFound = false;
-
-      int[] scanNumbers = dataFile.getScanNumbers(1, rtRange);
-
-      for (int scanNumber : scanNumbers) {
-
-        if (isCanceled())
-          return;
-
-        // Get next scan
-        Scan scan = dataFile.getScan(scanNumber);
-
-        // Find most intense m/z peak
-        DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
-        if (basePeak != null) {
-          if (basePeak.getIntensity() > 0)
-            dataPointFound = true;
-          newPeak.addDatapoint(scan.getScanNumber(), basePeak);
-        } else {
-          final double mzCenter = (mzRange.lowerEndpoint() + mzRange.upperEndpoint()) / 2.0;
-          DataPoint fakeDataPoint = new SimpleDataPoint(mzCenter, 0);
-          newPeak.addDatapoint(scan.getScanNumber(), fakeDataPoint);
-        }
-
-        processedScans++;
-
-      }
-
-      if (dataPointFound) {
-        newPeak.finalizePeak();
-        if (newPeak.getArea() > 0)
-          peakListRow.addPeak(dataFile, newPeak);
-      } else {
-        peakListRow.removePeak(dataFile);
-      }
+      ScanSweep sweep = new ScanSweep(dataFile, 1);
+      sweep.addConsumer(new ManualPeakBuilder(dataFile));
+      if (!sweep.run(this::isCanceled, () -> processedScans++))
+        return;
 
     }
 
@@ -155,4 +122,55 @@ class ManualPickerTask extends AbstractTask {
 
   }
 
+  /**
+   * Collects the most intense m/z peak of each scan within the RT range into a new peak.
+   */
+  private class ManualPeakBuilder implements ScanSweepConsumer {
+
+    private final RawDataFile dataFile;
+    private final ManualPeak newPeak;
+    private boolean dataPointFound = false;
+
+    ManualPeakBuilder(RawDataFile dataFile) {
+      this.dataFile = dataFile;
+      this.newPeak = new ManualPeak(dataFile);
+    }
+
+    @Override
+    public Range<Double> getRTRange() {
+      return rtRange;
+    }
+
+    @Override
+    public boolean offerScan(SweepSpectrum spectrum) {
+
+      // Find most intense m/z peak
+      int basePeak = spectrum.findBasePeak(mzRange);
+
+      if (basePeak >= 0) {
+        if (spectrum.getIntensity(basePeak) > 0)
+          dataPointFound = true;
+        newPeak.addDatapoint(spectrum.getScanNumber(),
+            new SimpleDataPoint(spectrum.getMZ(basePeak), spectrum.getIntensity(basePeak)));
+      } else {
+        final double mzCenter = (mzRange.lowerEndpoint() + mzRange.upperEndpoint()) / 2.0;
+        DataPoint fakeDataPoint = new SimpleDataPoint(mzCenter, 0);
+        newPeak.addDatapoint(spectrum.getScanNumber(), fakeDataPoint);
+      }
+
+      return true;
+    }
+
+    @Override
+    public void sweepFinished() {
+      if (dataPointFound) {
+        newPeak.finalizePeak();
+        if (newPeak.getArea() > 0)
+          peakListRow.addPeak(dataFile, newPeak);
+      } else {
+        peakListRow.removePeak(dataFile);
+      }
+    }
+  }
+
 }
@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.msms;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
@@ -34,7 +36,6 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.scans.ScanUtils;
 
 public class MsMsPeakPickingTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
@@ -81,22 +82,51 @@ public class MsMsPeakPickingTask extends AbstractTask {
 
     final Scan scans[] = scanSelection.getMatchingScans(dataFile);
     totalScans = scans.length;
-    for (Scan scan : scans) {
+
+    // MS1 scans sorted by retention time, the stable sort keeps the scan number order of equal
+    // retention times
+    final Scan ms1Scans[] = Arrays.stream(dataFile.getScanNumbers(1)).mapToObj(dataFile::getScan)
+        .sorted(Comparator.comparingDouble(Scan::getRetentionTime)).toArray(Scan[]::new);
+    final double ms1RetentionTimes[] =
+        Arrays.stream(ms1Scans).mapToDouble(Scan::getRetentionTime).toArray();
+
+    // MS/MS scans are processed in retention time order, so their RT windows slide over the MS1
+    // scans. Each MS1 scan is decoded once when it enters the window and released when it leaves.
+    final Integer order[] = new Integer[scans.length];
+    for (int i = 0; i < scans.length; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble(i -> scans[i].getRetentionTime()));
+    final DataPoint ms1DataPoints[][] = new DataPoint[ms1Scans.length][];
+    int windowStart = 0, windowEnd = 0;
+
+    final PeakListRow rows[] = new PeakListRow[scans.length];
+    for (int scanIndex : order) {
       if (isCanceled())
         return;
+      final Scan scan = scans[scanIndex];
+
+      // Move the window of decoded MS1 scans
+      final double rtMin = scan.getRetentionTime() - (binTime / 2.0);
+      final double rtMax = scan.getRetentionTime() + (binTime / 2.0);
+      while (windowStart < ms1Scans.length && ms1RetentionTimes[windowStart] < rtMin) {
+        ms1DataPoints[windowStart] = null;
+        windowStart++;
+      }
+      windowEnd = Math.max(windowEnd, windowStart);
+      while (windowEnd < ms1Scans.length && ms1RetentionTimes[windowEnd] <= rtMax) {
+        ms1DataPoints[windowEnd] = ms1Scans[windowEnd].getDataPoints();
+        windowEnd++;
+      }
 
       // Get the MS Scan
       Scan bestScan = null;
-      Range<Double> rtWindow = Range.closed(scan.getRetentionTime() - (binTime / 2.0),
-          scan.getRetentionTime() + (binTime / 2.0));
-      Range<Double> mzWindow = Range.closed(scan.getPrecursorMZ() - (binSize / 2.0),
-          scan.getPrecursorMZ() + (binSize / 2.0));
+      final double mzMin = scan.getPrecursorMZ() - (binSize / 2.0);
+      final double mzMax = scan.getPrecursorMZ() + (binSize / 2.0);
       DataPoint point;
       DataPoint maxPoint = null;
-      int[] regionScanNumbers = dataFile.getScanNumbers(1, rtWindow);
-      for (int regionScanNumber : regionScanNumbers) {
-        Scan regionScan = dataFile.getScan(regionScanNumber);
-        point = ScanUtils.findBasePeak(regionScan, mzWindow);
+      for (int i = windowStart; i < windowEnd; i++) {
+        Scan regionScan = ms1Scans[i];
+        point = findBasePeak(ms1DataPoints[i], mzMin, mzMax);
 
         // no datapoint found
         if (point == null) {
@@ -130,10 +160,16 @@ public class MsMsPeakPickingTask extends AbstractTask {
       PeakListRow entry = new SimplePeakListRow(scan.getScanNumber());
       entry.addPeak(dataFile, c);
 
-      newPeakList.addRow(entry);
+      rows[scanIndex] = entry;
       processedScans++;
     }
 
+    // Add the rows in the order of the scan selection
+    for (PeakListRow row : rows) {
+      if (row != null)
+        newPeakList.addRow(row);
+    }
+
     project.addPeakList(newPeakList);
 
     // Add quality parameters to peaks
@@ -145,4 +181,29 @@ public class MsMsPeakPickingTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Like ScanUtils.findBasePeak, for data points sorted by m/z.
+   *
+   * @return the most intense data point within the closed m/z range, or null
+   */
+  private static DataPoint findBasePeak(DataPoint dataPoints[], double mzMin, double mzMax) {
+
+    // First data point within the range
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (dataPoints[mid].getMZ() < mzMin)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    DataPoint basePeak = null;
+    for (int i = low; i < dataPoints.length && dataPoints[i].getMZ() <= mzMax; i++) {
+      if ((basePeak == null) || (dataPoints[i].getIntensity() > basePeak.getIntensity()))
+        basePeak = dataPoints[i];
+    }
+    return basePeak;
+  }
+
 }
@@ -25,12 +25,13 @@ import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature.FeatureStatus;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.scans.sweep.ScanSweepConsumer;
+import net.sf.mzmine.util.scans.sweep.SweepSpectrum;
 
-class Gap {
+class Gap implements ScanSweepConsumer {
 
   private PeakListRow peakListRow;
   private RawDataFile rawDataFile;
@@ -59,37 +60,46 @@ class Gap {
     this.noiseLevel = noiseLevel;
   }
 
-  void offerNextScan(Scan scan) {
+  /**
+   * The gap keeps receiving scans after its RT range, until the peak under construction ends.
+   */
+  @Override
+  public Range<Double> getRTRange() {
+    return Range.atLeast(rtRange.lowerEndpoint());
+  }
 
-    double scanRT = scan.getRetentionTime();
+  @Override
+  public boolean offerScan(SweepSpectrum spectrum) {
+
+    double scanRT = spectrum.getRetentionTime();
 
     // If not yet inside the RT range
     if (scanRT < rtRange.lowerEndpoint()) {
-      return;
+      return true;
     }
 
     // If we have passed the RT range and finished processing last peak
     if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null)) {
-      return;
+      return false;
     }
 
     // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+    int basePeak = spectrum.findBasePeak(mzRange);
 
     GapDataPoint currentDataPoint;
-    if (basePeak != null) {
-      currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), basePeak.getMZ(), scanRT, basePeak.getIntensity());
+    if (basePeak >= 0) {
+      currentDataPoint = new GapDataPoint(spectrum.getScanNumber(), spectrum.getMZ(basePeak),
+          scanRT, spectrum.getIntensity(basePeak));
     } else {
       final double mzCenter = (mzRange.lowerEndpoint() + mzRange.upperEndpoint()) / 2.0;
-      currentDataPoint = new GapDataPoint(scan.getScanNumber(), mzCenter, scanRT, 0);
+      currentDataPoint = new GapDataPoint(spectrum.getScanNumber(), mzCenter, scanRT, 0);
     }
 
     // If we have not yet started, just create a new peak
     if (currentPeakDataPoints == null) {
       currentPeakDataPoints = new Vector<GapDataPoint>();
       currentPeakDataPoints.add(currentDataPoint);
-      return;
+      return true;
     }
 
     // Check if this continues previous peak?
@@ -108,6 +118,12 @@ class Gap {
 
     }
 
+    return true;
+  }
+
+  @Override
+  public void sweepFinished() {
+    noMoreOffers();
   }
 
   public void noMoreOffers() {
@@ -28,7 +28,6 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -40,6 +39,7 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.sweep.ScanSweep;
 
 import com.Ostermiller.util.CSVParser;
 import com.google.common.collect.Range;
@@ -147,28 +147,13 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
       return;
     }
 
-    // Process each scan
-    for (int scanNumber : scanNumbers) {
-
-      // Canceled?
-      if (isCanceled()) {
-        return;
-      }
-
-      // Get the scan
-      Scan scan = dataFile.getScan(scanNumber);
-
-      // Feed this scan to all gaps
-      for (Gap gap : gaps) {
-        gap.offerNextScan(scan);
-      }
-
-      processedScans++;
-    }
-
-    // Finalize gaps
+    // Decode each scan once for all gaps, the sweep finalizes the gaps
+    ScanSweep sweep = new ScanSweep(dataFile, msLevel);
     for (Gap gap : gaps) {
-      gap.noMoreOffers();
+      sweep.addConsumer(gap);
+    }
+    if (!sweep.run(this::isCanceled, () -> processedScans++)) {
+      return;
     }
 
     // Append processed peak list to the project
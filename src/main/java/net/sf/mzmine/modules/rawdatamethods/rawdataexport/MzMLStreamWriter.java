@@ -0,0 +1,263 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Writes an indexed mzML 1.1 file. The m/z and intensity arrays are written as zlib-compressed
+ * 32-bit floats, the precision of the MZmine data point storage.
+ */
+class MzMLStreamWriter extends RawDataStreamWriter {
+
+  private static final String MZ_UNIT =
+      "unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"";
+  private static final String INTENSITY_UNIT =
+      "unitCvRef=\"MS\" unitAccession=\"MS:1000131\" unitName=\"number of detector counts\"";
+  private static final String MINUTE_UNIT =
+      "unitCvRef=\"UO\" unitAccession=\"UO:0000031\" unitName=\"minute\"";
+
+  MzMLStreamWriter(RawDataFile dataFile) {
+    super(dataFile);
+  }
+
+  @Override
+  protected String getHeader() {
+    final String name = toNCName(dataFile.getName());
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<indexedmzML xmlns=\"http://psi.hupo.org/ms/mzml\" ");
+    xml.append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+    xml.append("xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml ");
+    xml.append("http://psidev.info/files/ms/mzML/xsd/mzML1.1.2_idx.xsd\">\n");
+    xml.append("  <mzML xmlns=\"http://psi.hupo.org/ms/mzml\" ");
+    xml.append("xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml ");
+    xml.append("http://psidev.info/files/ms/mzML/xsd/mzML1.1.0.xsd\" ");
+    xml.append("id=\"").append(name).append("\" version=\"1.1.0\">\n");
+    xml.append("    <cvList count=\"2\">\n");
+    xml.append("      <cv id=\"MS\" fullName=\"Proteomics Standards Initiative Mass Spectrometry ");
+    xml.append("Ontology\" URI=\"https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/");
+    xml.append("psi-ms.obo\"/>\n");
+    xml.append("      <cv id=\"UO\" fullName=\"Unit Ontology\" ");
+    xml.append("URI=\"http://ontologies.berkeleybop.org/uo.obo\"/>\n");
+    xml.append("    </cvList>\n");
+    xml.append("    <fileDescription>\n");
+    xml.append("      <fileContent>\n");
+    if (dataFile.getScanNumbers(1).length > 0)
+      cvParam(xml, 8, "MS:1000579", "MS1 spectrum", "", null);
+    if (dataFile.getScanNumbers().length > dataFile.getScanNumbers(1).length)
+      cvParam(xml, 8, "MS:1000580", "MSn spectrum", "", null);
+    xml.append("      </fileContent>\n");
+    xml.append("    </fileDescription>\n");
+    xml.append("    <softwareList count=\"1\">\n");
+    xml.append("      <software id=\"MZmine\" version=\"")
+        .append(escape(MZmineCore.getMZmineVersion())).append("\">\n");
+    cvParam(xml, 8, "MS:1002342", "MZmine", "", null);
+    xml.append("      </software>\n");
+    xml.append("    </softwareList>\n");
+    xml.append("    <instrumentConfigurationList count=\"1\">\n");
+    xml.append("      <instrumentConfiguration id=\"IC1\">\n");
+    cvParam(xml, 8, "MS:1000031", "instrument model", "", null);
+    xml.append("      </instrumentConfiguration>\n");
+    xml.append("    </instrumentConfigurationList>\n");
+    xml.append("    <dataProcessingList count=\"1\">\n");
+    xml.append("      <dataProcessing id=\"MZmine_export\">\n");
+    xml.append("        <processingMethod order=\"0\" softwareRef=\"MZmine\">\n");
+    cvParam(xml, 10, "MS:1000544", "Conversion to mzML", "", null);
+    xml.append("        </processingMethod>\n");
+    xml.append("      </dataProcessing>\n");
+    xml.append("    </dataProcessingList>\n");
+    xml.append("    <run id=\"").append(name)
+        .append("\" defaultInstrumentConfigurationRef=\"IC1\">\n");
+    xml.append("      <spectrumList count=\"").append(scanNumbers.length)
+        .append("\" defaultDataProcessingRef=\"MZmine_export\">\n");
+    return xml.toString();
+  }
+
+  /**
+   * The mzML and run ids are of type xs:ID, so they must be valid NCNames: characters outside the
+   * NCName set are replaced with an underscore, and an underscore is prepended when the name does
+   * not start with a letter.
+   */
+  static String toNCName(String text) {
+    final StringBuilder id = new StringBuilder(text.length() + 1);
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      final boolean letter = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+      final boolean other = (c >= '0' && c <= '9') || c == '.' || c == '-';
+      if (i == 0 && !letter)
+        id.append('_');
+      id.append(letter || other ? c : '_');
+    }
+    return id.length() == 0 ? "_" : id.toString();
+  }
+
+  @Override
+  protected String encodeScan(int index, Scan scan, byte dataPoints[]) {
+
+    final int numOfDataPoints = dataPoints.length / 8;
+    final StringBuilder xml = new StringBuilder(dataPoints.length + 2048);
+
+    xml.append("        <spectrum index=\"").append(index).append("\" id=\"scan=")
+        .append(scan.getScanNumber()).append("\" defaultArrayLength=\"").append(numOfDataPoints)
+        .append("\">\n");
+    cvParam(xml, 10, "MS:1000511", "ms level", String.valueOf(scan.getMSLevel()), null);
+    if (scan.getMSLevel() == 1)
+      cvParam(xml, 10, "MS:1000579", "MS1 spectrum", "", null);
+    else
+      cvParam(xml, 10, "MS:1000580", "MSn spectrum", "", null);
+    if (scan.getSpectrumType() == MassSpectrumType.CENTROIDED)
+      cvParam(xml, 10, "MS:1000127", "centroid spectrum", "", null);
+    else
+      cvParam(xml, 10, "MS:1000128", "profile spectrum", "", null);
+    if (scan.getPolarity() == PolarityType.POSITIVE)
+      cvParam(xml, 10, "MS:1000130", "positive scan", "", null);
+    else if (scan.getPolarity() == PolarityType.NEGATIVE)
+      cvParam(xml, 10, "MS:1000129", "negative scan", "", null);
+    final DataPoint basePeak = scan.getHighestDataPoint();
+    if (basePeak != null) {
+      cvParam(xml, 10, "MS:1000504", "base peak m/z", String.valueOf(basePeak.getMZ()), MZ_UNIT);
+      cvParam(xml, 10, "MS:1000505", "base peak intensity",
+          String.valueOf(basePeak.getIntensity()), INTENSITY_UNIT);
+    }
+    cvParam(xml, 10, "MS:1000285", "total ion current", String.valueOf(scan.getTIC()), null);
+
+    xml.append("          <scanList count=\"1\">\n");
+    cvParam(xml, 12, "MS:1000795", "no combination", "", null);
+    xml.append("            <scan>\n");
+    cvParam(xml, 14, "MS:1000016", "scan start time", String.valueOf(scan.getRetentionTime()),
+        MINUTE_UNIT);
+    final String scanDefinition = scan.getScanDefinition();
+    if ((scanDefinition != null) && !scanDefinition.isEmpty())
+      cvParam(xml, 14, "MS:1000512", "filter string", escape(scanDefinition), null);
+    final Range<Double> scanningRange = scan.getScanningMZRange();
+    xml.append("              <scanWindowList count=\"1\">\n");
+    xml.append("                <scanWindow>\n");
+    cvParam(xml, 18, "MS:1000501", "scan window lower limit",
+        String.valueOf(scanningRange.lowerEndpoint()), MZ_UNIT);
+    cvParam(xml, 18, "MS:1000500", "scan window upper limit",
+        String.valueOf(scanningRange.upperEndpoint()), MZ_UNIT);
+    xml.append("                </scanWindow>\n");
+    xml.append("              </scanWindowList>\n");
+    xml.append("            </scan>\n");
+    xml.append("          </scanList>\n");
+
+    if (scan.getPrecursorMZ() != 0) {
+      final String precursorMZ = String.valueOf(scan.getPrecursorMZ());
+      xml.append("          <precursorList count=\"1\">\n");
+      xml.append("            <precursor>\n");
+      xml.append("              <isolationWindow>\n");
+      cvParam(xml, 16, "MS:1000827", "isolation window target m/z", precursorMZ, MZ_UNIT);
+      xml.append("              </isolationWindow>\n");
+      xml.append("              <selectedIonList count=\"1\">\n");
+      xml.append("                <selectedIon>\n");
+      cvParam(xml, 18, "MS:1000744", "selected ion m/z", precursorMZ, MZ_UNIT);
+      if (scan.getPrecursorCharge() > 0)
+        cvParam(xml, 18, "MS:1000041", "charge state",
+            String.valueOf(scan.getPrecursorCharge()), null);
+      xml.append("                </selectedIon>\n");
+      xml.append("              </selectedIonList>\n");
+      xml.append("              <activation/>\n");
+      xml.append("            </precursor>\n");
+      xml.append("          </precursorList>\n");
+    }
+
+    // Split the stored m/z and intensity pairs into two little-endian arrays
+    final ByteBuffer stored = ByteBuffer.wrap(dataPoints);
+    final ByteBuffer mzValues =
+        ByteBuffer.allocate(numOfDataPoints * 4).order(ByteOrder.LITTLE_ENDIAN);
+    final ByteBuffer intensityValues =
+        ByteBuffer.allocate(numOfDataPoints * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < numOfDataPoints; i++) {
+      mzValues.putFloat(stored.getFloat());
+      intensityValues.putFloat(stored.getFloat());
+    }
+
+    xml.append("          <binaryDataArrayList count=\"2\">\n");
+    binaryDataArray(xml, mzValues.array(), "MS:1000514", "m/z array", MZ_UNIT);
+    binaryDataArray(xml, intensityValues.array(), "MS:1000515", "intensity array",
+        INTENSITY_UNIT);
+    xml.append("          </binaryDataArrayList>\n");
+    xml.append("        </spectrum>\n");
+
+    return xml.toString();
+  }
+
+  @Override
+  protected String getRunEnd() {
+    return "      </spectrumList>\n    </run>\n  </mzML>\n  ";
+  }
+
+  @Override
+  protected String getIndex(long offsets[], long indexOffset) {
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<indexList count=\"1\">\n");
+    xml.append("    <index name=\"spectrum\">\n");
+    for (int i = 0; i < offsets.length; i++) {
+      xml.append("      <offset idRef=\"scan=").append(scanNumbers[i]).append("\">")
+          .append(offsets[i]).append("</offset>\n");
+    }
+    xml.append("    </index>\n");
+    xml.append("  </indexList>\n");
+    xml.append("  <indexListOffset>").append(indexOffset).append("</indexListOffset>\n");
+    xml.append("  <fileChecksum>");
+    return xml.toString();
+  }
+
+  @Override
+  protected String getEnd() {
+    return "</fileChecksum>\n</indexedmzML>\n";
+  }
+
+  private static void binaryDataArray(StringBuilder xml, byte values[], String accession,
+      String name, String unit) {
+    final String encoded = compressAndEncode(values);
+    xml.append("            <binaryDataArray encodedLength=\"").append(encoded.length())
+        .append("\">\n");
+    cvParam(xml, 14, "MS:1000521", "32-bit float", "", null);
+    cvParam(xml, 14, "MS:1000574", "zlib compression", "", null);
+    cvParam(xml, 14, accession, name, "", unit);
+    xml.append("              <binary>").append(encoded).append("</binary>\n");
+    xml.append("            </binaryDataArray>\n");
+  }
+
+  private static void cvParam(StringBuilder xml, int indent, String accession, String name,
+      String value, String unit) {
+    for (int i = 0; i < indent; i++)
+      xml.append(' ');
+    xml.append("<cvParam cvRef=\"").append(accession, 0, accession.indexOf(':'))
+        .append("\" accession=\"").append(accession).append("\" name=\"").append(name)
+        .append("\" value=\"").append(value).append('"');
+    if (unit != null)
+      xml.append(' ').append(unit);
+    xml.append("/>\n");
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.util.Base64;
+import java.util.Locale;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.CompressionUtils;
+
+/**
+ * Writes an indexed mzXML 3.2 file. The peaks of mzXML are m/z and intensity pairs of big-endian
+ * 32-bit floats, exactly the layout of the MZmine data point storage, so the stored bytes are only
+ * compressed and encoded.
+ */
+class MzXMLStreamWriter extends RawDataStreamWriter {
+
+  MzXMLStreamWriter(RawDataFile dataFile) {
+    super(dataFile);
+  }
+
+  @Override
+  protected String getHeader() {
+    final Range<Double> rtRange = dataFile.getDataRTRange();
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<mzXML xmlns=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2\" ");
+    xml.append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+    xml.append("xsi:schemaLocation=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2 ");
+    xml.append("http://sashimi.sourceforge.net/schema_revision/mzXML_3.2/mzXML_idx_3.2.xsd\">\n");
+    xml.append("  <msRun scanCount=\"").append(scanNumbers.length).append('"');
+    if (scanNumbers.length > 0) {
+      xml.append(" startTime=\"").append(duration(rtRange.lowerEndpoint()))
+          .append("\" endTime=\"").append(duration(rtRange.upperEndpoint())).append('"');
+    }
+    xml.append(">\n");
+    // The checksum of the original file is not known
+    xml.append("    <parentFile fileName=\"").append(escape(dataFile.getName()))
+        .append("\" fileType=\"processedData\" ")
+        .append("fileSha1=\"0000000000000000000000000000000000000000\"/>\n");
+    xml.append("    <dataProcessing>\n");
+    xml.append("      <software type=\"conversion\" name=\"MZmine\" version=\"")
+        .append(escape(MZmineCore.getMZmineVersion())).append("\"/>\n");
+    xml.append("    </dataProcessing>\n");
+    return xml.toString();
+  }
+
+  @Override
+  protected String encodeScan(int index, Scan scan, byte dataPoints[]) {
+
+    final StringBuilder xml = new StringBuilder(dataPoints.length + 1024);
+
+    xml.append("    <scan num=\"").append(scan.getScanNumber()).append("\" msLevel=\"")
+        .append(scan.getMSLevel()).append("\" peaksCount=\"").append(dataPoints.length / 8)
+        .append('"');
+    if ((scan.getPolarity() == PolarityType.POSITIVE)
+        || (scan.getPolarity() == PolarityType.NEGATIVE))
+      xml.append(" polarity=\"").append(scan.getPolarity().asSingleChar()).append('"');
+    xml.append(" centroided=\"")
+        .append(scan.getSpectrumType() == MassSpectrumType.CENTROIDED ? 1 : 0).append('"');
+    xml.append(" retentionTime=\"").append(duration(scan.getRetentionTime())).append('"');
+    final Range<Double> scanningRange = scan.getScanningMZRange();
+    xml.append(" startMz=\"").append(scanningRange.lowerEndpoint()).append("\" endMz=\"")
+        .append(scanningRange.upperEndpoint()).append('"');
+    final DataPoint basePeak = scan.getHighestDataPoint();
+    if (basePeak != null) {
+      xml.append(" basePeakMz=\"").append(basePeak.getMZ()).append("\" basePeakIntensity=\"")
+          .append(basePeak.getIntensity()).append('"');
+    }
+    xml.append(" totIonCurrent=\"").append(scan.getTIC()).append('"');
+    final String scanDefinition = scan.getScanDefinition();
+    if ((scanDefinition != null) && !scanDefinition.isEmpty())
+      xml.append(" filterLine=\"").append(escape(scanDefinition)).append('"');
+    xml.append(">\n");
+
+    if (scan.getPrecursorMZ() != 0) {
+      xml.append("      <precursorMz precursorIntensity=\"0\"");
+      if (scan.getPrecursorCharge() > 0)
+        xml.append(" precursorCharge=\"").append(scan.getPrecursorCharge()).append('"');
+      xml.append('>').append(scan.getPrecursorMZ()).append("</precursorMz>\n");
+    }
+
+    final byte compressed[] = CompressionUtils.compress(dataPoints);
+    xml.append("      <peaks precision=\"32\" byteOrder=\"network\" contentType=\"m/z-int\" ");
+    xml.append("compressionType=\"zlib\" compressedLen=\"").append(compressed.length)
+        .append("\">");
+    xml.append(Base64.getEncoder().encodeToString(compressed)).append("</peaks>\n");
+    xml.append("    </scan>\n");
+
+    return xml.toString();
+  }
+
+  @Override
+  protected String getRunEnd() {
+    return "  </msRun>\n  ";
+  }
+
+  @Override
+  protected String getIndex(long offsets[], long indexOffset) {
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<index name=\"scan\">\n");
+    for (int i = 0; i < offsets.length; i++) {
+      xml.append("    <offset id=\"").append(scanNumbers[i]).append("\">").append(offsets[i])
+          .append("</offset>\n");
+    }
+    xml.append("  </index>\n");
+    xml.append("  <indexOffset>").append(indexOffset).append("</indexOffset>\n");
+    xml.append("  <sha1>");
+    return xml.toString();
+  }
+
+  @Override
+  protected String getEnd() {
+    return "</sha1>\n</mzXML>\n";
+  }
+
+  /**
+   * @return the retention time in minutes as xs:duration
+   */
+  private static String duration(double retentionTime) {
+    return String.format(Locale.ENGLISH, "PT%.4fS", retentionTime * 60d);
+  }
+
+}
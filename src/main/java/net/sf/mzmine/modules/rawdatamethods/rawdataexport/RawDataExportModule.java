@@ -60,6 +60,9 @@ public class RawDataExportModule implements MZmineProcessingModule {
       case MZML:
         extension = "mzML";
         break;
+      case MZXML:
+        extension = "mzXML";
+        break;
       case NETCDF:
         extension = "cdf";
         break;
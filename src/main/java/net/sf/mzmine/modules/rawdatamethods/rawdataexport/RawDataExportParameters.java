@@ -34,7 +34,8 @@ public class RawDataExportParameters extends SimpleParameterSet {
       new DirectoryParameter("Folder", "Select a folder");
 
   public static final ComboParameter<RawDataFileType> type = new ComboParameter<>("File type", "",
-      new RawDataFileType[] {RawDataFileType.MZML, RawDataFileType.NETCDF}, RawDataFileType.MZML);
+      new RawDataFileType[] {RawDataFileType.MZML, RawDataFileType.MZXML, RawDataFileType.NETCDF},
+      RawDataFileType.MZML);
 
 
   public RawDataExportParameters() {
@@ -22,8 +22,6 @@ import java.io.File;
 import java.util.logging.Logger;
 
 import io.github.msdk.MSDKMethod;
-import io.github.msdk.io.mzml.MzMLFileExportMethod;
-import io.github.msdk.io.mzml.data.MzMLCompressionType;
 import io.github.msdk.io.netcdf.NetCDFFileExportMethod;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.MZmineToMSDKRawDataFile;
@@ -39,6 +37,7 @@ public class RawDataExportTask extends AbstractTask {
   private File outFilename;
 
   private MSDKMethod<?> msdkMethod = null;
+  private RawDataStreamWriter streamWriter = null;
 
   /**
    * @param dataFile
@@ -60,6 +59,8 @@ public class RawDataExportTask extends AbstractTask {
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
+    if (streamWriter != null)
+      return streamWriter.getFinishedPercentage();
     if ((msdkMethod == null) || (msdkMethod.getFinishedPercentage() == null))
       return 0;
     return msdkMethod.getFinishedPercentage().doubleValue();
@@ -77,20 +78,29 @@ public class RawDataExportTask extends AbstractTask {
 
       logger.info("Started export of file " + dataFile + " to " + outFilename);
 
-      MZmineToMSDKRawDataFile msdkDataFile = new MZmineToMSDKRawDataFile(dataFile);
-
+      // mzML and mzXML are streamed directly from the data point storage
       if (outFilename.getName().toLowerCase().endsWith("mzml")) {
-        msdkMethod = new MzMLFileExportMethod(msdkDataFile, outFilename, MzMLCompressionType.ZLIB,
-            MzMLCompressionType.ZLIB);
+        streamWriter = new MzMLStreamWriter(dataFile);
+      }
+
+      if (outFilename.getName().toLowerCase().endsWith("mzxml")) {
+        streamWriter = new MzXMLStreamWriter(dataFile);
       }
 
       if (outFilename.getName().toLowerCase().endsWith("cdf")) {
+        MZmineToMSDKRawDataFile msdkDataFile = new MZmineToMSDKRawDataFile(dataFile);
         msdkMethod = new NetCDFFileExportMethod(msdkDataFile, outFilename);
       }
 
       if (isCanceled())
         return;
-      msdkMethod.execute();
+      if (streamWriter != null)
+        streamWriter.write(outFilename);
+      else
+        msdkMethod.execute();
+
+      if (isCanceled())
+        return;
 
       setStatus(TaskStatus.FINISHED);
 
@@ -109,5 +119,7 @@ public class RawDataExportTask extends AbstractTask {
     super.cancel();
     if (msdkMethod != null)
       msdkMethod.cancel();
+    if (streamWriter != null)
+      streamWriter.cancel();
   }
 }
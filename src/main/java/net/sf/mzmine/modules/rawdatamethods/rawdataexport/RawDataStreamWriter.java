@@ -0,0 +1,260 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.StorableScan;
+import net.sf.mzmine.util.CompressionUtils;
+
+/**
+ * Streams the scans of a raw data file into an indexed XML file (mzML or mzXML). The data points
+ * are read directly from the temporary storage of the raw data file, without creating DataPoint
+ * instances. Scans are encoded and compressed in parallel, a few scans ahead of the output, and
+ * written sequentially. The byte offset of each scan and the SHA-1 checksum of the file are
+ * recorded for the index.
+ */
+abstract class RawDataStreamWriter {
+
+  // Maximum number of scans encoded ahead of the output
+  private static final int ENCODE_AHEAD = 4 * Runtime.getRuntime().availableProcessors();
+
+  protected final RawDataFile dataFile;
+  protected final int scanNumbers[];
+
+  private volatile int writtenScans = 0;
+  private volatile boolean canceled = false;
+
+  RawDataStreamWriter(RawDataFile dataFile) {
+    this.dataFile = dataFile;
+    this.scanNumbers = dataFile.getScanNumbers();
+  }
+
+  /**
+   * @return the XML preceding the first scan
+   */
+  protected abstract String getHeader();
+
+  /**
+   * @param index index of the scan in the scanNumbers array
+   * @param dataPoints the data points, as stored by RawDataFileImpl
+   * @return the XML element of the scan, may start with indentation
+   */
+  protected abstract String encodeScan(int index, Scan scan, byte dataPoints[]);
+
+  /**
+   * @return the XML between the last scan and the index, including the indentation of the index
+   */
+  protected abstract String getRunEnd();
+
+  /**
+   * @param offsets byte offset of each scan element in the file
+   * @param indexOffset byte offset of the index in the file
+   * @return the index, up to and including the opening tag of the checksum
+   */
+  protected abstract String getIndex(long offsets[], long indexOffset);
+
+  /**
+   * @return the XML following the checksum
+   */
+  protected abstract String getEnd();
+
+  /**
+   * Writes the file. If the export is canceled or fails, the partially written file is deleted.
+   */
+  void write(File file) throws IOException {
+
+    final long offsets[] = new long[scanNumbers.length];
+    final Queue<CompletableFuture<byte[]>> encodedScans = new ArrayDeque<>();
+    int nextScan = 0;
+    boolean complete = false;
+
+    try (ChecksumOutputStream out = new ChecksumOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+
+      out.write(getHeader());
+
+      for (int i = 0; i < scanNumbers.length; i++) {
+
+        if (canceled)
+          return;
+
+        while ((nextScan < scanNumbers.length) && (encodedScans.size() < ENCODE_AHEAD)) {
+          final int index = nextScan++;
+          encodedScans.add(CompletableFuture.supplyAsync(() -> encodeScan(index)));
+        }
+
+        final byte scanElement[] = encodedScans.remove().join();
+        offsets[i] = out.getPosition() + getIndentation(scanElement);
+        out.write(scanElement);
+        writtenScans++;
+      }
+
+      out.write(getRunEnd());
+      final long indexOffset = out.getPosition();
+      out.write(getIndex(offsets, indexOffset));
+      out.write(out.getChecksum());
+      out.write(getEnd());
+      complete = true;
+
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException)
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      throw e;
+    } finally {
+      // Scans which have not started encoding are skipped
+      for (CompletableFuture<byte[]> encodedScan : encodedScans)
+        encodedScan.cancel(false);
+      if (!complete)
+        file.delete();
+    }
+
+  }
+
+  void cancel() {
+    canceled = true;
+  }
+
+  double getFinishedPercentage() {
+    if (scanNumbers.length == 0)
+      return 0;
+    return (double) writtenScans / scanNumbers.length;
+  }
+
+  private byte[] encodeScan(int index) {
+    final Scan scan = dataFile.getScan(scanNumbers[index]);
+    try {
+      return encodeScan(index, scan, readDataPoints(scan)).getBytes(StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return m/z and intensity of each data point as two big-endian 32-bit floats
+   */
+  private static byte[] readDataPoints(Scan scan) throws IOException {
+
+    if ((scan instanceof StorableScan) && (scan.getDataFile() instanceof RawDataFileImpl)) {
+      return ((RawDataFileImpl) scan.getDataFile())
+          .readDataPointBytes(((StorableScan) scan).getStorageID());
+    }
+
+    final DataPoint dataPoints[] = scan.getDataPoints();
+    final ByteBuffer buffer = ByteBuffer.allocate(dataPoints.length * 2 * 4);
+    for (DataPoint dp : dataPoints) {
+      buffer.putFloat((float) dp.getMZ());
+      buffer.putFloat((float) dp.getIntensity());
+    }
+    return buffer.array();
+  }
+
+  /**
+   * @return number of leading spaces of the encoded element
+   */
+  private static int getIndentation(byte element[]) {
+    int indentation = 0;
+    while ((indentation < element.length) && (element[indentation] == ' '))
+      indentation++;
+    return indentation;
+  }
+
+  /**
+   * @return the zlib-compressed, base64 encoded bytes
+   */
+  protected static String compressAndEncode(byte bytes[]) {
+    return Base64.getEncoder().encodeToString(CompressionUtils.compress(bytes));
+  }
+
+  protected static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  /**
+   * Counts the written bytes and computes their SHA-1 checksum.
+   */
+  private static class ChecksumOutputStream extends FilterOutputStream {
+
+    private final MessageDigest digest;
+    private long position = 0;
+
+    ChecksumOutputStream(OutputStream out) {
+      super(out);
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void write(String text) throws IOException {
+      write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      digest.update((byte) b);
+      position++;
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+      out.write(b, off, len);
+      digest.update(b, off, len);
+      position += len;
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    /**
+     * @return hexadecimal SHA-1 checksum of the bytes written so far
+     */
+    String getChecksum() {
+      StringBuilder checksum = new StringBuilder();
+      for (byte b : digest.digest())
+        checksum.append(String.format("%02x", b));
+      return checksum.toString();
+    }
+  }
+
+}
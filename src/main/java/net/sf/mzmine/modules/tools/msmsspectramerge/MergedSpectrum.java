@@ -145,6 +145,13 @@ public class MergedSpectrum {
         } else return "merged spectrum";
     }
 
+    /**
+     * @return a copy of this merged spectrum, which can be modified without changing this one
+     */
+    public MergedSpectrum copy() {
+        return new MergedSpectrum(data.clone(), origins.clone(), scanIds.clone(), precursorMz, polarity, precursorCharge, removedScansByLowQuality, removedScansByLowCosine, bestFragmentScanScore);
+    }
+
     public double getBestFragmentScanScore() {
         return bestFragmentScanScore;
     }
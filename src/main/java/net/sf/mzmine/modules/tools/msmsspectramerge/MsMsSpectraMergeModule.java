@@ -29,8 +29,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -38,10 +43,13 @@ import javax.annotation.Nullable;
 import org.apache.commons.math3.special.Erf;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Range;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
@@ -65,9 +73,42 @@ import net.sf.mzmine.util.scans.ScanUtils;
  * 5. Merging all merged spectra within a sample belonging to the same feature using the same routine
  * 6. Merging all merged spectra across samples belonging to the same feature using the same routine
  * 7. removing peaks from merged spectra which are not consistent across the merged spectra
+ *
+ * The results of the public merge methods are cached for each feature row or feature, together with the merge
+ * parameters and mass list name, so repeated exports of the same peak list reuse the merged spectra. A cached result
+ * is only reused as long as the MS/MS scans still hold the same mass list objects, so running the mass detection
+ * again with the same mass list name merges the spectra again. The public methods return copies of the cached spectra.
  */
 public class MsMsSpectraMergeModule implements MZmineModule {
 
+    /**
+     * merged spectra by feature row or feature, then by merge method, parameter values and mass list name. Rows and
+     * features are weak keys compared by identity, so their entries are dropped together with the peak list.
+     */
+    private final Cache<Object, Map<List<Object>, CachedResult>> mergedSpectraCache =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * a cached merge result together with the mass lists of the MS/MS scans it was merged from
+     */
+    private static class CachedResult {
+        private final MassList[] massLists;
+        private final Object result;
+
+        private CachedResult(MassList[] massLists, Object result) {
+            this.massLists = massLists;
+            this.result = result;
+        }
+
+        private boolean isValidFor(MassList[] currentMassLists) {
+            if (massLists.length != currentMassLists.length) return false;
+            for (int k=0; k < massLists.length; ++k) {
+                if (massLists[k] != currentMassLists[k]) return false;
+            }
+            return true;
+        }
+    }
+
     @Nonnull
     @Override
     public String getName() {
@@ -90,6 +131,10 @@ public class MsMsSpectraMergeModule implements MZmineModule {
      * @return list of merged MS/MS spectra belonging to this feature
      */
     public List<MergedSpectrum> getMergedSpectra(ParameterSet parameters, PeakListRow row, String massList) {
+        return copyOf(cached(row, "merged", parameters, massList, () -> Collections.unmodifiableList(computeMergedSpectra(parameters, row, massList))));
+    }
+
+    private List<MergedSpectrum> computeMergedSpectra(ParameterSet parameters, PeakListRow row, String massList) {
         final MergeMode mode = parameters.getParameter(MsMsSpectraMergeParameters.MERGE_MODE).getValue();
         final double npeaksFilter = parameters.getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue();
         switch (mode) {
@@ -121,7 +166,28 @@ public class MsMsSpectraMergeModule implements MZmineModule {
      * @return merged spectrum or null, if none exist
      */
     public MergedSpectrum getBestMergedSpectrum(ParameterSet parameters, PeakListRow row, String massList) {
-        return getMergedSpectra(parameters, row,massList).stream().max(Comparator.comparingDouble(MergedSpectrum::getBestFragmentScanScore)).orElse(null);
+        return copyOf(cached(row, "best", parameters, massList, () -> getMergedSpectra(parameters, row,massList).stream().max(Comparator.comparingDouble(MergedSpectrum::getBestFragmentScanScore)).orElse(null)));
+    }
+
+    /**
+     * Merge the MS/MS spectra of all given rows in parallel, see #getBestMergedSpectrum(ParameterSet,PeakListRow,String).
+     * As the results are cached, exporters can call this method first and then take the merged spectra of the single rows
+     * (and the spectra of the merge steps for the merge mode) from the cache.
+     * @param rows the features which MS/MS should be merged
+     * @param massList name of the mass list to use when extracting peaks
+     * @return best merged spectrum for each row. Null if none exist or if merging failed, in which case calling
+     * #getBestMergedSpectrum for the row will report the error again
+     */
+    public MergedSpectrum[] getBestMergedSpectra(ParameterSet parameters, PeakListRow[] rows, String massList) {
+        final MergedSpectrum[] spectra = new MergedSpectrum[rows.length];
+        IntStream.range(0, rows.length).parallel().forEach(i -> {
+            try {
+                spectra[i] = getBestMergedSpectrum(parameters, rows[i], massList);
+            } catch (RuntimeException e) {
+                LoggerFactory.getLogger(MsMsSpectraMergeModule.class).debug("Cannot merge MS/MS of row " + rows[i].getID(), e);
+            }
+        });
+        return spectra;
     }
 
     /**
@@ -132,7 +198,8 @@ public class MsMsSpectraMergeModule implements MZmineModule {
      * @return the merged MS/MS of all fragment spectra belonging to the feature row
      */
     public MergedSpectrum mergeAcrossSamples(ParameterSet parameters, PeakListRow row, String massList) {
-        return mergeAcrossFragmentSpectra(parameters, Arrays.stream(row.getPeaks()).map(r->mergeFromSameSample(parameters, r,massList)).filter(x->x.data.length>0).collect(Collectors.toList()));
+        // merging modifies the merged spectra of the samples, so they must not come from the cache
+        return copyOf(cached(row, "acrossSamples", parameters, massList, () -> mergeAcrossFragmentSpectra(parameters, Arrays.stream(row.getPeaks()).map(r->computeFromSameSample(parameters, r,massList)).filter(x->x.data.length>0).collect(Collectors.toList()))));
     }
 
     /**
@@ -142,7 +209,11 @@ public class MsMsSpectraMergeModule implements MZmineModule {
      * @return the merged MS/MS of all fragment spectra belonging to the feature
      */
     public MergedSpectrum mergeFromSameSample(ParameterSet parameters, Feature feature, String massList) {
-        List<MergedSpectrum> spectra = mergeConsecutiveScans(parameters, feature, massList);
+        return copyOf(cached(feature, "sameSample", parameters, massList, () -> computeFromSameSample(parameters, feature, massList)));
+    }
+
+    private MergedSpectrum computeFromSameSample(ParameterSet parameters, Feature feature, String massList) {
+        List<MergedSpectrum> spectra = computeConsecutiveScans(parameters, feature, massList);
         if (spectra.isEmpty()) return MergedSpectrum.empty();
         return mergeAcrossFragmentSpectra(parameters, spectra);
     }
@@ -156,6 +227,10 @@ public class MsMsSpectraMergeModule implements MZmineModule {
      * @return all merged spectra of consecutive MS/MS scans of the given feature
      */
     public List<MergedSpectrum> mergeConsecutiveScans(ParameterSet parameters, Feature feature, String massList) {
+        return copyOf(cached(feature, "consecutiveScans", parameters, massList, () -> Collections.unmodifiableList(computeConsecutiveScans(parameters, feature, massList))));
+    }
+
+    private List<MergedSpectrum> computeConsecutiveScans(ParameterSet parameters, Feature feature, String massList) {
         MZTolerance ppm = parameters.getParameter(MsMsSpectraMergeParameters.MASS_ACCURACY).getValue();
         final double isolationWindowOffset = parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_OFFSET).getValue();
         final double isolationWindowWidth = parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_WIDTH).getValue();
@@ -169,6 +244,67 @@ public class MsMsSpectraMergeModule implements MZmineModule {
         return mergedSpec;
     }
 
+    /**
+     * Return the cached result of a merge method for the given row or feature, merging and caching it if necessary.
+     * @param owner feature row or feature
+     * @param method name of the merge method
+     * @param merge computes the result
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(Object owner, String method, ParameterSet parameters, String massList, Supplier<T> merge) {
+        final Map<List<Object>, CachedResult> spectra;
+        try {
+            spectra = mergedSpectraCache.get(owner, ConcurrentHashMap::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        final MZTolerance mzTolerance = parameters.getParameter(MsMsSpectraMergeParameters.MASS_ACCURACY).getValue();
+        final List<Object> key = Arrays.asList(method, massList,
+                parameters.getParameter(MsMsSpectraMergeParameters.MERGE_MODE).getValue(),
+                parameters.getParameter(MsMsSpectraMergeParameters.MZ_MERGE_MODE).getValue(),
+                parameters.getParameter(MsMsSpectraMergeParameters.INTENSITY_MERGE_MODE).getValue(),
+                mzTolerance.getMzTolerance(), mzTolerance.getPpmTolerance(),
+                parameters.getParameter(MsMsSpectraMergeParameters.COSINE_PARAMETER).getValue(),
+                parameters.getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue(),
+                parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_OFFSET).getValue(),
+                parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_WIDTH).getValue());
+        final MassList[] massLists = getMs2MassLists(owner, massList);
+        // no computeIfAbsent, as the merge methods may add other results for the same owner
+        CachedResult result = spectra.get(key);
+        if (result == null || !result.isValidFor(massLists)) {
+            result = new CachedResult(massLists, merge.get());
+            spectra.put(key, result);
+        }
+        return (T) result.result;
+    }
+
+    /**
+     * @param owner feature row or feature
+     * @return the mass lists with the given name of all MS/MS scans of the row or feature, null for scans without it
+     */
+    private static MassList[] getMs2MassLists(Object owner, String massList) {
+        final Feature[] features = owner instanceof PeakListRow ? ((PeakListRow) owner).getPeaks() : new Feature[]{(Feature) owner};
+        final List<MassList> massLists = new ArrayList<>();
+        for (Feature feature : features) {
+            final RawDataFile file = feature.getDataFile();
+            final int[] scanNumbers = feature.getAllMS2FragmentScanNumbers();
+            if (scanNumbers == null) continue;
+            for (int scanNumber : scanNumbers) {
+                final Scan scan = file.getScan(scanNumber);
+                massLists.add(scan == null ? null : scan.getMassList(massList));
+            }
+        }
+        return massLists.toArray(new MassList[massLists.size()]);
+    }
+
+    private static MergedSpectrum copyOf(MergedSpectrum spectrum) {
+        return spectrum == null ? null : spectrum.copy();
+    }
+
+    private static List<MergedSpectrum> copyOf(List<MergedSpectrum> spectra) {
+        return spectra.stream().map(MergedSpectrum::copy).collect(Collectors.toList());
+    }
+
     /**
      * Internal method that merges a list of spectra into one.
      * @param fragmentMergedSpectra list of spectra with meta information
@@ -37,6 +37,7 @@ import net.sf.mzmine.desktop.impl.projecttree.ProjectTree;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.UserParameter;
+import net.sf.mzmine.taskcontrol.impl.TaskProfiler;
 
 /**
  * This class represents a MZmine project. That includes raw data files, peak lists and parameters.
@@ -207,6 +208,9 @@ public class MZmineProjectImpl implements MZmineProject {
       e.printStackTrace();
     }
 
+    if (TaskProfiler.isEnabled())
+      TaskProfiler.peakListCreated(peakList);
+
     // Notify listeners
     for (MZmineProjectListener listener : listeners) {
       listener.peakListAdded(peakList);
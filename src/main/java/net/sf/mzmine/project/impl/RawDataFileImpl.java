@@ -44,7 +44,9 @@ import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.PrecursorIndex;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.taskcontrol.impl.TaskProfiler;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
@@ -84,6 +86,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   private final Hashtable<Integer, StorableScan> scans;
 
+  // Index of MS2 and higher level scans, built by finishWriting() and reset when scans are added
+  private volatile PrecursorIndex precursorIndex;
+
   public RawDataFileImpl(String dataFileName) throws IOException {
 
     this.dataFileName = dataFileName;
@@ -167,6 +172,21 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return scans.get(scanNumber);
   }
 
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getPrecursorIndex()
+   */
+  @Override
+  public @Nonnull PrecursorIndex getPrecursorIndex() {
+    PrecursorIndex index = precursorIndex;
+    if (index != null)
+      return index;
+    synchronized (this) {
+      if (precursorIndex == null)
+        precursorIndex = new PrecursorIndex(scans.values());
+      return precursorIndex;
+    }
+  }
+
   /**
    * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int)
    */
@@ -387,6 +407,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataPointsFile.seek(currentOffset);
     dataPointsFile.read(buffer.array(), 0, numOfBytes);
 
+    if (TaskProfiler.isEnabled())
+      TaskProfiler.scanDataRead(this, numOfBytes);
+
     FloatBuffer floatBuffer = buffer.asFloatBuffer();
 
     DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
@@ -401,6 +424,31 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
+  /**
+   * Reads the stored data points as they are in the temporary file, without creating DataPoint
+   * instances. The m/z and intensity of each data point are stored as two big-endian 32-bit floats.
+   */
+  public synchronized byte[] readDataPointBytes(int ID) throws IOException {
+
+    final Long currentOffset = dataPointsOffsets.get(ID);
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+
+    if ((currentOffset == null) || (numOfDataPoints == null)) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+
+    final byte bytes[] = new byte[numOfDataPoints * 2 * 4];
+
+    dataPointsFile.seek(currentOffset);
+    dataPointsFile.readFully(bytes);
+
+    if (TaskProfiler.isEnabled())
+      TaskProfiler.scanDataRead(this, bytes.length);
+
+    return bytes;
+
+  }
+
   public synchronized void removeStoredDataPoints(int ID) throws IOException {
     dataPointsOffsets.remove(ID);
     dataPointsLengths.remove(ID);
@@ -409,6 +457,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public synchronized void addScan(Scan newScan) throws IOException {
 
+    precursorIndex = null;
+
     // When we are loading the project, scan data file is already prepare
     // and we just need store the reference
     if (newScan instanceof StorableScan) {
@@ -433,6 +483,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     for (StorableScan scan : scans.values()) {
       scan.updateValues();
     }
+    precursorIndex = new PrecursorIndex(scans.values());
     logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
     return this;
   }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.taskcontrol.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resources used by one task, collected by {@link TaskProfiler}. The counters for scan data and rows
+ * are only updated by the thread executing the task.
+ */
+class TaskMetrics {
+
+  private final String taskDescription;
+  private final String moduleName;
+  private String status;
+
+  private long wallTime, cpuTime, allocatedBytes;
+  private long scanBytesRead, rowsProcessed;
+
+  // bytes of scan data read per raw data file, also used to attribute the task to files
+  private final Map<String, Long> fileScanBytes = new LinkedHashMap<>();
+  private final Map<String, Long> fileRows = new LinkedHashMap<>();
+
+  TaskMetrics(String taskDescription, String moduleName) {
+    this.taskDescription = taskDescription;
+    this.moduleName = moduleName;
+  }
+
+  void addScanBytes(String fileName, long bytes) {
+    scanBytesRead += bytes;
+    fileScanBytes.merge(fileName, bytes, Long::sum);
+  }
+
+  void addRows(String fileName, long rows) {
+    rowsProcessed += rows;
+    fileRows.merge(fileName, rows, Long::sum);
+  }
+
+  void setResult(String status, long wallTime, long cpuTime, long allocatedBytes) {
+    this.status = status;
+    this.wallTime = wallTime;
+    this.cpuTime = cpuTime;
+    this.allocatedBytes = allocatedBytes;
+  }
+
+  String getTaskDescription() {
+    return taskDescription;
+  }
+
+  String getModuleName() {
+    return moduleName;
+  }
+
+  String getStatus() {
+    return status;
+  }
+
+  /**
+   * @return wall clock time in ns
+   */
+  long getWallTime() {
+    return wallTime;
+  }
+
+  /**
+   * @return CPU time of the task thread in ns, or -1 if not supported by the JVM
+   */
+  long getCpuTime() {
+    return cpuTime;
+  }
+
+  /**
+   * @return bytes allocated by the task thread, or -1 if not supported by the JVM
+   */
+  long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  long getScanBytesRead() {
+    return scanBytesRead;
+  }
+
+  long getRowsProcessed() {
+    return rowsProcessed;
+  }
+
+  Map<String, Long> getFileScanBytes() {
+    return fileScanBytes;
+  }
+
+  Map<String, Long> getFileRows() {
+    return fileRows;
+  }
+
+}
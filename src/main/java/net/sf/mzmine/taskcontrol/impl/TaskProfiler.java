@@ -0,0 +1,270 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.taskcontrol.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.taskcontrol.Task;
+
+/**
+ * Collects wall time, CPU time, allocated bytes, scan bytes read and peak list rows created by each
+ * task executed by the {@link TaskControllerImpl}. The results are aggregated per module and per
+ * raw data file and can be exported as JSON and CSV. Profiling is disabled by default and is turned
+ * on for headless batch runs.
+ *
+ * Scan data and rows are attributed to the task which runs in the current thread, so work done in
+ * additional threads started by a task is only reflected in its wall time.
+ */
+public class TaskProfiler {
+
+  private static final Logger logger = Logger.getLogger(TaskProfiler.class.getName());
+
+  private static volatile boolean enabled = false;
+
+  private static final ThreadLocal<TaskMetrics> currentTask = new ThreadLocal<>();
+
+  private static final List<TaskMetrics> finishedTasks =
+      Collections.synchronizedList(new ArrayList<>());
+
+  // module names of tasks started by the batch mode
+  private static final Map<Task, String> moduleNames =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    TaskProfiler.enabled = enabled;
+  }
+
+  /**
+   * Sets the name under which the metrics of this task are aggregated. By default, the simple class
+   * name of the task is used.
+   */
+  public static void setModuleName(Task task, String moduleName) {
+    if (enabled)
+      moduleNames.put(task, moduleName);
+  }
+
+  /**
+   * Called by the raw data file whenever stored scan data points are read
+   */
+  public static void scanDataRead(RawDataFile dataFile, long bytes) {
+    TaskMetrics metrics = currentTask.get();
+    if (metrics != null)
+      metrics.addScanBytes(dataFile.getName(), bytes);
+  }
+
+  /**
+   * Called by the project whenever a new peak list is added
+   */
+  public static void peakListCreated(PeakList peakList) {
+    TaskMetrics metrics = currentTask.get();
+    if (metrics == null)
+      return;
+    RawDataFile dataFiles[] = peakList.getRawDataFiles();
+    int rows = peakList.getNumberOfRows();
+    for (RawDataFile dataFile : dataFiles) {
+      // Split the rows of aligned peak lists between their files
+      metrics.addRows(dataFile.getName(), rows / dataFiles.length);
+    }
+  }
+
+  /**
+   * Profiles the execution of the given task in the current thread
+   */
+  static void runProfiled(Task task) {
+
+    if (!enabled) {
+      task.run();
+      return;
+    }
+
+    String moduleName = moduleNames.remove(task);
+    if (moduleName == null)
+      moduleName = task.getClass().getSimpleName();
+    TaskMetrics metrics = new TaskMetrics(task.getTaskDescription(), moduleName);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    final boolean cpuTimeSupported =
+        threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+    final long threadId = Thread.currentThread().getId();
+
+    long startWall = System.nanoTime();
+    long startCpu = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1;
+    long startAllocated = getAllocatedBytes(threadBean, threadId);
+
+    currentTask.set(metrics);
+    try {
+      task.run();
+    } finally {
+      currentTask.remove();
+
+      long wallTime = System.nanoTime() - startWall;
+      long cpuTime = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() - startCpu : -1;
+      long allocated = startAllocated < 0 ? -1
+          : getAllocatedBytes(threadBean, threadId) - startAllocated;
+      metrics.setResult(String.valueOf(task.getStatus()), wallTime, cpuTime, allocated);
+      finishedTasks.add(metrics);
+    }
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean threadBean, long threadId) {
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+      return -1;
+    com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+    if (!sunThreadBean.isThreadAllocatedMemorySupported()
+        || !sunThreadBean.isThreadAllocatedMemoryEnabled())
+      return -1;
+    return sunThreadBean.getThreadAllocatedBytes(threadId);
+  }
+
+  /**
+   * Writes the metrics of all tasks finished so far, aggregated per module and per raw data file
+   *
+   * @param jsonFile JSON file with all tasks and both aggregations
+   * @param csvFile CSV file with both aggregations, one line per module or file
+   */
+  public static void exportMetrics(File jsonFile, File csvFile) throws IOException {
+
+    List<TaskMetrics> tasks;
+    synchronized (finishedTasks) {
+      tasks = new ArrayList<>(finishedTasks);
+    }
+
+    Map<String, Summary> modules = new TreeMap<>();
+    Map<String, Summary> files = new TreeMap<>();
+    for (TaskMetrics task : tasks) {
+      modules.computeIfAbsent(task.getModuleName(), k -> new Summary()).add(task, 1);
+
+      // Split the times of a task between all files it worked on
+      Set<String> taskFiles = new HashSet<>(task.getFileScanBytes().keySet());
+      taskFiles.addAll(task.getFileRows().keySet());
+      for (String file : taskFiles) {
+        Summary summary = files.computeIfAbsent(file, k -> new Summary());
+        summary.addShare(task, taskFiles.size(), task.getFileScanBytes().getOrDefault(file, 0L),
+            task.getFileRows().getOrDefault(file, 0L));
+      }
+    }
+
+    // JSON
+    JsonArrayBuilder taskArray = Json.createArrayBuilder();
+    for (TaskMetrics task : tasks) {
+      taskArray.add(Json.createObjectBuilder().add("task", task.getTaskDescription())
+          .add("module", task.getModuleName()).add("status", task.getStatus())
+          .add("wallTimeMs", task.getWallTime() / 1e6).add("cpuTimeMs", toMillis(task.getCpuTime()))
+          .add("allocatedBytes", task.getAllocatedBytes())
+          .add("scanBytesRead", task.getScanBytesRead())
+          .add("rowsProcessed", task.getRowsProcessed()));
+    }
+    JsonObjectBuilder json = Json.createObjectBuilder();
+    json.add("tasks", taskArray);
+    json.add("modules", toJson(modules));
+    json.add("files", toJson(files));
+
+    try (JsonWriter writer = Json
+        .createWriterFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true))
+        .createWriter(new BufferedWriter(new FileWriter(jsonFile)))) {
+      writer.writeObject(json.build());
+    }
+
+    // CSV
+    try (Writer writer = new BufferedWriter(new FileWriter(csvFile))) {
+      writer.write("group,name,tasks,wall_time_ms,cpu_time_ms,allocated_bytes,"
+          + "scan_bytes_read,rows_processed\n");
+      for (Map.Entry<String, Summary> e : modules.entrySet())
+        writer.write("module," + e.getValue().toCsv(e.getKey()) + "\n");
+      for (Map.Entry<String, Summary> e : files.entrySet())
+        writer.write("file," + e.getValue().toCsv(e.getKey()) + "\n");
+    }
+
+    logger.info("Exported metrics of " + tasks.size() + " tasks to " + jsonFile + " and " + csvFile);
+  }
+
+  private static JsonObjectBuilder toJson(Map<String, Summary> summaries) {
+    JsonObjectBuilder json = Json.createObjectBuilder();
+    for (Map.Entry<String, Summary> e : summaries.entrySet()) {
+      Summary s = e.getValue();
+      json.add(e.getKey(),
+          Json.createObjectBuilder().add("tasks", s.tasks).add("wallTimeMs", s.wallTime / 1e6)
+              .add("cpuTimeMs", s.cpuTime < 0 ? -1 : s.cpuTime / 1e6)
+              .add("allocatedBytes", (long) s.allocatedBytes)
+              .add("scanBytesRead", s.scanBytesRead).add("rowsProcessed", s.rowsProcessed));
+    }
+    return json;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos < 0 ? -1 : nanos / 1e6;
+  }
+
+  /**
+   * Aggregated metrics of several tasks. CPU time and allocated bytes are -1 if any task could not
+   * measure them.
+   */
+  private static class Summary {
+    private int tasks;
+    private double wallTime, cpuTime, allocatedBytes;
+    private long scanBytesRead, rowsProcessed;
+
+    void add(TaskMetrics task, int shares) {
+      addShare(task, shares, task.getScanBytesRead(), task.getRowsProcessed());
+    }
+
+    void addShare(TaskMetrics task, int shares, long scanBytes, long rows) {
+      tasks++;
+      wallTime += (double) task.getWallTime() / shares;
+      cpuTime = (cpuTime < 0 || task.getCpuTime() < 0) ? -1
+          : cpuTime + (double) task.getCpuTime() / shares;
+      allocatedBytes = (allocatedBytes < 0 || task.getAllocatedBytes() < 0) ? -1
+          : allocatedBytes + (double) task.getAllocatedBytes() / shares;
+      scanBytesRead += scanBytes;
+      rowsProcessed += rows;
+    }
+
+    String toCsv(String name) {
+      return "\"" + name.replace("\"", "\"\"") + "\"," + tasks + "," + wallTime / 1e6 + ","
+          + (cpuTime < 0 ? -1 : cpuTime / 1e6) + "," + (long) allocatedBytes + ","
+          + scanBytesRead + "," + rowsProcessed;
+    }
+  }
+
+}
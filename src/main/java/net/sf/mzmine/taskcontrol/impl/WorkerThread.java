@@ -55,7 +55,7 @@ class WorkerThread extends Thread {
       logger.info("Starting processing of task " + actualTask.getTaskDescription());
 
       // Process the actual task
-      actualTask.run();
+      TaskProfiler.runProfiled(actualTask);
 
       // Check if task finished with an error
       if (actualTask.getStatus() == TaskStatus.ERROR) {
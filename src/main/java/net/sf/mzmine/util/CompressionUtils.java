@@ -18,7 +18,9 @@
 
 package net.sf.mzmine.util;
 
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
@@ -54,4 +56,30 @@ public class CompressionUtils {
     return resultTotal;
   }
 
+  /**
+   * Compress the bytes using zlib and return an array of compressed bytes
+   * 
+   */
+  public static byte[] compress(byte bytes[]) {
+
+    Deflater compresser = new Deflater();
+
+    compresser.setInput(bytes);
+    compresser.finish();
+
+    byte[] resultBuffer = new byte[Math.max(64, bytes.length / 2)];
+    int resultLength = 0;
+
+    while (!compresser.finished()) {
+      if (resultLength == resultBuffer.length)
+        resultBuffer = Arrays.copyOf(resultBuffer, resultBuffer.length * 2);
+      resultLength +=
+          compresser.deflate(resultBuffer, resultLength, resultBuffer.length - resultLength);
+    }
+
+    compresser.end();
+
+    return Arrays.copyOf(resultBuffer, resultLength);
+  }
+
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+
+/**
+ * Read-only index for searching peak list rows by m/z and retention time. The rows are grouped into
+ * retention time buckets, which are sorted by m/z, so a search only visits the buckets which
+ * overlap the retention time range and finds the first matching m/z by a binary search. The
+ * average m/z, retention time and height of each row are cached in primitive arrays. Rows are
+ * identified by their position in the array passed to the constructor. The index is thread safe.
+ */
+public class PeakListRowIndex {
+
+  // limits the memory used for bucket offsets, e.g., for very small tolerances
+  private static final int MAX_BUCKETS = 100000;
+
+  private final PeakListRow rows[];
+  private final double mz[], rt[], height[];
+
+  private final double minRT, bucketWidth;
+  private final int bucketStart[];
+
+  // row positions and their m/z sorted by bucket and m/z
+  private final int sortedRows[];
+  private final double sortedMZ[];
+
+  /**
+   * @param rows the rows to index
+   * @param rtTolerance the retention time tolerance of the searches, used to size the buckets
+   */
+  public PeakListRowIndex(PeakListRow rows[], RTTolerance rtTolerance) {
+
+    this.rows = rows;
+    final int n = rows.length;
+    mz = new double[n];
+    rt = new double[n];
+    height = new double[n];
+    double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      mz[i] = rows[i].getAverageMZ();
+      rt[i] = rows[i].getAverageRT();
+      height[i] = rows[i].getAverageHeight();
+      min = Math.min(min, rt[i]);
+      max = Math.max(max, rt[i]);
+    }
+
+    // The bucket width is the widest tolerance range, which is at the highest RT for relative
+    // tolerances
+    int numBuckets = 1;
+    double width = Double.POSITIVE_INFINITY;
+    if (n > 0) {
+      Range<Double> widest = rtTolerance.getToleranceRange(max);
+      double toleranceWidth = widest.upperEndpoint() - widest.lowerEndpoint();
+      double span = max - min;
+      if (toleranceWidth > 0 && span / toleranceWidth < MAX_BUCKETS) {
+        width = toleranceWidth;
+        numBuckets = (int) (span / width) + 1;
+      } else if (span > 0) {
+        width = span / (MAX_BUCKETS - 1);
+        numBuckets = MAX_BUCKETS;
+      }
+    }
+    minRT = min;
+    bucketWidth = width;
+
+    // Counting sort of the rows into their buckets, then sort each bucket by m/z
+    int bucket[] = new int[n];
+    bucketStart = new int[numBuckets + 1];
+    for (int i = 0; i < n; i++) {
+      bucket[i] = getBucket(rt[i], numBuckets);
+      bucketStart[bucket[i] + 1]++;
+    }
+    for (int b = 0; b < numBuckets; b++)
+      bucketStart[b + 1] += bucketStart[b];
+
+    Integer order[] = new Integer[n];
+    int next[] = Arrays.copyOf(bucketStart, numBuckets);
+    for (int i = 0; i < n; i++)
+      order[next[bucket[i]]++] = i;
+    for (int b = 0; b < numBuckets; b++)
+      Arrays.sort(order, bucketStart[b], bucketStart[b + 1],
+          (i1, i2) -> Double.compare(mz[i1], mz[i2]));
+
+    sortedRows = new int[n];
+    sortedMZ = new double[n];
+    for (int s = 0; s < n; s++) {
+      sortedRows[s] = order[s];
+      sortedMZ[s] = mz[order[s]];
+    }
+  }
+
+  private int getBucket(double rtValue, int numBuckets) {
+    if (!(rtValue > minRT))
+      return 0;
+    double b = (rtValue - minRT) / bucketWidth;
+    return b >= numBuckets - 1 ? numBuckets - 1 : (int) b;
+  }
+
+  public int size() {
+    return rows.length;
+  }
+
+  public PeakListRow getRow(int i) {
+    return rows[i];
+  }
+
+  public double getMZ(int i) {
+    return mz[i];
+  }
+
+  public double getRT(int i) {
+    return rt[i];
+  }
+
+  public double getHeight(int i) {
+    return height[i];
+  }
+
+  /**
+   * Passes the positions of all rows with an average m/z and retention time inside the given closed
+   * ranges to the consumer. The rows are reported in the order of their m/z within each retention
+   * time bucket.
+   */
+  public void forEachInRange(double mzMin, double mzMax, double rtMin, double rtMax,
+      IntConsumer consumer) {
+
+    final int numBuckets = bucketStart.length - 1;
+    final int lastBucket = getBucket(rtMax, numBuckets);
+    for (int b = getBucket(rtMin, numBuckets); b <= lastBucket; b++) {
+      final int end = bucketStart[b + 1];
+      for (int s = lowerBound(bucketStart[b], end, mzMin); s < end && sortedMZ[s] <= mzMax; s++) {
+        final int i = sortedRows[s];
+        if (rt[i] >= rtMin && rt[i] <= rtMax)
+          consumer.accept(i);
+      }
+    }
+  }
+
+  /**
+   * @see #forEachInRange(double, double, double, double, IntConsumer)
+   */
+  public void forEachInRange(Range<Double> mzRange, Range<Double> rtRange, IntConsumer consumer) {
+    forEachInRange(mzRange.lowerEndpoint(), mzRange.upperEndpoint(), rtRange.lowerEndpoint(),
+        rtRange.upperEndpoint(), consumer);
+  }
+
+  /**
+   * @return the first sorted position in [from, to) with an m/z of at least mzMin
+   */
+  private int lowerBound(int from, int to, double mzMin) {
+    int low = from, high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedMZ[mid] < mzMin)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
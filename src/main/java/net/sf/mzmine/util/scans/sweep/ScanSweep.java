@@ -0,0 +1,280 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.util.scans.sweep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nonnull;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Reads the scans of one MS level of a raw data file once, in retention time order, and offers each
+ * decoded scan to all registered consumers whose retention time window contains it. Scans outside
+ * the windows of all consumers are not decoded at all.
+ *
+ * Decoding runs in a separate thread, ahead of the consumers by at most {@link #QUEUE_CAPACITY}
+ * scans, so that reading the next scan overlaps with processing the previous one without holding
+ * more than a few decoded scans in memory. The consumers are always called from the thread calling
+ * {@link #run(BooleanSupplier, Runnable)}.
+ */
+public class ScanSweep {
+
+  private static final int QUEUE_CAPACITY = 16;
+
+  // Queued by the decoder after the last scan
+  private static final Object END_OF_SCANS = new Object();
+
+  // Milliseconds between checks for cancel while waiting for the decoder
+  private static final long POLL_INTERVAL = 100;
+
+  private final RawDataFile dataFile;
+  private final Scan scans[];
+  private final double retentionTimes[];
+  private final List<Registration> registrations = new ArrayList<>();
+
+  private volatile boolean stopped;
+
+  public ScanSweep(@Nonnull RawDataFile dataFile, int msLevel) {
+    this.dataFile = dataFile;
+
+    int scanNumbers[] = dataFile.getScanNumbers(msLevel);
+    Scan fileScans[] = new Scan[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++)
+      fileScans[i] = dataFile.getScan(scanNumbers[i]);
+
+    // Stable sort keeps the scan number order for equal retention times
+    Arrays.sort(fileScans, Comparator.comparingDouble(Scan::getRetentionTime));
+    scans = fileScans;
+
+    retentionTimes = new double[scans.length];
+    for (int i = 0; i < scans.length; i++)
+      retentionTimes[i] = scans[i].getRetentionTime();
+  }
+
+  public @Nonnull RawDataFile getDataFile() {
+    return dataFile;
+  }
+
+  /**
+   * @return number of scans swept, including the scans which are not decoded
+   */
+  public int getNumberOfScans() {
+    return scans.length;
+  }
+
+  public void addConsumer(@Nonnull ScanSweepConsumer consumer) {
+    Range<Double> rtRange = consumer.getRTRange();
+
+    // Scan indexes within the retention time window
+    int first = 0, last = scans.length - 1;
+    if (rtRange.hasLowerBound())
+      first = firstIndex(rtRange.lowerEndpoint(), rtRange.lowerBoundType() == BoundType.CLOSED);
+    if (rtRange.hasUpperBound())
+      last = firstIndex(rtRange.upperEndpoint(), rtRange.upperBoundType() == BoundType.OPEN) - 1;
+
+    registrations.add(new Registration(consumer, first, last));
+  }
+
+  /**
+   * Sweeps the scans and offers them to the consumers. Consumers whose window does not contain any
+   * scan are finished right away.
+   *
+   * @param canceled checked before each scan, the sweep stops without finishing the consumers if it
+   *        returns true
+   * @param scanProcessed called once for each swept scan, including the scans which are not decoded
+   * @return false if the sweep was canceled
+   */
+  public boolean run(@Nonnull BooleanSupplier canceled, @Nonnull Runnable scanProcessed) {
+
+    // Consumers in the order their windows start
+    List<Registration> pending = new ArrayList<>(registrations.size());
+    for (Registration registration : registrations) {
+      if (registration.first > registration.last)
+        registration.consumer.sweepFinished();
+      else
+        pending.add(registration);
+    }
+    pending.sort(Comparator.comparingInt(r -> r.first));
+
+    // Mark the scans within any window
+    int coverage[] = new int[scans.length + 1];
+    for (Registration registration : pending) {
+      coverage[registration.first]++;
+      coverage[registration.last + 1]--;
+    }
+    final boolean needed[] = new boolean[scans.length];
+    for (int i = 0, covered = 0; i < scans.length; i++) {
+      covered += coverage[i];
+      needed[i] = covered > 0;
+    }
+
+    final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    stopped = false;
+    Thread decoder = new Thread(() -> decodeScans(needed, queue),
+        "Scan sweep of " + dataFile.getName());
+    decoder.setDaemon(true);
+    decoder.start();
+
+    final List<Registration> active = new ArrayList<>();
+    int nextPending = 0, processed = 0;
+
+    try {
+      while (true) {
+
+        if (canceled.getAsBoolean())
+          return false;
+
+        Object next = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        if (next == null) {
+          // The decoder queues a marker before it ends, unless it died
+          if (!decoder.isAlive() && queue.isEmpty())
+            throw new IllegalStateException("Scan decoding of " + dataFile.getName() + " stopped");
+          continue;
+        }
+
+        // Decoding failed
+        if (next instanceof RuntimeException)
+          throw (RuntimeException) next;
+        if (next instanceof Error)
+          throw (Error) next;
+        if (next instanceof Throwable)
+          throw new IllegalStateException("Scan decoding failed", (Throwable) next);
+
+        final int index = next instanceof DecodedScan ? ((DecodedScan) next).index : scans.length;
+
+        // Report the scans skipped by the decoder
+        for (; processed < index; processed++)
+          scanProcessed.run();
+
+        if (index == scans.length)
+          break;
+
+        // Consumers entering their window
+        while (nextPending < pending.size() && pending.get(nextPending).first <= index) {
+          active.add(pending.get(nextPending));
+          nextPending++;
+        }
+
+        final SweepSpectrum spectrum = ((DecodedScan) next).spectrum;
+        int kept = 0;
+        for (Registration registration : active) {
+          boolean keep = (index <= registration.last) && registration.consumer.offerScan(spectrum);
+          if (keep)
+            active.set(kept++, registration);
+          else
+            registration.consumer.sweepFinished();
+        }
+        active.subList(kept, active.size()).clear();
+
+        scanProcessed.run();
+        processed++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      stopped = true;
+    }
+
+    // Consumers still waiting for scans
+    for (Registration registration : active)
+      registration.consumer.sweepFinished();
+
+    return true;
+  }
+
+  private void decodeScans(boolean needed[], BlockingQueue<Object> queue) {
+    try {
+      for (int i = 0; i < scans.length; i++) {
+        if (!needed[i])
+          continue;
+        if (!put(queue, new DecodedScan(i, new SweepSpectrum(scans[i]))))
+          return;
+      }
+      put(queue, END_OF_SCANS);
+    } catch (Throwable e) {
+      // Also errors such as OutOfMemoryError, so that the sweep never waits for a dead decoder
+      put(queue, e);
+    }
+  }
+
+  /**
+   * Blocks while the queue is full, unless the sweep has been stopped.
+   */
+  private boolean put(BlockingQueue<Object> queue, Object item) {
+    try {
+      while (!stopped) {
+        if (queue.offer(item, 100, TimeUnit.MILLISECONDS))
+          return true;
+      }
+    } catch (InterruptedException e) {
+      // Stop decoding
+    }
+    return false;
+  }
+
+  /**
+   * @return index of the first scan with retention time >= rt if inclusive, > rt otherwise
+   */
+  private int firstIndex(double rt, boolean inclusive) {
+    int low = 0, high = retentionTimes.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (inclusive ? retentionTimes[mid] < rt : retentionTimes[mid] <= rt)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static class Registration {
+
+    private final ScanSweepConsumer consumer;
+    private final int first, last;
+
+    private Registration(ScanSweepConsumer consumer, int first, int last) {
+      this.consumer = consumer;
+      this.first = first;
+      this.last = last;
+    }
+  }
+
+  private static class DecodedScan {
+
+    private final int index;
+    private final SweepSpectrum spectrum;
+
+    private DecodedScan(int index, SweepSpectrum spectrum) {
+      this.index = index;
+      this.spectrum = spectrum;
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.util.scans.sweep;
+
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+
+/**
+ * Receives the decoded scans of a {@link ScanSweep} in retention time order.
+ */
+public interface ScanSweepConsumer {
+
+  /**
+   * @return retention time window of this consumer. Only scans within the window are offered.
+   */
+  @Nonnull
+  Range<Double> getRTRange();
+
+  /**
+   * Offers the next scan within the retention time window.
+   *
+   * @return false if this consumer does not need any further scans
+   */
+  boolean offerScan(@Nonnull SweepSpectrum spectrum);
+
+  /**
+   * Called once when the consumer leaves its retention time window, declines further scans or the
+   * sweep reaches the last scan. Not called if the sweep is canceled.
+   */
+  void sweepFinished();
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.util.scans.sweep;
+
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * A scan decoded once by a {@link ScanSweep}, with its data points stored in primitive arrays
+ * sorted by m/z. The same instance is offered to all consumers of the sweep, so it must not be
+ * modified.
+ */
+public class SweepSpectrum {
+
+  private final int scanNumber;
+  private final double retentionTime;
+  private final double mzValues[], intensityValues[];
+
+  public SweepSpectrum(@Nonnull Scan scan) {
+    this.scanNumber = scan.getScanNumber();
+    this.retentionTime = scan.getRetentionTime();
+
+    DataPoint dataPoints[] = scan.getDataPoints();
+    mzValues = new double[dataPoints.length];
+    intensityValues = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+  }
+
+  public int getScanNumber() {
+    return scanNumber;
+  }
+
+  public double getRetentionTime() {
+    return retentionTime;
+  }
+
+  public int getNumberOfDataPoints() {
+    return mzValues.length;
+  }
+
+  public double getMZ(int index) {
+    return mzValues[index];
+  }
+
+  public double getIntensity(int index) {
+    return intensityValues[index];
+  }
+
+  /**
+   * Finds the most intense data point within the given m/z range, like
+   * {@link net.sf.mzmine.util.scans.ScanUtils#findBasePeak(Scan, Range)}.
+   *
+   * @return index of the base peak, or -1 if there is no data point in the range
+   */
+  public int findBasePeak(@Nonnull Range<Double> mzRange) {
+    final double mzMin = mzRange.lowerEndpoint(), mzMax = mzRange.upperEndpoint();
+
+    // First data point with m/z >= mzMin
+    int low = 0, high = mzValues.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mzValues[mid] < mzMin)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    int basePeak = -1;
+    for (int i = low; i < mzValues.length && mzValues[i] <= mzMax; i++) {
+      if ((basePeak == -1) || (intensityValues[i] > intensityValues[basePeak]))
+        basePeak = i;
+    }
+    return basePeak;
+  }
+
+}
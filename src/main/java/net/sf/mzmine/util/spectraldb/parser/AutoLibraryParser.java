@@ -20,6 +20,7 @@ package net.sf.mzmine.util.spectraldb.parser;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.util.files.FileTypeFilter;
@@ -41,6 +42,37 @@ public class AutoLibraryParser extends SpectralDBParser {
   @Override
   public boolean parse(AbstractTask mainTask, File dataBaseFile)
       throws UnsupportedFormatException, IOException {
+    FileTypeFilter compiled = new FileTypeFilter(CompiledLibrary.FILE_SUFFIX.substring(1), "");
+    if (compiled.accept(dataBaseFile))
+      return new CompiledLibraryParser(bufferEntries, processor).parse(mainTask, dataBaseFile);
+
+    // Use the compiled version of the library, if it is up to date
+    File compiledFile = CompiledLibrary.getCompiledFile(dataBaseFile);
+    if (CompiledLibrary.isUpToDate(dataBaseFile, compiledFile)) {
+      try {
+        return new CompiledLibraryParser(bufferEntries, processor).parse(mainTask, compiledFile);
+      } catch (IOException e) {
+        logger.log(Level.WARNING,
+            "Cannot load compiled library " + compiledFile + ", parsing " + dataBaseFile, e);
+      }
+    }
+
+    // Parse the library and compile it for the next search
+    CompiledLibraryWriter writer = new CompiledLibraryWriter(dataBaseFile, compiledFile, processor);
+    boolean state = false;
+    try {
+      state = parseLibrary(mainTask, dataBaseFile, writer);
+    } finally {
+      if (state)
+        writer.finish();
+      else
+        writer.discard();
+    }
+    return state;
+  }
+
+  private boolean parseLibrary(AbstractTask mainTask, File dataBaseFile,
+      CompiledLibraryWriter processor) throws UnsupportedFormatException, IOException {
     FileTypeFilter json = new FileTypeFilter("json", "");
     FileTypeFilter msp = new FileTypeFilter("msp", "");
     FileTypeFilter mgf = new FileTypeFilter("mgf", "");
@@ -54,6 +86,8 @@ public class AutoLibraryParser extends SpectralDBParser {
         if (mainTask.isCanceled())
           return false;
         try {
+          // remove entries of a previous try
+          processor.reset();
           boolean state = p.parse(mainTask, dataBaseFile);
           if (state)
             return state;
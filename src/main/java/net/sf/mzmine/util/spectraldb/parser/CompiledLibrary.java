@@ -0,0 +1,251 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.parser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+/**
+ * Memory-mapped binary spectral library, created by {@link CompiledLibraryWriter} from any text
+ * library supported by the {@link AutoLibraryParser}. Entries are sorted by precursor m/z (entries
+ * without precursor last) and are only decoded when their values are accessed.
+ *
+ * File layout: header (magic, version, length and modification time of the source library, field
+ * names, number of entries), index (precursor m/z and retention time as double and data offset as
+ * long per entry, see {@link #INDEX_ENTRY_LENGTH}) and the data section. Each entry in the data
+ * section holds its spectrum as float m/z and intensity pairs followed by its metadata fields. The
+ * data section is written in chunks of {@link #CHUNK_SIZE} bytes, which are mapped separately. No
+ * entry crosses a chunk boundary.
+ */
+public class CompiledLibrary {
+
+  static final int MAGIC = 0x4D5A4C42;
+  static final int VERSION = 2;
+  static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8;
+  static final long CHUNK_SIZE = 1L << 30;
+  static final String FILE_SUFFIX = ".mzlib";
+
+  // value types of metadata fields
+  static final byte TYPE_STRING = 0, TYPE_DOUBLE = 1, TYPE_FLOAT = 2, TYPE_INTEGER = 3;
+
+  private final int size;
+  private final DBEntryField fields[];
+  private final MappedByteBuffer index;
+  private final MappedByteBuffer chunks[];
+
+  private CompiledLibrary(File file) throws IOException {
+    long headerLength;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException("Not a compiled spectral library " + file);
+      // length and modification time of the source
+      in.readLong();
+      in.readLong();
+      int numFields = in.readInt();
+      headerLength = 4 + 4 + 8 + 8 + 4;
+      fields = new DBEntryField[numFields];
+      for (int i = 0; i < numFields; i++) {
+        String name = in.readUTF();
+        headerLength += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+        try {
+          fields[i] = DBEntryField.valueOf(name);
+        } catch (IllegalArgumentException e) {
+          // field was removed, ignore its values
+          fields[i] = null;
+        }
+      }
+      size = in.readInt();
+      headerLength += 4;
+    }
+
+    try (FileChannel channel = new FileInputStream(file).getChannel()) {
+      long indexLength = (long) size * INDEX_ENTRY_LENGTH;
+      index = channel.map(MapMode.READ_ONLY, headerLength, indexLength);
+      long dataStart = headerLength + indexLength;
+      long dataLength = channel.size() - dataStart;
+      int numChunks = (int) ((dataLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      chunks = new MappedByteBuffer[numChunks];
+      for (int i = 0; i < numChunks; i++) {
+        long start = i * CHUNK_SIZE;
+        chunks[i] = channel.map(MapMode.READ_ONLY, dataStart + start,
+            Math.min(CHUNK_SIZE, dataLength - start));
+      }
+    }
+  }
+
+  /**
+   * Maps a compiled library into memory
+   */
+  public static CompiledLibrary open(File compiledFile) throws IOException {
+    return new CompiledLibrary(compiledFile);
+  }
+
+  /**
+   * The compiled library is saved next to the source library or in the temporary directory, if the
+   * library folder is not writable
+   */
+  public static File getCompiledFile(File libraryFile) {
+    File dir = libraryFile.getAbsoluteFile().getParentFile();
+    if (dir != null && dir.canWrite())
+      return new File(dir, libraryFile.getName() + FILE_SUFFIX);
+    String id = Integer.toHexString(libraryFile.getAbsolutePath().hashCode());
+    return new File(System.getProperty("java.io.tmpdir"),
+        libraryFile.getName() + "_" + id + FILE_SUFFIX);
+  }
+
+  /**
+   * @return true if the compiled file exists and was created from the current version of the
+   *         library file
+   */
+  public static boolean isUpToDate(File libraryFile, File compiledFile) {
+    if (!compiledFile.isFile() || !libraryFile.isFile())
+      return false;
+    try (DataInputStream in = new DataInputStream(new FileInputStream(compiledFile))) {
+      return in.readInt() == MAGIC && in.readInt() == VERSION
+          && in.readLong() == libraryFile.length() && in.readLong() == libraryFile.lastModified();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return precursor m/z of the i-th entry or NaN
+   */
+  public double getPrecursorMZ(int i) {
+    return index.getDouble(i * INDEX_ENTRY_LENGTH);
+  }
+
+  /**
+   * @return retention time of the i-th entry or NaN
+   */
+  public double getRT(int i) {
+    return index.getDouble(i * INDEX_ENTRY_LENGTH + 8);
+  }
+
+  public SpectralDBEntry getEntry(int i) {
+    return new CompiledEntry(i);
+  }
+
+  private ByteBuffer getData(int i) {
+    long offset = index.getLong(i * INDEX_ENTRY_LENGTH + 16);
+    ByteBuffer data = chunks[(int) (offset / CHUNK_SIZE)].duplicate();
+    data.position((int) (offset % CHUNK_SIZE));
+    return data;
+  }
+
+  /**
+   * Reads a single metadata field of an entry. The values of all other fields are skipped without
+   * decoding them.
+   */
+  private Object readField(ByteBuffer data, DBEntryField field) {
+    // skip the spectrum
+    int numPeaks = data.getInt();
+    data.position(data.position() + numPeaks * 8);
+
+    int numFields = data.getShort();
+    for (int f = 0; f < numFields; f++) {
+      boolean match = fields[data.get()] == field;
+      switch (data.get()) {
+        case TYPE_DOUBLE:
+          if (match)
+            return data.getDouble();
+          data.position(data.position() + 8);
+          break;
+        case TYPE_FLOAT:
+          if (match)
+            return data.getFloat();
+          data.position(data.position() + 4);
+          break;
+        case TYPE_INTEGER:
+          if (match)
+            return data.getInt();
+          data.position(data.position() + 4);
+          break;
+        default:
+          int length = data.getInt();
+          if (match) {
+            byte bytes[] = new byte[length];
+            data.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+          }
+          data.position(data.position() + length);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Entry which is decoded from the mapped library when it is accessed. Nothing is cached, so an
+   * entry only holds its position in the index.
+   */
+  private class CompiledEntry extends SpectralDBEntry {
+
+    private final int i;
+
+    CompiledEntry(int i) {
+      // values are read from the library on demand
+      super(null, null);
+      this.i = i;
+    }
+
+    @Override
+    public Double getPrecursorMZ() {
+      double mz = CompiledLibrary.this.getPrecursorMZ(i);
+      return Double.isNaN(mz) ? null : mz;
+    }
+
+    @Override
+    public Optional<Object> getField(DBEntryField f) {
+      if (f == DBEntryField.RT) {
+        double rt = getRT(i);
+        return Optional.ofNullable(Double.isNaN(rt) ? null : rt);
+      }
+      return Optional.ofNullable(readField(getData(i), f));
+    }
+
+    @Override
+    public DataPoint[] getDataPoints() {
+      ByteBuffer data = getData(i);
+      DataPoint dps[] = new DataPoint[data.getInt()];
+      for (int d = 0; d < dps.length; d++)
+        dps[d] = new SimpleDataPoint(data.getFloat(), data.getFloat());
+      return dps;
+    }
+
+  }
+
+}
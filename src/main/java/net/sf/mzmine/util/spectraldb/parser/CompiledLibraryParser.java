@@ -0,0 +1,51 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+
+/**
+ * Pushes the entries of a memory-mapped {@link CompiledLibrary} in the order of their precursor
+ * m/z. Entries are decoded lazily, so no parsing is done here.
+ */
+public class CompiledLibraryParser extends SpectralDBParser {
+
+  private static Logger logger = Logger.getLogger(CompiledLibraryParser.class.getName());
+
+  public CompiledLibraryParser(int bufferEntries, LibraryEntryProcessor processor) {
+    super(bufferEntries, processor);
+  }
+
+  @Override
+  public boolean parse(AbstractTask mainTask, File dataBaseFile) throws IOException {
+    logger.info("Loading compiled spectral library " + dataBaseFile.getAbsolutePath());
+    CompiledLibrary library = CompiledLibrary.open(dataBaseFile);
+    for (int i = 0; i < library.size(); i++) {
+      if (mainTask != null && mainTask.isCanceled())
+        return false;
+      addLibraryEntry(library.getEntry(i));
+    }
+    finish();
+    return true;
+  }
+
+}
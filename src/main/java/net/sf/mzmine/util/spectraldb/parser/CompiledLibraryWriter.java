@@ -0,0 +1,237 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+/**
+ * Compiles the entries of a spectral library into the binary format of {@link CompiledLibrary},
+ * while they are passed on to the actual processor. The entries are first streamed to a temporary
+ * file, which is appended to the sorted index by {@link #finish()}.
+ */
+public class CompiledLibraryWriter implements LibraryEntryProcessor {
+
+  private static final Logger logger = Logger.getLogger(CompiledLibraryWriter.class.getName());
+
+  private final File libraryFile, compiledFile;
+  private final LibraryEntryProcessor processor;
+
+  private File dataFile;
+  private DataOutputStream data;
+  private long dataLength;
+  private boolean failed = false;
+
+  private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+  private final DataOutputStream entry = new DataOutputStream(entryBytes);
+
+  // index of all entries in the order of the library file
+  private double precursorMZ[] = new double[1024];
+  private double rt[] = new double[1024];
+  private long offsets[] = new long[1024];
+  private int size;
+
+  /**
+   * @param libraryFile the source library
+   * @param compiledFile the target file, see {@link CompiledLibrary#getCompiledFile(File)}
+   * @param processor receives all entries, may be null
+   */
+  public CompiledLibraryWriter(File libraryFile, File compiledFile,
+      LibraryEntryProcessor processor) {
+    this.libraryFile = libraryFile;
+    this.compiledFile = compiledFile;
+    this.processor = processor;
+    try {
+      dataFile = File.createTempFile("mzmine_library", ".tmp");
+      dataFile.deleteOnExit();
+      reset();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  @Override
+  public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
+    if (!failed) {
+      try {
+        for (SpectralDBEntry e : list)
+          writeEntry(e);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+    if (processor != null)
+      processor.processNextEntries(list, alreadyProcessed);
+  }
+
+  /**
+   * Removes all entries written so far, e.g., if a parser failed and another format is tried
+   */
+  void reset() throws IOException {
+    if (data != null)
+      data.close();
+    data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+    dataLength = 0;
+    size = 0;
+  }
+
+  private void writeEntry(SpectralDBEntry e) throws IOException {
+    entryBytes.reset();
+
+    DataPoint dps[] = e.getDataPoints();
+    entry.writeInt(dps.length);
+    for (DataPoint dp : dps) {
+      entry.writeFloat((float) dp.getMZ());
+      entry.writeFloat((float) dp.getIntensity());
+    }
+
+    DBEntryField fields[] = DBEntryField.values();
+    int numFields = 0;
+    for (DBEntryField f : fields)
+      if (e.getField(f).isPresent())
+        numFields++;
+    entry.writeShort(numFields);
+    for (DBEntryField f : fields) {
+      Object value = e.getField(f).orElse(null);
+      if (value == null)
+        continue;
+      entry.writeByte(f.ordinal());
+      if (value instanceof Double) {
+        entry.writeByte(CompiledLibrary.TYPE_DOUBLE);
+        entry.writeDouble((Double) value);
+      } else if (value instanceof Float) {
+        entry.writeByte(CompiledLibrary.TYPE_FLOAT);
+        entry.writeFloat((Float) value);
+      } else if (value instanceof Integer) {
+        entry.writeByte(CompiledLibrary.TYPE_INTEGER);
+        entry.writeInt((Integer) value);
+      } else {
+        byte bytes[] = value.toString().getBytes(StandardCharsets.UTF_8);
+        entry.writeByte(CompiledLibrary.TYPE_STRING);
+        entry.writeInt(bytes.length);
+        entry.write(bytes);
+      }
+    }
+    entry.flush();
+
+    // Entries must not cross the boundary of a mapped chunk
+    long chunkRemaining = CompiledLibrary.CHUNK_SIZE - dataLength % CompiledLibrary.CHUNK_SIZE;
+    if (entryBytes.size() > chunkRemaining) {
+      data.write(new byte[(int) chunkRemaining]);
+      dataLength += chunkRemaining;
+    }
+
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, size * 2);
+      precursorMZ = Arrays.copyOf(precursorMZ, size * 2);
+      rt = Arrays.copyOf(rt, size * 2);
+    }
+    Double mz = e.getPrecursorMZ();
+    precursorMZ[size] = mz == null ? Double.NaN : mz;
+    // the retention time is part of the index, so it can be checked without decoding the entry
+    Object entryRT = e.getField(DBEntryField.RT).orElse(null);
+    rt[size] = entryRT instanceof Number ? ((Number) entryRT).doubleValue() : Double.NaN;
+    offsets[size] = dataLength;
+    size++;
+
+    entryBytes.writeTo(data);
+    dataLength += entryBytes.size();
+  }
+
+  /**
+   * Writes the compiled library. The file is only replaced when it was written completely.
+   */
+  public void finish() {
+    if (failed) {
+      discard();
+      return;
+    }
+    File tmpFile = new File(compiledFile.getPath() + ".tmp");
+    try {
+      data.close();
+
+      // Sort by precursor m/z, NaN last
+      int order[] = IntStream.range(0, size).boxed()
+          .sorted(Comparator.comparingDouble(i -> precursorMZ[i])).mapToInt(Integer::intValue)
+          .toArray();
+
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        out.writeInt(CompiledLibrary.MAGIC);
+        out.writeInt(CompiledLibrary.VERSION);
+        out.writeLong(libraryFile.length());
+        out.writeLong(libraryFile.lastModified());
+        DBEntryField fields[] = DBEntryField.values();
+        out.writeInt(fields.length);
+        for (DBEntryField f : fields)
+          out.writeUTF(f.name());
+        out.writeInt(size);
+        for (int i : order) {
+          out.writeDouble(precursorMZ[i]);
+          out.writeDouble(rt[i]);
+          out.writeLong(offsets[i]);
+        }
+        Files.copy(dataFile.toPath(), out);
+      }
+      Files.move(tmpFile.toPath(), compiledFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.info("Compiled " + size + " library entries to " + compiledFile);
+    } catch (IOException e) {
+      tmpFile.delete();
+      fail(e);
+    } finally {
+      dataFile.delete();
+    }
+  }
+
+  /**
+   * Deletes all temporary data without writing the compiled library
+   */
+  public void discard() {
+    try {
+      if (data != null)
+        data.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    if (dataFile != null)
+      dataFile.delete();
+  }
+
+  private void fail(IOException e) {
+    logger.log(Level.WARNING, "Cannot compile spectral library " + libraryFile, e);
+    failed = true;
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Applies the same additions and removals of peaks to a DensePeakListRow and a SimplePeakListRow
+ * and compares the rows after each step.
+ */
+public class DensePeakListRowTest {
+
+  private static final int NUM_FILES = 12;
+  private static final int NUM_STEPS = 2000;
+
+  private RawDataFile dataFiles[];
+  private SimplePeakList peakList;
+
+  @Before
+  public void createPeakList() throws IOException {
+    dataFiles = new RawDataFile[NUM_FILES];
+    for (int i = 0; i < NUM_FILES; i++)
+      dataFiles[i] = new RawDataFileImpl("file " + i);
+    peakList = new SimplePeakList("aligned", dataFiles);
+  }
+
+  @After
+  public void closeFiles() {
+    for (RawDataFile dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  @Test
+  public void testSameAsSimpleRow() {
+    final Random random = new Random(42);
+    final DensePeakListRow denseRow = new DensePeakListRow(1, peakList);
+    final SimplePeakListRow simpleRow = new SimplePeakListRow(1);
+
+    for (int step = 0; step < NUM_STEPS; step++) {
+      RawDataFile dataFile = dataFiles[random.nextInt(NUM_FILES)];
+      // Add more often than remove, so that the rows fill up, and replace existing peaks. A
+      // removal from a row without peaks is skipped, the simple row would then set its averages
+      // to NaN while the dense row keeps them.
+      if (random.nextInt(3) > 0 || denseRow.getNumberOfPeaks() == 0) {
+        Feature peak = createPeak(random, dataFile);
+        denseRow.addPeak(dataFile, peak);
+        simpleRow.addPeak(dataFile, peak);
+      } else {
+        denseRow.removePeak(dataFile);
+        simpleRow.removePeak(dataFile);
+      }
+      assertSameRow(simpleRow, denseRow);
+    }
+  }
+
+  @Test
+  public void testEmptyRow() {
+    final Random random = new Random(7);
+    final DensePeakListRow denseRow = new DensePeakListRow(1, peakList);
+    final SimplePeakListRow simpleRow = new SimplePeakListRow(1);
+    for (RawDataFile dataFile : dataFiles) {
+      Feature peak = createPeak(random, dataFile);
+      denseRow.addPeak(dataFile, peak);
+      simpleRow.addPeak(dataFile, peak);
+    }
+    for (RawDataFile dataFile : dataFiles) {
+      denseRow.removePeak(dataFile);
+      simpleRow.removePeak(dataFile);
+    }
+    assertSameRow(simpleRow, denseRow);
+    Assert.assertTrue(Double.isNaN(denseRow.getAverageMZ()));
+    Assert.assertNull(denseRow.getBestPeak());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFileNotInPeakList() throws IOException {
+    RawDataFile otherFile = new RawDataFileImpl("other");
+    try {
+      new DensePeakListRow(1, peakList).addPeak(otherFile, createPeak(new Random(), otherFile));
+    } finally {
+      otherFile.close();
+    }
+  }
+
+  private static Feature createPeak(Random random, RawDataFile dataFile) {
+    double maxIntensity = 1000 + 1e5 * random.nextDouble();
+    SimpleFeature peak = new SimpleFeature(dataFile, 100 + 900 * random.nextDouble(),
+        30 * random.nextDouble(), 1e5 * random.nextDouble(), 1e6 * random.nextDouble(),
+        new int[] {1}, new DataPoint[] {new SimpleDataPoint(100, maxIntensity)},
+        FeatureStatus.DETECTED, 1, -1, new int[0], Range.closed(1.0, 2.0),
+        Range.closed(100.0, 101.0), Range.closed(0.0, maxIntensity));
+    // Mostly one charge, so that both equal and mixed charges occur
+    peak.setCharge(random.nextInt(4) == 0 ? random.nextInt(3) : 1);
+    return peak;
+  }
+
+  private void assertSameRow(PeakListRow expected, PeakListRow actual) {
+    Assert.assertEquals(expected.getNumberOfPeaks(), actual.getNumberOfPeaks());
+    assertSameValue(expected.getAverageMZ(), actual.getAverageMZ());
+    assertSameValue(expected.getAverageRT(), actual.getAverageRT());
+    assertSameValue(expected.getAverageHeight(), actual.getAverageHeight());
+    assertSameValue(expected.getAverageArea(), actual.getAverageArea());
+    Assert.assertEquals(expected.getRowCharge(), actual.getRowCharge());
+    Assert.assertEquals(expected.getDataPointMaxIntensity(), actual.getDataPointMaxIntensity(),
+        0);
+
+    for (RawDataFile dataFile : dataFiles) {
+      Feature peak = expected.getPeak(dataFile);
+      Assert.assertSame(peak, actual.getPeak(dataFile));
+      Assert.assertEquals(expected.hasPeak(dataFile), actual.hasPeak(dataFile));
+      if (peak != null)
+        Assert.assertTrue(actual.hasPeak(peak));
+    }
+    Assert.assertEquals(new HashSet<>(Arrays.asList(expected.getPeaks())),
+        new HashSet<>(Arrays.asList(actual.getPeaks())));
+    Assert.assertEquals(new HashSet<>(Arrays.asList(expected.getRawDataFiles())),
+        new HashSet<>(Arrays.asList(actual.getRawDataFiles())));
+    Assert.assertSame(expected.getBestPeak(), actual.getBestPeak());
+  }
+
+  /**
+   * The dense row updates sums incrementally, so its averages differ by rounding errors only
+   */
+  private static void assertSameValue(double expected, double actual) {
+    Assert.assertEquals(expected, actual, Math.abs(expected) * 1e-9);
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+
+/**
+ * Checks that features read back the same data after their data points were moved to a
+ * FeatureDataStore.
+ */
+public class FeatureDataStoreTest {
+
+  // Short traces grow the first chunk, the long ones fill it and start new chunks, the last one is
+  // longer than a chunk
+  private static final int TRACE_LENGTHS[] =
+      {1, 7, 1000, 30, 2500, 400_000, 5, 650_000, 3, 1_200_000, 12};
+
+  @Test
+  public void testMoveDataPoints() {
+    final Random random = new Random(43);
+    final FeatureDataStore store = new FeatureDataStore();
+    final List<SimpleFeature> features = new ArrayList<>();
+    final List<DataPoint[]> dataPoints = new ArrayList<>();
+
+    for (int length : TRACE_LENGTHS) {
+      int scanNumbers[] = new int[length];
+      DataPoint traceDataPoints[] = new DataPoint[length];
+      int scanNumber = random.nextInt(10);
+      for (int i = 0; i < length; i++) {
+        scanNumber += 1 + random.nextInt(3);
+        scanNumbers[i] = scanNumber;
+        // The data point of a gap in the trace may be null
+        if (i == 0 || random.nextInt(20) != 0)
+          traceDataPoints[i] =
+              new SimpleDataPoint(100 + random.nextDouble(), 1000 * random.nextDouble());
+      }
+      features.add(new SimpleFeature(null, 100.5, 1.5, 1000, 2000, scanNumbers, traceDataPoints,
+          FeatureStatus.DETECTED, scanNumbers[0], -1, new int[0], Range.closed(1.0, 2.0),
+          Range.closed(100.0, 101.0), Range.closed(0.0, 1000.0)));
+      dataPoints.add(traceDataPoints);
+    }
+
+    for (SimpleFeature feature : features) {
+      int scanNumbers[] = feature.getScanNumbers();
+      feature.moveDataPointsTo(store);
+      Assert.assertSame(scanNumbers, feature.getScanNumbers());
+      // Moving again does nothing
+      feature.moveDataPointsTo(new FeatureDataStore());
+    }
+
+    for (int f = 0; f < features.size(); f++) {
+      SimpleFeature feature = features.get(f);
+      DataPoint expected[] = dataPoints.get(f);
+      int scanNumbers[] = feature.getScanNumbers();
+      Assert.assertEquals(TRACE_LENGTHS[f], scanNumbers.length);
+      for (int i = 0; i < scanNumbers.length; i++) {
+        DataPoint actual = feature.getDataPoint(scanNumbers[i]);
+        if (expected[i] == null) {
+          Assert.assertNull(actual);
+          continue;
+        }
+        Assert.assertEquals(expected[i].getMZ(), actual.getMZ(), 0);
+        Assert.assertEquals(expected[i].getIntensity(), actual.getIntensity(), 0);
+        // Scans between the ones of the trace have no data point
+        if (i > 0 && scanNumbers[i] - scanNumbers[i - 1] > 1)
+          Assert.assertNull(feature.getDataPoint(scanNumbers[i] - 1));
+      }
+      Assert.assertNull(feature.getDataPoint(scanNumbers[0] - 1));
+      Assert.assertNull(feature.getDataPoint(scanNumbers[scanNumbers.length - 1] + 1));
+      Assert.assertEquals(Range.closed(1.0, 2.0), feature.getRawDataPointsRTRange());
+      Assert.assertEquals(Range.closed(100.0, 101.0), feature.getRawDataPointsMZRange());
+      Assert.assertEquals(Range.closed(0.0, 1000.0), feature.getRawDataPointsIntensityRange());
+    }
+  }
+
+  @Test
+  public void testChunks() {
+    final FeatureDataStore store = new FeatureDataStore();
+    final DataPoint dataPoints[] = new DataPoint[600_000];
+    for (int i = 0; i < dataPoints.length; i++)
+      dataPoints[i] = new SimpleDataPoint(i, 2 * i);
+
+    // The first trace starts the first chunk, the second one does not fit in it anymore
+    long first = store.add(dataPoints);
+    long second = store.add(dataPoints);
+    long third = store.add(new DataPoint[] {new SimpleDataPoint(1, 2)});
+    Assert.assertEquals(0L, first);
+    Assert.assertEquals(1L << 32, second);
+    Assert.assertEquals((1L << 32) + dataPoints.length, third);
+
+    for (long position : new long[] {first, second}) {
+      for (int i = 0; i < dataPoints.length; i += 997) {
+        DataPoint dp = store.getDataPoint(position, i);
+        Assert.assertEquals(i, dp.getMZ(), 0);
+        Assert.assertEquals(2 * i, dp.getIntensity(), 0);
+      }
+    }
+    Assert.assertEquals(2, store.getDataPoint(third, 0).getIntensity(), 0);
+  }
+
+}
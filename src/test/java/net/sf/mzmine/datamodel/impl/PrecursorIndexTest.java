@@ -0,0 +1,111 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Compares the queries of PrecursorIndex with a pass over all scans.
+ */
+public class PrecursorIndexTest {
+
+  private static final int NUM_SCANS = 2000;
+  private static final int NUM_QUERIES = 1000;
+
+  @Test
+  public void testQueriesMatchAllScans() {
+    final Random random = new Random(49);
+    final List<Scan> scans = new ArrayList<>();
+    for (int i = 0; i < NUM_SCANS; i++) {
+      int msLevel = 1 + random.nextInt(3);
+      // Rounded, so that many scans share a precursor m/z and the range ends hit them exactly
+      double precursorMZ = msLevel == 1 ? 0 : Math.round(100 + 100 * random.nextDouble());
+      scans.add(new SimpleScan(null, i + 1, msLevel, 0.01 * i, precursorMZ, 1, new int[0],
+          new DataPoint[0], MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+          Range.closed(50.0, 500.0)));
+    }
+    final PrecursorIndex index = new PrecursorIndex(scans);
+    Assert.assertEquals(scans.stream().filter(scan -> scan.getMSLevel() >= 2).count(),
+        index.getNumberOfScans());
+
+    for (int q = 0; q < NUM_QUERIES; q++) {
+      Range<Double> rtRange = createRange(random, 0.01 * NUM_SCANS);
+      Range<Double> mzRange = createRange(random, 200);
+      int msLevel = random.nextInt(4);
+      Assert.assertArrayEquals(rtRange + " " + mzRange + " MS" + msLevel,
+          findScans(scans, msLevel, rtRange, mzRange),
+          index.getScanNumbers(msLevel, rtRange, mzRange));
+    }
+    Assert.assertArrayEquals(findScans(scans, 0, Range.all(), Range.all()),
+        index.getScanNumbers(Range.all(), Range.all()));
+  }
+
+  @Test
+  public void testEmpty() {
+    PrecursorIndex index = new PrecursorIndex(new ArrayList<Scan>());
+    Assert.assertEquals(0, index.getNumberOfScans());
+    Assert.assertEquals(0, index.getScanNumbers(Range.all(), Range.all()).length);
+  }
+
+  private static int[] findScans(List<Scan> scans, int msLevel, Range<Double> rtRange,
+      Range<Double> mzRange) {
+    return scans.stream()
+        .filter(scan -> scan.getMSLevel() >= 2
+            && (msLevel == 0 || scan.getMSLevel() == msLevel)
+            && rtRange.contains(scan.getRetentionTime())
+            && mzRange.contains(scan.getPrecursorMZ()))
+        .mapToInt(Scan::getScanNumber).sorted().toArray();
+  }
+
+  /**
+   * Random range between 0 and max with integer ends, with all kinds of bounds
+   */
+  private static Range<Double> createRange(Random random, double max) {
+    double a = Math.round(max * random.nextDouble());
+    double b = Math.round(max * random.nextDouble());
+    double lower = Math.min(a, b), upper = Math.max(a, b);
+    switch (random.nextInt(6)) {
+      case 0:
+        return Range.closed(lower, upper);
+      case 1:
+        return Range.closedOpen(lower, upper);
+      case 2:
+        return lower < upper ? Range.open(lower, upper) : Range.closed(lower, upper);
+      case 3:
+        return Range.atLeast(lower);
+      case 4:
+        return Range.lessThan(upper);
+      default:
+        return Range.all();
+    }
+  }
+
+}
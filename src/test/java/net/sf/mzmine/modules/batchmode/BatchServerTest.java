@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sends requests to a batch server on a free port and checks that only requests with the token of
+ * the server are accepted.
+ */
+public class BatchServerTest {
+
+  @Rule
+  public TemporaryFolder tokenDir = new TemporaryFolder();
+
+  private BatchServer server;
+  private String token;
+
+  @Before
+  public void startServer() throws IOException {
+    server = BatchServer.start(0, tokenDir.getRoot());
+    token = new String(Files.readAllBytes(server.getTokenFile()), StandardCharsets.US_ASCII);
+  }
+
+  @After
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void testTokenFile() throws IOException {
+    Assert.assertEquals(tokenDir.getRoot().toPath().resolve("batchserver-" + server.getPort()
+        + ".token"), server.getTokenFile());
+    Assert.assertFalse(token.isEmpty());
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Assert.assertEquals("rw-------", PosixFilePermissions
+          .toString(Files.getPosixFilePermissions(server.getTokenFile())));
+    }
+  }
+
+  @Test
+  public void testRequestWithoutToken() throws IOException {
+    HttpURLConnection connection = open("GET", "/jobs");
+    Assert.assertEquals(401, connection.getResponseCode());
+    Assert.assertEquals("Bearer", connection.getHeaderField("WWW-Authenticate"));
+  }
+
+  @Test
+  public void testRequestWithWrongToken() throws IOException {
+    HttpURLConnection connection = open("GET", "/jobs");
+    connection.setRequestProperty("Authorization", "Bearer " + token.substring(1) + "A");
+    Assert.assertEquals(401, connection.getResponseCode());
+  }
+
+  @Test
+  public void testRequestWithToken() throws IOException {
+    HttpURLConnection connection = open("GET", "/jobs");
+    connection.setRequestProperty("Authorization", "Bearer " + token);
+    Assert.assertEquals(200, connection.getResponseCode());
+    Assert.assertEquals("[]", read(connection.getInputStream()));
+
+    connection = open("GET", "/jobs/1");
+    connection.setRequestProperty("Authorization", "Bearer " + token);
+    Assert.assertEquals(404, connection.getResponseCode());
+  }
+
+  @Test
+  public void testRequestFromWebPage() throws IOException {
+    // HttpURLConnection does not send an Origin header, so the request is written directly
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      String request = "GET /jobs HTTP/1.1\r\nHost: localhost\r\nAuthorization: Bearer " + token
+          + "\r\nOrigin: http://example.com\r\nConnection: close\r\n\r\n";
+      socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+      BufferedReader response = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      Assert.assertTrue(response.readLine().startsWith("HTTP/1.1 403 "));
+    }
+  }
+
+  @Test
+  public void testBatchWithoutXMLContentType() throws IOException {
+    HttpURLConnection connection = open("POST", "/jobs");
+    connection.setRequestProperty("Authorization", "Bearer " + token);
+    connection.setRequestProperty("Content-Type", "text/plain");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write("<batch/>".getBytes(StandardCharsets.UTF_8));
+    }
+    Assert.assertEquals(415, connection.getResponseCode());
+  }
+
+  @Test
+  public void testShutdownWithoutToken() throws IOException {
+    // Would exit the test JVM if the request was accepted
+    HttpURLConnection connection = open("POST", "/shutdown");
+    Assert.assertEquals(401, connection.getResponseCode());
+  }
+
+  private HttpURLConnection open(String method, String path) throws IOException {
+    URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+        server.getPort(), path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte buffer[] = new byte[1024];
+    int n;
+    while ((n = in.read(buffer)) > 0)
+      bytes.write(buffer, 0, n);
+    in.close();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
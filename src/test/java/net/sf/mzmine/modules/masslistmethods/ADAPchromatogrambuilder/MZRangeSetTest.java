@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+/**
+ * Compares the primitive data point order and m/z range set of the ADAP chromatogram builder with
+ * the DataPointSorter and Guava TreeRangeSet logic they replaced, on randomized data points.
+ */
+public class MZRangeSetTest {
+
+  private static final MZTolerance MZ_TOLERANCE = new MZTolerance(0.002, 10);
+  private static final double MIN_START_INTENSITY = 50;
+
+  @Test
+  public void testIntensityOrder() {
+    Random random = new Random(1);
+    for (int n : new int[] {0, 1, 10, 1000, 200000}) {
+      DataPointArrays points = createPoints(random, n);
+
+      ExpandedDataPoint objects[] = new ExpandedDataPoint[n];
+      for (int i = 0; i < n; i++)
+        objects[i] = new ExpandedDataPoint(points.getMZ(i), points.getIntensity(i), i);
+      Arrays.sort(objects,
+          new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+
+      int expected[] = new int[n];
+      for (int i = 0; i < n; i++)
+        expected[i] = objects[i].getScanNumber();
+      Assert.assertArrayEquals(expected, points.getIntensityOrder());
+    }
+  }
+
+  @Test
+  public void testChromatogramsMatchRangeSet() {
+    Random random = new Random(2);
+    for (int run = 0; run < 20; run++) {
+      DataPointArrays points = createPoints(random, 5000 + random.nextInt(50000));
+      int order[] = points.getIntensityOrder();
+      Assert.assertEquals(buildWithRangeSet(points, order), buildWithMZRangeSet(points, order));
+    }
+  }
+
+  /**
+   * Random points on a coarse m/z grid with small deviations, so that ranges touch, ties occur and
+   * the range set grows beyond a single block
+   */
+  private static DataPointArrays createPoints(Random random, int n) {
+    DataPointArrays points = new DataPointArrays();
+    for (int i = 0; i < n; i++) {
+      double mz = 100 + random.nextInt(5000) * 0.01 + random.nextInt(5) * 0.001;
+      double intensity = random.nextInt(200);
+      points.add(mz, intensity, i);
+    }
+    return points;
+  }
+
+  /**
+   * The original builder loop: returns the point indexes of each chromatogram, in the order of the
+   * m/z ranges
+   */
+  private static List<List<Integer>> buildWithRangeSet(DataPointArrays points, int order[]) {
+    RangeSet<Double> rangeSet = TreeRangeSet.create();
+    Map<Range<Double>, List<Integer>> rangeToChromMap = new HashMap<>();
+
+    for (int point : order) {
+      double mz = points.getMZ(point);
+      Range<Double> containsPointRange = rangeSet.rangeContaining(mz);
+      Range<Double> toleranceRange = MZ_TOLERANCE.getToleranceRange(mz);
+      if (containsPointRange == null) {
+        if (points.getIntensity(point) < MIN_START_INTENSITY)
+          continue;
+        Range<Double> plusRange = rangeSet.rangeContaining(toleranceRange.upperEndpoint());
+        Range<Double> minusRange = rangeSet.rangeContaining(toleranceRange.lowerEndpoint());
+        Double toBeLowerBound =
+            minusRange == null ? toleranceRange.lowerEndpoint() : minusRange.upperEndpoint();
+        Double toBeUpperBound =
+            plusRange == null ? toleranceRange.upperEndpoint() : plusRange.lowerEndpoint();
+        if (toBeLowerBound < toBeUpperBound) {
+          Range<Double> newRange = Range.open(toBeLowerBound, toBeUpperBound);
+          List<Integer> newChrom = new ArrayList<>();
+          newChrom.add(point);
+          rangeToChromMap.put(newRange, newChrom);
+          rangeSet.add(newRange);
+        } else if (toBeLowerBound.equals(toBeUpperBound) && plusRange != null) {
+          rangeToChromMap.get(plusRange).add(point);
+        } else {
+          Assert.fail("Incorrect range for m/z " + mz);
+        }
+      } else {
+        rangeToChromMap.get(containsPointRange).add(point);
+      }
+    }
+
+    List<List<Integer>> chromatograms = new ArrayList<>();
+    for (Range<Double> range : rangeSet.asRanges())
+      chromatograms.add(rangeToChromMap.get(range));
+    return chromatograms;
+  }
+
+  /**
+   * The builder loop with MZRangeSet, as in ADAPChromatogramBuilderTask
+   */
+  private static List<List<Integer>> buildWithMZRangeSet(DataPointArrays points, int order[]) {
+    MZRangeSet rangeSet = new MZRangeSet();
+    List<List<Integer>> rangeChromatograms = new ArrayList<>();
+
+    for (int point : order) {
+      double mz = points.getMZ(point);
+      int containsPointRange = rangeSet.getContaining(mz);
+      Range<Double> toleranceRange = MZ_TOLERANCE.getToleranceRange(mz);
+      if (containsPointRange < 0) {
+        if (points.getIntensity(point) < MIN_START_INTENSITY)
+          continue;
+        int plusRange = rangeSet.getContaining(toleranceRange.upperEndpoint());
+        int minusRange = rangeSet.getContaining(toleranceRange.lowerEndpoint());
+        double toBeLowerBound =
+            minusRange < 0 ? toleranceRange.lowerEndpoint() : rangeSet.getUpper(minusRange);
+        double toBeUpperBound =
+            plusRange < 0 ? toleranceRange.upperEndpoint() : rangeSet.getLower(plusRange);
+        if (toBeLowerBound < toBeUpperBound) {
+          List<Integer> newChrom = new ArrayList<>();
+          newChrom.add(point);
+          rangeSet.add(toBeLowerBound, toBeUpperBound);
+          rangeChromatograms.add(newChrom);
+        } else if (toBeLowerBound == toBeUpperBound && plusRange >= 0) {
+          rangeChromatograms.get(plusRange).add(point);
+        } else {
+          Assert.fail("Incorrect range for m/z " + mz);
+        }
+      } else {
+        rangeChromatograms.get(containsPointRange).add(point);
+      }
+    }
+
+    List<List<Integer>> chromatograms = new ArrayList<>();
+    for (int id : rangeSet.getIds())
+      chromatograms.add(rangeChromatograms.get(id));
+    return chromatograms;
+  }
+
+}
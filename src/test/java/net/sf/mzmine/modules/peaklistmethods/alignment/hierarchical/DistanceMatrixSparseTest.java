@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.gnf.clustering.DistanceMatrix;
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+import org.gnf.clustering.sequentialcache.SequentialCacheClustering;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Compares the sparse distance matrix of RowVsRowDistanceProvider with a full matrix of
+ * getRankedDistance() for the rows of a few small peak lists.
+ */
+public class DistanceMatrixSparseTest {
+
+  private static final int NUM_LISTS = 3;
+  private static final int NUM_SCANS = 20;
+
+  // Compounds with close m/z and RT, so that rows of different compounds and rows of the same
+  // peak list are also inside the tolerances
+  private static final double COMPOUND_MZ[] = {150.0, 150.6, 300.2, 301.0, 450.5, 600.3, 600.4};
+  private static final double COMPOUND_RT[] = {0.5, 0.6, 0.8, 0.9, 1.2, 1.5, 1.55};
+
+  private static final double MZ_MAX_DIFF = 2.0;
+  private static final double RT_MAX_DIFF = 0.4;
+  private static final double MIN_SCORE = 1.5;
+
+  private final List<RawDataFileImpl> dataFiles = new ArrayList<>();
+  private final List<PeakListRow> rows = new ArrayList<>();
+  private RowVsRowDistanceProvider distanceProvider;
+
+  @Before
+  public void createPeakLists() throws IOException {
+    final Random random = new Random(41);
+    for (int l = 0; l < NUM_LISTS; l++) {
+      RawDataFileImpl dataFile = new RawDataFileImpl("list " + l);
+      dataFiles.add(dataFile);
+
+      // Each compound gives the same fragments in all files, with random intensities
+      for (int i = 0; i < NUM_SCANS; i++) {
+        DataPoint dataPoints[] = new DataPoint[COMPOUND_MZ.length];
+        for (int c = 0; c < COMPOUND_MZ.length; c++)
+          dataPoints[c] = new SimpleDataPoint(COMPOUND_MZ[c] - 50 * (c % 3),
+              1000 * random.nextDouble());
+        Arrays.sort(dataPoints, (a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+        dataFile.addScan(new SimpleScan(dataFile, i + 1, 1, 0.1 * i, 0, 0, new int[0], dataPoints,
+            MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(50.0, 700.0)));
+      }
+      dataFile.finishWriting();
+
+      // Each peak list misses a different compound
+      for (int c = 0; c < COMPOUND_MZ.length; c++) {
+        if (c == l)
+          continue;
+        double mz = COMPOUND_MZ[c] + 0.1 * random.nextGaussian();
+        double rt = COMPOUND_RT[c] + 0.02 * random.nextGaussian();
+        rows.add(createRow(rows.size(), dataFile, mz, rt));
+      }
+    }
+    distanceProvider = new RowVsRowDistanceProvider(null, rows, 1.0, 1.0, 2.0);
+  }
+
+  @After
+  public void closeDataFiles() {
+    for (RawDataFileImpl dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  @Test
+  public void testSparseMatchesFull() {
+    DistanceMatrixSparse sparse =
+        distanceProvider.getRankedDistanceMatrix(MZ_MAX_DIFF, RT_MAX_DIFF, MIN_SCORE, () -> {
+        });
+    DistanceMatrix full = createFullMatrix();
+
+    // Make sure that the comparison covers all kinds of distances
+    boolean sameList = false, notCandidate = false, lowScore = false, scored = false;
+    for (int i = 0; i < rows.size(); i++) {
+      for (int j = 0; j < rows.size(); j++) {
+        float expected = full.getValue(i, j);
+        Assert.assertEquals(i + ", " + j, expected, sparse.getValue(i, j), 0.0f);
+        if (i == j)
+          continue;
+        sameList |= expected == (float) RowVsRowDistanceProvider.SAME_LIST_DISTANCE;
+        notCandidate |= expected == (float) RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE;
+        lowScore |= expected == 10.0f;
+        scored |= expected < 10.0f;
+      }
+    }
+    Assert.assertTrue(sameList && notCandidate && lowScore && scored);
+  }
+
+  /**
+   * The clustering changes the matrix, so the sparse matrix must keep the distances of merged
+   * clusters in the same way as the full matrix.
+   */
+  @Test
+  public void testSameClusters() {
+    DistanceMatrixSparse sparse =
+        distanceProvider.getRankedDistanceMatrix(MZ_MAX_DIFF, RT_MAX_DIFF, MIN_SCORE, () -> {
+        });
+    DistanceMatrix full = createFullMatrix();
+
+    for (LinkageMode linkage : new LinkageMode[] {LinkageMode.AVG, LinkageMode.MIN,
+        LinkageMode.MAX}) {
+      Node expected[] = SequentialCacheClustering.clusterDM(new DistanceMatrixTriangular1D2D(full),
+          linkage, null, rows.size());
+      Node actual[] = SequentialCacheClustering.clusterDM(new DistanceMatrixSparse(sparse),
+          linkage, null, rows.size());
+      Assert.assertEquals(expected.length, actual.length);
+      for (int i = 0; i < expected.length; i++) {
+        String message = linkage + ", node " + i;
+        Assert.assertEquals(message, expected[i].m_nLeft, actual[i].m_nLeft);
+        Assert.assertEquals(message, expected[i].m_nRight, actual[i].m_nRight);
+        Assert.assertEquals(message, expected[i].m_fDistance, actual[i].m_fDistance, 0.0);
+      }
+    }
+  }
+
+  private DistanceMatrix createFullMatrix() {
+    DistanceMatrix full = new DistanceMatrixTriangular1D2D(rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      for (int j = i; j < rows.size(); j++)
+        full.setValue(i, j, (float) distanceProvider.getRankedDistance(i, j, MZ_MAX_DIFF,
+            RT_MAX_DIFF, MIN_SCORE));
+    }
+    return full;
+  }
+
+  private static PeakListRow createRow(int id, RawDataFileImpl dataFile, double mz, double rt) {
+    int scanNumber = (int) Math.round(rt / 0.1) + 1;
+    DataPoint dataPoints[] = {new SimpleDataPoint(mz, 1000.0)};
+    SimpleFeature peak = new SimpleFeature(dataFile, mz, rt, 1000.0, 1000.0,
+        new int[] {scanNumber}, dataPoints, FeatureStatus.DETECTED, scanNumber, -1, new int[0],
+        Range.singleton(rt), Range.singleton(mz), Range.singleton(1000.0));
+    SimplePeakListRow row = new SimplePeakListRow(id);
+    row.addPeak(dataFile, peak);
+    return row;
+  }
+
+}
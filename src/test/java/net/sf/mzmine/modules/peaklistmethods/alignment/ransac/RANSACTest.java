@@ -0,0 +1,125 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.ransac;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Checks that RANSAC picks the same model in every run, whether the iterations run on one thread or
+ * on several.
+ */
+public class RANSACTest {
+
+  private static final int NUM_POINTS = 300;
+  private static final int NUM_OUTLIERS = 100;
+
+  @Test
+  public void testLinearSameModel() throws Exception {
+    checkSameModel(true);
+  }
+
+  @Test
+  public void testPolynomialSameModel() throws Exception {
+    checkSameModel(false);
+  }
+
+  @Test
+  public void testIterationSeedsDiffer() {
+    Set<Long> seeds = new HashSet<>();
+    for (int i = 0; i < 10000; i++)
+      seeds.add(RANSAC.getIterationSeed(i));
+    Assert.assertEquals(10000, seeds.size());
+  }
+
+  private static void checkSameModel(boolean linear) throws Exception {
+    boolean serial[] = align(linear, 1);
+    boolean parallel[] = align(linear, 4);
+    boolean again[] = align(linear, 4);
+    Assert.assertArrayEquals(serial, parallel);
+    Assert.assertArrayEquals(serial, again);
+
+    // The model follows the shifted points, not the outliers
+    int alignedInliers = 0, alignedOutliers = 0;
+    for (int i = 0; i < NUM_POINTS; i++) {
+      if (!serial[i])
+        continue;
+      if (i < NUM_POINTS - NUM_OUTLIERS)
+        alignedInliers++;
+      else
+        alignedOutliers++;
+    }
+    Assert.assertTrue(alignedInliers > 0.9 * (NUM_POINTS - NUM_OUTLIERS));
+    Assert.assertTrue(alignedOutliers < 0.2 * NUM_OUTLIERS);
+  }
+
+  /**
+   * Aligns the same points with the given number of threads
+   * 
+   * @return the aligned flags of the points, in the order they were created
+   */
+  private static boolean[] align(boolean linear, int threads)
+      throws InterruptedException, ExecutionException {
+
+    // Points shifted by a smooth RT deviation, and random outliers at the end
+    final Random random = new Random(40);
+    final List<AlignStructMol> points = new ArrayList<>();
+    for (int i = 0; i < NUM_POINTS; i++) {
+      AlignStructMol point = new AlignStructMol();
+      point.RT = 1 + 29 * random.nextDouble();
+      if (i < NUM_POINTS - NUM_OUTLIERS)
+        point.RT2 = point.RT + 0.3 + 0.01 * point.RT + 0.02 * random.nextGaussian();
+      else
+        point.RT2 = point.RT + 4 * (random.nextDouble() - 0.5);
+      points.add(point);
+    }
+    final List<AlignStructMol> data = new ArrayList<>(points);
+
+    ParameterSet parameters = new RansacAlignerParameters().cloneParameterSet();
+    parameters.getParameter(RansacAlignerParameters.Iterations).setValue(200);
+    parameters.getParameter(RansacAlignerParameters.NMinPoints).setValue(0.2);
+    parameters.getParameter(RansacAlignerParameters.Margin).setValue(0.1);
+    parameters.getParameter(RansacAlignerParameters.Linear).setValue(linear);
+    final RANSAC ransac = new RANSAC(parameters);
+
+    // A parallel stream started inside a pool runs in that pool
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.submit(() -> ransac.alignment(data)).get();
+    } finally {
+      pool.shutdown();
+    }
+
+    boolean aligned[] = new boolean[NUM_POINTS];
+    for (int i = 0; i < NUM_POINTS; i++)
+      aligned[i] = points.get(i).Aligned;
+    return aligned;
+  }
+
+}
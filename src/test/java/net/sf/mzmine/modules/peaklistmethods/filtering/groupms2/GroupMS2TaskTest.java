@@ -0,0 +1,205 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.filtering.groupms2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Compares the MS2 scans found through the precursor index with the previous search, which walked
+ * the scan numbers out from the representative scan of each feature.
+ */
+public class GroupMS2TaskTest {
+
+  // Cycles of one MS1 and three MS/MS scans
+  private static final int NUM_CYCLES = 500;
+  private static final int CYCLE_SCANS = 4;
+  private static final double SCAN_TIME = 0.002;
+  private static final int NUM_COMPOUNDS = 40;
+
+  private final Random random = new Random(49);
+  private final double compoundMZ[] = new double[NUM_COMPOUNDS];
+  private final double compoundRT[] = new double[NUM_COMPOUNDS];
+  private RawDataFileImpl dataFile;
+
+  @Before
+  public void createDataFile() throws IOException {
+    final double maxRT = NUM_CYCLES * CYCLE_SCANS * SCAN_TIME;
+    for (int c = 0; c < NUM_COMPOUNDS; c++) {
+      compoundMZ[c] = 100 + 800 * random.nextDouble();
+      compoundRT[c] = maxRT * random.nextDouble();
+    }
+    // Compounds at both ends of the run
+    compoundRT[0] = 0.001;
+    compoundRT[1] = maxRT - 0.001;
+
+    dataFile = new RawDataFileImpl("groupms2");
+    DataPoint dataPoints[] = {new SimpleDataPoint(100.0, 1000.0)};
+    for (int i = 0; i < NUM_CYCLES * CYCLE_SCANS; i++) {
+      final double rt = i * SCAN_TIME;
+      int msLevel = i % CYCLE_SCANS == 0 ? 1 : 2;
+      double precursorMZ = 0;
+      if (msLevel > 1) {
+        // Mostly compounds eluting around this time, some MS3 scans
+        int c = random.nextInt(NUM_COMPOUNDS);
+        for (int k = 0; k < 20 && Math.abs(compoundRT[c] - rt) > 0.2; k++)
+          c = random.nextInt(NUM_COMPOUNDS);
+        precursorMZ = compoundMZ[c] + 0.002 * random.nextGaussian();
+        if (random.nextInt(10) == 0)
+          msLevel = 3;
+      }
+      dataFile.addScan(new SimpleScan(dataFile, i + 1, msLevel, rt, precursorMZ, 1, new int[0],
+          dataPoints, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+          Range.closed(50.0, 1000.0)));
+    }
+    dataFile.finishWriting();
+  }
+
+  @After
+  public void closeDataFile() {
+    dataFile.close();
+  }
+
+  @Test
+  public void testIndexMatchesScanWalk() {
+    final RTTolerance tolerances[] = {new RTTolerance(true, 0.1), new RTTolerance(false, 0.05)};
+    final MZTolerance mzTol = new MZTolerance(0.003, 10);
+    int found = 0, duplicates = 0;
+    for (int c = 0; c < NUM_COMPOUNDS; c++) {
+      Feature feature = createFeature(compoundMZ[c] + 0.001 * random.nextGaussian(),
+          compoundRT[c], 0.02 + 0.1 * random.nextDouble(), 0.02 + 0.1 * random.nextDouble());
+      for (RTTolerance rtTol : tolerances) {
+        for (boolean limitRTByFeature : new boolean[] {false, true}) {
+          int walk[] = walkScans(feature, rtTol, mzTol, limitRTByFeature);
+          int expected[] = Arrays.stream(walk).distinct().sorted().toArray();
+          int actual[] = GroupMS2Task.findMS2Scans(feature, rtTol, mzTol, limitRTByFeature);
+          Assert.assertArrayEquals("compound " + c + ", " + rtTol + ", " + limitRTByFeature,
+              expected, actual);
+          found += actual.length;
+          duplicates += walk.length - expected.length;
+        }
+      }
+    }
+
+    // Make sure that the comparison covers found scans and the scans the walk added twice
+    Assert.assertTrue(found > NUM_COMPOUNDS);
+    Assert.assertTrue(duplicates > 0);
+  }
+
+  /**
+   * Feature with its representative scan at the MS1 scan closest to the RT
+   */
+  private Feature createFeature(double mz, double rt, double rtBefore, double rtAfter) {
+    final IntArrayList scanNumbers = new IntArrayList();
+    int representativeScan = 1;
+    for (int scanNumber : dataFile.getScanNumbers(1)) {
+      double scanRT = dataFile.getScan(scanNumber).getRetentionTime();
+      if (scanRT >= rt - rtBefore && scanRT <= rt + rtAfter)
+        scanNumbers.add(scanNumber);
+      if (Math.abs(scanRT - rt) < Math.abs(
+          dataFile.getScan(representativeScan).getRetentionTime() - rt))
+        representativeScan = scanNumber;
+    }
+    if (!scanNumbers.contains(representativeScan))
+      scanNumbers.add(representativeScan);
+    final int scans[] = scanNumbers.toIntArray();
+    Arrays.sort(scans);
+    final DataPoint dataPoints[] = new DataPoint[scans.length];
+    Arrays.fill(dataPoints, new SimpleDataPoint(mz, 1000.0));
+    final Range<Double> rtRange = Range.closed(dataFile.getScan(scans[0]).getRetentionTime(),
+        dataFile.getScan(scans[scans.length - 1]).getRetentionTime());
+    return new SimpleFeature(dataFile, mz, rt, 1000.0, 1000.0, scans, dataPoints,
+        FeatureStatus.DETECTED, representativeScan, -1, new int[0], rtRange,
+        Range.singleton(mz), Range.singleton(1000.0));
+  }
+
+  /**
+   * The previous search of GroupMS2Task, which added the scans left of the representative scan
+   * twice
+   */
+  private static int[] walkScans(Feature f, RTTolerance rtTol, MZTolerance mzTol,
+      boolean limitRTByFeature) {
+    RawDataFile raw = f.getDataFile();
+    IntArrayList scans = new IntArrayList();
+    int best = f.getRepresentativeScanNumber();
+    double frt = f.getRT();
+    double fmz = f.getMZ();
+    Range<Double> rtRange = f.getRawDataPointsRTRange();
+    int i = best;
+    // left
+    while (i > 1) {
+      i--;
+      Scan scan = raw.getScan(i);
+      if (scan != null) {
+        if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
+            && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
+          if (scan.getPrecursorMZ() != 0
+              && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
+            scans.add(i);
+        } else {
+          // end of loop - out of tolerance
+          break;
+        }
+      }
+    }
+    int[] scanNumbers = raw.getScanNumbers();
+    // right
+    while (i < scanNumbers[scanNumbers.length - 1]) {
+      i++;
+      Scan scan = raw.getScan(i);
+      // scanID does not have to be contiguous
+      if (scan != null) {
+        if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
+            && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
+          if (scan.getPrecursorMZ() != 0
+              && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
+            scans.add(i);
+        } else {
+          // end of loop - out of tolerance
+          break;
+        }
+      }
+    }
+    return scans.toIntArray();
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.scans.sweep.ScanSweep;
+import net.sf.mzmine.util.scans.sweep.SweepSpectrum;
+
+/**
+ * Compares gap filling through a {@link ScanSweep} with the previous gap filling, which offered
+ * every scan of the file to every gap in scan number order and searched the base peak with
+ * {@link ScanUtils#findBasePeak(Scan, Range)}.
+ */
+public class GapTest {
+
+  private static final int NUM_SCANS = 300;
+  private static final int NUM_COMPOUNDS = 20;
+  private static final int NUM_GAPS = 2000;
+  private static final double INT_TOLERANCE = 0.2;
+
+  @Test
+  public void testSweepMatchesScanByScan() throws IOException {
+    final Random random = new Random(38);
+    final RawDataFileImpl dataFile = createDataFile(random);
+    try {
+      final int scanNumbers[] = dataFile.getScanNumbers(1);
+      final PeakListRow sweepRows[] = new PeakListRow[NUM_GAPS];
+      final PeakListRow referenceRows[] = new PeakListRow[NUM_GAPS];
+      final ScanSweep sweep = new ScanSweep(dataFile, 1);
+
+      for (int i = 0; i < NUM_GAPS; i++) {
+        final double mz = 100 + 400 * random.nextDouble();
+        final double rt = NUM_SCANS * 0.02 * random.nextDouble();
+        final Range<Double> mzRange = Range.closed(mz - 0.5, mz + 0.5);
+        final Range<Double> rtRange = Range.closed(rt, rt + 0.05 + 0.5 * random.nextDouble());
+
+        sweepRows[i] = new SimplePeakListRow(i);
+        sweep.addConsumer(new Gap(sweepRows[i], dataFile, mzRange, rtRange, INT_TOLERANCE));
+
+        // Previous gap filling: every scan offered, in scan number order
+        referenceRows[i] = new SimplePeakListRow(i);
+        final Gap reference = new Gap(referenceRows[i], dataFile, mzRange, rtRange, INT_TOLERANCE);
+        for (int scanNumber : scanNumbers) {
+          final Scan scan = dataFile.getScan(scanNumber);
+          final SweepSpectrum spectrum = new SweepSpectrum(scan);
+          checkBasePeak(scan, spectrum, mzRange);
+          reference.offerScan(spectrum);
+        }
+        reference.noMoreOffers();
+      }
+
+      Assert.assertTrue(sweep.run(() -> false, () -> {
+      }));
+
+      int filled = 0;
+      for (int i = 0; i < NUM_GAPS; i++) {
+        final Feature expected = referenceRows[i].getPeak(dataFile);
+        final Feature actual = sweepRows[i].getPeak(dataFile);
+        if (expected == null) {
+          Assert.assertNull("gap " + i, actual);
+          continue;
+        }
+        Assert.assertNotNull("gap " + i, actual);
+        Assert.assertArrayEquals("gap " + i, expected.getScanNumbers(), actual.getScanNumbers());
+        Assert.assertEquals("gap " + i, expected.getMZ(), actual.getMZ(), 0.0);
+        Assert.assertEquals("gap " + i, expected.getRT(), actual.getRT(), 0.0);
+        Assert.assertEquals("gap " + i, expected.getHeight(), actual.getHeight(), 0.0);
+        Assert.assertEquals("gap " + i, expected.getArea(), actual.getArea(), 0.0);
+        filled++;
+      }
+
+      // Make sure that the comparison covers filled gaps
+      Assert.assertTrue(filled > NUM_GAPS / 10);
+    } finally {
+      dataFile.close();
+    }
+  }
+
+  private static void checkBasePeak(Scan scan, SweepSpectrum spectrum, Range<Double> mzRange) {
+    final DataPoint expected = ScanUtils.findBasePeak(scan, mzRange);
+    final int actual = spectrum.findBasePeak(mzRange);
+    if (expected == null) {
+      Assert.assertEquals(-1, actual);
+      return;
+    }
+    Assert.assertEquals(expected.getMZ(), spectrum.getMZ(actual), 0.0);
+    Assert.assertEquals(expected.getIntensity(), spectrum.getIntensity(actual), 0.0);
+  }
+
+  /**
+   * MS1 scans every 0.02 min with random noise and Gaussian chromatographic peaks of a few
+   * compounds.
+   */
+  private static RawDataFileImpl createDataFile(Random random) throws IOException {
+    final double compoundMZ[] = new double[NUM_COMPOUNDS];
+    final double compoundRT[] = new double[NUM_COMPOUNDS];
+    final double compoundHeight[] = new double[NUM_COMPOUNDS];
+    for (int c = 0; c < NUM_COMPOUNDS; c++) {
+      compoundMZ[c] = 100 + 400 * random.nextDouble();
+      compoundRT[c] = NUM_SCANS * 0.02 * random.nextDouble();
+      compoundHeight[c] = 1e4 + 1e6 * random.nextDouble();
+    }
+
+    final RawDataFileImpl dataFile = new RawDataFileImpl("gaps");
+    for (int i = 0; i < NUM_SCANS; i++) {
+      final double rt = 0.02 * i;
+      final DataPoint dataPoints[] = new DataPoint[50 + NUM_COMPOUNDS];
+      for (int k = 0; k < 50; k++)
+        dataPoints[k] = new SimpleDataPoint(100 + 400 * random.nextDouble(),
+            1000 * random.nextDouble());
+      for (int c = 0; c < NUM_COMPOUNDS; c++) {
+        final double distance = (rt - compoundRT[c]) / 0.05;
+        dataPoints[50 + c] = new SimpleDataPoint(compoundMZ[c] + 0.001 * random.nextGaussian(),
+            compoundHeight[c] * Math.exp(-distance * distance / 2) + 10 * random.nextDouble());
+      }
+      Arrays.sort(dataPoints, (a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+      dataFile.addScan(new SimpleScan(dataFile, i + 1, 1, rt, 0, 0, new int[0], dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100.0, 500.0)));
+    }
+    dataFile.finishWriting();
+    return dataFile;
+  }
+
+}
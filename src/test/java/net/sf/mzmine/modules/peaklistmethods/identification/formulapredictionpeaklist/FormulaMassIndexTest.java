@@ -0,0 +1,205 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openscience.cdk.config.IsotopeFactory;
+import org.openscience.cdk.config.Isotopes;
+import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.elements.ElementalHeuristicChecker;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.elements.ElementalHeuristicParameters;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionParameters;
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Compares the formulas found in the index with the formulas of MolecularFormulaGenerator which
+ * pass the same restrictions, as FormulaPredictionPeakListTask does without an index.
+ */
+public class FormulaMassIndexTest {
+
+  private static final double MAX_MASS = 400;
+  private static final int NUM_WINDOWS = 25;
+
+  private final IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+
+  @Test
+  public void testCHNO() throws IOException {
+    compareWithGenerator(createRange(new String[] {"C", "H", "N", "O"},
+        new int[] {0, 0, 0, 0}, new int[] {30, 60, 6, 10}));
+  }
+
+  @Test
+  public void testCHNOPS() throws IOException {
+    compareWithGenerator(createRange(new String[] {"C", "H", "N", "O", "P", "S"},
+        new int[] {0, 0, 0, 0, 0, 0}, new int[] {20, 40, 4, 8, 2, 2}));
+  }
+
+  @Test
+  public void testMinimumCounts() throws IOException {
+    compareWithGenerator(createRange(new String[] {"C", "H", "O", "N"},
+        new int[] {5, 4, 1, 0}, new int[] {25, 50, 8, 3}));
+  }
+
+  /**
+   * Cl has no valence in RDBERestrictionChecker, which disables the RDBE check, and Na is not one
+   * of the elements of the heuristics
+   */
+  @Test
+  public void testOtherElements() throws IOException {
+    compareWithGenerator(createRange(new String[] {"C", "H", "O", "Cl", "Na"},
+        new int[] {0, 0, 0, 0, 0}, new int[] {25, 50, 8, 3, 1}));
+  }
+
+  private void compareWithGenerator(MolecularFormulaRange elementCounts) {
+    final Random random = new Random(46);
+    for (ParameterSet ratiosParameters : createRatiosParameters()) {
+      for (ParameterSet rdbeParameters : createRDBEParameters()) {
+
+        FormulaMassIndex index = FormulaMassIndex.enumerateFormulas(elementCounts, MAX_MASS,
+            ratiosParameters, rdbeParameters, () -> false);
+        Assert.assertNotNull(index);
+        for (int i = 1; i < index.size(); i++)
+          Assert.assertTrue(index.getMass(i - 1) <= index.getMass(i));
+
+        int candidates = 0;
+        for (int w = 0; w < NUM_WINDOWS; w++) {
+          // Windows of a few mDa, up to the maximum mass of the index
+          double center = 50 + (MAX_MASS - 51) * random.nextDouble();
+          double halfWidth = 0.001 + 0.01 * random.nextDouble();
+          Range<Double> window = Range.closed(center - halfWidth, center + halfWidth);
+
+          Set<String> expected =
+              generateFormulas(elementCounts, window, ratiosParameters, rdbeParameters);
+          Set<String> actual = new HashSet<>();
+          for (int i = index.findFirst(window.lowerEndpoint()); i < index.size()
+              && index.getMass(i) <= window.upperEndpoint(); i++) {
+            actual.add(toKey(index.getFormula(i, builder)));
+          }
+          Assert.assertEquals("window " + window + ", ratios " + describe(ratiosParameters)
+              + ", RDBE " + describe(rdbeParameters), expected, actual);
+          candidates += expected.size();
+        }
+        // The windows must not all be empty for the comparison to mean anything
+        Assert.assertTrue(candidates > 0);
+      }
+    }
+  }
+
+  /**
+   * @return the formulas of the generator which pass the restrictions, same as
+   *         FormulaPredictionPeakListTask.checkConstraints
+   */
+  private Set<String> generateFormulas(MolecularFormulaRange elementCounts, Range<Double> window,
+      ParameterSet ratiosParameters, ParameterSet rdbeParameters) {
+    MolecularFormulaGenerator generator = new MolecularFormulaGenerator(builder,
+        window.lowerEndpoint(), window.upperEndpoint(), elementCounts);
+    Set<String> formulas = new HashSet<>();
+    IMolecularFormula cdkFormula;
+    while ((cdkFormula = generator.getNextFormula()) != null) {
+      if (ratiosParameters != null
+          && !ElementalHeuristicChecker.checkFormula(cdkFormula, ratiosParameters))
+        continue;
+      Double rdbeValue = RDBERestrictionChecker.calculateRDBE(cdkFormula);
+      if (rdbeParameters != null && rdbeValue != null
+          && !RDBERestrictionChecker.checkRDBE(rdbeValue, rdbeParameters))
+        continue;
+      formulas.add(toKey(cdkFormula));
+    }
+    return formulas;
+  }
+
+  /**
+   * @return the element counts of the formula, without the elements with zero count
+   */
+  private static String toKey(IMolecularFormula formula) {
+    Map<String, Integer> counts = new TreeMap<>();
+    for (IIsotope isotope : formula.isotopes()) {
+      int count = formula.getIsotopeCount(isotope);
+      if (count > 0)
+        counts.merge(isotope.getSymbol(), count, Integer::sum);
+    }
+    return counts.toString();
+  }
+
+  private static MolecularFormulaRange createRange(String symbols[], int min[], int max[])
+      throws IOException {
+    IsotopeFactory isotopeFactory = Isotopes.getInstance();
+    MolecularFormulaRange range = new MolecularFormulaRange();
+    for (int i = 0; i < symbols.length; i++)
+      range.addIsotope(isotopeFactory.getMajorIsotope(symbols[i]), min[i], max[i]);
+    return range;
+  }
+
+  /**
+   * @return no heuristics, each rule alone and all rules
+   */
+  private static ParameterSet[] createRatiosParameters() {
+    boolean settings[][] = {{true, false, false}, {false, true, false}, {false, false, true},
+        {true, true, true}};
+    ParameterSet parameterSets[] = new ParameterSet[settings.length + 1];
+    for (int i = 0; i < settings.length; i++) {
+      ParameterSet parameters = new ElementalHeuristicParameters().cloneParameterSet();
+      parameters.getParameter(ElementalHeuristicParameters.checkHC).setValue(settings[i][0]);
+      parameters.getParameter(ElementalHeuristicParameters.checkNOPS).setValue(settings[i][1]);
+      parameters.getParameter(ElementalHeuristicParameters.checkMultiple)
+          .setValue(settings[i][2]);
+      parameterSets[i + 1] = parameters;
+    }
+    return parameterSets;
+  }
+
+  /**
+   * @return no RDBE restriction, the default one and a narrow range allowing fractional values
+   */
+  private static ParameterSet[] createRDBEParameters() {
+    ParameterSet defaults = new RDBERestrictionParameters().cloneParameterSet();
+    ParameterSet narrow = new RDBERestrictionParameters().cloneParameterSet();
+    narrow.getParameter(RDBERestrictionParameters.rdbeRange).setValue(Range.closed(0.5, 6.0));
+    narrow.getParameter(RDBERestrictionParameters.rdbeWholeNum).setValue(false);
+    return new ParameterSet[] {null, defaults, narrow};
+  }
+
+  private static String describe(ParameterSet parameters) {
+    if (parameters == null)
+      return "off";
+    StringBuilder description = new StringBuilder();
+    for (Parameter<?> parameter : parameters.getParameters())
+      description.append(parameter.getName()).append('=').append(parameter.getValue()).append(' ');
+    return description.toString().trim();
+  }
+
+}
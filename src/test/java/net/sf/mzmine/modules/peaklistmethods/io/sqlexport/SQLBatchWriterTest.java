@@ -0,0 +1,128 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes records with SQLBatchWriter to a temporary SQLite database and reads them back.
+ */
+public class SQLBatchWriterTest {
+
+  private static final String SQL = "INSERT INTO peaks (id, mz, status, pattern) VALUES (?,?,?,?)";
+
+  private static final int NULL_TYPES[] = {Types.INTEGER, Types.DOUBLE, Types.VARCHAR, Types.BLOB};
+
+  private File dbFile;
+  private Connection connection;
+
+  @Before
+  public void createDatabase() throws IOException, SQLException {
+    dbFile = File.createTempFile("mzmine_sqlexport", ".db");
+    connection = connect();
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE peaks (id INTEGER, mz DOUBLE, status TEXT, pattern BLOB)");
+    }
+  }
+
+  @After
+  public void deleteDatabase() throws SQLException {
+    connection.close();
+    dbFile.delete();
+  }
+
+  @Test
+  public void testPartialBatches() throws SQLException {
+    // Neither the number of records nor the commit interval is a multiple of the batch size
+    Object records[][] = createRecords(1003);
+    try (SQLBatchWriter writer = new SQLBatchWriter(connection, SQL, NULL_TYPES, 7, 100)) {
+      for (Object record[] : records)
+        writer.write(record);
+      writer.flush();
+    }
+    checkRecords(records);
+  }
+
+  @Test
+  public void testCommitInterval() throws SQLException {
+    // Commits every 50 records, so another connection sees them before the flush
+    Object records[][] = createRecords(120);
+    try (SQLBatchWriter writer = new SQLBatchWriter(connection, SQL, NULL_TYPES, 10, 50)) {
+      for (Object record[] : records)
+        writer.write(record);
+      Assert.assertEquals(100, countCommitted());
+      writer.flush();
+    }
+    Assert.assertEquals(records.length, countCommitted());
+  }
+
+  private Connection connect() throws SQLException {
+    return DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+  }
+
+  private static Object[][] createRecords(int numRecords) {
+    final Random random = new Random(1);
+    final Object records[][] = new Object[numRecords][];
+    for (int i = 0; i < numRecords; i++) {
+      byte pattern[] = new byte[8];
+      random.nextBytes(pattern);
+      records[i] = new Object[] {i, i % 5 == 0 ? null : 100 + 900 * random.nextDouble(),
+          i % 7 == 0 ? null : "DETECTED", i % 3 == 0 ? null : pattern};
+    }
+    return records;
+  }
+
+  private void checkRecords(Object records[][]) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet result =
+            statement.executeQuery("SELECT id, mz, status, pattern FROM peaks ORDER BY id")) {
+      for (Object record[] : records) {
+        Assert.assertTrue(result.next());
+        Assert.assertEquals(record[0], result.getInt(1));
+        Assert.assertEquals(record[1], result.getObject(2) == null ? null : result.getDouble(2));
+        Assert.assertEquals(record[2], result.getString(3));
+        Assert.assertArrayEquals((byte[]) record[3], result.getBytes(4));
+      }
+      Assert.assertFalse(result.next());
+    }
+  }
+
+  private int countCommitted() throws SQLException {
+    try (Connection reader = connect();
+        Statement statement = reader.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM peaks")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+}
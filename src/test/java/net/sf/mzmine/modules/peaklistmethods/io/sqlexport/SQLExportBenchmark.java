@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * Compares the throughput of SQLBatchWriter with one executeUpdate() per table row, as the SQL
+ * export did before, on a temporary SQLite database.
+ *
+ * Usage: SQLExportBenchmark [table rows] [batch size] [rows per commit]
+ */
+public class SQLExportBenchmark {
+
+  private static final String COLUMNS = "id, mz, rt, height, area, status, rawfile";
+
+  private static final int NULL_TYPES[] = {Types.INTEGER, Types.DOUBLE, Types.DOUBLE,
+      Types.DOUBLE, Types.DOUBLE, Types.VARCHAR, Types.VARCHAR};
+
+  public static void main(String[] args) throws Exception {
+
+    final int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    final int commitInterval = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+
+    final Object records[][] = createRecords(numRecords);
+    final String sql = "INSERT INTO peaks (" + COLUMNS + ") VALUES (?,?,?,?,?,?,?)";
+
+    // Warm up both code paths
+    runRowByRow(records, sql);
+    runBatched(records, sql, batchSize, commitInterval);
+
+    long rowByRow = runRowByRow(records, sql);
+    long batched = runBatched(records, sql, batchSize, commitInterval);
+
+    System.out.printf("%d table rows, batch size %d, %d rows per commit%n", numRecords, batchSize,
+        commitInterval);
+    System.out.printf("row by row: %8d ms, %10.0f rows/s%n", rowByRow,
+        numRecords * 1000.0 / Math.max(1, rowByRow));
+    System.out.printf("batched:    %8d ms, %10.0f rows/s%n", batched,
+        numRecords * 1000.0 / Math.max(1, batched));
+  }
+
+  private static Object[][] createRecords(int numRecords) {
+    final Random random = new Random(1);
+    final Object records[][] = new Object[numRecords][];
+    for (int i = 0; i < numRecords; i++) {
+      records[i] = new Object[] {i / 300, 100 + 900 * random.nextDouble(),
+          30 * random.nextDouble(), 1e6 * random.nextDouble(), 1e7 * random.nextDouble(),
+          "DETECTED", "sample" + (i % 300) + ".mzML"};
+    }
+    return records;
+  }
+
+  /**
+   * Inserts the records like the SQL export did before batching: one prepared statement and one
+   * executeUpdate() per table row, committed at the end.
+   */
+  private static long runRowByRow(Object records[][], String sql) throws Exception {
+    final File dbFile = File.createTempFile("mzmine_sqlexport", ".db");
+    try (Connection connection = createDatabase(dbFile)) {
+      final long start = System.currentTimeMillis();
+      connection.setAutoCommit(false);
+      for (Object record[] : records) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+          for (int i = 0; i < record.length; i++)
+            statement.setObject(i + 1, record[i]);
+          statement.executeUpdate();
+        }
+      }
+      connection.commit();
+      final long time = System.currentTimeMillis() - start;
+      checkCount(connection, records.length);
+      return time;
+    } finally {
+      dbFile.delete();
+    }
+  }
+
+  private static long runBatched(Object records[][], String sql, int batchSize,
+      int commitInterval) throws Exception {
+    final File dbFile = File.createTempFile("mzmine_sqlexport", ".db");
+    try (Connection connection = createDatabase(dbFile)) {
+      final long start = System.currentTimeMillis();
+      try (SQLBatchWriter writer =
+          new SQLBatchWriter(connection, sql, NULL_TYPES, batchSize, commitInterval)) {
+        for (Object record[] : records)
+          writer.write(record);
+        writer.flush();
+      }
+      final long time = System.currentTimeMillis() - start;
+      checkCount(connection, records.length);
+      return time;
+    } finally {
+      dbFile.delete();
+    }
+  }
+
+  private static Connection createDatabase(File dbFile) throws SQLException {
+    final Connection connection =
+        DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE peaks (id INTEGER, mz DOUBLE, rt DOUBLE, height DOUBLE, "
+          + "area DOUBLE, status TEXT, rawfile TEXT)");
+    }
+    return connection;
+  }
+
+  private static void checkCount(Connection connection, int expected) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM peaks")) {
+      result.next();
+      if (result.getInt(1) != expected)
+        throw new IllegalStateException(
+            "Expected " + expected + " table rows, found " + result.getInt(1));
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwavejava;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the Java port of centWave with the peaks detected by xcms findPeaks.centWave. The xcms
+ * peaks are stored in src/test/resources/centwave and generated by references.R in that
+ * directory; a missing xcms reference fails the comparison.
+ */
+public class CentWaveTest {
+
+  private static final String RESOURCES = "/centwave/";
+
+  // Parameters used by references.R.
+  private static final double MIN_PEAK_WIDTH = 0.1;
+  private static final double MAX_PEAK_WIDTH = 0.5;
+  private static final double SN_THRESHOLD = 10.0;
+
+  // Apexes of the Gaussian peaks of chromatogram.txt, in minutes.
+  private static final double APEXES[] = {1.5, 2.6, 4.4, 5.0, 7.3, 8.6};
+
+  @Test
+  public void testSmoothedMatchesXcms() throws IOException {
+    compare(true, "peaks_smoothed.txt");
+  }
+
+  @Test
+  public void testRawMatchesXcms() throws IOException {
+    compare(false, "peaks_raw.txt");
+  }
+
+  @Test
+  public void testFindsSyntheticPeaks() throws IOException {
+    double chromatogram[][] = loadChromatogram();
+    double rt[] = chromatogram[0], intensities[] = chromatogram[1];
+    for (boolean integrateSmoothed : new boolean[] {true, false}) {
+      List<int[]> peaks = new CentWave().findPeaks(rt, intensities, MIN_PEAK_WIDTH,
+          MAX_PEAK_WIDTH, SN_THRESHOLD, integrateSmoothed);
+      Assert.assertEquals(APEXES.length, peaks.size());
+      peaks.sort(Comparator.comparingInt(peak -> peak[0]));
+      for (int i = 0; i < APEXES.length; i++) {
+        int peak[] = peaks.get(i);
+        Assert.assertTrue("peak " + i, rt[peak[0]] < APEXES[i] && APEXES[i] < rt[peak[1]]);
+        // As in xcms, one zero intensity is kept at each end of a peak
+        for (int scan = peak[0] + 1; scan < peak[1]; scan++)
+          Assert.assertTrue("peak " + i + " spans a gap", intensities[scan] > 0.0);
+      }
+    }
+  }
+
+  /**
+   * Compares the scan ranges of the Java peaks with the xcms peaks. The xcms retention times are
+   * mapped to the nearest scan.
+   */
+  private static void compare(boolean integrateSmoothed, String reference) throws IOException {
+    List<double[]> expected = loadRows(reference);
+    Assert.assertNotNull("No xcms peaks " + reference + ", run references.R", expected);
+
+    double chromatogram[][] = loadChromatogram();
+    double rt[] = chromatogram[0];
+    List<int[]> peaks = new CentWave().findPeaks(rt, chromatogram[1], MIN_PEAK_WIDTH,
+        MAX_PEAK_WIDTH, SN_THRESHOLD, integrateSmoothed);
+    peaks.sort(Comparator.comparingInt(peak -> peak[0]));
+
+    List<int[]> xcmsPeaks = new ArrayList<>();
+    for (double row[] : expected)
+      xcmsPeaks.add(new int[] {nearestScan(rt, row[0] / 60.0), nearestScan(rt, row[1] / 60.0)});
+    xcmsPeaks.sort(Comparator.comparingInt(peak -> peak[0]));
+
+    Assert.assertEquals(reference, xcmsPeaks.size(), peaks.size());
+    for (int i = 0; i < peaks.size(); i++)
+      Assert.assertArrayEquals(reference + " peak " + i, xcmsPeaks.get(i), peaks.get(i));
+  }
+
+  private static int nearestScan(double rt[], double time) {
+    int nearest = 0;
+    for (int i = 1; i < rt.length; i++)
+      if (Math.abs(rt[i] - time) < Math.abs(rt[nearest] - time))
+        nearest = i;
+    return nearest;
+  }
+
+  private static double[][] loadChromatogram() throws IOException {
+    List<double[]> rows = loadRows("chromatogram.txt");
+    double chromatogram[][] = new double[2][rows.size()];
+    for (int i = 0; i < rows.size(); i++) {
+      chromatogram[0][i] = rows.get(i)[0];
+      chromatogram[1][i] = rows.get(i)[1];
+    }
+    return chromatogram;
+  }
+
+  private static List<double[]> loadRows(String name) throws IOException {
+    InputStream stream = CentWaveTest.class.getResourceAsStream(RESOURCES + name);
+    if (stream == null)
+      return null;
+    List<double[]> rows = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty())
+          continue;
+        String fields[] = line.split("\\s+");
+        double row[] = new double[fields.length];
+        for (int i = 0; i < fields.length; i++)
+          row[i] = Double.parseDouble(fields[i]);
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+
+}
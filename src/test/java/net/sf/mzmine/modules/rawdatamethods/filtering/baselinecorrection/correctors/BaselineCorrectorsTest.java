@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Compares the Java implementations of the baseline correctors with the baselines computed by the
+ * R packages. The R baselines are stored in src/test/resources/baselinecorrection and generated
+ * by references.R in that directory; a missing R baseline fails the test.
+ * BaselineCorrector.USE_JAVA_IMPLEMENTATIONS must stay off until all comparisons pass.
+ */
+public class BaselineCorrectorsTest {
+
+  private static final String RESOURCES = "/baselinecorrection/";
+
+  @Test
+  public void testAsymmetry() throws IOException {
+    ParameterSet parameters = new AsymmetryCorrectorParameters();
+    parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).setValue(1e5);
+    parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).setValue(0.001);
+    compare(new AsymmetryCorrector(), parameters, "asymmetry", 1e-6);
+  }
+
+  @Test
+  public void testRollingBall() throws IOException {
+    ParameterSet parameters = new RollingBallCorrectorParameters();
+    parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).setValue(20);
+    parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).setValue(10);
+    compare(new RollingBallCorrector(), parameters, "rollingball", 1e-9);
+  }
+
+  @Test
+  public void testRubberBand() throws IOException {
+    compare(new RubberBandCorrector(), getRubberBandParameters(0.0, false), "rubberband", 1e-9);
+  }
+
+  @Test
+  public void testRubberBandSpline() throws IOException {
+    // smooth.spline() stops its search for the smoothing parameter at a tolerance of 1e-4
+    compare(new RubberBandCorrector(), getRubberBandParameters(10.0, true), "rubberband_spline",
+        1e-3);
+  }
+
+  @Test
+  public void testRubberBandSplineGCV() throws IOException {
+    compare(new RubberBandCorrector(), getRubberBandParameters(0.0, true), "rubberband_gcv",
+        1e-3);
+  }
+
+  @Test
+  public void testLocMinLoess() throws IOException {
+    // R's loess() interpolates the local fits between the vertices of a k-d tree, while the
+    // Java implementation evaluates them at each scan
+    compare(new LocMinLoessCorrector(), getLocMinLoessParameters("loess"), "locminloess", 2e-2);
+  }
+
+  @Test
+  public void testLocMinApprox() throws IOException {
+    compare(new LocMinLoessCorrector(), getLocMinLoessParameters("approx"), "locminloess_approx",
+        1e-9);
+  }
+
+  @Test
+  public void testSmoothingSplineKeepsLines() {
+    // The roughness penalty of a line is 0, so it is kept for any smoothing parameter. More than
+    // 50 points, so that a subset of the points is used as knots.
+    double x[] = new double[150], y[] = new double[150];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = 20 + 2 * i + (i % 3 == 0 ? 1 : 0);
+      y[i] = 1000 - 3.5 * x[i];
+    }
+    for (double df : new double[] {0.0, 2.0, 10.0, 150.0}) {
+      double baseline[] = BaselineMath.smoothingSpline(x, y, df, 350);
+      for (int i = 0; i < baseline.length; i++)
+        Assert.assertEquals(1000 - 3.5 * i, baseline[i], 1e-3);
+    }
+  }
+
+  private static ParameterSet getRubberBandParameters(double df, boolean spline) {
+    ParameterSet parameters = new RubberBandCorrectorParameters();
+    parameters.getParameter(RubberBandCorrectorParameters.NOISE).setValue(0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).setValue(false);
+    parameters.getParameter(RubberBandCorrectorParameters.DF).setValue(df);
+    parameters.getParameter(RubberBandCorrectorParameters.SPLINE).setValue(spline);
+    parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).setValue(0.0);
+    return parameters;
+  }
+
+  private static ParameterSet getLocMinLoessParameters(String method) {
+    ParameterSet parameters = new LocMinLoessCorrectorParameters();
+    parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).setValue(method);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BW).setValue(0.1);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).setValue(50);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).setValue(-1);
+    parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).setValue(0.0);
+    return parameters;
+  }
+
+  /**
+   * Compares the Java baseline with the R baseline, relative to the maximum intensity of the
+   * chromatogram
+   */
+  private static void compare(BaselineCorrector corrector, ParameterSet parameters,
+      String reference, double tolerance) throws IOException {
+    double expected[] = loadValues(reference + ".txt");
+    Assert.assertNotNull("No R baseline " + reference + ".txt, run references.R", expected);
+
+    double chromatogram[] = loadValues("chromatogram.txt");
+    double maxIntensity = 0;
+    for (double intensity : chromatogram)
+      maxIntensity = Math.max(maxIntensity, intensity);
+
+    double baseline[] = corrector.computeBaseline(chromatogram.clone(), parameters);
+    Assert.assertEquals(expected.length, baseline.length);
+    for (int i = 0; i < baseline.length; i++)
+      Assert.assertEquals(reference + " at scan " + i, expected[i], baseline[i],
+          tolerance * maxIntensity);
+  }
+
+  private static double[] loadValues(String name) throws IOException {
+    InputStream stream = BaselineCorrectorsTest.class.getResourceAsStream(RESOURCES + name);
+    if (stream == null)
+      return null;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      return reader.lines().map(String::trim).filter(line -> !line.isEmpty())
+          .mapToDouble(Double::parseDouble).toArray();
+    }
+  }
+
+}
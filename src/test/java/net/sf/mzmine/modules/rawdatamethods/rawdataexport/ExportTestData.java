@@ -0,0 +1,144 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Data file with MS1 and MS2 scans shared by the export round-trip tests.
+ */
+final class ExportTestData {
+
+  static final String FILE_NAME = "1 sample & blank.raw";
+
+  private static final int NUM_SCANS = 40;
+
+  // mzXML stores the retention time as xs:duration, which is read back in milliseconds
+  private static final double RT_TOLERANCE = 0.001 / 60d;
+
+  private ExportTestData() {}
+
+  /**
+   * Every odd scan is an MS1 scan, every even scan an MS2 scan of the preceding MS1 scan. All
+   * values are exact in 32-bit floats, the precision of the exported data points.
+   */
+  static RawDataFileImpl createDataFile() throws IOException {
+    RawDataFileImpl dataFile = new RawDataFileImpl(FILE_NAME);
+    for (int i = 1; i <= NUM_SCANS; i++) {
+      int msLevel = (i % 2 == 1) ? 1 : 2;
+      double precursorMZ = (msLevel == 2) ? 200.5 + i : 0;
+      int precursorCharge = (msLevel == 2) ? 1 + i % 3 : 0;
+      PolarityType polarity = (i % 4 < 2) ? PolarityType.POSITIVE : PolarityType.NEGATIVE;
+      DataPoint dataPoints[] = new DataPoint[5 + i % 7];
+      for (int j = 0; j < dataPoints.length; j++)
+        dataPoints[j] = new SimpleDataPoint(100.0 + 25.25 * j + i, 1000.0 * (j + 1) + 0.5 * i);
+      dataFile.addScan(new SimpleScan(dataFile, i, msLevel, 0.05 * i, precursorMZ,
+          precursorCharge, new int[0], dataPoints, MassSpectrumType.CENTROIDED, polarity,
+          "FTMS ms" + msLevel + " scan " + i, Range.closed(50.0, 1000.0)));
+    }
+    dataFile.finishWriting();
+    return dataFile;
+  }
+
+  /**
+   * Compares the imported scans to the exported ones.
+   */
+  static void assertSameScans(RawDataFile expected, RawDataFile actual) {
+    Assert.assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+    for (int scanNumber : expected.getScanNumbers()) {
+      Scan expectedScan = expected.getScan(scanNumber);
+      Scan actualScan = actual.getScan(scanNumber);
+      String message = "scan " + scanNumber;
+      Assert.assertEquals(message, expectedScan.getMSLevel(), actualScan.getMSLevel());
+      Assert.assertEquals(message, expectedScan.getRetentionTime(),
+          actualScan.getRetentionTime(), RT_TOLERANCE);
+      Assert.assertEquals(message, expectedScan.getPolarity(), actualScan.getPolarity());
+      Assert.assertEquals(message, expectedScan.getScanDefinition(),
+          actualScan.getScanDefinition());
+      Assert.assertEquals(message, expectedScan.getPrecursorMZ(), actualScan.getPrecursorMZ(),
+          0);
+      Assert.assertEquals(message, expectedScan.getPrecursorCharge(),
+          actualScan.getPrecursorCharge());
+      DataPoint expectedDataPoints[] = expectedScan.getDataPoints();
+      DataPoint actualDataPoints[] = actualScan.getDataPoints();
+      Assert.assertEquals(message, expectedDataPoints.length, actualDataPoints.length);
+      for (int i = 0; i < expectedDataPoints.length; i++) {
+        Assert.assertEquals(message, expectedDataPoints[i].getMZ(), actualDataPoints[i].getMZ(),
+            0);
+        Assert.assertEquals(message, expectedDataPoints[i].getIntensity(),
+            actualDataPoints[i].getIntensity(), 0);
+      }
+    }
+  }
+
+  /**
+   * Checks that each offset of the index points to the element of its scan, and the index offset
+   * to the index itself.
+   *
+   * @param offsetPattern matches an index entry, group 1 is the scan number and group 2 the offset
+   * @param indexOffsetPattern matches the index offset, group 1 is the offset
+   * @param scanElement start of the scan element, formatted with the scan index and number
+   * @param indexElement start of the index element
+   */
+  static void assertIndexOffsets(File file, int scanNumbers[], String offsetPattern,
+      String indexOffsetPattern, String scanElement, String indexElement) throws IOException {
+    byte content[] = Files.readAllBytes(file.toPath());
+    String text = new String(content, StandardCharsets.UTF_8);
+
+    Matcher offsets = Pattern.compile(offsetPattern).matcher(text);
+    for (int i = 0; i < scanNumbers.length; i++) {
+      Assert.assertTrue("index entry of scan " + scanNumbers[i], offsets.find());
+      Assert.assertEquals(scanNumbers[i], Integer.parseInt(offsets.group(1)));
+      assertStartsWith(content, Long.parseLong(offsets.group(2)),
+          String.format(scanElement, i, scanNumbers[i]));
+    }
+    Assert.assertFalse(offsets.find());
+
+    Matcher indexOffset = Pattern.compile(indexOffsetPattern).matcher(text);
+    Assert.assertTrue(indexOffset.find());
+    assertStartsWith(content, Long.parseLong(indexOffset.group(1)), indexElement);
+  }
+
+  private static void assertStartsWith(byte content[], long offset, String expected) {
+    byte expectedBytes[] = expected.getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue("offset " + offset, offset + expectedBytes.length <= content.length);
+    String actual =
+        new String(content, (int) offset, expectedBytes.length, StandardCharsets.UTF_8);
+    Assert.assertEquals("offset " + offset, expected, actual);
+  }
+
+}
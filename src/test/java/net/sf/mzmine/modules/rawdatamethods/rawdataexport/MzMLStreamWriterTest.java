@@ -0,0 +1,83 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats.MzMLReadTask;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+public class MzMLStreamWriterTest {
+
+  private RawDataFileImpl dataFile, importedFile;
+  private File outFile;
+
+  @Before
+  public void exportDataFile() throws IOException {
+    dataFile = ExportTestData.createDataFile();
+    outFile = File.createTempFile("mzmine_export", ".mzML");
+    new MzMLStreamWriter(dataFile).write(outFile);
+  }
+
+  @After
+  public void deleteFiles() {
+    dataFile.close();
+    if (importedFile != null)
+      importedFile.close();
+    outFile.delete();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    importedFile = new RawDataFileImpl("imported");
+    MzMLReadTask readTask = new MzMLReadTask(new MZmineProjectImpl(), outFile, importedFile);
+    readTask.run();
+    Assert.assertEquals(readTask.getErrorMessage(), TaskStatus.FINISHED, readTask.getStatus());
+    ExportTestData.assertSameScans(dataFile, importedFile);
+  }
+
+  @Test
+  public void testIndexOffsets() throws IOException {
+    ExportTestData.assertIndexOffsets(outFile, dataFile.getScanNumbers(),
+        "<offset idRef=\"scan=(\\d+)\">(\\d+)</offset>",
+        "<indexListOffset>(\\d+)</indexListOffset>", "<spectrum index=\"%1$d\" id=\"scan=%2$d\"",
+        "<indexList ");
+  }
+
+  @Test
+  public void testIds() throws IOException {
+    String content = new String(Files.readAllBytes(outFile.toPath()), StandardCharsets.UTF_8);
+    Assert.assertTrue(content.contains(" id=\"_1_sample___blank.raw\" version=\"1.1.0\">"));
+    Assert.assertTrue(content.contains("<run id=\"_1_sample___blank.raw\" "));
+    Assert.assertEquals("sample-1.raw", MzMLStreamWriter.toNCName("sample-1.raw"));
+    Assert.assertEquals("_.raw", MzMLStreamWriter.toNCName(".raw"));
+    Assert.assertEquals("_", MzMLStreamWriter.toNCName(""));
+  }
+
+}
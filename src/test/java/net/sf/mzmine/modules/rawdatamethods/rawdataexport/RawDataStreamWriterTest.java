@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+public class RawDataStreamWriterTest {
+
+  private static final int NUM_SCANS = 200;
+
+  private RawDataFileImpl dataFile;
+  private File outFile;
+
+  @Before
+  public void createDataFile() throws IOException {
+    dataFile = new RawDataFileImpl("export");
+    for (int i = 0; i < NUM_SCANS; i++) {
+      DataPoint dataPoints[] = {new SimpleDataPoint(100.0 + i, 1000.0)};
+      dataFile.addScan(new SimpleScan(dataFile, i + 1, 1, 0.1 * i, 0, 0, new int[0], dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(50.0, 500.0)));
+    }
+    dataFile.finishWriting();
+    outFile = File.createTempFile("mzmine_export", ".xml");
+  }
+
+  @After
+  public void deleteFiles() {
+    dataFile.close();
+    outFile.delete();
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    new TestWriter(dataFile, -1, false).write(outFile);
+    String content = new String(Files.readAllBytes(outFile.toPath()), StandardCharsets.UTF_8);
+    Assert.assertTrue(content.startsWith("<run>\n  <scan index=\"0\"/>\n"));
+    Assert.assertTrue(content.endsWith("</index>\n"));
+  }
+
+  @Test
+  public void testCancelDeletesFile() throws IOException {
+    new TestWriter(dataFile, NUM_SCANS / 2, false).write(outFile);
+    Assert.assertFalse(outFile.exists());
+  }
+
+  @Test
+  public void testErrorDeletesFile() {
+    try {
+      new TestWriter(dataFile, NUM_SCANS / 2, true).write(outFile);
+      Assert.fail("The encoding error is not reported");
+    } catch (IOException e) {
+      Assert.assertFalse(outFile.exists());
+    }
+  }
+
+  /**
+   * Writes a simple XML file. Encoding the given scan cancels the export or fails.
+   */
+  private static class TestWriter extends RawDataStreamWriter {
+
+    private final int stopIndex;
+    private final boolean fail;
+
+    private TestWriter(RawDataFile dataFile, int stopIndex, boolean fail) {
+      super(dataFile);
+      this.stopIndex = stopIndex;
+      this.fail = fail;
+    }
+
+    @Override
+    protected String getHeader() {
+      return "<run>\n";
+    }
+
+    @Override
+    protected String encodeScan(int index, Scan scan, byte dataPoints[]) {
+      if (index == stopIndex) {
+        if (fail)
+          throw new UncheckedIOException(new IOException("Cannot encode scan " + index));
+        cancel();
+      }
+      return "  <scan index=\"" + index + "\"/>\n";
+    }
+
+    @Override
+    protected String getRunEnd() {
+      return "</run>\n";
+    }
+
+    @Override
+    protected String getIndex(long offsets[], long indexOffset) {
+      return "<index>";
+    }
+
+    @Override
+    protected String getEnd() {
+      return "</index>\n";
+    }
+  }
+
+}
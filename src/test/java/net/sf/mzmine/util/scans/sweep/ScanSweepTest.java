@@ -0,0 +1,189 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans.sweep;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+public class ScanSweepTest {
+
+  private static final int NUM_SCANS = 100;
+
+  @Test
+  public void testConsumersReceiveTheirWindow() throws IOException {
+    ScanSweep sweep = new ScanSweep(new SyntheticFile(-1, null), 1);
+    RecordingConsumer all = new RecordingConsumer(Range.all(), Integer.MAX_VALUE);
+    RecordingConsumer window = new RecordingConsumer(Range.closedOpen(2.0, 3.0), Integer.MAX_VALUE);
+    RecordingConsumer declining = new RecordingConsumer(Range.atLeast(5.0), 3);
+    RecordingConsumer empty = new RecordingConsumer(Range.closed(20.0, 30.0), Integer.MAX_VALUE);
+    sweep.addConsumer(all);
+    sweep.addConsumer(window);
+    sweep.addConsumer(declining);
+    sweep.addConsumer(empty);
+
+    int processed[] = {0};
+    Assert.assertTrue(sweep.run(() -> false, () -> processed[0]++));
+    Assert.assertEquals(NUM_SCANS, processed[0]);
+
+    Assert.assertEquals(scanNumbers(1, NUM_SCANS), all.scanNumbers);
+    // Scan i has retention time 0.1 * i
+    Assert.assertEquals(scanNumbers(20, 29), window.scanNumbers);
+    Assert.assertEquals(scanNumbers(50, 52), declining.scanNumbers);
+    Assert.assertTrue(empty.scanNumbers.isEmpty());
+    for (RecordingConsumer consumer : new RecordingConsumer[] {all, window, declining, empty})
+      Assert.assertEquals(1, consumer.finished);
+  }
+
+  @Test
+  public void testCancel() throws IOException {
+    ScanSweep sweep = new ScanSweep(new SyntheticFile(-1, null), 1);
+    RecordingConsumer all = new RecordingConsumer(Range.all(), Integer.MAX_VALUE);
+    sweep.addConsumer(all);
+    Assert.assertFalse(sweep.run(() -> all.scanNumbers.size() >= 10, () -> {
+    }));
+    Assert.assertEquals(10, all.scanNumbers.size());
+    Assert.assertEquals(0, all.finished);
+  }
+
+  /**
+   * An error while decoding must end the sweep instead of leaving it waiting for the decoder.
+   */
+  @Test(timeout = 10000, expected = OutOfMemoryError.class)
+  public void testDecoderError() throws IOException {
+    ScanSweep sweep = new ScanSweep(new SyntheticFile(40, new OutOfMemoryError()), 1);
+    sweep.addConsumer(new RecordingConsumer(Range.all(), Integer.MAX_VALUE));
+    sweep.run(() -> false, () -> {
+    });
+  }
+
+  /**
+   * A checked exception while decoding must not be taken for the end of the scans.
+   */
+  @Test(timeout = 10000)
+  public void testDecoderCheckedException() throws IOException {
+    IOException failure = new IOException("Cannot read scan 40");
+    ScanSweep sweep = new ScanSweep(new SyntheticFile(40, failure), 1);
+    RecordingConsumer all = new RecordingConsumer(Range.all(), Integer.MAX_VALUE);
+    sweep.addConsumer(all);
+    try {
+      sweep.run(() -> false, () -> {
+      });
+      Assert.fail("The decoding error is not reported");
+    } catch (IllegalStateException e) {
+      Assert.assertSame(failure, e.getCause());
+      Assert.assertEquals(0, all.finished);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> T sneakyThrow(Throwable failure) throws T {
+    throw (T) failure;
+  }
+
+  private static List<Integer> scanNumbers(int first, int last) {
+    List<Integer> scanNumbers = new ArrayList<>();
+    for (int i = first; i <= last; i++)
+      scanNumbers.add(i);
+    return scanNumbers;
+  }
+
+  /**
+   * MS1 scans 1 to NUM_SCANS with retention time 0.1 * scan number. Reading the data points of the
+   * failing scan throws the given failure, also if it is a checked exception.
+   */
+  private static class SyntheticFile extends RawDataFileImpl {
+
+    private final Scan scans[] = new Scan[NUM_SCANS];
+
+    private SyntheticFile(int failingScan, Throwable failure) throws IOException {
+      super("synthetic");
+      for (int i = 0; i < NUM_SCANS; i++) {
+        final int scanNumber = i + 1;
+        DataPoint dataPoints[] = {new SimpleDataPoint(100.0, scanNumber)};
+        scans[i] = new SimpleScan(this, scanNumber, 1, 0.1 * scanNumber, 0, 0, new int[0],
+            dataPoints, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+            Range.closed(50.0, 150.0)) {
+          @Override
+          public DataPoint[] getDataPoints() {
+            if (scanNumber == failingScan)
+              throw ScanSweepTest.<RuntimeException>sneakyThrow(failure);
+            return super.getDataPoints();
+          }
+        };
+      }
+    }
+
+    @Override
+    public int[] getScanNumbers(int msLevel) {
+      int scanNumbers[] = new int[NUM_SCANS];
+      for (int i = 0; i < NUM_SCANS; i++)
+        scanNumbers[i] = i + 1;
+      return scanNumbers;
+    }
+
+    @Override
+    public Scan getScan(int scanNumber) {
+      return scans[scanNumber - 1];
+    }
+  }
+
+  private static class RecordingConsumer implements ScanSweepConsumer {
+
+    private final Range<Double> rtRange;
+    private final int maxScans;
+    private final List<Integer> scanNumbers = new ArrayList<>();
+    private int finished = 0;
+
+    private RecordingConsumer(Range<Double> rtRange, int maxScans) {
+      this.rtRange = rtRange;
+      this.maxScans = maxScans;
+    }
+
+    @Override
+    public Range<Double> getRTRange() {
+      return rtRange;
+    }
+
+    @Override
+    public boolean offerScan(SweepSpectrum spectrum) {
+      scanNumbers.add(spectrum.getScanNumber());
+      return scanNumbers.size() < maxScans;
+    }
+
+    @Override
+    public void sweepFinished() {
+      finished++;
+    }
+  }
+
+}
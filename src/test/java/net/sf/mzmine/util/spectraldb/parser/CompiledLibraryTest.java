@@ -0,0 +1,120 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+public class CompiledLibraryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static SpectralDBEntry createEntry(String name, Double mz, Double rt, int charge,
+      double... peaks) {
+    Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+    fields.put(DBEntryField.NAME, name);
+    if (mz != null)
+      fields.put(DBEntryField.MZ, mz);
+    if (rt != null)
+      fields.put(DBEntryField.RT, rt);
+    fields.put(DBEntryField.CHARGE, charge);
+    DataPoint dps[] = new DataPoint[peaks.length / 2];
+    for (int i = 0; i < dps.length; i++)
+      dps[i] = new SimpleDataPoint(peaks[i * 2], peaks[i * 2 + 1]);
+    return new SpectralDBEntry(fields, dps);
+  }
+
+  private CompiledLibrary compile(List<SpectralDBEntry> entries) throws IOException {
+    File library = folder.newFile("library.json");
+    Files.write(library.toPath(), new byte[] {'[', ']'});
+    File compiled = CompiledLibrary.getCompiledFile(library);
+    CompiledLibraryWriter writer = new CompiledLibraryWriter(library, compiled, null);
+    writer.processNextEntries(entries, 0);
+    writer.finish();
+    assertTrue(CompiledLibrary.isUpToDate(library, compiled));
+    return CompiledLibrary.open(compiled);
+  }
+
+  @Test
+  public void testSortedIndex() throws IOException {
+    List<SpectralDBEntry> entries = new ArrayList<>();
+    entries.add(createEntry("c", 300.5, 2.5, 1, 100.25, 1000, 150.5, 20));
+    entries.add(createEntry("none", null, 1.0, 1, 50.0, 10));
+    entries.add(createEntry("a", 100.125, null, -1, 80.5, 5));
+    entries.add(createEntry("b", 200.75, 7.25, 2));
+
+    CompiledLibrary lib = compile(entries);
+    assertEquals(4, lib.size());
+    assertEquals(100.125, lib.getPrecursorMZ(0), 0);
+    assertEquals(200.75, lib.getPrecursorMZ(1), 0);
+    assertEquals(300.5, lib.getPrecursorMZ(2), 0);
+    assertTrue(Double.isNaN(lib.getPrecursorMZ(3)));
+
+    assertTrue(Double.isNaN(lib.getRT(0)));
+    assertEquals(7.25, lib.getRT(1), 0);
+    assertEquals(2.5, lib.getRT(2), 0);
+    assertEquals(1.0, lib.getRT(3), 0);
+  }
+
+  @Test
+  public void testEntries() throws IOException {
+    List<SpectralDBEntry> entries = new ArrayList<>();
+    entries.add(createEntry("c", 300.5, 2.5, 1, 100.25, 1000, 150.5, 20));
+    entries.add(createEntry("none", null, null, 3, 50.0, 10));
+    entries.add(createEntry("a", 100.125, null, -1, 80.5, 5));
+
+    CompiledLibrary lib = compile(entries);
+    SpectralDBEntry a = lib.getEntry(0), c = lib.getEntry(1), none = lib.getEntry(2);
+
+    assertEquals("a", a.getField(DBEntryField.NAME).get());
+    assertEquals(-1, a.getField(DBEntryField.CHARGE).get());
+    assertEquals(100.125, a.getPrecursorMZ(), 0);
+    assertFalse(a.getField(DBEntryField.RT).isPresent());
+    assertFalse(a.getField(DBEntryField.INCHI).isPresent());
+
+    assertEquals("c", c.getField(DBEntryField.NAME).get());
+    assertEquals(2.5, (Double) c.getField(DBEntryField.RT).get(), 0);
+    assertEquals(300.5, (Double) c.getField(DBEntryField.MZ).get(), 0);
+    assertArrayEquals(entries.get(0).getDataPoints(), c.getDataPoints());
+
+    assertNull(none.getPrecursorMZ());
+    assertEquals(3, none.getField(DBEntryField.CHARGE).get());
+    assertEquals(1, none.getDataPoints().length);
+    assertEquals(50.0, none.getDataPoints()[0].getMZ(), 0);
+  }
+
+}